@@ -0,0 +1,103 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb.benchmark;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import io.ceresdb.common.Endpoint;
+import io.ceresdb.models.ColumnarResult;
+import io.ceresdb.models.Err;
+import io.ceresdb.models.Result;
+import io.ceresdb.models.SqlQueryOk;
+import io.ceresdb.proto.internal.Storage;
+import io.ceresdb.util.Utils;
+
+/**
+ * Decoding of arrow record batches of a query response, into the columnar
+ * result alone and through to materialized rows.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArrowDecodeBenchmark {
+
+    private static final Endpoint ENDPOINT = Endpoint.of("127.0.0.1", 8831);
+
+    @Param({ "100", "10000" })
+    private int rows;
+
+    @Param({ "false", "true" })
+    private boolean zstd;
+
+    private Storage.SqlQueryResponse resp;
+    private BufferAllocator          allocator;
+
+    @Setup
+    public void setup() throws IOException {
+        this.resp = BenchmarkData.arrowResponse(this.rows, this.zstd);
+        this.allocator = new RootAllocator();
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.allocator.close();
+    }
+
+    @Benchmark
+    public long decodeColumnar() {
+        try (final ColumnarResult columns = decode().getOk().columns()) {
+            final int col = columns.getColumnIndex("mem");
+            long sum = 0;
+            for (int row = 0; row < columns.getRowCount(); row++) {
+                sum += columns.getLong(row, col);
+            }
+            return sum;
+        }
+    }
+
+    @Benchmark
+    public long decodeRows() {
+        try (final ColumnarResult columns = decode().getOk().columns()) {
+            return columns.rows().mapToLong(row -> row.getColumn("mem").getValue().getInt64()).sum();
+        }
+    }
+
+    private Result<SqlQueryOk, Err> decode() {
+        return Utils.toResult(this.resp, "select * from bench_table_0", ENDPOINT,
+                Collections.singletonList("bench_table_0"), null,
+                this.allocator.newChildAllocator("decode", 0, Long.MAX_VALUE));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        final Options opt = new OptionsBuilder() //
+                .include(ArrowDecodeBenchmark.class.getSimpleName()) //
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.TimeStampMilliVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowStreamWriter;
+import org.apache.arrow.vector.types.pojo.Field;
+
+import com.github.luben.zstd.Zstd;
+import com.google.protobuf.ByteStringHelper;
+
+import io.ceresdb.models.Point;
+import io.ceresdb.models.Result;
+import io.ceresdb.models.Value;
+import io.ceresdb.proto.internal.Common;
+import io.ceresdb.proto.internal.Storage;
+
+/**
+ * Deterministic data sets shared by the benchmarks.
+ *
+ */
+public final class BenchmarkData {
+
+    private static final long BASE_TIMESTAMP = 1675345488158L;
+
+    /**
+     * Points of {@code tables} tables, each table has {@code seriesPerTable}
+     * series and every series has {@code pointsPerSeries} points.
+     */
+    public static List<Point> points(final int tables, final int seriesPerTable, final int pointsPerSeries) {
+        final List<Point> points = new ArrayList<>(tables * seriesPerTable * pointsPerSeries);
+        for (int p = 0; p < pointsPerSeries; p++) {
+            for (int t = 0; t < tables; t++) {
+                for (int s = 0; s < seriesPerTable; s++) {
+                    points.add(Point.newPointBuilder("bench_table_" + t) //
+                            .setTimestamp(BASE_TIMESTAMP + p) //
+                            .addTag("host", "host_" + s) //
+                            .addTag("region", "region_" + (s % 8)) //
+                            .addTag("service", "service_" + (s % 16)) //
+                            .addField("cpu", Value.withDouble(p * 0.1)) //
+                            .addField("mem", Value.withInt64(p * 1024L)) //
+                            .addField("status", Value.withString("ok")) //
+                            .build());
+                }
+            }
+        }
+        return points;
+    }
+
+    public static List<String> tables(final int n) {
+        final List<String> tables = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            tables.add("bench_table_" + i);
+        }
+        return tables;
+    }
+
+    /**
+     * A successful query response carrying {@code rows} rows in a single
+     * arrow record batch.
+     */
+    public static Storage.SqlQueryResponse arrowResponse(final int rows, final boolean zstd) throws IOException {
+        final byte[] batch;
+        try (final BufferAllocator allocator = new RootAllocator();
+                final VarCharVector host = new VarCharVector("host", allocator);
+                final Float8Vector cpu = new Float8Vector("cpu", allocator);
+                final BigIntVector mem = new BigIntVector("mem", allocator);
+                final TimeStampMilliVector ts = new TimeStampMilliVector("timestamp", allocator)) {
+            for (int i = 0; i < rows; i++) {
+                host.setSafe(i, ("host_" + (i % 128)).getBytes());
+                cpu.setSafe(i, i * 0.1);
+                mem.setSafe(i, i * 1024L);
+                ts.setSafe(i, BASE_TIMESTAMP + i);
+            }
+            host.setValueCount(rows);
+            cpu.setValueCount(rows);
+            mem.setValueCount(rows);
+            ts.setValueCount(rows);
+
+            final List<Field> fields = Arrays.asList(host.getField(), cpu.getField(), mem.getField(), ts.getField());
+            final List<FieldVector> vectors = Arrays.asList(host, cpu, mem, ts);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (final VectorSchemaRoot root = new VectorSchemaRoot(fields, vectors);
+                    final ArrowStreamWriter writer = new ArrowStreamWriter(root, null, out)) {
+                writer.writeBatch();
+            }
+            batch = out.toByteArray();
+        }
+
+        final Storage.ArrowPayload arrow = Storage.ArrowPayload.newBuilder() //
+                .setCompression(zstd ? Storage.ArrowPayload.Compression.ZSTD : Storage.ArrowPayload.Compression.NONE) //
+                .addRecordBatches(ByteStringHelper.wrap(zstd ? Zstd.compress(batch) : batch)) //
+                .build();
+        return Storage.SqlQueryResponse.newBuilder() //
+                .setHeader(Common.ResponseHeader.newBuilder().setCode(Result.SUCCESS)) //
+                .setArrow(arrow) //
+                .build();
+    }
+
+    private BenchmarkData() {
+    }
+}
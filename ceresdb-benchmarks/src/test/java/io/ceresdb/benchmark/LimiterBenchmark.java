@@ -0,0 +1,90 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb.benchmark;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import io.ceresdb.limit.CeresDBLimiter;
+import io.ceresdb.limit.LimitedPolicy;
+import io.ceresdb.models.Point;
+
+/**
+ * The acquire/release round trip of {@link CeresDBLimiter#acquireAndDo}
+ * around an already completed action.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LimiterBenchmark {
+
+    private CeresDBLimiter<List<Point>, Integer> limiter;
+    private List<Point>                          points;
+    private Supplier<CompletableFuture<Integer>> action;
+
+    @Setup
+    public void setup() {
+        this.limiter = new PointsLimiter(65536, new LimitedPolicy.BlockingPolicy());
+        this.points = BenchmarkData.points(1, 16, 1);
+        final CompletableFuture<Integer> done = CompletableFuture.completedFuture(this.points.size());
+        this.action = () -> done;
+    }
+
+    @Benchmark
+    public CompletableFuture<Integer> acquireAndDo() {
+        return this.limiter.acquireAndDo(this.points, this.action);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public CompletableFuture<Integer> acquireAndDoContended() {
+        return this.limiter.acquireAndDo(this.points, this.action);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        final Options opt = new OptionsBuilder() //
+                .include(LimiterBenchmark.class.getSimpleName()) //
+                .build();
+        new Runner(opt).run();
+    }
+
+    static class PointsLimiter extends CeresDBLimiter<List<Point>, Integer> {
+
+        PointsLimiter(int maxInFlight, LimitedPolicy policy) {
+            super(maxInFlight, policy, "benchmark_limiter_acquire");
+        }
+
+        @Override
+        public int calculatePermits(final List<Point> in) {
+            return in.size();
+        }
+
+        @Override
+        public Integer rejected(final List<Point> in, final RejectedState state) {
+            return 0;
+        }
+    }
+}
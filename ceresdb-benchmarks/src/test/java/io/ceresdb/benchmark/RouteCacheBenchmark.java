@@ -0,0 +1,92 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb.benchmark;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import io.ceresdb.Route;
+import io.ceresdb.RouterClient;
+import io.ceresdb.common.Endpoint;
+import io.ceresdb.models.RequestContext;
+import io.ceresdb.options.RouterOptions;
+
+/**
+ * {@link RouterClient#routeFor} when every table is already in the route cache.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouteCacheBenchmark {
+
+    @Param({ "1", "16" })
+    private int tableCount;
+
+    private RouterClient   routerClient;
+    private RequestContext reqCtx;
+    private List<String>   tables;
+
+    @Setup
+    public void setup() {
+        final RouterOptions opts = new RouterOptions();
+        opts.setClusterAddress(Endpoint.of("127.0.0.1", 8831));
+        opts.setRpcClient(new StubRpcClient(Endpoint.of("127.0.0.1", 8832)));
+        // the cache must not be cleaned during a run
+        opts.setGcPeriodSeconds(-1);
+
+        this.routerClient = new RouterClient();
+        this.routerClient.init(opts);
+        this.reqCtx = new RequestContext();
+        this.reqCtx.setDatabase("public");
+        this.tables = BenchmarkData.tables(this.tableCount);
+        // warm up the route cache
+        this.routerClient.routeFor(this.reqCtx, this.tables).join();
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.routerClient.shutdownGracefully();
+    }
+
+    @Benchmark
+    public Map<String, Route> routeForHit() {
+        return this.routerClient.routeFor(this.reqCtx, this.tables).join();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Map<String, Route> routeForHitContended() {
+        return this.routerClient.routeFor(this.reqCtx, this.tables).join();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        final Options opt = new OptionsBuilder() //
+                .include(RouteCacheBenchmark.class.getSimpleName()) //
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb.benchmark;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import io.ceresdb.common.util.SerializingExecutor;
+
+/**
+ * Task hand-off through a shared {@link SerializingExecutor}, alone and
+ * under contention.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializingExecutorBenchmark {
+
+    private SerializingExecutor executor;
+    private LongAdder           counter;
+    private Runnable            task;
+
+    @Setup
+    public void setup() {
+        this.executor = new SerializingExecutor("benchmark");
+        this.counter = new LongAdder();
+        this.task = this.counter::increment;
+    }
+
+    @Benchmark
+    public void execute() {
+        this.executor.execute(this.task);
+    }
+
+    /**
+     * Every caller waits for its own task, otherwise the thread that won the
+     * drain keeps running the tasks of all the others and the backlog grows
+     * without bound.
+     */
+    @Benchmark
+    @Threads(8)
+    public Void executeContended() {
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        this.executor.execute(() -> {
+            this.counter.increment();
+            done.complete(null);
+        });
+        return done.join();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        final Options opt = new OptionsBuilder() //
+                .include(SerializingExecutorBenchmark.class.getSimpleName()) //
+                .build();
+        new Runner(opt).run();
+    }
+}
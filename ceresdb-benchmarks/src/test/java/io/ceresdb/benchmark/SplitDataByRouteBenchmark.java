@@ -0,0 +1,77 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb.benchmark;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import io.ceresdb.Route;
+import io.ceresdb.common.Endpoint;
+import io.ceresdb.models.Point;
+import io.ceresdb.util.Utils;
+
+/**
+ * Splitting a write into per endpoint requests, see {@link Utils#splitDataByRoute}.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SplitDataByRouteBenchmark {
+
+    private static final int TABLES = 16;
+
+    @Param({ "1", "4" })
+    private int endpoints;
+
+    @Param({ "1000", "10000" })
+    private int pointCount;
+
+    private List<Point>        points;
+    private Map<String, Route> routes;
+
+    @Setup
+    public void setup() {
+        this.points = BenchmarkData.points(TABLES, this.pointCount / TABLES, 1);
+        this.routes = new HashMap<>();
+        final List<String> tables = BenchmarkData.tables(TABLES);
+        for (int i = 0; i < tables.size(); i++) {
+            final String table = tables.get(i);
+            this.routes.put(table, Route.of(table, Endpoint.of("127.0.0.1", 8831 + i % this.endpoints)));
+        }
+    }
+
+    @Benchmark
+    public Map<Endpoint, List<Point>> split() {
+        return Utils.splitDataByRoute(this.points, this.routes);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        final Options opt = new OptionsBuilder() //
+                .include(SplitDataByRouteBenchmark.class.getSimpleName()) //
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb.benchmark;
+
+import io.ceresdb.common.Endpoint;
+import io.ceresdb.models.Result;
+import io.ceresdb.proto.internal.Common;
+import io.ceresdb.proto.internal.Storage;
+import io.ceresdb.rpc.Context;
+import io.ceresdb.rpc.Observer;
+import io.ceresdb.rpc.RpcClient;
+import io.ceresdb.rpc.RpcOptions;
+
+/**
+ * An in-process {@link RpcClient} that answers route and write requests
+ * immediately, so the benchmarks measure the client side only.
+ *
+ */
+public class StubRpcClient implements RpcClient {
+
+    private final Endpoint dataEndpoint;
+
+    public StubRpcClient(Endpoint dataEndpoint) {
+        this.dataEndpoint = dataEndpoint;
+    }
+
+    @Override
+    public boolean init(final RpcOptions opts) {
+        return true;
+    }
+
+    @Override
+    public void shutdownGracefully() {
+        // no-op
+    }
+
+    @Override
+    public boolean checkConnection(final Endpoint endpoint) {
+        return true;
+    }
+
+    @Override
+    public boolean checkConnection(final Endpoint endpoint, final boolean createIfAbsent) {
+        return true;
+    }
+
+    @Override
+    public void closeConnection(final Endpoint endpoint) {
+        // no-op
+    }
+
+    @Override
+    public void registerConnectionObserver(final ConnectionObserver observer) {
+        // no-op
+    }
+
+    @Override
+    public <Req, Resp> Resp invokeSync(final Endpoint endpoint, //
+                                       final Req request, //
+                                       final Context ctx, //
+                                       final long timeoutMs) {
+        return respond(request);
+    }
+
+    @Override
+    public <Req, Resp> void invokeAsync(final Endpoint endpoint, //
+                                        final Req request, //
+                                        final Context ctx, //
+                                        final Observer<Resp> observer, //
+                                        final long timeoutMs) {
+        observer.onNext(respond(request));
+    }
+
+    @Override
+    public <Req, Resp> void invokeServerStreaming(final Endpoint endpoint, //
+                                                  final Req request, //
+                                                  final Context ctx, //
+                                                  final Observer<Resp> observer) {
+        observer.onNext(respond(request));
+        observer.onCompleted();
+    }
+
+    @Override
+    public <Req, Resp> Observer<Req> invokeClientStreaming(final Endpoint endpoint, //
+                                                           final Req defaultReqIns, //
+                                                           final Context ctx, //
+                                                           final Observer<Resp> respObserver) {
+        throw new UnsupportedOperationException("invokeClientStreaming");
+    }
+
+    @SuppressWarnings("unchecked")
+    private <Req, Resp> Resp respond(final Req request) {
+        final Common.ResponseHeader header = Common.ResponseHeader.newBuilder() //
+                .setCode(Result.SUCCESS) //
+                .build();
+
+        if (request instanceof Storage.RouteRequest) {
+            final Storage.Endpoint ep = Storage.Endpoint.newBuilder() //
+                    .setIp(this.dataEndpoint.getIp()) //
+                    .setPort(this.dataEndpoint.getPort()) //
+                    .build();
+            final Storage.RouteResponse.Builder resp = Storage.RouteResponse.newBuilder().setHeader(header);
+            for (final String table : ((Storage.RouteRequest) request).getTablesList()) {
+                resp.addRoutes(Storage.Route.newBuilder().setTable(table).setEndpoint(ep));
+            }
+            return (Resp) resp.build();
+        }
+
+        if (request instanceof Storage.WriteRequest) {
+            return (Resp) Storage.WriteResponse.newBuilder() //
+                    .setHeader(header) //
+                    .build();
+        }
+
+        throw new UnsupportedOperationException("Unsupported request: " + request.getClass());
+    }
+
+    @Override
+    public void display(final Printer out) {
+        out.println("--- StubRpcClient ---") //
+                .print("dataEndpoint=") //
+                .println(this.dataEndpoint);
+    }
+}
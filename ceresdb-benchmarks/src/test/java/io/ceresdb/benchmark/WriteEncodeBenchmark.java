@@ -0,0 +1,86 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import io.ceresdb.WriteClient;
+import io.ceresdb.models.Point;
+import io.ceresdb.models.RequestContext;
+import io.ceresdb.proto.internal.Storage;
+import io.ceresdb.rpc.EncodedRequest;
+
+/**
+ * Encoding of points into a write request, see {@link WriteClient#toEncodedWriteRequest}.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriteEncodeBenchmark {
+
+    @Param({ "1", "4" })
+    private int tables;
+
+    @Param({ "100", "1000" })
+    private int seriesPerTable;
+
+    @Param({ "1", "10" })
+    private int pointsPerSeries;
+
+    private WriteClient    writeClient;
+    private RequestContext reqCtx;
+    private List<Point>    points;
+
+    @Setup
+    public void setup() {
+        this.writeClient = new WriteClient();
+        this.reqCtx = new RequestContext();
+        this.reqCtx.setDatabase("public");
+        this.points = BenchmarkData.points(this.tables, this.seriesPerTable, this.pointsPerSeries);
+    }
+
+    /**
+     * The bytes the transport sends as they are.
+     */
+    @Benchmark
+    public EncodedRequest encode() {
+        return this.writeClient.toEncodedWriteRequest(this.reqCtx, this.points.stream());
+    }
+
+    /**
+     * Encoding plus parsing into the message.
+     */
+    @Benchmark
+    public Storage.WriteRequest encodeToMessage() {
+        return this.writeClient.toWriteRequestObj(this.reqCtx, this.points.stream());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        final Options opt = new OptionsBuilder() //
+                .include(WriteEncodeBenchmark.class.getSimpleName()) //
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,4 @@
+package io.ceresdb.benchmark.generated;
+public class ArrowDecodeBenchmark_jmhType extends ArrowDecodeBenchmark_jmhType_B3 {
+}
+
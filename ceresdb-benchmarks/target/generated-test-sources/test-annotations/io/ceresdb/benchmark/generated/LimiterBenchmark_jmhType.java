@@ -0,0 +1,4 @@
+package io.ceresdb.benchmark.generated;
+public class LimiterBenchmark_jmhType extends LimiterBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package io.ceresdb.benchmark.generated;
+public class RouteCacheBenchmark_jmhType extends RouteCacheBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package io.ceresdb.benchmark.generated;
+public class SerializingExecutorBenchmark_jmhType extends SerializingExecutorBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package io.ceresdb.benchmark.generated;
+public class SplitDataByRouteBenchmark_jmhType extends SplitDataByRouteBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package io.ceresdb.benchmark.generated;
+public class WriteEncodeBenchmark_jmhType extends WriteEncodeBenchmark_jmhType_B3 {
+}
+
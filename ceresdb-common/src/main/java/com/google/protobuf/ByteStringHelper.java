@@ -58,6 +58,27 @@ public class ByteStringHelper {
         return byteString.toByteArray();
     }
 
+    /**
+     * Steal the backing array region of {@link ByteString} as a heap
+     * {@link ByteBuffer} positioned at the region, if failed, then wrap
+     * a copy from {@link ByteString#toByteArray()}.
+     *
+     * @param byteString the byteString source data
+     * @return a heap buffer of the carried bytes
+     */
+    public static ByteBuffer sealByteBuffer(final ByteString byteString) {
+        final BytesStealer stealer = new BytesStealer();
+        try {
+            byteString.writeTo(stealer);
+            if (stealer.isSliceValid()) {
+                return ByteBuffer.wrap(stealer.value(), stealer.offset(), stealer.length());
+            }
+        } catch (final IOException ignored) {
+            // ignored
+        }
+        return ByteBuffer.wrap(byteString.toByteArray());
+    }
+
     /**
      * Concatenate the given strings while performing various optimizations to
      * slow the growth rate of tree depth and tree node count. The result is
@@ -12,20 +12,41 @@ import java.nio.ByteBuffer;
  */
 public class BytesStealer extends ByteOutput {
 
-    private byte[]  value;
-    private boolean valid = false;
+    private byte[] value;
+    private int    offset;
+    private int    length;
+    private int    writes = 0;
 
     public byte[] value() {
         return value;
     }
 
+    public int offset() {
+        return offset;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * The whole {@link #value()} is the content.
+     */
     public boolean isValid() {
-        return valid;
+        return isSliceValid() && this.offset == 0 && this.length == this.value.length;
+    }
+
+    /**
+     * The content is the {@link #length()} bytes of {@link #value()} starting at
+     * {@link #offset()}.
+     */
+    public boolean isSliceValid() {
+        return this.writes == 1 && this.value != null;
     }
 
     @Override
     public void write(final byte value) {
-        this.valid = false;
+        this.writes++;
     }
 
     @Override
@@ -40,22 +61,19 @@ public class BytesStealer extends ByteOutput {
 
     @Override
     public void write(final ByteBuffer value) throws IOException {
-        this.valid = false;
+        this.writes++;
     }
 
     @Override
     public void writeLazy(final ByteBuffer value) {
-        this.valid = false;
+        this.writes++;
     }
 
     private void doWrite(final byte[] value, final int offset, final int length) {
-        if (this.value != null) {
-            this.valid = false;
-            return;
-        }
-        if (offset == 0 && length == value.length) {
+        if (this.writes++ == 0) {
             this.value = value;
-            this.valid = true;
+            this.offset = offset;
+            this.length = length;
         }
     }
 }
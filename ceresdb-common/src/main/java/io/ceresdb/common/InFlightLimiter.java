@@ -3,11 +3,18 @@
  */
 package io.ceresdb.common;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 import io.ceresdb.common.util.Clock;
 import io.ceresdb.common.util.MetricsUtil;
+import io.ceresdb.common.util.NamedThreadFactory;
+import io.ceresdb.common.util.ThreadPoolUtil;
 import io.ceresdb.common.util.internal.ThrowUtil;
 
 import com.codahale.metrics.Timer;
@@ -15,12 +22,19 @@ import com.codahale.metrics.Timer;
 /**
  * In-flight limiter.
  *
+ * <p> Async acquirers wait in a FIFO queue and are granted permits as they
+ * are released, none of them parks a thread.  A later async acquirer never
+ * goes ahead of the queue, blocking acquirers are not queued though.
+ *
  */
 public class InFlightLimiter implements Limiter {
 
     private final int       permits;
     private final Semaphore semaphore;
     private final Timer     acquireTimer;
+    // guarded by itself
+    private final Deque<Waiter> waiters = new ArrayDeque<>();
+    private volatile int        waiting;
 
     public InFlightLimiter(int permits, String metricPrefix) {
         this.permits = permits;
@@ -53,9 +67,75 @@ public class InFlightLimiter implements Limiter {
         return false;
     }
 
+    @Override
+    public CompletableFuture<Boolean> acquireAsync(final int permits, final long timeout, final TimeUnit unit) {
+        if (this.waiting == 0 && this.semaphore.tryAcquire(permits)) { // fast path
+            this.acquireTimer.update(0, TimeUnit.MILLISECONDS);
+            return CompletableFuture.completedFuture(true);
+        }
+
+        final Waiter waiter = new Waiter(permits);
+        synchronized (this.waiters) {
+            this.waiters.addLast(waiter);
+            this.waiting++;
+        }
+        if (timeout > 0) {
+            final ScheduledFuture<?> timer = TimeoutTimer.TIMER.schedule(() -> waiter.complete(false), timeout, unit);
+            waiter.whenComplete((r, e) -> timer.cancel(false));
+        }
+        waiter.whenComplete((r, e) -> {
+            if (!Boolean.TRUE.equals(r)) {
+                // timed out or cancelled, the ones behind it may go now
+                remove(waiter);
+                drain();
+            }
+        });
+
+        // the permits may have been released before it was queued
+        drain();
+        return waiter;
+    }
+
     @Override
     public void release(final int permits) {
         this.semaphore.release(permits);
+        drain();
+    }
+
+    private void remove(final Waiter waiter) {
+        synchronized (this.waiters) {
+            if (this.waiters.remove(waiter)) {
+                this.waiting--;
+            }
+        }
+    }
+
+    private void drain() {
+        while (this.waiting > 0) {
+            final Waiter head;
+            synchronized (this.waiters) {
+                head = this.waiters.peekFirst();
+                if (head == null) {
+                    return;
+                }
+                if (!head.isDone() && !this.semaphore.tryAcquire(head.permits)) {
+                    return;
+                }
+                this.waiters.pollFirst();
+                this.waiting--;
+            }
+
+            if (head.isDone()) {
+                continue;
+            }
+            // completes out of the lock, the callbacks may run the caller's action
+            if (head.complete(true)) {
+                this.acquireTimer.update(Clock.defaultClock().duration(head.startCall), TimeUnit.MILLISECONDS);
+            } else {
+                // lost to the timeout or cancellation
+                this.semaphore.release(head.permits);
+            }
+        }
     }
 
     @Override
@@ -67,4 +147,31 @@ public class InFlightLimiter implements Limiter {
     public int maxPermits() {
         return this.permits;
     }
+
+    /**
+     * Returns the number of async acquirers waiting for permits.
+     */
+    public int waitingAcquirers() {
+        return this.waiting;
+    }
+
+    private static final class Waiter extends CompletableFuture<Boolean> {
+
+        final int  permits;
+        final long startCall = Clock.defaultClock().getTick();
+
+        Waiter(int permits) {
+            this.permits = permits;
+        }
+    }
+
+    private static final class TimeoutTimer {
+
+        static final ScheduledExecutorService TIMER = ThreadPoolUtil.newScheduledBuilder() //
+                .enableMetric(true) //
+                .coreThreads(1) //
+                .poolName("limiter.timeout") //
+                .threadFactory(new NamedThreadFactory("limiter.timeout", true)) //
+                .build();
+    }
 }
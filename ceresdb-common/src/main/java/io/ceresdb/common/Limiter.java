@@ -3,6 +3,7 @@
  */
 package io.ceresdb.common;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 public interface Limiter {
@@ -35,6 +36,24 @@ public interface Limiter {
         return tryAcquire(permits, 0, TimeUnit.NANOSECONDS);
     }
 
+    /**
+     * Acquires the given number of permits from this {@code Limiter} without
+     * parking the calling thread, the returned future completes with
+     * {@code true} once the permits are granted, or with {@code false} if
+     * the timeout expires first.  Cancelling the future gives up waiting.
+     *
+     * <p> The default implementation does not wait, it tries only once.
+     *
+     * @param permits the number of permits to acquire
+     * @param timeout the maximum time to wait for the permits, waits until
+     *                they are granted if it is not positive
+     * @param unit the time unit of the timeout argument
+     * @return the future of whether the permits were acquired
+     */
+    default CompletableFuture<Boolean> acquireAsync(final int permits, final long timeout, final TimeUnit unit) {
+        return CompletableFuture.completedFuture(tryAcquire(permits));
+    }
+
     /**
      * Releases the given number of permits to this {@code Limiter}.
      *
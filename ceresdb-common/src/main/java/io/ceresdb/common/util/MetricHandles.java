@@ -0,0 +1,45 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb.common.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * The metric handles of a family of metrics named by a key, e.g. the method
+ * or the endpoint of a call.  A handle is resolved from {@link MetricsUtil}
+ * once per key, later calls on the hot path skip building the name and the
+ * registry lookup.
+ *
+ */
+public final class MetricHandles<K, H> {
+
+    private final ConcurrentMap<K, H>              handles = new ConcurrentHashMap<>();
+    private final Function<? super K, ? extends H> factory;
+
+    public MetricHandles(Function<? super K, ? extends H> factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Return the handle of the given key, create it on the first call.
+     */
+    public H get(final K key) {
+        // get first, computeIfAbsent locks even if the key is present on java 8
+        final H handle = this.handles.get(key);
+        return handle != null ? handle : this.handles.computeIfAbsent(key, this.factory);
+    }
+
+    public int size() {
+        return this.handles.size();
+    }
+
+    @Override
+    public String toString() {
+        return "MetricHandles{" + //
+               "handles=" + handles.keySet() + //
+               '}';
+    }
+}
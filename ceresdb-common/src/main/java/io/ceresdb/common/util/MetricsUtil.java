@@ -11,6 +11,7 @@ import org.slf4j.LoggerFactory;
 
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.Histogram;
+import com.codahale.metrics.LockFreeExponentiallyDecayingReservoir;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.ScheduledReporter;
@@ -29,6 +30,12 @@ public final class MetricsUtil {
     private static final MetricRegistry    METRIC_REGISTRY = new MetricRegistry();
     private static final ScheduledReporter SCHEDULED_REPORTER;
 
+    // the default reservoir takes a lock on every update, this one does not
+    private static final MetricRegistry.MetricSupplier<Histogram> HISTOGRAM_SUPPLIER = () -> new Histogram(
+            LockFreeExponentiallyDecayingReservoir.builder().build());
+    private static final MetricRegistry.MetricSupplier<Timer>     TIMER_SUPPLIER     = () -> new Timer(
+            LockFreeExponentiallyDecayingReservoir.builder().build());
+
     static {
         final ScheduledExecutorService scheduledPool = ThreadPoolUtil.newScheduledBuilder() //
                 .enableMetric(true) //
@@ -99,7 +106,7 @@ public final class MetricsUtil {
      * and register a new {@link Timer} if none is registered.
      */
     public static Timer timer(final Object name) {
-        return METRIC_REGISTRY.timer(named(name));
+        return METRIC_REGISTRY.timer(named(name), TIMER_SUPPLIER);
     }
 
     /**
@@ -107,7 +114,7 @@ public final class MetricsUtil {
      * and register a new {@link Timer} if none is registered.
      */
     public static Timer timer(final Object... names) {
-        return METRIC_REGISTRY.timer(named(names));
+        return METRIC_REGISTRY.timer(named(names), TIMER_SUPPLIER);
     }
 
     /**
@@ -131,7 +138,7 @@ public final class MetricsUtil {
      * and register a new {@link Histogram} if none is registered.
      */
     public static Histogram histogram(final Object name) {
-        return METRIC_REGISTRY.histogram(named(name));
+        return METRIC_REGISTRY.histogram(named(name), HISTOGRAM_SUPPLIER);
     }
 
     /**
@@ -139,7 +146,7 @@ public final class MetricsUtil {
      * and register a new {@link Histogram} if none is registered.
      */
     public static Histogram histogram(final Object... names) {
-        return METRIC_REGISTRY.histogram(named(names));
+        return METRIC_REGISTRY.histogram(named(names), HISTOGRAM_SUPPLIER);
     }
 
     public static String named(final Object name) {
@@ -4,6 +4,7 @@
 package io.ceresdb.common.util.internal;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.security.AccessController;
@@ -51,6 +52,10 @@ public final class UnsafeUtil {
 
     private static final long STRING_VALUE_OFFSET = objectFieldOffset(stringValueField());
 
+    // sun.misc.Unsafe#invokeCleaner since java 9, sun.nio.ch.DirectBuffer#cleaner before
+    private static final Method INVOKE_CLEANER = invokeCleanerMethod();
+    private static final Method BUFFER_CLEANER = INVOKE_CLEANER == null ? bufferCleanerMethod() : null;
+
     /**
      * Whether or not can use the unsafe api.
      */
@@ -329,6 +334,36 @@ public final class UnsafeUtil {
         return str;
     }
 
+    /**
+     * Frees the memory of the given direct {@link ByteBuffer} right away,
+     * instead of when it is collected. The buffer (and any view of it) must
+     * not be used any more. Returns false if it can not be freed, a heap
+     * buffer or a view for instance, then it is left to the gc.
+     */
+    public static boolean freeDirectBuffer(final ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return false;
+        }
+        try {
+            if (INVOKE_CLEANER != null) {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+                return true;
+            }
+            if (BUFFER_CLEANER != null) {
+                final Object cleaner = BUFFER_CLEANER.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                    return true;
+                }
+            }
+        } catch (final Throwable t) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Fail to free direct buffer: {}.", buffer, t);
+            }
+        }
+        return false;
+    }
+
     /**
      * Returns the system {@link ClassLoader}.
      */
@@ -373,6 +408,29 @@ public final class UnsafeUtil {
         return field;
     }
 
+    private static Method invokeCleanerMethod() {
+        if (!hasUnsafe()) {
+            return null;
+        }
+        try {
+            return UNSAFE.getClass().getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (final Throwable t) {
+            // before java 9
+            return null;
+        }
+    }
+
+    private static Method bufferCleanerMethod() {
+        try {
+            return Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+        } catch (final Throwable t) {
+            if (LOG.isWarnEnabled()) {
+                LOG.warn("sun.nio.ch.DirectBuffer.cleaner: unavailable.", t);
+            }
+            return null;
+        }
+    }
+
     private static UnsafeAccessor getUnsafeAccessor0() {
         return hasUnsafe() ? new UnsafeAccessor(UNSAFE) : null;
     }
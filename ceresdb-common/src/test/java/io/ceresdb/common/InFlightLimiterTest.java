@@ -0,0 +1,64 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb.common;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class InFlightLimiterTest {
+
+    @Test
+    public void asyncAcquireInOrderTest() throws ExecutionException, InterruptedException {
+        final InFlightLimiter limiter = new InFlightLimiter(4, "async_in_order_test");
+        Assert.assertTrue(limiter.acquireAsync(3, 0, TimeUnit.SECONDS).get());
+
+        final CompletableFuture<Boolean> f1 = limiter.acquireAsync(2, 0, TimeUnit.SECONDS);
+        // one permit is left, but it must not go ahead of f1
+        final CompletableFuture<Boolean> f2 = limiter.acquireAsync(1, 0, TimeUnit.SECONDS);
+        Assert.assertFalse(f1.isDone());
+        Assert.assertFalse(f2.isDone());
+        Assert.assertEquals(2, limiter.waitingAcquirers());
+
+        limiter.release(2);
+        Assert.assertTrue(f1.get());
+        Assert.assertTrue(f2.get());
+        Assert.assertEquals(0, limiter.availablePermits());
+        Assert.assertEquals(0, limiter.waitingAcquirers());
+    }
+
+    @Test
+    public void asyncAcquireTimeoutTest() throws ExecutionException, InterruptedException {
+        final InFlightLimiter limiter = new InFlightLimiter(1, "async_timeout_test");
+        Assert.assertTrue(limiter.acquireAsync(1, 0, TimeUnit.SECONDS).get());
+
+        final long start = System.nanoTime();
+        Assert.assertFalse(limiter.acquireAsync(1, 100, TimeUnit.MILLISECONDS).get());
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 100);
+        Assert.assertEquals(0, limiter.waitingAcquirers());
+
+        limiter.release(1);
+        Assert.assertEquals(1, limiter.availablePermits());
+    }
+
+    @Test
+    public void asyncAcquireCancelTest() throws ExecutionException, InterruptedException {
+        final InFlightLimiter limiter = new InFlightLimiter(2, "async_cancel_test");
+        Assert.assertTrue(limiter.acquireAsync(2, 0, TimeUnit.SECONDS).get());
+
+        final CompletableFuture<Boolean> f1 = limiter.acquireAsync(2, 0, TimeUnit.SECONDS);
+        final CompletableFuture<Boolean> f2 = limiter.acquireAsync(1, 0, TimeUnit.SECONDS);
+        limiter.release(1);
+        Assert.assertFalse(f2.isDone());
+
+        // the head gives up, the one behind it takes the permit
+        f1.cancel(false);
+        Assert.assertTrue(f2.get());
+        Assert.assertEquals(0, limiter.availablePermits());
+        Assert.assertEquals(0, limiter.waitingAcquirers());
+    }
+}
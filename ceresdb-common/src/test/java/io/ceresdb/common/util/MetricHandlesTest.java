@@ -0,0 +1,32 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb.common.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.codahale.metrics.Meter;
+
+public class MetricHandlesTest {
+
+    @Test
+    public void resolveOnceTest() {
+        final AtomicInteger resolved = new AtomicInteger();
+        final MetricHandles<String, Meter> handles = new MetricHandles<>(key -> {
+            resolved.incrementAndGet();
+            return MetricsUtil.meter("metric_handles_test", key);
+        });
+
+        final Meter m1 = handles.get("m1");
+        for (int i = 0; i < 10; i++) {
+            Assert.assertSame(m1, handles.get("m1"));
+        }
+        Assert.assertSame(MetricsUtil.meter("metric_handles_test", "m1"), m1);
+        Assert.assertNotSame(m1, handles.get("m2"));
+        Assert.assertEquals(2, resolved.get());
+        Assert.assertEquals(2, handles.size());
+    }
+}
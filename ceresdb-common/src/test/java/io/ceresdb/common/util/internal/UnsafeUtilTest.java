@@ -0,0 +1,33 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb.common.util.internal;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class UnsafeUtilTest {
+
+    @Test
+    public void freeDirectBufferTest() {
+        final BufferPoolMXBean direct = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class) //
+                .stream() //
+                .filter(pool -> "direct".equals(pool.getName())) //
+                .findFirst() //
+                .orElseThrow(IllegalStateException::new);
+
+        final ByteBuffer buf = ByteBuffer.allocateDirect(1024 * 1024);
+        final long before = direct.getTotalCapacity();
+        Assert.assertTrue(UnsafeUtil.freeDirectBuffer(buf));
+        Assert.assertEquals(before - 1024 * 1024, direct.getTotalCapacity());
+
+        // not freed, left to the gc
+        Assert.assertFalse(UnsafeUtil.freeDirectBuffer(ByteBuffer.allocate(16)));
+        Assert.assertFalse(UnsafeUtil.freeDirectBuffer(ByteBuffer.allocateDirect(16).duplicate()));
+        Assert.assertFalse(UnsafeUtil.freeDirectBuffer(null));
+    }
+}
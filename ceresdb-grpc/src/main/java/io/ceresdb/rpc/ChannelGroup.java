@@ -0,0 +1,128 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb.rpc;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import io.grpc.ConnectivityState;
+
+import com.codahale.metrics.Gauge;
+
+import io.ceresdb.common.Endpoint;
+import io.ceresdb.common.util.MetricsUtil;
+
+/**
+ * The connections to one endpoint, each call takes one of them by the
+ * configured {@link RpcOptions.ChannelSelection}.
+ *
+ * Connections in TRANSIENT_FAILURE or SHUTDOWN are passed over while any
+ * other one is usable, each connection tracks its own connectivity.
+ *
+ */
+final class ChannelGroup {
+
+    private static final AtomicInteger ID = new AtomicInteger(0);
+
+    private final Endpoint                    endpoint;
+    private final IdChannel[]                 channels;
+    private final RpcOptions.ChannelSelection selection;
+    private final AtomicInteger               next = new AtomicInteger();
+    private final String                      outstandingGaugeName;
+    private final String                      readyGaugeName;
+
+    ChannelGroup(Endpoint endpoint, IdChannel[] channels, RpcOptions.ChannelSelection selection) {
+        this.endpoint = endpoint;
+        this.channels = channels;
+        this.selection = selection;
+        // by group id, the clients of a process may each have a group of the same endpoint
+        final int id = ID.getAndIncrement();
+        this.outstandingGaugeName = MetricsUtil.named("channel_pool_outstanding_calls", endpoint, id);
+        this.readyGaugeName = MetricsUtil.named("channel_pool_ready_channels", endpoint, id);
+        MetricsUtil.metricRegistry().register(this.outstandingGaugeName, (Gauge<Integer>) this::getOutstandingCalls);
+        MetricsUtil.metricRegistry().register(this.readyGaugeName, (Gauge<Integer>) this::getReadyChannels);
+    }
+
+    /**
+     * Takes the channel for the next call.
+     */
+    IdChannel select() {
+        final IdChannel[] chs = this.channels;
+        if (chs.length == 1) {
+            return chs[0];
+        }
+
+        final int start = Math.abs(this.next.getAndIncrement() % chs.length);
+        IdChannel best = null;
+        for (int i = 0; i < chs.length; i++) {
+            final IdChannel ch = chs[(start + i) % chs.length];
+            if (!isUsable(ch)) {
+                continue;
+            }
+            if (this.selection == RpcOptions.ChannelSelection.RoundRobin) {
+                return ch;
+            }
+            if (best == null || ch.getOutstandingCalls() < best.getOutstandingCalls()) {
+                best = ch;
+            }
+        }
+        // none is usable, let the caller find out
+        return best == null ? chs[start] : best;
+    }
+
+    Endpoint getEndpoint() {
+        return this.endpoint;
+    }
+
+    int size() {
+        return this.channels.length;
+    }
+
+    void forEach(final Consumer<IdChannel> action) {
+        for (final IdChannel ch : this.channels) {
+            action.accept(ch);
+        }
+    }
+
+    int getOutstandingCalls() {
+        int n = 0;
+        for (final IdChannel ch : this.channels) {
+            n += ch.getOutstandingCalls();
+        }
+        return n;
+    }
+
+    int getReadyChannels() {
+        int n = 0;
+        for (final IdChannel ch : this.channels) {
+            if (ch.getState(false) == ConnectivityState.READY) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Removes the metrics of this group, the channels are closed by the caller.
+     */
+    void close() {
+        MetricsUtil.metricRegistry().remove(this.outstandingGaugeName);
+        MetricsUtil.metricRegistry().remove(this.readyGaugeName);
+    }
+
+    static boolean isUsable(final IdChannel ch) {
+        final ConnectivityState st = ch.getState(false);
+        return st != ConnectivityState.TRANSIENT_FAILURE && st != ConnectivityState.SHUTDOWN;
+    }
+
+    @Override
+    public String toString() {
+        return "ChannelGroup{" + //
+               "endpoint=" + endpoint + //
+               ", selection=" + selection + //
+               ", channels=" + Arrays.toString(channels) + //
+               '}';
+    }
+}
@@ -5,10 +5,12 @@ package io.ceresdb.rpc;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
@@ -21,17 +23,22 @@ import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 import io.grpc.CallOptions;
 import io.grpc.Channel;
+import io.grpc.ClientCall;
 import io.grpc.ClientInterceptor;
 import io.grpc.ConnectivityState;
 import io.grpc.ManagedChannel;
 import io.grpc.MethodDescriptor;
 import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.shaded.io.netty.buffer.ByteBufAllocator;
 import io.grpc.netty.shaded.io.netty.channel.ChannelOption;
 import io.grpc.protobuf.ProtoUtils;
+import io.grpc.stub.ClientCallStreamObserver;
 import io.grpc.stub.ClientCalls;
+import io.grpc.stub.ClientResponseObserver;
 import io.grpc.stub.StreamObserver;
 
 import org.slf4j.Logger;
@@ -60,10 +67,14 @@ import io.ceresdb.rpc.interceptors.ContextToHeadersInterceptor;
 import io.ceresdb.rpc.interceptors.MetricInterceptor;
 import io.ceresdb.rpc.limit.Gradient2Limit;
 import io.ceresdb.rpc.limit.LimitMetricRegistry;
+import io.ceresdb.rpc.limit.RequestLimitCtx;
 import io.ceresdb.rpc.limit.RequestLimiterBuilder;
 import io.ceresdb.rpc.limit.VegasLimit;
 import com.google.protobuf.Message;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
 import com.netflix.concurrency.limits.Limit;
+import com.netflix.concurrency.limits.Limiter;
 import com.netflix.concurrency.limits.MetricRegistry;
 
 /**
@@ -98,16 +109,27 @@ public class GrpcClient implements RpcClient {
     private static final String SERVER_STREAMING_CALL = "server-streaming-call";
     private static final String CLIENT_STREAMING_CALL = "client-streaming-call";
 
-    private final Map<Endpoint, IdChannel>     managedChannelPool  = new ConcurrentHashMap<>();
+    private final Map<Endpoint, ChannelGroup>  managedChannelPool  = new ConcurrentHashMap<>();
     private final Map<Endpoint, AtomicInteger> transientFailures   = new ConcurrentHashMap<>();
     private final List<ClientInterceptor>      interceptors        = new CopyOnWriteArrayList<>();
     private final AtomicBoolean                started             = new AtomicBoolean(false);
     private final List<ConnectionObserver>     connectionObservers = new CopyOnWriteArrayList<>();
     private final MarshallerRegistry           marshallerRegistry;
+    private final AtomicInteger                methodIds           = new AtomicInteger();
+    // by request class, then indexed by the ordinal of the method type
+    private final ClassValue<CallMethod[]> callMethods = new ClassValue<CallMethod[]>() {
 
-    private RpcOptions      opts;
-    private ExecutorService asyncPool;
-    private boolean         useSharedAsyncPool;
+        @Override
+        protected CallMethod[] computeValue(final Class<?> type) {
+            return new CallMethod[MethodDescriptor.MethodType.values().length];
+        }
+    };
+
+    private RpcOptions                opts;
+    private ExecutorService           asyncPool;
+    private boolean                   useSharedAsyncPool;
+    private NettyTransports.EventLoop eventLoop;
+    private ByteBufAllocator          allocator;
 
     public GrpcClient(MarshallerRegistry marshallerRegistry) {
         this.marshallerRegistry = marshallerRegistry;
@@ -129,6 +151,11 @@ public class GrpcClient implements RpcClient {
             this.useSharedAsyncPool = true;
         }
 
+        this.eventLoop = NettyTransports.acquire(this.opts.getIoTransport(), this.opts.getIoThreads());
+        if (this.opts.isPooledDirectAllocator()) {
+            this.allocator = NettyTransports.pooledDirectAllocator(this.opts.getDirectArenas());
+        }
+
         initInterceptors();
 
         return true;
@@ -148,6 +175,12 @@ public class GrpcClient implements RpcClient {
         this.asyncPool = null;
 
         closeAllChannels();
+
+        // after the channels, they run on it
+        if (this.eventLoop != null) {
+            this.eventLoop.release();
+            this.eventLoop = null;
+        }
     }
 
     @Override
@@ -213,18 +246,16 @@ public class GrpcClient implements RpcClient {
                                         final long timeoutMs) {
         checkArgs(endpoint, request, ctx, observer);
 
-        final MethodDescriptor<Message, Message> method = getCallMethod(request, MethodDescriptor.MethodType.UNARY);
+        final CallMethod method = getCallMethod(request, MethodDescriptor.MethodType.UNARY);
         final long timeout = calcTimeout(timeoutMs);
         final CallOptions callOpts = CallOptions.DEFAULT //
                 .withDeadlineAfter(timeout, TimeUnit.MILLISECONDS) //
                 .withExecutor(getObserverExecutor(observer));
 
-        final String methodName = method.getFullMethodName();
-        final String address = endpoint.toString();
         final long startCall = Clock.defaultClock().getTick();
 
-        final Channel ch = getCheckedChannel(endpoint, (err) -> {
-            attachErrMsg(err, UNARY_CALL, methodName, address, startCall, -1, ctx);
+        final IdChannel ch = getCheckedChannel(endpoint, (err) -> {
+            attachErrMsg(err, UNARY_CALL, method.name, endpoint.toString(), startCall, -1, ctx);
             observer.onError(err);
         });
 
@@ -232,9 +263,25 @@ public class GrpcClient implements RpcClient {
             return;
         }
 
-        final String target = target(ch, address);
+        final ClientCall<Object, Message> call = ch.newCall(method.descriptor, callOpts);
+        // set when the caller gives up on the call, it is not a failure of the endpoint
+        final AtomicBoolean cancelled = new AtomicBoolean(false);
 
-        ClientCalls.asyncUnaryCall(ch.newCall(method, callOpts), (Message) request, new StreamObserver<Message>() {
+        ClientCalls.asyncUnaryCall(call, request, new ClientResponseObserver<Object, Message>() {
+
+            @SuppressWarnings("unchecked")
+            @Override
+            public void beforeStart(final ClientCallStreamObserver<Object> requestStream) {
+                if (!(observer instanceof CancellableObserver)) {
+                    return;
+                }
+                // installed before the call starts, the response may arrive before asyncUnaryCall returns
+                ((CancellableObserver<Resp>) observer).onStart(reason -> {
+                    if (cancelled.compareAndSet(false, true)) {
+                        requestStream.cancel(reason, null);
+                    }
+                });
+            }
 
             @SuppressWarnings("unchecked")
             @Override
@@ -246,7 +293,11 @@ public class GrpcClient implements RpcClient {
 
             @Override
             public void onError(final Throwable err) {
-                attachErrMsg(err, UNARY_CALL, methodName, target, startCall, onReceived(true), ctx);
+                if (cancelled.get()) {
+                    observer.onError(err);
+                    return;
+                }
+                attachErrMsg(err, UNARY_CALL, method.name, target(ch, endpoint), startCall, onReceived(true), ctx);
                 observer.onError(err);
             }
 
@@ -257,13 +308,18 @@ public class GrpcClient implements RpcClient {
 
             private long onReceived(final boolean onError) {
                 final long duration = Clock.defaultClock().duration(startCall);
+                // only a miss pays for the capturing factory
+                CallMetrics metrics = ch.attachment(method.id);
+                if (metrics == null) {
+                    metrics = ch.attachment(method.id, () -> new CallMetrics(method, endpoint));
+                }
 
-                MetricsUtil.timer(REQ_RT, method.getFullMethodName()).update(duration, TimeUnit.MILLISECONDS);
-                MetricsUtil.timer(REQ_RT, method.getFullMethodName(), address).update(duration, TimeUnit.MILLISECONDS);
+                method.rt.update(duration, TimeUnit.MILLISECONDS);
+                metrics.rt.update(duration, TimeUnit.MILLISECONDS);
 
                 if (onError) {
-                    MetricsUtil.meter(REQ_FAILED, method.getFullMethodName()).mark();
-                    MetricsUtil.meter(REQ_FAILED, method.getFullMethodName(), address).mark();
+                    method.failed.mark();
+                    metrics.failed.mark();
                 }
 
                 return duration;
@@ -278,16 +334,13 @@ public class GrpcClient implements RpcClient {
                                                   final Observer<Resp> observer) {
         checkArgs(endpoint, request, ctx, observer);
 
-        final MethodDescriptor<Message, Message> method = getCallMethod(request,
-                MethodDescriptor.MethodType.SERVER_STREAMING);
+        final CallMethod method = getCallMethod(request, MethodDescriptor.MethodType.SERVER_STREAMING);
         final CallOptions callOpts = CallOptions.DEFAULT.withExecutor(getObserverExecutor(observer));
 
-        final String methodName = method.getFullMethodName();
-        final String address = endpoint.toString();
         final long startCall = Clock.defaultClock().getTick();
 
-        final Channel ch = getCheckedChannel(endpoint, (err) -> {
-            attachErrMsg(err, SERVER_STREAMING_CALL, methodName, address, startCall, -1, ctx);
+        final IdChannel ch = getCheckedChannel(endpoint, (err) -> {
+            attachErrMsg(err, SERVER_STREAMING_CALL, method.name, endpoint.toString(), startCall, -1, ctx);
             observer.onError(err);
         });
 
@@ -295,10 +348,30 @@ public class GrpcClient implements RpcClient {
             return;
         }
 
-        final String target = target(ch, address);
+        ClientCalls.asyncServerStreamingCall(ch.newCall(method.descriptor, callOpts), (Object) request,
+                new ClientResponseObserver<Object, Message>() {
 
-        ClientCalls.asyncServerStreamingCall(ch.newCall(method, callOpts), (Message) request,
-                new StreamObserver<Message>() {
+                    @SuppressWarnings("unchecked")
+                    @Override
+                    public void beforeStart(final ClientCallStreamObserver<Object> requestStream) {
+                        if (!(observer instanceof FlowControlledObserver)) {
+                            return;
+                        }
+                        requestStream.disableAutoInboundFlowControl();
+                        ((FlowControlledObserver<Resp>) observer).onSubscribe(new Subscription() {
+
+                            @Override
+                            public void request(final int n) {
+                                Requires.requireTrue(n > 0, "n must be positive");
+                                requestStream.request(n);
+                            }
+
+                            @Override
+                            public void cancel(final String reason) {
+                                requestStream.cancel(reason, null);
+                            }
+                        });
+                    }
 
                     @SuppressWarnings("unchecked")
                     @Override
@@ -308,7 +381,7 @@ public class GrpcClient implements RpcClient {
 
                     @Override
                     public void onError(final Throwable err) {
-                        attachErrMsg(err, SERVER_STREAMING_CALL, methodName, target, startCall, -1, ctx);
+                        attachErrMsg(err, SERVER_STREAMING_CALL, method.name, target(ch, endpoint), startCall, -1, ctx);
                         observer.onError(err);
                     }
 
@@ -326,17 +399,14 @@ public class GrpcClient implements RpcClient {
                                                            final Observer<Resp> respObserver) {
         checkArgs(endpoint, defaultReqIns, ctx, respObserver);
 
-        final MethodDescriptor<Message, Message> method = getCallMethod(defaultReqIns,
-                MethodDescriptor.MethodType.CLIENT_STREAMING);
+        final CallMethod method = getCallMethod(defaultReqIns, MethodDescriptor.MethodType.CLIENT_STREAMING);
         final CallOptions callOpts = CallOptions.DEFAULT.withExecutor(getObserverExecutor(respObserver));
 
-        final String methodName = method.getFullMethodName();
-        final String address = endpoint.toString();
         final long startCall = Clock.defaultClock().getTick();
 
         final RefCell<Throwable> refErr = new RefCell<>();
-        final Channel ch = getCheckedChannel(endpoint, (err) -> {
-            attachErrMsg(err, CLIENT_STREAMING_CALL, methodName, address, startCall, -1, ctx);
+        final IdChannel ch = getCheckedChannel(endpoint, (err) -> {
+            attachErrMsg(err, CLIENT_STREAMING_CALL, method.name, endpoint.toString(), startCall, -1, ctx);
             refErr.set(err);
         });
 
@@ -345,10 +415,15 @@ public class GrpcClient implements RpcClient {
             return new Observer.RejectedObserver<>(refErr.get());
         }
 
-        final String target = target(ch, address);
+        // tasks waiting for the request stream to be ready
+        final Queue<Runnable> readyTasks = new ConcurrentLinkedQueue<>();
+        final StreamObserver<Object> gRpcObs = ClientCalls.asyncClientStreamingCall(
+                ch.newCall(method.descriptor, callOpts), new ClientResponseObserver<Object, Message>() {
 
-        final StreamObserver<Message> gRpcObs = ClientCalls.asyncClientStreamingCall(ch.newCall(method, callOpts),
-                new StreamObserver<Message>() {
+                    @Override
+                    public void beforeStart(final ClientCallStreamObserver<Object> requestStream) {
+                        requestStream.setOnReadyHandler(() -> runAll(readyTasks));
+                    }
 
                     @SuppressWarnings("unchecked")
                     @Override
@@ -358,21 +433,24 @@ public class GrpcClient implements RpcClient {
 
                     @Override
                     public void onError(final Throwable err) {
-                        attachErrMsg(err, CLIENT_STREAMING_CALL, methodName, target, startCall, -1, ctx);
+                        attachErrMsg(err, CLIENT_STREAMING_CALL, method.name, target(ch, endpoint), startCall, -1, ctx);
                         respObserver.onError(err);
+                        runAll(readyTasks);
                     }
 
                     @Override
                     public void onCompleted() {
                         respObserver.onCompleted();
+                        runAll(readyTasks);
                     }
                 });
+        final ClientCallStreamObserver<Object> callObs = (ClientCallStreamObserver<Object>) gRpcObs;
 
-        return new Observer<Req>() {
+        return new ReadyAwareObserver<Req>() {
 
             @Override
             public void onNext(final Req value) {
-                gRpcObs.onNext((Message) value);
+                gRpcObs.onNext(value);
             }
 
             @Override
@@ -384,9 +462,34 @@ public class GrpcClient implements RpcClient {
             public void onCompleted() {
                 gRpcObs.onCompleted();
             }
+
+            @Override
+            public boolean isReady() {
+                return callObs.isReady();
+            }
+
+            @Override
+            public void onReady(final Runnable task) {
+                readyTasks.add(task);
+                // the stream may have turned ready before the task was queued
+                if (callObs.isReady()) {
+                    runAll(readyTasks);
+                }
+            }
         };
     }
 
+    private static void runAll(final Queue<Runnable> tasks) {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (final Throwable t) {
+                LOG.warn("Fail to run the on ready task: {}.", task, t);
+            }
+        }
+    }
+
     public void addInterceptor(final ClientInterceptor interceptor) {
         this.interceptors.add(interceptor);
     }
@@ -407,8 +510,32 @@ public class GrpcClient implements RpcClient {
     }
 
     private ClientRequestLimitInterceptor createRequestLimitInterceptor(final RpcOptions.LimitKind kind) {
-        final MetricRegistry metricRegistry = new LimitMetricRegistry();
+        final Map<String, Double> methodsLimitPercent = this.marshallerRegistry.getAllMethodsLimitPercent();
+        if (!methodsLimitPercent.isEmpty()) {
+            final double sum = methodsLimitPercent //
+                    .values() //
+                    .stream() //
+                    .reduce(0.0, Double::sum);
+            Requires.requireTrue(Math.abs(sum - 1.0) < 0.1, "the total percent sum of partitions must be near 100%");
+        }
+        final Function<String, Boolean> filter = methodsLimitPercent.isEmpty() ? name -> true :
+                methodsLimitPercent::containsKey;
+
+        if (!this.opts.isLimitPerEndpoint()) {
+            return new ClientRequestLimitInterceptor(
+                    createLimiter(kind, LIMITER_NAME, new LimitMetricRegistry(), methodsLimitPercent), filter);
+        }
 
+        // the authority of a channel is the `ip:port` of its endpoint
+        return ClientRequestLimitInterceptor.partitionByAuthority(authority -> createLimiter(kind,
+                LIMITER_NAME + "_" + authority, new LimitMetricRegistry("endpoint", authority), methodsLimitPercent),
+                filter);
+    }
+
+    private Limiter<RequestLimitCtx> createLimiter(final RpcOptions.LimitKind kind, //
+                                                   final String name, //
+                                                   final MetricRegistry metricRegistry, //
+                                                   final Map<String, Double> methodsLimitPercent) {
         final int minInitialLimit = 20;
         final Limit limit;
         switch (kind) {
@@ -436,25 +563,16 @@ public class GrpcClient implements RpcClient {
                 throw new IllegalArgumentException("Unsupported limit kind: " + kind);
         }
 
-        final RequestLimiterBuilder limiterBuilder = RequestLimiterBuilder.newBuilder().named(LIMITER_NAME) //
+        final RequestLimiterBuilder limiterBuilder = RequestLimiterBuilder.newBuilder().named(name) //
                 .metricRegistry(metricRegistry) //
                 .blockOnLimit(this.opts.isBlockOnLimit(), this.opts.getDefaultRpcTimeout()) //
                 .limit(limit);
 
-        final Map<String, Double> methodsLimitPercent = this.marshallerRegistry.getAllMethodsLimitPercent();
         if (methodsLimitPercent.isEmpty()) {
-            return new ClientRequestLimitInterceptor(limiterBuilder.build());
-        } else {
-            final double sum = methodsLimitPercent //
-                    .values() //
-                    .stream() //
-                    .reduce(0.0, Double::sum);
-            Requires.requireTrue(Math.abs(sum - 1.0) < 0.1, "the total percent sum of partitions must be near 100%");
-            methodsLimitPercent.forEach(limiterBuilder::partition);
-
-            return new ClientRequestLimitInterceptor(limiterBuilder.partitionByMethod().build(),
-                    methodsLimitPercent::containsKey);
+            return limiterBuilder.build();
         }
+        methodsLimitPercent.forEach(limiterBuilder::partition);
+        return limiterBuilder.partitionByMethod().build();
     }
 
     private void attachErrMsg(final Throwable err, //
@@ -493,23 +611,27 @@ public class GrpcClient implements RpcClient {
     }
 
     private void closeAllChannels() {
-        this.managedChannelPool.values().forEach(ch -> {
-            final boolean ret = ManagedChannelHelper.shutdownAndAwaitTermination(ch);
-            LOG.info("Shutdown managed channel: {}, {}.", ch, ret ? "success" : "failed");
+        this.managedChannelPool.values().forEach(group -> {
+            group.forEach(ch -> {
+                final boolean ret = ManagedChannelHelper.shutdownAndAwaitTermination(ch);
+                LOG.info("Shutdown managed channel: {}, {}.", ch, ret ? "success" : "failed");
+            });
+            group.close();
         });
         this.managedChannelPool.clear();
     }
 
     private void closeChannel(final Endpoint endpoint) {
-        final ManagedChannel ch = this.managedChannelPool.remove(endpoint);
-        LOG.info("Close connection: {}, {}.", endpoint, ch);
-        if (ch != null) {
-            ManagedChannelHelper.shutdownAndAwaitTermination(ch);
+        final ChannelGroup group = this.managedChannelPool.remove(endpoint);
+        LOG.info("Close connection: {}, {}.", endpoint, group);
+        if (group != null) {
+            group.forEach(ManagedChannelHelper::shutdownAndAwaitTermination);
+            group.close();
         }
     }
 
     private boolean checkChannel(final Endpoint endpoint, final boolean createIfAbsent) {
-        final ManagedChannel ch = getChannel(endpoint, createIfAbsent);
+        final IdChannel ch = getChannel(endpoint, createIfAbsent);
 
         if (ch == null) {
             return false;
@@ -518,10 +640,9 @@ public class GrpcClient implements RpcClient {
         return checkConnectivity(endpoint, ch);
     }
 
-    private boolean checkConnectivity(final Endpoint endpoint, final ManagedChannel ch) {
-        final ConnectivityState st = ch.getState(false);
-
-        if (st != ConnectivityState.TRANSIENT_FAILURE && st != ConnectivityState.SHUTDOWN) {
+    private boolean checkConnectivity(final Endpoint endpoint, final IdChannel ch) {
+        // the group hands out a failing channel only if all of its channels are failing
+        if (ChannelGroup.isUsable(ch)) {
             return true;
         }
 
@@ -537,21 +658,19 @@ public class GrpcClient implements RpcClient {
 
         clearConnFailuresCount(endpoint);
 
-        final IdChannel removedCh = this.managedChannelPool.remove(endpoint);
+        final ChannelGroup removed = this.managedChannelPool.remove(endpoint);
 
-        if (removedCh == null) {
+        if (removed == null) {
             // The channel has been removed and closed by another
             return false;
         }
 
-        LOG.warn("Channel {} in [INACTIVE] state {} times, it has been removed from the pool.",
-                target(removedCh, endpoint), c);
-
-        if (removedCh != ch) {
-            // Now that it's removed, close it
-            ManagedChannelHelper.shutdownAndAwaitTermination(removedCh, 100);
-        }
+        LOG.warn("Channel {} in [INACTIVE] state {} times, it has been removed from the pool.", target(ch, endpoint),
+                c);
 
+        // Now that it's removed, close it, the given channel may belong to an earlier group
+        removed.forEach(removedCh -> ManagedChannelHelper.shutdownAndAwaitTermination(removedCh, 100));
+        removed.close();
         ManagedChannelHelper.shutdownAndAwaitTermination(ch, 100);
 
         return false;
@@ -565,26 +684,41 @@ public class GrpcClient implements RpcClient {
         this.transientFailures.remove(endpoint);
     }
 
-    private MethodDescriptor<Message, Message> getCallMethod(final Object request, //
-                                                             final MethodDescriptor.MethodType methodType) {
-        Requires.requireTrue(request instanceof Message, "gRPC impl only support protobuf");
-        final Class<? extends Message> reqCls = ((Message) request).getClass();
+    private CallMethod getCallMethod(final Object request, final MethodDescriptor.MethodType methodType) {
+        // a pre-encoded request calls the method of its type
+        final Object reqIns = request instanceof EncodedRequest ? ((EncodedRequest) request).getDefaultReqIns() :
+                request;
+        Requires.requireTrue(reqIns instanceof Message, "gRPC impl only support protobuf");
+        final CallMethod[] methods = this.callMethods.get(reqIns.getClass());
+        final CallMethod method = methods[methodType.ordinal()];
+        if (method != null) {
+            return method;
+        }
+        // racing threads may both build it, the fields are final so either one is safe to publish
+        final CallMethod newMethod = newCallMethod(((Message) reqIns).getClass(), methodType);
+        methods[methodType.ordinal()] = newMethod;
+        return newMethod;
+    }
+
+    private CallMethod newCallMethod(final Class<? extends Message> reqCls,
+                                     final MethodDescriptor.MethodType methodType) {
         final Message defaultReqIns = this.marshallerRegistry.getDefaultRequestInstance(reqCls);
         final Message defaultRespIns = this.marshallerRegistry.getDefaultResponseInstance(reqCls);
         Requires.requireNonNull(defaultReqIns, "null default request instance: " + reqCls.getName());
         Requires.requireNonNull(defaultRespIns, "null default response instance: " + reqCls.getName());
 
-        return MethodDescriptor //
-                .<Message, Message> newBuilder() //
+        final MethodDescriptor<Object, Message> descriptor = MethodDescriptor //
+                .<Object, Message> newBuilder() //
                 .setType(methodType) //
                 .setFullMethodName(this.marshallerRegistry.getMethodName(reqCls, methodType)) //
-                .setRequestMarshaller(ProtoUtils.marshaller(defaultReqIns)) //
+                .setRequestMarshaller(new RequestMarshaller(defaultReqIns)) //
                 .setResponseMarshaller(ProtoUtils.marshaller(defaultRespIns)) //
                 .build();
+        return new CallMethod(this.methodIds.getAndIncrement(), descriptor);
     }
 
-    private Channel getCheckedChannel(final Endpoint endpoint, final Consumer<Throwable> onFailed) {
-        final ManagedChannel ch = getChannel(endpoint, true);
+    private IdChannel getCheckedChannel(final Endpoint endpoint, final Consumer<Throwable> onFailed) {
+        final IdChannel ch = getChannel(endpoint, true);
 
         if (checkConnectivity(endpoint, ch)) {
             return ch;
@@ -595,16 +729,30 @@ public class GrpcClient implements RpcClient {
         return null;
     }
 
-    private ManagedChannel getChannel(final Endpoint endpoint, final boolean createIfAbsent) {
+    private IdChannel getChannel(final Endpoint endpoint, final boolean createIfAbsent) {
+        final ChannelGroup group;
         if (createIfAbsent) {
-            return this.managedChannelPool.computeIfAbsent(endpoint, this::newChannel);
+            group = this.managedChannelPool.computeIfAbsent(endpoint, this::newChannelGroup);
         } else {
-            return this.managedChannelPool.get(endpoint);
+            group = this.managedChannelPool.get(endpoint);
         }
+        return group == null ? null : group.select();
     }
 
-    private IdChannel newChannel(final Endpoint endpoint) {
-        final ManagedChannel innerChannel = NettyChannelBuilder.forAddress(endpoint.getIp(), endpoint.getPort()) //
+    private ChannelGroup newChannelGroup(final Endpoint endpoint) {
+        final int size = Math.max(1, this.opts.getChannelsPerEndpoint());
+        final RpcOptions.ChannelSelection selection = this.opts.getChannelSelection();
+        // counting the calls in flight costs a wrapper per call, only pay for it when it is used
+        final boolean countCalls = size > 1 && selection == RpcOptions.ChannelSelection.LeastOutstanding;
+        final IdChannel[] channels = new IdChannel[size];
+        for (int i = 0; i < size; i++) {
+            channels[i] = newChannel(endpoint, countCalls);
+        }
+        return new ChannelGroup(endpoint, channels, selection);
+    }
+
+    private IdChannel newChannel(final Endpoint endpoint, final boolean countCalls) {
+        final NettyChannelBuilder builder = NettyChannelBuilder.forAddress(endpoint.getIp(), endpoint.getPort()) //
                 .usePlaintext() //
                 .executor(this.asyncPool) //
                 .intercept(this.interceptors) //
@@ -615,10 +763,17 @@ public class GrpcClient implements RpcClient {
                 .keepAliveTimeout(this.opts.getKeepAliveTimeoutSeconds(), TimeUnit.SECONDS) //
                 .keepAliveWithoutCalls(this.opts.isKeepAliveWithoutCalls()) //
                 .withOption(ChannelOption.SO_REUSEADDR, true) //
-                .withOption(ChannelOption.TCP_NODELAY, true) //
-                .build();
+                .withOption(ChannelOption.TCP_NODELAY, true);
+        if (this.eventLoop != null) {
+            builder.eventLoopGroup(this.eventLoop.group()) //
+                    .channelType(this.eventLoop.channelType());
+        }
+        if (this.allocator != null) {
+            builder.withOption(ChannelOption.ALLOCATOR, this.allocator);
+        }
+        final ManagedChannel innerChannel = builder.build();
 
-        final IdChannel idChannel = new IdChannel(innerChannel);
+        final IdChannel idChannel = new IdChannel(innerChannel, countCalls);
 
         if (LOG.isInfoEnabled()) {
             LOG.info("Creating new channel to: {}.", target(idChannel, endpoint));
@@ -685,6 +840,10 @@ public class GrpcClient implements RpcClient {
                 .println(this.connectionObservers) //
                 .print("asyncPool=") //
                 .println(this.asyncPool) //
+                .print("eventLoop=") //
+                .println(this.eventLoop) //
+                .print("allocator=") //
+                .println(this.allocator) //
                 .print("interceptors=") //
                 .println(this.interceptors) //
                 .print("managedChannelPool=") //
@@ -693,6 +852,43 @@ public class GrpcClient implements RpcClient {
                 .println(this.transientFailures);
     }
 
+    /**
+     * A method descriptor built once per request class and method type,
+     * together with the method level metrics it reports to.
+     */
+    private static final class CallMethod {
+
+        final int                               id;
+        final MethodDescriptor<Object, Message> descriptor;
+        final String                            name;
+        final Timer                             rt;
+        final Meter                             failed;
+
+        CallMethod(int id, MethodDescriptor<Object, Message> descriptor) {
+            this.id = id;
+            this.descriptor = descriptor;
+            this.name = descriptor.getFullMethodName();
+            this.rt = MetricsUtil.timer(REQ_RT, this.name);
+            this.failed = MetricsUtil.meter(REQ_FAILED, this.name);
+        }
+    }
+
+    /**
+     * The metrics of one method to one endpoint, attached to the channel of
+     * the endpoint.
+     */
+    private static final class CallMetrics {
+
+        final Timer rt;
+        final Meter failed;
+
+        CallMetrics(CallMethod method, Endpoint endpoint) {
+            final String address = endpoint.toString();
+            this.rt = MetricsUtil.timer(REQ_RT, method.name, address);
+            this.failed = MetricsUtil.meter(REQ_FAILED, method.name, address);
+        }
+    }
+
     private static String target(final Channel ch, final Endpoint ep) {
         return target(ch, ep == null ? null : ep.toString());
     }
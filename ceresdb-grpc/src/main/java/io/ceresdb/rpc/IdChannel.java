@@ -3,14 +3,21 @@
  */
 package io.ceresdb.rpc;
 
+import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 import io.grpc.CallOptions;
 import io.grpc.ClientCall;
 import io.grpc.ConnectivityState;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
 import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
 import io.grpc.MethodDescriptor;
+import io.grpc.Status;
 
 /**
  * A managed channel that has a channel id.
@@ -22,14 +29,22 @@ public class IdChannel extends ManagedChannel {
 
     private final long           channelId;
     private final ManagedChannel channel;
+    // null if the calls in flight are not counted
+    private final AtomicInteger outstanding;
+    private volatile Object[]   attachments = new Object[0];
 
     private static long getNextId() {
         return ID_ALLOC.incrementAndGet();
     }
 
     public IdChannel(ManagedChannel channel) {
+        this(channel, false);
+    }
+
+    public IdChannel(ManagedChannel channel, boolean countCalls) {
         this.channelId = getNextId();
         this.channel = channel;
+        this.outstanding = countCalls ? new AtomicInteger() : null;
     }
 
     public long getChannelId() {
@@ -40,6 +55,47 @@ public class IdChannel extends ManagedChannel {
         return channel;
     }
 
+    /**
+     * The number of calls started and not yet closed, always 0 if this
+     * channel does not count them.
+     */
+    public int getOutstandingCalls() {
+        return this.outstanding == null ? 0 : this.outstanding.get();
+    }
+
+    /**
+     * Returns the value attached to this channel at the given index, null if
+     * there is none yet.
+     */
+    @SuppressWarnings("unchecked")
+    <T> T attachment(final int index) {
+        final Object[] values = this.attachments;
+        return index < values.length ? (T) values[index] : null;
+    }
+
+    /**
+     * Returns the value attached to this channel at the given index, it is
+     * created on first use.
+     */
+    @SuppressWarnings("unchecked")
+    <T> T attachment(final int index, final Supplier<T> factory) {
+        final T value = attachment(index);
+        if (value != null) {
+            return value;
+        }
+        synchronized (this) {
+            final Object[] cur = this.attachments;
+            if (index < cur.length && cur[index] != null) {
+                return (T) cur[index];
+            }
+            final T created = factory.get();
+            final Object[] next = Arrays.copyOf(cur, Math.max(cur.length, index + 1));
+            next[index] = created;
+            this.attachments = next;
+            return created;
+        }
+    }
+
     @Override
     public ManagedChannel shutdown() {
         return this.channel.shutdown();
@@ -68,7 +124,31 @@ public class IdChannel extends ManagedChannel {
     @Override
     public <RequestT, ResponseT> ClientCall<RequestT, ResponseT> newCall(final MethodDescriptor<RequestT, ResponseT> methodDescriptor,
                                                                          final CallOptions callOptions) {
-        return this.channel.newCall(methodDescriptor, callOptions);
+        final ClientCall<RequestT, ResponseT> call = this.channel.newCall(methodDescriptor, callOptions);
+        if (this.outstanding == null) {
+            return call;
+        }
+        return new ForwardingClientCall.SimpleForwardingClientCall<RequestT, ResponseT>(call) {
+
+            @Override
+            public void start(final Listener<ResponseT> respListener, final Metadata headers) {
+                outstanding.incrementAndGet();
+                try {
+                    super.start(new ForwardingClientCallListener.SimpleForwardingClientCallListener<ResponseT>(
+                            respListener) {
+
+                        @Override
+                        public void onClose(final Status status, final Metadata trailers) {
+                            outstanding.decrementAndGet();
+                            super.onClose(status, trailers);
+                        }
+                    }, headers);
+                } catch (final RuntimeException e) {
+                    outstanding.decrementAndGet();
+                    throw e;
+                }
+            }
+        };
     }
 
     @Override
@@ -100,6 +180,7 @@ public class IdChannel extends ManagedChannel {
     public String toString() {
         return "IdChannel{" + //
                "channelId=" + channelId + //
+               ", outstanding=" + getOutstandingCalls() + //
                ", channel=" + channel + //
                '}';
     }
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb.rpc;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.ceresdb.common.util.Cpus;
+import io.ceresdb.common.util.ObjectPool;
+import io.ceresdb.common.util.RcObjectPool;
+import io.grpc.netty.shaded.io.netty.buffer.ByteBufAllocator;
+import io.grpc.netty.shaded.io.netty.buffer.PooledByteBufAllocator;
+import io.grpc.netty.shaded.io.netty.channel.Channel;
+import io.grpc.netty.shaded.io.netty.channel.EventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.Epoll;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.nio.NioEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.socket.nio.NioSocketChannel;
+import io.grpc.netty.shaded.io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * The netty resources shared by the grpc clients of the process which opt
+ * in: one event loop group per transport and number of threads, closed once
+ * the last client using it is shut down, and one pooled direct allocator
+ * per number of arenas.
+ *
+ */
+final class NettyTransports {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NettyTransports.class);
+
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+
+    private static final ConcurrentMap<String, RcObjectPool<EventLoopGroup>> GROUPS     = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<Integer, ByteBufAllocator>            ALLOCATORS = new ConcurrentHashMap<>();
+
+    /**
+     * Takes a reference of the event loop group of the given transport, it
+     * must be returned by {@link EventLoop#release()}. Returns null for
+     * {@link RpcOptions.IoTransport#Default}, the channels then keep the
+     * event loop group of grpc.
+     */
+    static EventLoop acquire(final RpcOptions.IoTransport transport, final int threads) {
+        if (transport == RpcOptions.IoTransport.Default) {
+            return null;
+        }
+        final boolean epoll = useEpoll(transport);
+        final int nThreads = threads > 0 ? threads : Cpus.cpus() << 1;
+        final String name = (epoll ? "ceresdb_grpc_epoll_" : "ceresdb_grpc_nio_") + nThreads;
+        final RcObjectPool<EventLoopGroup> pool = GROUPS.computeIfAbsent(name,
+                k -> new RcObjectPool<>(new ObjectPool.Resource<EventLoopGroup>() {
+
+                    @Override
+                    public EventLoopGroup create() {
+                        final DefaultThreadFactory factory = new DefaultThreadFactory(name, true);
+                        return epoll ? new EpollEventLoopGroup(nThreads, factory) :
+                                new NioEventLoopGroup(nThreads, factory);
+                    }
+
+                    @Override
+                    public void close(final EventLoopGroup ins) {
+                        ins.shutdownGracefully(0, SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                    }
+
+                    @Override
+                    public String toString() {
+                        return name;
+                    }
+                }));
+        return new EventLoop(pool, pool.getObject(), epoll ? EpollSocketChannel.class : NioSocketChannel.class);
+    }
+
+    /**
+     * The pooled allocator handing out direct buffers only, with the given
+     * number of direct arenas (0 means the netty default).
+     */
+    static ByteBufAllocator pooledDirectAllocator(final int directArenas) {
+        final int nArenas = directArenas > 0 ? directArenas : PooledByteBufAllocator.defaultNumDirectArena();
+        return ALLOCATORS.computeIfAbsent(nArenas, n -> new PooledByteBufAllocator(true, // preferDirect
+                PooledByteBufAllocator.defaultNumHeapArena(), //
+                n, //
+                PooledByteBufAllocator.defaultPageSize(), //
+                PooledByteBufAllocator.defaultMaxOrder(), //
+                PooledByteBufAllocator.defaultTinyCacheSize(), //
+                PooledByteBufAllocator.defaultSmallCacheSize(), //
+                PooledByteBufAllocator.defaultNormalCacheSize(), //
+                PooledByteBufAllocator.defaultUseCacheForAllThreads()));
+    }
+
+    private static boolean useEpoll(final RpcOptions.IoTransport transport) {
+        switch (transport) {
+            case Nio:
+                return false;
+            case Epoll:
+                if (!Epoll.isAvailable()) {
+                    LOG.warn("Epoll transport is unavailable, fallback to nio: {}.",
+                            String.valueOf(Epoll.unavailabilityCause()));
+                    return false;
+                }
+                return true;
+            case Auto:
+            default:
+                return Epoll.isAvailable();
+        }
+    }
+
+    static final class EventLoop {
+
+        private final ObjectPool<EventLoopGroup> pool;
+        private final EventLoopGroup             group;
+        private final Class<? extends Channel>   channelType;
+
+        EventLoop(ObjectPool<EventLoopGroup> pool, EventLoopGroup group, Class<? extends Channel> channelType) {
+            this.pool = pool;
+            this.group = group;
+            this.channelType = channelType;
+        }
+
+        EventLoopGroup group() {
+            return this.group;
+        }
+
+        Class<? extends Channel> channelType() {
+            return this.channelType;
+        }
+
+        void release() {
+            this.pool.returnObject(this.group);
+        }
+
+        @Override
+        public String toString() {
+            return "EventLoop{" + //
+                   "group=" + group + //
+                   ", channelType=" + channelType.getSimpleName() + //
+                   '}';
+        }
+    }
+
+    private NettyTransports() {
+    }
+}
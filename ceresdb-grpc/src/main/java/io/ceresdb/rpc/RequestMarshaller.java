@@ -0,0 +1,63 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb.rpc;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.google.protobuf.Message;
+
+import io.grpc.Drainable;
+import io.grpc.KnownLength;
+import io.grpc.MethodDescriptor;
+import io.grpc.protobuf.ProtoUtils;
+
+/**
+ * The request marshaller of a method, a protobuf message is serialized by
+ * the protobuf marshaller, the bytes of an {@link EncodedRequest} are sent
+ * as they are.
+ *
+ */
+final class RequestMarshaller implements MethodDescriptor.Marshaller<Object> {
+
+    private final MethodDescriptor.Marshaller<Message> protoMarshaller;
+
+    RequestMarshaller(Message defaultReqIns) {
+        this.protoMarshaller = ProtoUtils.marshaller(defaultReqIns);
+    }
+
+    @Override
+    public InputStream stream(final Object value) {
+        if (value instanceof EncodedRequest) {
+            return new EncodedStream(((EncodedRequest) value).getBytes());
+        }
+        return this.protoMarshaller.stream((Message) value);
+    }
+
+    @Override
+    public Object parse(final InputStream stream) {
+        return this.protoMarshaller.parse(stream);
+    }
+
+    /**
+     * Tells its length and drains in one write, so the transport copies the
+     * bytes once.
+     */
+    private static final class EncodedStream extends ByteArrayInputStream implements KnownLength, Drainable {
+
+        EncodedStream(byte[] buf) {
+            super(buf);
+        }
+
+        @Override
+        public int drainTo(final OutputStream target) throws IOException {
+            final int len = this.count - this.pos;
+            target.write(this.buf, this.pos, len);
+            this.pos = this.count;
+            return len;
+        }
+    }
+}
@@ -3,6 +3,8 @@
  */
 package io.ceresdb.rpc.interceptors;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
 
@@ -16,9 +18,11 @@ import io.grpc.Metadata;
 import io.grpc.MethodDescriptor;
 import io.grpc.Status;
 
+import io.ceresdb.common.util.MetricHandles;
 import io.ceresdb.common.util.MetricsUtil;
 import io.ceresdb.rpc.limit.LimitMetricRegistry;
 import io.ceresdb.rpc.limit.RequestLimitCtx;
+import com.codahale.metrics.Timer;
 import com.netflix.concurrency.limits.Limiter;
 
 /**
@@ -26,6 +30,10 @@ import com.netflix.concurrency.limits.Limiter;
  * request limits and returns a Status.UNAVAILABLE when that limit has been
  * reached.
  *
+ * With {@link #partitionByAuthority} each server the calls go to, known by
+ * the authority of the channel, gets a limiter of its own, so a slow server
+ * does not shrink the limit of the others.
+ *
  * Refer to `concurrency-limit-grpc`
  *
  */
@@ -35,18 +43,45 @@ public class ClientRequestLimitInterceptor implements ClientInterceptor {
 
     private static final AtomicBoolean LIMIT_SWITCH = new AtomicBoolean(true);
 
-    private final Limiter<RequestLimitCtx>  limiter;
-    private final Function<String, Boolean> filter;
+    private static final MetricHandles<String, Timer> ACQUIRE_TIMERS = new MetricHandles<>(
+            methodName -> MetricsUtil.timer(LimitMetricRegistry.RPC_LIMITER, "acquire_time", methodName));
+
+    // by the authority of the channel
+    private final Function<String, Limiter<RequestLimitCtx>> limiters;
+    private final Function<String, Boolean>                  filter;
 
     public ClientRequestLimitInterceptor(Limiter<RequestLimitCtx> limiter) {
         this(limiter, (name) -> true);
     }
 
     public ClientRequestLimitInterceptor(Limiter<RequestLimitCtx> limiter, Function<String, Boolean> filter) {
-        this.limiter = limiter;
+        this(filter, authority -> limiter);
+    }
+
+    private ClientRequestLimitInterceptor(Function<String, Boolean> filter,
+                                          Function<String, Limiter<RequestLimitCtx>> limiters) {
+        this.limiters = limiters;
         this.filter = filter;
     }
 
+    /**
+     * Creates an interceptor which limits the calls to each authority by a
+     * limiter of its own, made by the given factory on the first call.
+     *
+     * @param limiterFactory creates the limiter of an authority
+     * @param filter         the methods to limit, by full method name
+     * @return the interceptor
+     */
+    public static ClientRequestLimitInterceptor partitionByAuthority(final Function<String, Limiter<RequestLimitCtx>> limiterFactory,
+                                                                     final Function<String, Boolean> filter) {
+        final ConcurrentMap<String, Limiter<RequestLimitCtx>> limiters = new ConcurrentHashMap<>();
+        return new ClientRequestLimitInterceptor(filter, authority -> {
+            // get first, computeIfAbsent locks even if the key is present on java 8
+            final Limiter<RequestLimitCtx> limiter = limiters.get(authority);
+            return limiter != null ? limiter : limiters.computeIfAbsent(authority, limiterFactory);
+        });
+    }
+
     @Override
     public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(final MethodDescriptor<ReqT, RespT> method, //
                                                                final CallOptions callOpts, //
@@ -56,10 +91,10 @@ public class ClientRequestLimitInterceptor implements ClientInterceptor {
         }
 
         final String methodName = method.getFullMethodName();
+        final Limiter<RequestLimitCtx> limiter = this.limiters.apply(next.authority());
 
-        return MetricsUtil.timer(LimitMetricRegistry.RPC_LIMITER, "acquire_time", methodName)
-                .timeSupplier(() -> this.limiter.acquire(() -> methodName))
-                .map(listener -> (ClientCall<ReqT, RespT>) new ForwardingClientCall.SimpleForwardingClientCall<ReqT, RespT>(
+        return ACQUIRE_TIMERS.get(methodName).timeSupplier(() -> limiter.acquire(() -> methodName)).map(
+                listener -> (ClientCall<ReqT, RespT>) new ForwardingClientCall.SimpleForwardingClientCall<ReqT, RespT>(
                         next.newCall(method, callOpts)) {
 
                     private final AtomicBoolean done = new AtomicBoolean(false);
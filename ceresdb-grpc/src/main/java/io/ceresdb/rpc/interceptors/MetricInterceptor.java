@@ -12,8 +12,12 @@ import io.grpc.ForwardingClientCallListener;
 import io.grpc.Metadata;
 import io.grpc.MethodDescriptor;
 
+import io.ceresdb.common.util.MetricHandles;
 import io.ceresdb.common.util.MetricsUtil;
+import io.ceresdb.rpc.EncodedRequest;
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
 import com.google.protobuf.MessageLite;
 
 /**
@@ -32,12 +36,14 @@ public class MetricInterceptor implements ClientInterceptor {
     private static final Counter REQ_BYTES  = MetricsUtil.counter(REQ_TYPE, BYTES);
     private static final Counter RESP_BYTES = MetricsUtil.counter(RESP_TYPE, BYTES);
 
+    private final MetricHandles<String, MethodMetrics> methodMetrics = new MetricHandles<>(MethodMetrics::new);
+
     @Override
     public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(final MethodDescriptor<ReqT, RespT> method, //
                                                                final CallOptions callOpts, //
                                                                final Channel next) {
-        final String methodName = method.getFullMethodName();
-        MetricsUtil.meter(REQ_TYPE, QPS, methodName).mark();
+        final MethodMetrics metrics = this.methodMetrics.get(method.getFullMethodName());
+        metrics.qps.mark();
 
         return new ForwardingClientCall.SimpleForwardingClientCall<ReqT, RespT>(next.newCall(method, callOpts)) {
 
@@ -49,7 +55,7 @@ public class MetricInterceptor implements ClientInterceptor {
                     public void onMessage(final RespT msg) {
                         if (msg instanceof MessageLite) {
                             final int size = ((MessageLite) msg).getSerializedSize();
-                            MetricsUtil.histogram(RESP_TYPE, SERIALIZED_BYTES, methodName).update(size);
+                            metrics.respBytes.update(size);
                             RESP_BYTES.inc(size);
                         }
                         super.onMessage(msg);
@@ -59,13 +65,27 @@ public class MetricInterceptor implements ClientInterceptor {
 
             @Override
             public void sendMessage(final ReqT msg) {
-                if (msg instanceof MessageLite) {
-                    final int size = ((MessageLite) msg).getSerializedSize();
-                    MetricsUtil.histogram(REQ_TYPE, SERIALIZED_BYTES, methodName).update(size);
+                final int size = msg instanceof MessageLite ? ((MessageLite) msg).getSerializedSize() :
+                        msg instanceof EncodedRequest ? ((EncodedRequest) msg).size() : -1;
+                if (size >= 0) {
+                    metrics.reqBytes.update(size);
                     REQ_BYTES.inc(size);
                 }
                 super.sendMessage(msg);
             }
         };
     }
+
+    private static final class MethodMetrics {
+
+        final Meter     qps;
+        final Histogram reqBytes;
+        final Histogram respBytes;
+
+        MethodMetrics(String methodName) {
+            this.qps = MetricsUtil.meter(REQ_TYPE, QPS, methodName);
+            this.reqBytes = MetricsUtil.histogram(REQ_TYPE, SERIALIZED_BYTES, methodName);
+            this.respBytes = MetricsUtil.histogram(RESP_TYPE, SERIALIZED_BYTES, methodName);
+        }
+    }
 }
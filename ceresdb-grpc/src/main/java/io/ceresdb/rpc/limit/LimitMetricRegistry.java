@@ -3,9 +3,11 @@
  */
 package io.ceresdb.rpc.limit;
 
+import java.util.Arrays;
 import java.util.function.Supplier;
 
 import io.ceresdb.common.util.MetricsUtil;
+import com.codahale.metrics.Histogram;
 import com.netflix.concurrency.limits.MetricRegistry;
 
 /**
@@ -16,9 +18,18 @@ public class LimitMetricRegistry implements MetricRegistry {
 
     public static final String RPC_LIMITER = "rpc_limiter";
 
+    // appended to the tags of every metric, e.g. the endpoint of a per-endpoint limiter
+    private final String[] scopeTagKVs;
+
+    public LimitMetricRegistry(String... scopeTagKVs) {
+        this.scopeTagKVs = scopeTagKVs;
+    }
+
     @Override
     public SampleListener distribution(final String id, final String... tagKVs) {
-        return v -> MetricsUtil.histogram(named(id, tagKVs)).update(v.intValue());
+        // resolved once, the listener records a sample per call
+        final Histogram histogram = MetricsUtil.histogram(named(id, tagKVs));
+        return v -> histogram.update(v.intValue());
     }
 
     @Override
@@ -28,10 +39,16 @@ public class LimitMetricRegistry implements MetricRegistry {
 
     @Override
     public Counter counter(final String id, final String... tagKVs) {
-        return () -> MetricsUtil.counter(named(id, tagKVs)).inc();
+        final com.codahale.metrics.Counter counter = MetricsUtil.counter(named(id, tagKVs));
+        return counter::inc;
     }
 
-    private static String named(final String id, final String... tagKVs) {
-        return MetricsUtil.namedById(RPC_LIMITER + "_" + id, tagKVs);
+    private String named(final String id, final String... tagKVs) {
+        if (this.scopeTagKVs.length == 0) {
+            return MetricsUtil.namedById(RPC_LIMITER + "_" + id, tagKVs);
+        }
+        final String[] all = Arrays.copyOf(tagKVs, tagKVs.length + this.scopeTagKVs.length);
+        System.arraycopy(this.scopeTagKVs, 0, all, tagKVs.length, this.scopeTagKVs.length);
+        return MetricsUtil.namedById(RPC_LIMITER + "_" + id, all);
     }
 }
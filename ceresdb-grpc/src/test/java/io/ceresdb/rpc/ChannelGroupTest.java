@@ -0,0 +1,194 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb.rpc;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.ConnectivityState;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.ceresdb.common.Endpoint;
+import io.ceresdb.common.util.MetricsUtil;
+
+public class ChannelGroupTest {
+
+    @Test
+    public void roundRobinTest() {
+        final IdChannel[] chs = channels(3, false);
+        final ChannelGroup group = new ChannelGroup(Endpoint.of("127.0.0.1", 8831), chs,
+                RpcOptions.ChannelSelection.RoundRobin);
+
+        final Set<Long> ids = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            ids.add(group.select().getChannelId());
+        }
+        Assert.assertEquals(3, ids.size());
+        group.close();
+    }
+
+    @Test
+    public void leastOutstandingTest() {
+        final IdChannel[] chs = channels(3, true);
+        final ChannelGroup group = new ChannelGroup(Endpoint.of("127.0.0.1", 8832), chs,
+                RpcOptions.ChannelSelection.LeastOutstanding);
+
+        final ClientCall.Listener<Object>[] listeners = start(chs[0], 2);
+        start(chs[2], 1);
+        Assert.assertEquals(3, group.getOutstandingCalls());
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertSame(chs[1], group.select());
+        }
+
+        listeners[0].onClose(Status.OK, new Metadata());
+        listeners[1].onClose(Status.OK, new Metadata());
+        Assert.assertEquals(0, chs[0].getOutstandingCalls());
+        Assert.assertEquals(1, group.getOutstandingCalls());
+        group.close();
+    }
+
+    @Test
+    public void skipFailingChannelTest() {
+        final IdChannel[] chs = channels(2, false);
+        final ChannelGroup group = new ChannelGroup(Endpoint.of("127.0.0.1", 8833), chs,
+                RpcOptions.ChannelSelection.RoundRobin);
+
+        ((FakeChannel) chs[0].getChannel()).state = ConnectivityState.TRANSIENT_FAILURE;
+        ((FakeChannel) chs[1].getChannel()).state = ConnectivityState.READY;
+        for (int i = 0; i < 4; i++) {
+            Assert.assertSame(chs[1], group.select());
+        }
+        Assert.assertEquals(1, group.getReadyChannels());
+
+        // all failing, still hands one out so the caller can count the failure
+        ((FakeChannel) chs[1].getChannel()).state = ConnectivityState.SHUTDOWN;
+        Assert.assertFalse(ChannelGroup.isUsable(group.select()));
+        group.close();
+    }
+
+    @Test
+    public void gaugesPerGroupTest() {
+        final Endpoint endpoint = Endpoint.of("127.0.0.1", 8834);
+        final ChannelGroup g1 = new ChannelGroup(endpoint, channels(1, false), RpcOptions.ChannelSelection.RoundRobin);
+        final ChannelGroup g2 = new ChannelGroup(endpoint, channels(2, false), RpcOptions.ChannelSelection.RoundRobin);
+        Assert.assertEquals(4, countGauges(endpoint));
+
+        g1.close();
+        Assert.assertEquals(2, countGauges(endpoint));
+        g2.close();
+        Assert.assertEquals(0, countGauges(endpoint));
+    }
+
+    private static long countGauges(final Endpoint endpoint) {
+        return MetricsUtil.metricRegistry().getGauges().keySet().stream() //
+                .filter(name -> name.startsWith("channel_pool_") && name.contains(endpoint.toString())) //
+                .count();
+    }
+
+    private static IdChannel[] channels(final int n, final boolean countCalls) {
+        final IdChannel[] chs = new IdChannel[n];
+        for (int i = 0; i < n; i++) {
+            chs[i] = new IdChannel(new FakeChannel(), countCalls);
+        }
+        return chs;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ClientCall.Listener<Object>[] start(final IdChannel ch, final int n) {
+        final ClientCall.Listener<Object>[] listeners = new ClientCall.Listener[n];
+        for (int i = 0; i < n; i++) {
+            final ClientCall<Object, Object> call = ch.newCall(null, CallOptions.DEFAULT);
+            call.start(new ClientCall.Listener<Object>() {
+            }, new Metadata());
+            listeners[i] = ((FakeChannel) ch.getChannel()).lastCall.listener;
+        }
+        return listeners;
+    }
+
+    static final class FakeChannel extends ManagedChannel {
+
+        volatile ConnectivityState state = ConnectivityState.IDLE;
+        volatile FakeCall          lastCall;
+
+        @Override
+        public ManagedChannel shutdown() {
+            this.state = ConnectivityState.SHUTDOWN;
+            return this;
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return this.state == ConnectivityState.SHUTDOWN;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return isShutdown();
+        }
+
+        @Override
+        public ManagedChannel shutdownNow() {
+            return shutdown();
+        }
+
+        @Override
+        public boolean awaitTermination(final long timeout, final TimeUnit unit) {
+            return true;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(final MethodDescriptor<ReqT, RespT> method,
+                                                             final CallOptions callOpts) {
+            this.lastCall = new FakeCall();
+            return (ClientCall<ReqT, RespT>) this.lastCall;
+        }
+
+        @Override
+        public String authority() {
+            return "fake";
+        }
+
+        @Override
+        public ConnectivityState getState(final boolean requestConnection) {
+            return this.state;
+        }
+    }
+
+    static final class FakeCall extends ClientCall<Object, Object> {
+
+        Listener<Object> listener;
+
+        @Override
+        public void start(final Listener<Object> listener, final Metadata headers) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void request(final int numMessages) {
+        }
+
+        @Override
+        public void cancel(final String message, final Throwable cause) {
+        }
+
+        @Override
+        public void halfClose() {
+        }
+
+        @Override
+        public void sendMessage(final Object message) {
+        }
+    }
+}
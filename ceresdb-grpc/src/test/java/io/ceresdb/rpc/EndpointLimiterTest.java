@@ -0,0 +1,117 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb.rpc;
+
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.ceresdb.rpc.interceptors.ClientRequestLimitInterceptor;
+import io.ceresdb.rpc.limit.LimitMetricRegistry;
+import io.ceresdb.rpc.limit.RequestLimiterBuilder;
+
+import com.netflix.concurrency.limits.limit.FixedLimit;
+
+public class EndpointLimiterTest {
+
+    private static final MethodDescriptor<Object, Object> METHOD = MethodDescriptor.newBuilder() //
+            .setType(MethodDescriptor.MethodType.UNARY) //
+            .setFullMethodName("service/method") //
+            .setRequestMarshaller(new NoopMarshaller()) //
+            .setResponseMarshaller(new NoopMarshaller()) //
+            .build();
+
+    @Test
+    public void limitEachAuthorityTest() {
+        final AtomicInteger created = new AtomicInteger();
+        final ClientRequestLimitInterceptor interceptor = ClientRequestLimitInterceptor
+                .partitionByAuthority(authority -> {
+                    created.incrementAndGet();
+                    return RequestLimiterBuilder.newBuilder() //
+                            .named("endpoint_limiter_test_" + authority) //
+                            .metricRegistry(new LimitMetricRegistry("endpoint", authority)) //
+                            .blockOnLimit(false, 0) //
+                            .limit(FixedLimit.of(1)) //
+                            .build();
+                }, name -> true);
+
+        final FakeChannel slow = new FakeChannel("127.0.0.1:8831");
+        final FakeChannel healthy = new FakeChannel("127.0.0.2:8831");
+
+        // the only permit of the slow one is in use
+        final Status[] first = call(interceptor, slow);
+        Assert.assertNull(first[0]);
+        Assert.assertEquals(Status.Code.UNAVAILABLE, call(interceptor, slow)[0].getCode());
+
+        // the healthy one is not affected
+        final Status[] other = call(interceptor, healthy);
+        Assert.assertNull(other[0]);
+        Assert.assertEquals(2, created.get());
+
+        // the permit comes back once the call completes
+        slow.lastCall.listener.onClose(Status.OK, new Metadata());
+        Assert.assertNull(call(interceptor, slow)[0]);
+        Assert.assertEquals(2, created.get());
+    }
+
+    private static Status[] call(final ClientRequestLimitInterceptor interceptor, final Channel ch) {
+        final Status[] closed = new Status[1];
+        final ClientCall<Object, Object> call = interceptor.interceptCall(METHOD, CallOptions.DEFAULT, ch);
+        call.start(new ClientCall.Listener<Object>() {
+
+            @Override
+            public void onClose(final Status status, final Metadata trailers) {
+                closed[0] = status;
+            }
+        }, new Metadata());
+        call.sendMessage("req");
+        call.halfClose();
+        return closed;
+    }
+
+    static final class FakeChannel extends Channel {
+
+        private final String               authority;
+        volatile ChannelGroupTest.FakeCall lastCall;
+
+        FakeChannel(String authority) {
+            this.authority = authority;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(final MethodDescriptor<ReqT, RespT> method,
+                                                             final CallOptions callOpts) {
+            this.lastCall = new ChannelGroupTest.FakeCall();
+            return (ClientCall<ReqT, RespT>) this.lastCall;
+        }
+
+        @Override
+        public String authority() {
+            return this.authority;
+        }
+    }
+
+    static final class NoopMarshaller implements MethodDescriptor.Marshaller<Object> {
+
+        @Override
+        public InputStream stream(final Object value) {
+            return null;
+        }
+
+        @Override
+        public Object parse(final InputStream stream) {
+            return null;
+        }
+    }
+}
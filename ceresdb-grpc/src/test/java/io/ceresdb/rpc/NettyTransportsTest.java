@@ -0,0 +1,57 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb.rpc;
+
+import io.grpc.netty.shaded.io.netty.buffer.ByteBufAllocator;
+import io.grpc.netty.shaded.io.netty.channel.epoll.Epoll;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.socket.nio.NioSocketChannel;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NettyTransportsTest {
+
+    @Test
+    public void shareEventLoopGroupTest() {
+        final NettyTransports.EventLoop l1 = NettyTransports.acquire(RpcOptions.IoTransport.Nio, 3);
+        final NettyTransports.EventLoop l2 = NettyTransports.acquire(RpcOptions.IoTransport.Nio, 3);
+        final NettyTransports.EventLoop l3 = NettyTransports.acquire(RpcOptions.IoTransport.Nio, 2);
+
+        Assert.assertSame(l1.group(), l2.group());
+        Assert.assertNotSame(l1.group(), l3.group());
+        Assert.assertEquals(NioSocketChannel.class, l1.channelType());
+
+        l1.release();
+        Assert.assertFalse(l2.group().isShuttingDown());
+        l2.release();
+        Assert.assertTrue(l2.group().isShuttingDown());
+        l3.release();
+
+        // the last one closed it, a new one is created
+        final NettyTransports.EventLoop l4 = NettyTransports.acquire(RpcOptions.IoTransport.Nio, 3);
+        Assert.assertNotSame(l1.group(), l4.group());
+        l4.release();
+    }
+
+    @Test
+    public void autoTransportTest() {
+        final NettyTransports.EventLoop l = NettyTransports.acquire(RpcOptions.IoTransport.Auto, 1);
+        Assert.assertEquals(Epoll.isAvailable() ? EpollSocketChannel.class : NioSocketChannel.class, l.channelType());
+        l.release();
+    }
+
+    @Test
+    public void defaultTransportTest() {
+        Assert.assertNull(NettyTransports.acquire(RpcOptions.IoTransport.Default, 1));
+        Assert.assertEquals(RpcOptions.IoTransport.Default, new RpcOptions().getIoTransport());
+    }
+
+    @Test
+    public void pooledDirectAllocatorTest() {
+        final ByteBufAllocator allocator = NettyTransports.pooledDirectAllocator(2);
+        Assert.assertSame(allocator, NettyTransports.pooledDirectAllocator(2));
+        Assert.assertTrue(allocator.buffer(16).release() && allocator.isDirectBufferPooled());
+    }
+}
@@ -0,0 +1,443 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+import io.ceresdb.common.util.Requires;
+
+/**
+ * Writes the metrics of a {@link MetricRegistry} in the OpenMetrics text
+ * format.
+ *
+ * The metrics the client names by a method, an endpoint or another key, such
+ * as {@code req_rt_${method}_${endpoint}}, are written as the samples of one
+ * family with the keys as labels. Metrics whose names are the same once
+ * sanitized share one family as well, the first of them is written.
+ *
+ * The sanitized names and the header of each metric family are rendered on
+ * the first scrape that sees the metric and reused afterwards, a scrape only
+ * formats the values.
+ *
+ * <ul>
+ *     <li>counter: a counter</li>
+ *     <li>meter: a counter and a gauge of its one-minute rate</li>
+ *     <li>histogram: a summary</li>
+ *     <li>timer: a summary in seconds and a gauge of its one-minute rate</li>
+ *     <li>gauge: a gauge, when its value is a number or a boolean</li>
+ * </ul>
+ *
+ */
+public final class OpenMetricsFormatter {
+
+    public static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    private static final double[] QUANTILES = { 0.5, 0.75, 0.95, 0.99, 0.999 };
+    private static final double   SECONDS   = 1.0 / TimeUnit.SECONDS.toNanos(1);
+
+    // family -> the labels of the keys appended to it, the last label takes the rest of the name
+    private static final Map<String, String[]> KEYED_FAMILIES = new HashMap<>();
+
+    static {
+        keyed("req_rt", "method", "endpoint");
+        keyed("req_failed", "method", "endpoint");
+        keyed("req_qps", "method");
+        keyed("req_serialized_bytes", "method");
+        keyed("resp_serialized_bytes", "method");
+        keyed("connection_counter", "endpoint");
+        keyed("connection_failures", "endpoint");
+        keyed("channel_pool_outstanding_calls", "endpoint", "group");
+        keyed("channel_pool_ready_channels", "endpoint", "group");
+        keyed("route_for_tables_refreshed_size", "endpoint");
+        keyed("route_for_tables_cached_size", "endpoint");
+        keyed("route_for_tables_gc_times", "endpoint");
+        keyed("route_for_tables_gc_items", "endpoint");
+        keyed("route_for_tables_gc_timer", "endpoint");
+        keyed("route_for_tables_coalesced_size", "endpoint");
+        keyed("route_for_tables_batched_size", "endpoint");
+        keyed("route_for_tables_refresh_ahead_size", "endpoint");
+        keyed("route_for_tables_refresh_ahead_changed", "endpoint");
+        keyed("route_for_tables_refresh_ahead_timer", "endpoint");
+        keyed("write_by_retries", "retries");
+        keyed("read_by_retries", "retries");
+        keyed("write_phase_time", "phase");
+        keyed("serializing_executor_drain_num", "executor");
+        keyed("direct_executor_timer", "executor");
+    }
+
+    private final String              prefix;
+    private final Map<String, Series> series   = new HashMap<>(); // by the name in the registry
+    private final Map<String, Family> families = new HashMap<>(); // by the sanitized name
+    private long                      scrapes;
+
+    public OpenMetricsFormatter(String prefix) {
+        this.prefix = Requires.requireNonNull(prefix, "prefix");
+    }
+
+    /**
+     * Writes all metrics of the registry followed by the terminating
+     * {@code # EOF} line, the writer is neither flushed nor closed.
+     */
+    public void write(final MetricRegistry registry, final Writer out) throws IOException {
+        // the lock is not held while writing, the writer may be a slow http client
+        for (final Scraped scraped : collect(registry)) {
+            scraped.write(out);
+        }
+        out.write("# EOF\n");
+    }
+
+    int cachedFamilies() {
+        return this.families.size();
+    }
+
+    /**
+     * Groups the metrics of the registry by family.
+     */
+    private synchronized List<Scraped> collect(final MetricRegistry registry) {
+        final long scrape = ++this.scrapes;
+        final Map<String, Metric> metrics = registry.getMetrics();
+        final Map<Family, Scraped> scraped = new LinkedHashMap<>();
+        final Set<String> ids = new HashSet<>();
+        for (final Map.Entry<String, Metric> e : metrics.entrySet()) {
+            final Series s = series(e.getKey(), e.getValue());
+            if (s == null || !ids.add(s.id)) {
+                continue;
+            }
+            s.scrape = scrape;
+            s.family.scrape = scrape;
+            scraped.computeIfAbsent(s.family, Scraped::new).add(s, e.getValue());
+        }
+
+        // forget the metrics removed from the registry
+        if (this.series.size() > metrics.size()) {
+            this.series.values().removeIf(s -> s.scrape != scrape);
+        }
+        if (this.families.size() > scraped.size()) {
+            this.families.values().removeIf(f -> f.scrape != scrape);
+        }
+        return new ArrayList<>(scraped.values());
+    }
+
+    private Series series(final String name, final Metric metric) {
+        final Kind kind = Kind.of(metric);
+        if (kind == null) {
+            return null;
+        }
+        final Series s = this.series.get(name);
+        // the family is replaced when a metric of another kind takes its name
+        if (s != null && s.family.kind == kind && this.families.get(s.family.name) == s.family) {
+            return s;
+        }
+
+        String familyName = name;
+        String labels = "";
+        for (int i = name.indexOf('_'); i > 0; i = name.indexOf('_', i + 1)) {
+            final String[] labelNames = KEYED_FAMILIES.get(name.substring(0, i));
+            if (labelNames != null) {
+                familyName = name.substring(0, i);
+                labels = labels(labelNames, name, i + 1);
+                break;
+            }
+        }
+        familyName = sanitize(this.prefix, familyName);
+        if ((kind == Kind.Counter || kind == Kind.Meter) && familyName.endsWith("_total")) {
+            // the family of a counter must not end with _total, its sample does
+            familyName = familyName.substring(0, familyName.length() - 6);
+        }
+
+        Family family = this.families.get(familyName);
+        if (family == null || (family.kind != kind && family.scrape != this.scrapes)) {
+            family = new Family(kind, familyName);
+            this.families.put(familyName, family);
+        } else if (family.kind != kind) {
+            // taken by a metric of another kind in this scrape
+            return null;
+        }
+        final Series created = new Series(family, labels);
+        this.series.put(name, created);
+        return created;
+    }
+
+    static String sanitize(final String prefix, final String name) {
+        final StringBuilder buf = new StringBuilder(prefix.length() + name.length() + 1);
+        if (!prefix.isEmpty()) {
+            buf.append(prefix).append('_');
+        }
+        buf.append(name);
+        if (buf.length() > 0 && Character.isDigit(buf.charAt(0))) {
+            buf.insert(0, '_');
+        }
+        // colons are left to recording rules
+        for (int i = 0; i < buf.length(); i++) {
+            final char c = buf.charAt(i);
+            if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_')) {
+                buf.setCharAt(i, '_');
+            }
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Renders the keys of a name, separated by '_' from the given index, as
+     * the given labels. Empty keys are left out.
+     */
+    static String labels(final String[] labelNames, final String name, final int from) {
+        final StringBuilder buf = new StringBuilder();
+        int start = from;
+        for (int i = 0; i < labelNames.length && start <= name.length(); i++) {
+            int end = i == labelNames.length - 1 ? -1 : name.indexOf('_', start);
+            if (end < 0) {
+                end = name.length();
+            }
+            if (end > start) {
+                if (buf.length() > 0) {
+                    buf.append(',');
+                }
+                buf.append(labelNames[i]).append("=\"");
+                for (int j = start; j < end; j++) {
+                    final char c = name.charAt(j);
+                    if (c == '\\' || c == '"') {
+                        buf.append('\\').append(c);
+                    } else if (c == '\n') {
+                        buf.append("\\n");
+                    } else {
+                        buf.append(c);
+                    }
+                }
+                buf.append('"');
+            }
+            start = end + 1;
+        }
+        return buf.toString();
+    }
+
+    static String format(final double v) {
+        if (Double.isNaN(v)) {
+            return "NaN";
+        }
+        if (Double.isInfinite(v)) {
+            return v > 0 ? "+Inf" : "-Inf";
+        }
+        return Double.toString(v);
+    }
+
+    private static void keyed(final String family, final String... labelNames) {
+        KEYED_FAMILIES.put(family, labelNames);
+    }
+
+    private enum Kind {
+        Counter, Meter, Histogram, Timer, Gauge;
+
+        static Kind of(final Metric metric) {
+            if (metric instanceof Counter) {
+                return Counter;
+            }
+            if (metric instanceof Meter) {
+                return Meter;
+            }
+            if (metric instanceof Histogram) {
+                return Histogram;
+            }
+            if (metric instanceof Timer) {
+                return Timer;
+            }
+            if (metric instanceof Gauge) {
+                return Gauge;
+            }
+            return null;
+        }
+    }
+
+    private static final class Family {
+
+        final Kind   kind;
+        final String name;
+        final String header;
+        final String sample;
+        final String count;
+        final String rateHeader;
+        final String rate;
+        long         scrape;
+
+        Family(Kind kind, String name) {
+            this.kind = kind;
+            this.name = name;
+            final String rate = kind == Kind.Meter || kind == Kind.Timer ? name + "_m1_rate" : null;
+            switch (kind) {
+                case Counter:
+                case Meter:
+                    this.header = "# TYPE " + name + " counter\n";
+                    this.sample = name + "_total";
+                    this.count = null;
+                    break;
+                case Histogram:
+                case Timer: {
+                    final String family = kind == Kind.Timer ? name + "_seconds" : name;
+                    this.header = kind == Kind.Timer ? //
+                            "# TYPE " + family + " summary\n# UNIT " + family + " seconds\n" : //
+                            "# TYPE " + family + " summary\n";
+                    this.sample = family;
+                    this.count = family + "_count";
+                    break;
+                }
+                default:
+                    this.header = "# TYPE " + name + " gauge\n";
+                    this.sample = name;
+                    this.count = null;
+            }
+            this.rateHeader = rate == null ? null : "# TYPE " + rate + " gauge\n";
+            this.rate = rate;
+        }
+    }
+
+    /**
+     * A metric of the registry, the samples of its family with its labels.
+     */
+    private static final class Series {
+
+        final Family   family;
+        final String   id;
+        final String   sample;
+        final String[] quantiles;
+        final String   count;
+        final String   rate;
+        long           scrape;
+
+        Series(Family family, String labels) {
+            this.family = family;
+            final String braced = labels.isEmpty() ? " " : "{" + labels + "} ";
+            this.id = family.name + braced;
+            this.sample = family.sample + braced;
+            if (family.count == null) {
+                this.quantiles = null;
+                this.count = null;
+            } else {
+                final String quantilePrefix = family.sample + (labels.isEmpty() ? "{" : "{" + labels + ",");
+                this.quantiles = new String[QUANTILES.length];
+                for (int i = 0; i < QUANTILES.length; i++) {
+                    this.quantiles[i] = quantilePrefix + "quantile=\"" + QUANTILES[i] + "\"} ";
+                }
+                this.count = family.count + braced;
+            }
+            this.rate = family.rate == null ? null : family.rate + braced;
+        }
+    }
+
+    /**
+     * The metrics of one family seen by a scrape, written together as the
+     * samples of a family must not be interleaved with others.
+     */
+    private static final class Scraped {
+
+        final Family       family;
+        final List<Series> series  = new ArrayList<>();
+        final List<Metric> metrics = new ArrayList<>();
+
+        Scraped(Family family) {
+            this.family = family;
+        }
+
+        void add(final Series s, final Metric metric) {
+            this.series.add(s);
+            this.metrics.add(metric);
+        }
+
+        void write(final Writer out) throws IOException {
+            switch (this.family.kind) {
+                case Counter:
+                    out.write(this.family.header);
+                    for (int i = 0; i < this.series.size(); i++) {
+                        writeSample(this.series.get(i).sample, ((Counter) this.metrics.get(i)).getCount(), out);
+                    }
+                    break;
+                case Meter:
+                    out.write(this.family.header);
+                    for (int i = 0; i < this.series.size(); i++) {
+                        writeSample(this.series.get(i).sample, ((Meter) this.metrics.get(i)).getCount(), out);
+                    }
+                    out.write(this.family.rateHeader);
+                    for (int i = 0; i < this.series.size(); i++) {
+                        writeSample(this.series.get(i).rate, ((Meter) this.metrics.get(i)).getOneMinuteRate(), out);
+                    }
+                    break;
+                case Histogram:
+                    out.write(this.family.header);
+                    for (int i = 0; i < this.series.size(); i++) {
+                        final Histogram histogram = (Histogram) this.metrics.get(i);
+                        writeSummary(this.series.get(i), histogram.getSnapshot(), histogram.getCount(), 1.0, out);
+                    }
+                    break;
+                case Timer:
+                    out.write(this.family.header);
+                    for (int i = 0; i < this.series.size(); i++) {
+                        final Timer timer = (Timer) this.metrics.get(i);
+                        writeSummary(this.series.get(i), timer.getSnapshot(), timer.getCount(), SECONDS, out);
+                    }
+                    out.write(this.family.rateHeader);
+                    for (int i = 0; i < this.series.size(); i++) {
+                        writeSample(this.series.get(i).rate, ((Timer) this.metrics.get(i)).getOneMinuteRate(), out);
+                    }
+                    break;
+                default: {
+                    boolean header = false;
+                    for (int i = 0; i < this.series.size(); i++) {
+                        final Object v = ((Gauge<?>) this.metrics.get(i)).getValue();
+                        final double value;
+                        if (v instanceof Number) {
+                            value = ((Number) v).doubleValue();
+                        } else if (v instanceof Boolean) {
+                            value = (Boolean) v ? 1 : 0;
+                        } else {
+                            continue;
+                        }
+                        if (!header) {
+                            out.write(this.family.header);
+                            header = true;
+                        }
+                        writeSample(this.series.get(i).sample, value, out);
+                    }
+                }
+            }
+        }
+
+        private static void writeSummary(final Series s, final Snapshot snapshot, final long count, final double factor,
+                                         final Writer out)
+                throws IOException {
+            for (int i = 0; i < QUANTILES.length; i++) {
+                writeSample(s.quantiles[i], snapshot.getValue(QUANTILES[i]) * factor, out);
+            }
+            writeSample(s.count, count, out);
+        }
+
+        private static void writeSample(final String sample, final long value, final Writer out) throws IOException {
+            out.write(sample);
+            out.write(Long.toString(value));
+            out.write('\n');
+        }
+
+        private static void writeSample(final String sample, final double value, final Writer out) throws IOException {
+            out.write(sample);
+            out.write(format(value));
+            out.write('\n');
+        }
+    }
+}
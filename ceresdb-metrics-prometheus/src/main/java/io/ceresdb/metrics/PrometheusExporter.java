@@ -0,0 +1,179 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb.metrics;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import io.ceresdb.common.Display;
+import io.ceresdb.common.Lifecycle;
+import io.ceresdb.common.util.ExecutorServiceHelper;
+import io.ceresdb.common.util.NamedThreadFactory;
+import io.ceresdb.common.util.Requires;
+import io.ceresdb.common.util.ThreadPoolUtil;
+
+/**
+ * Exposes the client metrics to prometheus in the OpenMetrics text format,
+ * through an embedded http endpoint or {@link #scrape(Writer)} for
+ * applications that serve them on an endpoint of their own.
+ *
+ */
+public class PrometheusExporter implements Lifecycle<PrometheusExporterOptions>, Display {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PrometheusExporter.class);
+
+    private static final String EXECUTOR_NAME = "metrics.exporter";
+
+    private final AtomicBoolean started = new AtomicBoolean(false);
+
+    private PrometheusExporterOptions opts;
+    private OpenMetricsFormatter      formatter;
+    private HttpServer                server;
+    private ExecutorService           serverPool;
+
+    @Override
+    public boolean init(final PrometheusExporterOptions opts) {
+        if (!this.started.compareAndSet(false, true)) {
+            throw new IllegalStateException("Prometheus exporter has started");
+        }
+
+        this.opts = Requires.requireNonNull(opts, "opts").copy();
+        Requires.requireNonNull(this.opts.getRegistry(), "registry");
+        this.formatter = new OpenMetricsFormatter(this.opts.getPrefix());
+
+        if (this.opts.isHttpEnabled()) {
+            try {
+                this.server = startServer(this.opts);
+            } catch (final IOException e) {
+                LOG.error("Fail to start prometheus exporter on {}:{}.", this.opts.getHost(), this.opts.getPort(), e);
+                this.started.set(false);
+                return false;
+            }
+            LOG.info("Prometheus exporter listening on {}:{}{}.", this.opts.getHost(), getPort(), this.opts.getPath());
+        }
+        return true;
+    }
+
+    @Override
+    public void shutdownGracefully() {
+        if (!this.started.compareAndSet(true, false)) {
+            return;
+        }
+
+        if (this.server != null) {
+            this.server.stop(0);
+            this.server = null;
+        }
+        if (this.serverPool != null) {
+            ExecutorServiceHelper.shutdownAndAwaitTermination(this.serverPool);
+            this.serverPool = null;
+        }
+    }
+
+    /**
+     * Writes the current metrics to the given writer, followed by the
+     * terminating {@code # EOF} line. The content type of the output is
+     * {@link OpenMetricsFormatter#CONTENT_TYPE}.
+     */
+    public void scrape(final Writer out) throws IOException {
+        Requires.requireTrue(this.started.get(), "Prometheus exporter has not started");
+        this.formatter.write(this.opts.getRegistry(), out);
+    }
+
+    public String scrape() {
+        final StringWriter out = new StringWriter(4096);
+        try {
+            scrape(out);
+        } catch (final IOException e) {
+            // never thrown by a string writer
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * The port the http endpoint is bound to, -1 when it is not serving.
+     */
+    public int getPort() {
+        final HttpServer server = this.server;
+        return server == null ? -1 : server.getAddress().getPort();
+    }
+
+    private HttpServer startServer(final PrometheusExporterOptions opts) throws IOException {
+        final HttpServer server = HttpServer.create(new InetSocketAddress(opts.getHost(), opts.getPort()), 0);
+        server.createContext(opts.getPath(), this::handle);
+        this.serverPool = ThreadPoolUtil.newBuilder() //
+                .poolName(EXECUTOR_NAME) //
+                .enableMetric(false) //
+                .coreThreads(1) //
+                .maximumThreads(1) //
+                .keepAliveSeconds(60L) //
+                .workQueue(new ArrayBlockingQueue<>(64)) //
+                .threadFactory(new NamedThreadFactory(EXECUTOR_NAME, true)) //
+                .build();
+        server.setExecutor(this.serverPool);
+        server.start();
+        return server;
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        try {
+            final String method = exchange.getRequestMethod();
+            if ("HEAD".equals(method)) {
+                exchange.getResponseHeaders().set("Content-Type", OpenMetricsFormatter.CONTENT_TYPE);
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            if (!"GET".equals(method)) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", OpenMetricsFormatter.CONTENT_TYPE);
+            // chunked, the metrics are written as they are formatted
+            exchange.sendResponseHeaders(200, 0);
+            final Writer out = new BufferedWriter(
+                    new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8), 8192);
+            scrape(out);
+            out.flush();
+        } catch (final Throwable t) {
+            LOG.warn("Fail to serve metrics to {}.", exchange.getRemoteAddress(), t);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    @Override
+    public void display(final Printer out) {
+        out.println("--- PrometheusExporter ---") //
+                .print("started=") //
+                .println(this.started.get()) //
+                .print("opts=") //
+                .println(this.opts) //
+                .print("port=") //
+                .println(getPort());
+    }
+
+    @Override
+    public String toString() {
+        return "PrometheusExporter{" + //
+               "opts=" + opts + //
+               ", port=" + getPort() + //
+               '}';
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+
+import io.ceresdb.common.Copiable;
+import io.ceresdb.common.util.MetricsUtil;
+
+/**
+ * Prometheus exporter options.
+ *
+ */
+public class PrometheusExporterOptions implements Copiable<PrometheusExporterOptions> {
+
+    /**
+     * The registry to export, the client, its thread pools and its limiters
+     * all register their metrics to the global one.
+     */
+    private MetricRegistry registry = MetricsUtil.metricRegistry();
+
+    /**
+     * Prepended to the name of every exported metric.
+     * Default: ceresdb
+     */
+    private String prefix = "ceresdb";
+
+    /**
+     * Serves the metrics over http, otherwise they are only available
+     * through {@link PrometheusExporter#scrape}.
+     * Default: true
+     */
+    private boolean httpEnabled = true;
+
+    private String host = "0.0.0.0";
+
+    /**
+     * The port of the http endpoint, 0 picks a free one.
+     * Default: 9464
+     */
+    private int port = 9464;
+
+    private String path = "/metrics";
+
+    public MetricRegistry getRegistry() {
+        return registry;
+    }
+
+    public void setRegistry(MetricRegistry registry) {
+        this.registry = registry;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public void setPrefix(String prefix) {
+        this.prefix = prefix;
+    }
+
+    public boolean isHttpEnabled() {
+        return httpEnabled;
+    }
+
+    public void setHttpEnabled(boolean httpEnabled) {
+        this.httpEnabled = httpEnabled;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    @Override
+    public PrometheusExporterOptions copy() {
+        final PrometheusExporterOptions opts = new PrometheusExporterOptions();
+        opts.registry = this.registry;
+        opts.prefix = this.prefix;
+        opts.httpEnabled = this.httpEnabled;
+        opts.host = this.host;
+        opts.port = this.port;
+        opts.path = this.path;
+        return opts;
+    }
+
+    @Override
+    public String toString() {
+        return "PrometheusExporterOptions{" + //
+               "prefix='" + prefix + '\'' + //
+               ", httpEnabled=" + httpEnabled + //
+               ", host='" + host + '\'' + //
+               ", port=" + port + //
+               ", path='" + path + '\'' + //
+               '}';
+    }
+
+    public static PrometheusExporterOptions newDefault() {
+        return new PrometheusExporterOptions();
+    }
+}
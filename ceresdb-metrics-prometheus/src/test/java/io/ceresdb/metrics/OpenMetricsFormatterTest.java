@@ -0,0 +1,171 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb.metrics;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+public class OpenMetricsFormatterTest {
+
+    @Test
+    public void writeAllKindsTest() throws IOException {
+        final MetricRegistry registry = new MetricRegistry();
+        registry.counter("write_failed_total").inc(3);
+        registry.meter("req_bytes").mark(10);
+        registry.histogram("split_num_per_write").update(2);
+        registry.timer("stream_write_ready_wait_time").update(20, TimeUnit.MILLISECONDS);
+        registry.register("pool.queue-size", (Gauge<Integer>) () -> 5);
+        registry.register("started", (Gauge<Boolean>) () -> true);
+        registry.register("name", (Gauge<String>) () -> "ignored");
+
+        final String text = write(new OpenMetricsFormatter("ceresdb"), registry);
+
+        Assert.assertTrue(text, text.contains("# TYPE ceresdb_write_failed counter\nceresdb_write_failed_total 3\n"));
+        Assert.assertTrue(text, text.contains("# TYPE ceresdb_req_bytes counter\nceresdb_req_bytes_total 10\n"));
+        Assert.assertTrue(text, text.contains("# TYPE ceresdb_req_bytes_m1_rate gauge\n"));
+        Assert.assertTrue(text, text.contains("# TYPE ceresdb_split_num_per_write summary\n"));
+        Assert.assertTrue(text, text.contains("ceresdb_split_num_per_write{quantile=\"0.99\"} 2.0\n"));
+        Assert.assertTrue(text, text.contains("ceresdb_split_num_per_write_count 1\n"));
+        Assert.assertTrue(text, text.contains("# UNIT ceresdb_stream_write_ready_wait_time_seconds seconds\n"));
+        Assert.assertTrue(text, text.contains("ceresdb_stream_write_ready_wait_time_seconds{quantile=\"0.5\"} 0.02\n"));
+        Assert.assertTrue(text, text.contains("# TYPE ceresdb_pool_queue_size gauge\nceresdb_pool_queue_size 5.0\n"));
+        Assert.assertTrue(text, text.contains("ceresdb_started 1.0\n"));
+        Assert.assertFalse(text, text.contains("ceresdb_name"));
+        Assert.assertTrue(text, text.endsWith("# EOF\n"));
+    }
+
+    @Test
+    public void keyedNamesAsLabelsTest() throws IOException {
+        final MetricRegistry registry = new MetricRegistry();
+        registry.timer("req_rt_storage.StorageService/Write").update(10, TimeUnit.MILLISECONDS);
+        registry.timer("req_rt_storage.StorageService/Write_127.0.0.1:8831").update(20, TimeUnit.MILLISECONDS);
+        registry.timer("req_rt_storage.StorageService/Write_127.0.0.2:8831").update(30, TimeUnit.MILLISECONDS);
+        registry.meter("write_phase_time_limiter_wait");
+        registry.meter("write_phase_time_encode");
+
+        final String text = write(new OpenMetricsFormatter("ceresdb"), registry);
+
+        Assert.assertEquals(text, 1, count(text, "# TYPE ceresdb_req_rt_seconds summary\n"));
+        Assert.assertEquals(text, 1, count(text, "# TYPE ceresdb_req_rt_m1_rate gauge\n"));
+        Assert.assertTrue(text, text
+                .contains("ceresdb_req_rt_seconds{method=\"storage.StorageService/Write\",quantile=\"0.5\"} 0.01\n"));
+        Assert.assertTrue(text,
+                text.contains(
+                        "ceresdb_req_rt_seconds{method=\"storage.StorageService/Write\",endpoint=\"127.0.0.1:8831\""
+                              + ",quantile=\"0.5\"} 0.02\n"));
+        Assert.assertTrue(text, text.contains(
+                "ceresdb_req_rt_seconds_count{method=\"storage.StorageService/Write\",endpoint=\"127.0.0.2:8831\"} 1\n"));
+        Assert.assertEquals(text, 1, count(text, "# TYPE ceresdb_write_phase_time counter\n"));
+        Assert.assertTrue(text, text.contains("ceresdb_write_phase_time_total{phase=\"limiter_wait\"} 0\n"));
+        Assert.assertTrue(text, text.contains("ceresdb_write_phase_time_total{phase=\"encode\"} 0\n"));
+    }
+
+    @Test
+    public void sameNameOnceSanitizedTest() throws IOException {
+        final MetricRegistry registry = new MetricRegistry();
+        registry.register("pool.queue-size", (Gauge<Integer>) () -> 5);
+        registry.register("pool_queue_size", (Gauge<Integer>) () -> 6);
+        registry.counter("pool.queue.size");
+
+        final String text = write(new OpenMetricsFormatter(""), registry);
+
+        Assert.assertEquals(text, 1, count(text, "# TYPE pool_queue_size "));
+        Assert.assertEquals(text, 1, count(text, "\npool_queue_size "));
+        Assert.assertTrue(text, text.contains("\npool_queue_size 5.0\n"));
+    }
+
+    @Test
+    public void writeWithoutLockTest() throws Exception {
+        final MetricRegistry registry = new MetricRegistry();
+        registry.counter("a").inc();
+        final OpenMetricsFormatter formatter = new OpenMetricsFormatter("");
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Writer slow = new StringWriter() {
+
+            @Override
+            public void write(final String str) {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.write(str);
+            }
+        };
+        final Thread t = new Thread(() -> {
+            try {
+                formatter.write(registry, slow);
+            } catch (final IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        t.start();
+        Assert.assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+        // not blocked by the slow one
+        final ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Assert.assertTrue(
+                    pool.submit(() -> write(formatter, registry)).get(5, TimeUnit.SECONDS).contains("a_total 1\n"));
+        } finally {
+            release.countDown();
+            pool.shutdownNow();
+        }
+        t.join();
+    }
+
+    @Test
+    public void forgetRemovedMetricsTest() throws IOException {
+        final MetricRegistry registry = new MetricRegistry();
+        final OpenMetricsFormatter formatter = new OpenMetricsFormatter("");
+        registry.counter("a").inc();
+        registry.counter("b").inc();
+
+        Assert.assertTrue(write(formatter, registry).contains("a_total 1\n"));
+        Assert.assertEquals(2, formatter.cachedFamilies());
+
+        registry.remove("a");
+        final String text = write(formatter, registry);
+        Assert.assertFalse(text.contains("a_total"));
+        Assert.assertTrue(text.contains("b_total 1\n"));
+        Assert.assertEquals(1, formatter.cachedFamilies());
+    }
+
+    @Test
+    public void sanitizeTest() {
+        Assert.assertEquals("ceresdb_rpc_service_method",
+                OpenMetricsFormatter.sanitize("ceresdb", "rpc.service/method"));
+        Assert.assertEquals("_0_rt", OpenMetricsFormatter.sanitize("", "0-rt"));
+        Assert.assertEquals("+Inf", OpenMetricsFormatter.format(Double.POSITIVE_INFINITY));
+        Assert.assertEquals("NaN", OpenMetricsFormatter.format(Double.NaN));
+    }
+
+    private static int count(final String text, final String part) {
+        int n = 0;
+        for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + 1)) {
+            n++;
+        }
+        return n;
+    }
+
+    private static String write(final OpenMetricsFormatter formatter, final MetricRegistry registry)
+            throws IOException {
+        final StringWriter out = new StringWriter();
+        formatter.write(registry, out);
+        return out.toString();
+    }
+}
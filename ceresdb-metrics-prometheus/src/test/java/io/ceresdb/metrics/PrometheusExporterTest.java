@@ -0,0 +1,75 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb.metrics;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class PrometheusExporterTest {
+
+    @Test
+    public void scrapeOverHttpTest() throws IOException {
+        final MetricRegistry registry = new MetricRegistry();
+        registry.counter("write_rows_success_num").inc(7);
+
+        final PrometheusExporterOptions opts = PrometheusExporterOptions.newDefault();
+        opts.setRegistry(registry);
+        opts.setHost("127.0.0.1");
+        opts.setPort(0);
+
+        final PrometheusExporter exporter = new PrometheusExporter();
+        Assert.assertTrue(exporter.init(opts));
+        try {
+            Assert.assertTrue(exporter.getPort() > 0);
+            final HttpURLConnection conn = (HttpURLConnection) new URL(
+                    "http://127.0.0.1:" + exporter.getPort() + "/metrics").openConnection();
+            Assert.assertEquals(200, conn.getResponseCode());
+            Assert.assertEquals(OpenMetricsFormatter.CONTENT_TYPE, conn.getContentType());
+
+            final String body;
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8))) {
+                body = reader.lines().collect(Collectors.joining("\n", "", "\n"));
+            }
+            Assert.assertTrue(body, body.contains("ceresdb_write_rows_success_num_total 7\n"));
+            Assert.assertTrue(body, body.endsWith("# EOF\n"));
+
+            final HttpURLConnection post = (HttpURLConnection) new URL(
+                    "http://127.0.0.1:" + exporter.getPort() + "/metrics").openConnection();
+            post.setRequestMethod("POST");
+            Assert.assertEquals(405, post.getResponseCode());
+        } finally {
+            exporter.shutdownGracefully();
+        }
+        Assert.assertEquals(-1, exporter.getPort());
+    }
+
+    @Test
+    public void scrapeWithoutHttpTest() {
+        final MetricRegistry registry = new MetricRegistry();
+        registry.meter("req_bytes").mark(3);
+
+        final PrometheusExporterOptions opts = PrometheusExporterOptions.newDefault();
+        opts.setRegistry(registry);
+        opts.setHttpEnabled(false);
+        opts.setPrefix("client");
+
+        final PrometheusExporter exporter = new PrometheusExporter();
+        Assert.assertTrue(exporter.init(opts));
+        Assert.assertEquals(-1, exporter.getPort());
+        final String text = exporter.scrape();
+        Assert.assertTrue(text, text.contains("client_req_bytes_total 3\n"));
+        exporter.shutdownGracefully();
+    }
+}
@@ -0,0 +1,467 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.ceresdb.common.Display;
+import io.ceresdb.common.Endpoint;
+import io.ceresdb.common.Lifecycle;
+import io.ceresdb.common.util.Clock;
+import io.ceresdb.common.util.MetricsUtil;
+import io.ceresdb.common.util.Requires;
+import io.ceresdb.common.util.SharedScheduledPool;
+import io.ceresdb.common.util.Spines;
+import io.ceresdb.models.Err;
+import io.ceresdb.models.Point;
+import io.ceresdb.models.RequestContext;
+import io.ceresdb.models.Result;
+import io.ceresdb.models.WriteOk;
+import io.ceresdb.options.WriteOptions;
+import io.ceresdb.rpc.Context;
+import io.ceresdb.util.Utils;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+
+/**
+ * Auto-batching write pipeline on top of {@link WriteClient}.
+ *
+ * The points of concurrent writes are routed first and then accumulated in a
+ * lock-free buffer per (database, endpoint, context), only writes with equal
+ * contexts share a request. A buffer is flushed as one write when it holds
+ * {@code batchMaxPoints} points, {@code batchMaxBytes} estimated bytes, or its
+ * oldest point has waited {@code batchLingerMs}. Each caller's future is
+ * completed with its own slice of the combined result, empty buffers are
+ * dropped.
+ *
+ */
+public class BatchingWriter implements Lifecycle<WriteOptions>, Display {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BatchingWriter.class);
+
+    private static final SharedScheduledPool FLUSHER_POOL = Utils.getSharedScheduledPool("batching_write_flusher", 1);
+
+    private final WriteClient                     writeClient;
+    private final ConcurrentMap<BatchKey, Buffer> buffers = new ConcurrentHashMap<>();
+
+    private WriteOptions             opts;
+    private RouterClient             routerClient;
+    private Executor                 asyncPool;
+    private ScheduledExecutorService flusher;
+    private ScheduledFuture<?>       lingerTask;
+
+    static final class InnerMetrics {
+        static final Histogram POINTS_PER_BATCH = MetricsUtil.histogram("batching_write_points_per_batch");
+        static final Histogram WRITES_PER_BATCH = MetricsUtil.histogram("batching_write_writes_per_batch");
+        static final Meter     FLUSH_BY_SIZE    = MetricsUtil.meter("batching_write_flush_by_size");
+        static final Meter     FLUSH_BY_LINGER  = MetricsUtil.meter("batching_write_flush_by_linger");
+
+        static Histogram pointsPerBatch() {
+            return POINTS_PER_BATCH;
+        }
+
+        static Histogram writesPerBatch() {
+            return WRITES_PER_BATCH;
+        }
+
+        static Meter flushBySize() {
+            return FLUSH_BY_SIZE;
+        }
+
+        static Meter flushByLinger() {
+            return FLUSH_BY_LINGER;
+        }
+    }
+
+    public BatchingWriter(WriteClient writeClient) {
+        this.writeClient = Requires.requireNonNull(writeClient, "BatchingWriter.writeClient");
+    }
+
+    @Override
+    public boolean init(final WriteOptions opts) {
+        this.opts = Requires.requireNonNull(opts, "BatchingWriter.opts");
+        Requires.requireTrue(this.opts.getBatchMaxPoints() > 0, "BatchingWriter.batchMaxPoints must > 0");
+        Requires.requireTrue(this.opts.getBatchMaxBytes() > 0, "BatchingWriter.batchMaxBytes must > 0");
+        this.routerClient = this.opts.getRoutedClient();
+        this.asyncPool = this.writeClient.asyncPool();
+
+        final long lingerMs = this.opts.getBatchLingerMs();
+        if (lingerMs > 0) {
+            this.flusher = FLUSHER_POOL.getObject();
+            this.lingerTask = this.flusher.scheduleWithFixedDelay(this::flushLingered, lingerMs, lingerMs,
+                    TimeUnit.MILLISECONDS);
+        }
+        return true;
+    }
+
+    @Override
+    public void shutdownGracefully() {
+        if (this.lingerTask != null) {
+            this.lingerTask.cancel(false);
+            this.lingerTask = null;
+        }
+        if (this.flusher != null) {
+            FLUSHER_POOL.returnObject(this.flusher);
+            this.flusher = null;
+        }
+        // flush all remaining points, no one will be left waiting
+        this.buffers.values().forEach(this::flushAll);
+    }
+
+    /**
+     * Routes the given points and appends them to the batch buffers of their
+     * endpoints, the returned future completes when all of them are flushed.
+     *
+     * @param reqCtx the request context
+     * @param points the points to write
+     * @param ctx    the invoke context
+     * @return this caller's part of the write result
+     */
+    public CompletableFuture<Result<WriteOk, Err>> write(final RequestContext reqCtx, //
+                                                         final List<Point> points, //
+                                                         final Context ctx) {
+        if (points.isEmpty()) {
+            return Utils.completedCf(WriteOk.emptyOk().mapToResult());
+        }
+
+        final Set<String> tables = points.stream() //
+                .map(Point::getTable) //
+                .collect(Collectors.toSet());
+        final Context batchCtx = batchContextOf(ctx);
+
+        return this.routerClient.routeFor(reqCtx, tables)
+                .thenComposeAsync(routes -> Utils.splitDataByRoute(points, routes).entrySet().stream()
+                        // Append to the buffer of the endpoint
+                        .map(e -> append(new BatchKey(reqCtx.getDatabase(), e.getKey(), batchCtx), e.getValue()))
+                        // Reduce and combine write result
+                        .reduce((f1, f2) -> f1.thenCombineAsync(f2, Utils::combineResult, this.asyncPool))
+                        .orElse(Utils.completedCf(WriteOk.emptyOk().mapToResult())), this.asyncPool);
+    }
+
+    /**
+     * The context the batched request is sent with, the one of the caller
+     * without its write trace, which can not be shared.
+     */
+    private static Context batchContextOf(final Context ctx) {
+        final Context copy = ctx == null ? Context.newDefault() : ctx.copy();
+        copy.remove(WriteTrace.KEY);
+        return copy;
+    }
+
+    private CompletableFuture<Result<WriteOk, Err>> append(final BatchKey key, final List<Point> points) {
+        final Pending pending = new Pending(points);
+        final Buffer buf = this.buffers.computeIfAbsent(key, Buffer::new);
+        buf.add(pending);
+
+        if (this.lingerTask == null) {
+            // no linger time, nothing to wait for
+            flush(buf);
+            evictIfEmpty(buf);
+        } else if (buf.isFull(this.opts)) {
+            InnerMetrics.flushBySize().mark();
+            flush(buf);
+        } else if (this.buffers.get(key) != buf) {
+            // evicted right before the append, no one else will flush it
+            flushAll(buf);
+        }
+
+        return pending.future;
+    }
+
+    private void flushLingered() {
+        final long now = Clock.defaultClock().getTick();
+        final long lingerMs = this.opts.getBatchLingerMs();
+        this.buffers.values().forEach(buf -> {
+            if (buf.isEmpty()) {
+                evictIfEmpty(buf);
+            } else if (buf.lingered(now, lingerMs)) {
+                InnerMetrics.flushByLinger().mark();
+                flush(buf);
+            }
+        });
+    }
+
+    /**
+     * Drops an empty buffer, or the buffers of distinct contexts would pile
+     * up. An append racing with the removal either sees it and flushes by
+     * itself, or is seen here.
+     */
+    private void evictIfEmpty(final Buffer buf) {
+        if (buf.isEmpty() && this.buffers.remove(buf.key, buf) && !buf.isEmpty()) {
+            flushAll(buf);
+        }
+    }
+
+    private void flushAll(final Buffer buf) {
+        while (!buf.isEmpty()) {
+            flush(buf);
+        }
+    }
+
+    private void flush(final Buffer buf) {
+        final List<Pending> batch = buf.drain(this.opts);
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        final List<Point> data;
+        if (batch.size() == 1) {
+            data = batch.get(0).points;
+        } else {
+            data = Spines.newBuf(batch.stream().mapToInt(p -> p.points.size()).sum());
+            batch.forEach(p -> data.addAll(p.points));
+        }
+
+        InnerMetrics.pointsPerBatch().update(data.size());
+        InnerMetrics.writesPerBatch().update(batch.size());
+
+        final RequestContext reqCtx = new RequestContext();
+        reqCtx.setDatabase(buf.key.database);
+
+        try {
+            // routed when appended, the failed points are routed again on retry
+            this.writeClient.writeRouted(buf.key.endpoint, reqCtx, data, buf.key.ctx.copy()) //
+                    .whenComplete((r, e) -> {
+                        if (e != null) {
+                            batch.forEach(p -> p.future.completeExceptionally(e));
+                        } else {
+                            complete(batch, r, buf.key.endpoint);
+                        }
+                    });
+        } catch (final Throwable t) {
+            LOG.error("Fail to flush batch to {}.", buf.key.endpoint, t);
+            batch.forEach(p -> p.future.completeExceptionally(t));
+        }
+    }
+
+    /**
+     * Splits the combined result into one slice per caller.
+     *
+     * Failed points are attributed to their caller by identity. When any error
+     * comes without the failed points, a route failure or a server error for
+     * instance, there is no telling whose they were, every caller gets an
+     * error carrying all of its points.
+     */
+    private static void complete(final List<Pending> batch, final Result<WriteOk, Err> r, final Endpoint to) {
+        if (batch.size() == 1) {
+            batch.get(0).future.complete(r);
+            return;
+        }
+
+        if (r.isOk()) {
+            final int failed = r.getOk().getFailed();
+            final int total = batch.stream().mapToInt(p -> p.points.size()).sum();
+            for (final Pending p : batch) {
+                if (failed == 0) {
+                    p.future.complete(WriteOk.ok(p.points.size(), 0, tablesOf(p.points)).mapToResult());
+                } else {
+                    final String msg = failed + " of " + total + " points of the batched write failed";
+                    p.future.complete(Err.writeErr(Result.SUCCESS, msg, to, p.points).mapToResult());
+                }
+            }
+            return;
+        }
+
+        final Optional<Err> unattributed = r.getErr().stream() //
+                .filter(err -> err.getFailedWrites() == null || err.getFailedWrites().isEmpty()) //
+                .findFirst();
+        if (unattributed.isPresent()) {
+            final Err err = unattributed.get();
+            for (final Pending p : batch) {
+                p.future.complete(Err.writeErr(err.getCode(), err.getError(), err.getErrTo(), p.points).mapToResult());
+            }
+            return;
+        }
+
+        final Map<Point, Err> failedWrites = new IdentityHashMap<>();
+        r.getErr().stream().forEach(err -> err.getFailedWrites().forEach(point -> failedWrites.put(point, err)));
+
+        for (final Pending p : batch) {
+            final Map<Err, List<Point>> failedOfCaller = new IdentityHashMap<>();
+            for (final Point point : p.points) {
+                final Err err = failedWrites.get(point);
+                if (err != null) {
+                    failedOfCaller.computeIfAbsent(err, k -> Spines.newBuf()).add(point);
+                }
+            }
+
+            if (failedOfCaller.isEmpty()) {
+                p.future.complete(WriteOk.ok(p.points.size(), 0, tablesOf(p.points)).mapToResult());
+                continue;
+            }
+
+            final int failedNum = failedOfCaller.values().stream().mapToInt(List::size).sum();
+            final Err slice = failedOfCaller.entrySet().stream() //
+                    .map(e -> Err.writeErr(e.getKey().getCode(), e.getKey().getError(), e.getKey().getErrTo(),
+                            e.getValue())) //
+                    .reduce(Err::combine) //
+                    .orElseThrow(IllegalStateException::new);
+            final int success = p.points.size() - failedNum;
+            if (success > 0) {
+                slice.combine(WriteOk.ok(success, 0, null));
+            }
+            p.future.complete(slice.mapToResult());
+        }
+    }
+
+    private static Set<String> tablesOf(final List<Point> points) {
+        if (!WriteOk.isCollectWroteDetail()) {
+            return null;
+        }
+        return points.stream().map(Point::getTable).collect(Collectors.toSet());
+    }
+
+    @Override
+    public void display(final Printer out) {
+        out.println("--- BatchingWriter ---") //
+                .print("batchMaxPoints=") //
+                .println(this.opts.getBatchMaxPoints()) //
+                .print("batchMaxBytes=") //
+                .println(this.opts.getBatchMaxBytes()) //
+                .print("batchLingerMs=") //
+                .println(this.opts.getBatchLingerMs()) //
+                .print("buffers=") //
+                .println(this.buffers.values());
+    }
+
+    @Override
+    public String toString() {
+        return "BatchingWriter{" + //
+               "opts=" + opts + //
+               ", buffers=" + buffers.size() + //
+               '}';
+    }
+
+    private static final class BatchKey {
+        private final String   database;
+        private final Endpoint endpoint;
+        private final Context  ctx;
+
+        private BatchKey(String database, Endpoint endpoint, Context ctx) {
+            this.database = database;
+            this.endpoint = endpoint;
+            this.ctx = ctx;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final BatchKey that = (BatchKey) o;
+            return this.endpoint.equals(that.endpoint) && this.database.equals(that.database)
+                   && this.ctx.entrySet().equals(that.ctx.entrySet());
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * this.database.hashCode() + this.endpoint.hashCode()) + this.ctx.entrySet().hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return this.database + "@" + this.endpoint + this.ctx;
+        }
+    }
+
+    private static final class Pending {
+        private final List<Point>                             points;
+        private final long                                    bytes;
+        private final CompletableFuture<Result<WriteOk, Err>> future = new CompletableFuture<>();
+
+        private Pending(List<Point> points) {
+            this.points = points;
+            this.bytes = points.stream().mapToLong(Utils::estimatedSize).sum();
+        }
+    }
+
+    /**
+     * A lock-free buffer, producers append with CAS and flushers take
+     * disjoint parts of the queue.
+     */
+    private static final class Buffer {
+        private final BatchKey       key;
+        private final Queue<Pending> queue           = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger  points          = new AtomicInteger();
+        private final AtomicLong     bytes           = new AtomicLong();
+        private final AtomicLong     firstAppendTick = new AtomicLong(Long.MAX_VALUE);
+
+        private Buffer(BatchKey key) {
+            this.key = key;
+        }
+
+        void add(final Pending pending) {
+            this.firstAppendTick.compareAndSet(Long.MAX_VALUE, Clock.defaultClock().getTick());
+            this.queue.add(pending);
+            this.bytes.addAndGet(pending.bytes);
+            this.points.addAndGet(pending.points.size());
+        }
+
+        boolean isEmpty() {
+            return this.queue.isEmpty();
+        }
+
+        boolean isFull(final WriteOptions opts) {
+            return this.points.get() >= opts.getBatchMaxPoints() || this.bytes.get() >= opts.getBatchMaxBytes();
+        }
+
+        boolean lingered(final long now, final long lingerMs) {
+            final long first = this.firstAppendTick.get();
+            // Long.MAX_VALUE means an append raced with the last drain, treat it as lingered
+            return first == Long.MAX_VALUE || now - first >= lingerMs;
+        }
+
+        List<Pending> drain(final WriteOptions opts) {
+            final List<Pending> batch = new ArrayList<>();
+            int batchPoints = 0;
+            long batchBytes = 0;
+            Pending p;
+            while (batchPoints < opts.getBatchMaxPoints() && batchBytes < opts.getBatchMaxBytes()
+                   && (p = this.queue.poll()) != null) {
+                batch.add(p);
+                batchPoints += p.points.size();
+                batchBytes += p.bytes;
+            }
+            this.points.addAndGet(-batchPoints);
+            this.bytes.addAndGet(-batchBytes);
+            // the remaining points start a new linger window
+            this.firstAppendTick.set(this.queue.isEmpty() ? Long.MAX_VALUE : Clock.defaultClock().getTick());
+            return batch.isEmpty() ? Collections.emptyList() : batch;
+        }
+
+        @Override
+        public String toString() {
+            return "Buffer{" + //
+                   "key=" + key + //
+                   ", points=" + points.get() + //
+                   ", bytes=" + bytes.get() + //
+                   '}';
+        }
+    }
+}
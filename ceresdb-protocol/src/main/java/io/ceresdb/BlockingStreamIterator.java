@@ -4,36 +4,57 @@
 package io.ceresdb;
 
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 
+import io.ceresdb.common.util.Requires;
 import io.ceresdb.errors.IteratorException;
 import io.ceresdb.models.SqlQueryOk;
 import io.ceresdb.models.Row;
-import io.ceresdb.rpc.Observer;
+import io.ceresdb.rpc.FlowControlledObserver;
+import io.ceresdb.rpc.Subscription;
 
 /**
  * A blocking iterator, the `hasNext` method will be blocked until
  * the server returns data or the process ends.
  *
+ * At most `prefetch` responses are requested ahead of the consumer, one
+ * more is requested each time a response is taken, so a slow consumer
+ * slows the server down instead of buffering the whole result.
+ *
  */
 public class BlockingStreamIterator implements Iterator<Stream<Row>> {
 
+    public static final int DEFAULT_PREFETCH = 4;
+
     private static final SqlQueryOk EOF = SqlQueryOk.emptyOk();
 
     private final long     timeout;
     private final TimeUnit unit;
 
-    private final BlockingQueue<Object> staging = new LinkedBlockingQueue<>();
-    private final Observer<SqlQueryOk>  observer;
-    private SqlQueryOk                  next;
+    private final BlockingQueue<Object>              staging = new LinkedBlockingQueue<>();
+    private final FlowControlledObserver<SqlQueryOk> observer;
+    private volatile Subscription                    subscription;
+    private SqlQueryOk                               next;
 
     public BlockingStreamIterator(long timeout, TimeUnit unit) {
+        this(timeout, unit, DEFAULT_PREFETCH);
+    }
+
+    public BlockingStreamIterator(long timeout, TimeUnit unit, int prefetch) {
+        Requires.requireTrue(prefetch > 0, "prefetch must be positive");
         this.timeout = timeout;
         this.unit = unit;
-        this.observer = new Observer<SqlQueryOk>() {
+        this.observer = new FlowControlledObserver<SqlQueryOk>() {
+
+            @Override
+            public void onSubscribe(final Subscription subscription) {
+                BlockingStreamIterator.this.subscription = subscription;
+                subscription.request(prefetch);
+            }
 
             @Override
             public void onNext(final SqlQueryOk value) {
@@ -62,6 +83,7 @@ public class BlockingStreamIterator implements Iterator<Stream<Row>> {
             final Object v = this.staging.poll(this.timeout, this.unit);
 
             if (v == null) {
+                cancel("Stream iterator timeout");
                 return reject("Stream iterator timeout");
             }
 
@@ -71,9 +93,18 @@ public class BlockingStreamIterator implements Iterator<Stream<Row>> {
 
             this.next = (SqlQueryOk) v;
 
-            return this.next != EOF;
+            if (this.next == EOF) {
+                return false;
+            }
+
+            final Subscription s = this.subscription;
+            if (s != null) {
+                s.request(1);
+            }
+            return true;
         } catch (final InterruptedException e) {
             Thread.currentThread().interrupt();
+            cancel("Stream iterator interrupted");
             return reject("Interrupted", e);
         }
     }
@@ -88,13 +119,24 @@ public class BlockingStreamIterator implements Iterator<Stream<Row>> {
             return reject("Reaches the end of the iterator");
         }
 
-        return this.next.stream();
+        // the rows of one response are materialized and its arrow buffers
+        // released right away, so memory stays bounded by the prefetch
+        final List<Row> rows = this.next.getRowList();
+        this.next.close();
+        return rows.stream();
     }
 
-    public Observer<SqlQueryOk> getObserver() {
+    public FlowControlledObserver<SqlQueryOk> getObserver() {
         return this.observer;
     }
 
+    private void cancel(final String reason) {
+        final Subscription s = this.subscription;
+        if (s != null) {
+            s.cancel(reason);
+        }
+    }
+
     private static <T> T reject(final String msg) {
         throw new IteratorException(msg);
     }
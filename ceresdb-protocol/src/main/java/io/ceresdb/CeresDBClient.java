@@ -21,6 +21,7 @@ import io.ceresdb.common.Endpoint;
 import io.ceresdb.common.Lifecycle;
 import io.ceresdb.common.signal.SignalHandlersLoader;
 import io.ceresdb.common.util.MetricExecutor;
+import io.ceresdb.common.util.MetricHandles;
 import io.ceresdb.common.util.MetricsUtil;
 import io.ceresdb.models.Err;
 import io.ceresdb.models.Point;
@@ -30,6 +31,7 @@ import io.ceresdb.models.SqlQueryRequest;
 import io.ceresdb.models.Result;
 import io.ceresdb.models.WriteOk;
 import io.ceresdb.models.WriteRequest;
+import io.ceresdb.models.WriteTemplate;
 import io.ceresdb.options.CeresDBOptions;
 import io.ceresdb.options.QueryOptions;
 import io.ceresdb.options.RouterOptions;
@@ -143,12 +145,25 @@ public class CeresDBClient implements Write, Query, Lifecycle<CeresDBOptions>, D
         return this.writeClient.write(req, attachCtx(ctx));
     }
 
+    @Override
+    public CompletableFuture<Result<WriteOk, Err>> write(final RequestContext reqCtx, final WriteTemplate rows,
+                                                         final Context ctx) {
+        ensureInitialized();
+        return this.writeClient.write(reqCtx, rows, attachCtx(ctx));
+    }
+
     @Override
     public StreamWriteBuf<Point, WriteOk> streamWrite(RequestContext reqCtx, final String table, final Context ctx) {
         ensureInitialized();
         return this.writeClient.streamWrite(reqCtx, table, attachCtx(ctx));
     }
 
+    @Override
+    public StreamWriteBuf<Point, WriteOk> routedStreamWrite(final RequestContext reqCtx, final Context ctx) {
+        ensureInitialized();
+        return this.writeClient.routedStreamWrite(reqCtx, attachCtx(ctx));
+    }
+
     @Override
     public CompletableFuture<Result<SqlQueryOk, Err>> sqlQuery(final SqlQueryRequest req, final Context ctx) {
         ensureInitialized();
@@ -304,27 +319,31 @@ public class CeresDBClient implements Write, Query, Lifecycle<CeresDBOptions>, D
 
     static final class RpcConnectionObserver implements RpcClient.ConnectionObserver {
 
-        static final Counter CONN_COUNTER  = MetricsUtil.counter("connection_counter");
-        static final Meter   CONN_FAILURES = MetricsUtil.meter("connection_failures");
+        static final Counter                          CONN_COUNTER     = MetricsUtil.counter("connection_counter");
+        static final Meter                            CONN_FAILURES    = MetricsUtil.meter("connection_failures");
+        static final MetricHandles<Endpoint, Counter> EP_CONN_COUNTER  = new MetricHandles<>(
+                ep -> MetricsUtil.counter("connection_counter", ep));
+        static final MetricHandles<Endpoint, Meter>   EP_CONN_FAILURES = new MetricHandles<>(
+                ep -> MetricsUtil.meter("connection_failures", ep));
 
         @Override
         public void onReady(final Endpoint ep) {
             CONN_COUNTER.inc();
-            MetricsUtil.counter("connection_counter", ep).inc();
+            EP_CONN_COUNTER.get(ep).inc();
         }
 
         @Override
         public void onFailure(final Endpoint ep) {
             CONN_COUNTER.dec();
             CONN_FAILURES.mark();
-            MetricsUtil.counter("connection_counter", ep).dec();
-            MetricsUtil.meter("connection_failures", ep).mark();
+            EP_CONN_COUNTER.get(ep).dec();
+            EP_CONN_FAILURES.get(ep).mark();
         }
 
         @Override
         public void onShutdown(final Endpoint ep) {
             CONN_COUNTER.dec();
-            MetricsUtil.counter("connection_counter", ep).dec();
+            EP_CONN_COUNTER.get(ep).dec();
         }
     }
 
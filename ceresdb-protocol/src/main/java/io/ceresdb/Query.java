@@ -47,6 +47,10 @@ public interface Query {
     /**
      * Executes a stream-query-call with a streaming response.
      *
+     * Responses are pushed as fast as the server produces them, unless the
+     * observer is a {@link io.ceresdb.rpc.FlowControlledObserver}, which
+     * receives only as many responses as it requests.
+     *
      * @param req      the query request
      * @param observer receives data from an observable stream
      * @param ctx      the invoke context
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+
+import io.ceresdb.common.Display;
+import io.ceresdb.common.util.MetricsUtil;
+import io.ceresdb.models.ColumnarResult;
+
+/**
+ * The arrow memory of a {@link QueryClient}: one bounded root allocator, each
+ * query decodes into a child allocator of its own which is released together
+ * with the query result.
+ *
+ * Results the caller never closes are released once they become unreachable,
+ * reclaiming happens on the next {@link #newChild()}, or by {@link #reclaim()}
+ * when a query goes over the limit. Until the gc finds them they count
+ * against the limit, so callers should close their results.
+ *
+ */
+final class QueryAllocator implements AutoCloseable, Display {
+
+    private static final Logger LOG = LoggerFactory.getLogger(QueryAllocator.class);
+
+    private static final AtomicInteger ID = new AtomicInteger(0);
+
+    private final String                         name;
+    private final BufferAllocator                root;
+    private final AtomicLong                     children = new AtomicLong(0);
+    private final ReferenceQueue<ColumnarResult> queue    = new ReferenceQueue<>();
+    private final Set<Releaser>                  pending  = ConcurrentHashMap.newKeySet();
+
+    QueryAllocator(final long limit) {
+        this.name = "query_allocator_" + ID.getAndIncrement();
+        this.root = new RootAllocator(limit);
+        MetricsUtil.metricRegistry().register(MetricsUtil.named(this.name, "allocated_bytes"),
+                (Gauge<Long>) this.root::getAllocatedMemory);
+        MetricsUtil.metricRegistry().register(MetricsUtil.named(this.name, "peak_bytes"),
+                (Gauge<Long>) this.root::getPeakMemoryAllocation);
+    }
+
+    /**
+     * Creates the allocator a single query decodes into, it is bounded by
+     * the limit of the root.
+     */
+    BufferAllocator newChild() {
+        reclaim();
+        return this.root.newChildAllocator(this.name + "_" + this.children.incrementAndGet(), 0, this.root.getLimit());
+    }
+
+    /**
+     * Releases the buffers of the given result when the caller drops it
+     * without closing.
+     */
+    void track(final ColumnarResult result, final BufferAllocator child) {
+        if (result.getBatches().isEmpty()) {
+            child.close();
+            return;
+        }
+        this.pending.add(new Releaser(result, this.queue, child));
+    }
+
+    long getAllocatedMemory() {
+        return this.root.getAllocatedMemory();
+    }
+
+    long getPeakMemoryAllocation() {
+        return this.root.getPeakMemoryAllocation();
+    }
+
+    long getLimit() {
+        return this.root.getLimit();
+    }
+
+    int reclaim() {
+        int reclaimed = 0;
+        Reference<? extends ColumnarResult> ref;
+        while ((ref = this.queue.poll()) != null) {
+            final Releaser releaser = (Releaser) ref;
+            this.pending.remove(releaser);
+            releaser.release();
+            reclaimed++;
+        }
+        return reclaimed;
+    }
+
+    @Override
+    public void close() {
+        reclaim();
+        // the client is going away, results still in use lose their buffers
+        this.pending.forEach(Releaser::release);
+        this.pending.clear();
+        MetricsUtil.metricRegistry().remove(MetricsUtil.named(this.name, "allocated_bytes"));
+        MetricsUtil.metricRegistry().remove(MetricsUtil.named(this.name, "peak_bytes"));
+        try {
+            this.root.close();
+        } catch (final IllegalStateException e) {
+            LOG.warn("Fail to close {}, memory leaked: {}.", this.name, e.getMessage());
+        }
+    }
+
+    @Override
+    public void display(final Printer out) {
+        out.println("--- QueryAllocator ---") //
+                .print("name=") //
+                .println(this.name) //
+                .print("limit=") //
+                .println(this.root.getLimit()) //
+                .print("allocated=") //
+                .println(this.root.getAllocatedMemory()) //
+                .print("peak=") //
+                .println(this.root.getPeakMemoryAllocation()) //
+                .print("pending=") //
+                .println(this.pending.size());
+    }
+
+    @Override
+    public String toString() {
+        return "QueryAllocator{" + //
+               "name='" + name + '\'' + //
+               ", limit=" + root.getLimit() + //
+               ", allocated=" + root.getAllocatedMemory() + //
+               '}';
+    }
+
+    private static final class Releaser extends PhantomReference<ColumnarResult> {
+
+        private final List<VectorSchemaRoot> batches;
+        private final BufferAllocator        allocator;
+
+        Releaser(ColumnarResult result, ReferenceQueue<ColumnarResult> queue, BufferAllocator allocator) {
+            super(result, queue);
+            // must not reference the result itself, or it never becomes phantom reachable
+            this.batches = result.getBatches();
+            this.allocator = allocator;
+        }
+
+        void release() {
+            // both are no-ops if the caller closed the result already
+            this.batches.forEach(VectorSchemaRoot::close);
+            try {
+                this.allocator.close();
+            } catch (final IllegalStateException e) {
+                LOG.warn("Fail to close {}, memory leaked: {}.", this.allocator.getName(), e.getMessage());
+            }
+        }
+    }
+}
@@ -3,11 +3,21 @@
  */
 package io.ceresdb;
 
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
+import org.apache.arrow.memory.BufferAllocator;
+
 import io.ceresdb.common.parser.SqlParser;
 import io.ceresdb.common.parser.SqlParserFactoryProvider;
 import io.ceresdb.common.util.Strings;
@@ -26,6 +36,7 @@ import io.ceresdb.common.util.Clock;
 import io.ceresdb.common.util.MetricsUtil;
 import io.ceresdb.common.util.Requires;
 import io.ceresdb.common.util.SerializingExecutor;
+import io.ceresdb.common.util.SharedScheduledPool;
 import io.ceresdb.errors.StreamException;
 import io.ceresdb.models.Err;
 import io.ceresdb.models.SqlQueryOk;
@@ -33,11 +44,15 @@ import io.ceresdb.models.SqlQueryRequest;
 import io.ceresdb.models.Result;
 import io.ceresdb.options.QueryOptions;
 import io.ceresdb.rpc.Context;
+import io.ceresdb.rpc.FlowControlledObserver;
 import io.ceresdb.rpc.Observer;
+import io.ceresdb.rpc.Subscription;
+import io.ceresdb.util.RpcServiceRegister;
 import io.ceresdb.util.Utils;
 
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
 
 /**
  * Default Query API impl.
@@ -47,15 +62,36 @@ public class QueryClient implements Query, Lifecycle<QueryOptions>, Display {
 
     private static final Logger LOG = LoggerFactory.getLogger(QueryClient.class);
 
-    private QueryOptions opts;
-    private RouterClient routerClient;
-    private Executor     asyncPool;
-    private QueryLimiter queryLimiter;
+    private static final SharedScheduledPool HEDGER_POOL = Utils.getSharedScheduledPool("query_hedger", 1);
+
+    // Statements safe to run twice, the only ones hedged
+    private static final Set<SqlParser.StatementType> READ_ONLY = EnumSet.of(SqlParser.StatementType.Select,
+            SqlParser.StatementType.Show, SqlParser.StatementType.Describe, SqlParser.StatementType.Exists);
+
+    private QueryOptions   opts;
+    private RouterClient   routerClient;
+    private Executor       asyncPool;
+    private QueryLimiter   queryLimiter;
+    private QueryAllocator allocator;
+    // Not null only if hedging is enabled
+    private ScheduledExecutorService hedger;
+    private volatile long            hedgeDelayMs;
+    private volatile long            hedgeDelayExpireTick;
 
     static final class InnerMetrics {
-        static final Histogram READ_ROWS_COUNT = MetricsUtil.histogram("read_rows_count");
-        static final Meter     READ_FAILED     = MetricsUtil.meter("read_failed");
-        static final Meter     READ_QPS        = MetricsUtil.meter("read_qps");
+        static final Histogram READ_ROWS_COUNT      = MetricsUtil.histogram("read_rows_count");
+        static final Meter     READ_FAILED          = MetricsUtil.meter("read_failed");
+        static final Meter     READ_QPS             = MetricsUtil.meter("read_qps");
+        static final Histogram READ_ALLOCATED_BYTES = MetricsUtil.histogram("read_allocated_bytes");
+        // more than 3 retries are classified as the same metric
+        static final Meter[] READ_BY_RETRIES = { MetricsUtil.meter("read_by_retries", 0),   //
+                                                 MetricsUtil.meter("read_by_retries", 1),   //
+                                                 MetricsUtil.meter("read_by_retries", 2),   //
+                                                 MetricsUtil.meter("read_by_retries", 3) };
+        static final Meter   READ_HEDGED     = MetricsUtil.meter("read_hedged");
+        static final Meter   READ_HEDGE_WON  = MetricsUtil.meter("read_hedge_won");
+        // the latency of the query rpc, measured by the rpc client
+        static final Timer SQL_QUERY_RT = MetricsUtil.timer("req_rt", RpcServiceRegister.SQL_QUERY_METHOD);
 
         static Histogram readRowsCount() {
             return READ_ROWS_COUNT;
@@ -69,9 +105,24 @@ public class QueryClient implements Query, Lifecycle<QueryOptions>, Display {
             return READ_QPS;
         }
 
+        static Histogram readAllocatedBytes() {
+            return READ_ALLOCATED_BYTES;
+        }
+
         static Meter readByRetries(final int retries) {
-            // more than 3 retries are classified as the same metric
-            return MetricsUtil.meter("read_by_retries", Math.min(3, retries));
+            return READ_BY_RETRIES[Math.min(3, retries)];
+        }
+
+        static Meter readHedged() {
+            return READ_HEDGED;
+        }
+
+        static Meter readHedgeWon() {
+            return READ_HEDGE_WON;
+        }
+
+        static Timer sqlQueryRt() {
+            return SQL_QUERY_RT;
         }
     }
 
@@ -83,12 +134,22 @@ public class QueryClient implements Query, Lifecycle<QueryOptions>, Display {
         this.asyncPool = pool != null ? pool : new SerializingExecutor("query_client");
         this.queryLimiter = new DefaultQueryLimiter(this.opts.getMaxInFlightQueryRequests(),
                 this.opts.getLimitedPolicy());
+        this.allocator = new QueryAllocator(this.opts.getMaxAllocationBytes());
+        if (this.opts.getHedgeQuantile() > 0) {
+            this.hedger = HEDGER_POOL.getObject();
+        }
         return true;
     }
 
     @Override
     public void shutdownGracefully() {
-        // NO-OP
+        if (this.hedger != null) {
+            HEDGER_POOL.returnObject(this.hedger);
+            this.hedger = null;
+        }
+        if (this.allocator != null) {
+            this.allocator.close();
+        }
     }
 
     @Override
@@ -216,16 +277,148 @@ public class QueryClient implements Query, Lifecycle<QueryOptions>, Display {
                 .setSql(req.getSql()) //
                 .build();
 
-        final CompletableFuture<Storage.SqlQueryResponse> qrf = this.routerClient.invoke(endpoint, //
-                request, //
-                ctx.with("retries", retries) // server can use this in metrics
-        );
+        final Context callCtx = ctx.with("retries", retries); // server can use this in metrics
+        final CompletableFuture<Storage.SqlQueryResponse> qrf = this.hedger == null || !isReadOnly(req.getSql()) ?
+                this.routerClient.invoke(endpoint, request, callCtx) :
+                invokeHedged(endpoint, request, callCtx);
+
+        return qrf.thenApplyAsync(resp -> decode(resp, req, endpoint), this.asyncPool);
+    }
+
+    /**
+     * Sends the query once more when it is not answered within the hedging
+     * delay, the first successful response is taken and the other call is
+     * cancelled.
+     */
+    private CompletableFuture<Storage.SqlQueryResponse> invokeHedged(final Endpoint endpoint, //
+                                                                     final Storage.SqlQueryRequest request, //
+                                                                     final Context ctx) {
+        final HedgedCall call = new HedgedCall();
+        call.add(this.routerClient.invoke(endpoint, request, ctx), false);
+
+        final ScheduledFuture<?> hedge = this.hedger.schedule(() -> {
+            if (call.result.isDone()) {
+                return;
+            }
+            InnerMetrics.readHedged().mark();
+            call.add(this.routerClient.invoke(endpoint, request, ctx.copy().with("hedged", true)), true);
+        }, hedgeDelayMillis(), TimeUnit.MILLISECONDS);
+        call.result.whenComplete((r, e) -> hedge.cancel(false));
+
+        return call.result;
+    }
+
+    /**
+     * Whether the statement only reads, so it can be sent twice. Goes by the
+     * leading keyword when there is no sql parser to tell, a statement that
+     * can not be parsed is taken as a write.
+     */
+    @VisibleForTest
+    static boolean isReadOnly(final String sql) {
+        final SqlParser.StatementType type;
+        try {
+            type = SqlParserFactoryProvider.getSqlParserFactory().getParser(sql).statementType();
+        } catch (final Throwable t) {
+            return false;
+        }
+        if (type != SqlParser.StatementType.Unknown) {
+            return READ_ONLY.contains(type);
+        }
+        final String trimmed = sql.trim();
+        int end = 0;
+        while (end < trimmed.length() && Character.isLetter(trimmed.charAt(end))) {
+            end++;
+        }
+        switch (trimmed.substring(0, end).toUpperCase(Locale.ROOT)) {
+            case "SELECT":
+            case "SHOW":
+            case "DESCRIBE":
+            case "DESC":
+            case "EXISTS":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private long hedgeDelayMillis() {
+        // taking a snapshot of the timer sorts its samples, once a second is enough
+        final long now = Clock.defaultClock().getTick();
+        if (now >= this.hedgeDelayExpireTick) {
+            final double rtNanos = InnerMetrics.sqlQueryRt().getSnapshot().getValue(this.opts.getHedgeQuantile());
+            this.hedgeDelayMs = Math.max(this.opts.getHedgeMinDelayMs(), TimeUnit.NANOSECONDS.toMillis((long) rtNanos));
+            this.hedgeDelayExpireTick = now + 1000;
+        }
+        return this.hedgeDelayMs;
+    }
 
-        return qrf.thenApplyAsync(
-                resp -> Utils.toResult(resp, req.getSql(), endpoint, req.getTables(), new ErrHandler(req)),
-                this.asyncPool);
+    /**
+     * The calls of a hedged query, completes with the first successful
+     * response, or with the outcome of the last call when none succeeds.
+     */
+    private static final class HedgedCall {
+
+        final CompletableFuture<Storage.SqlQueryResponse>       result   = new CompletableFuture<>();
+        final List<CompletableFuture<Storage.SqlQueryResponse>> calls    = new CopyOnWriteArrayList<>();
+        final AtomicInteger                                     inFlight = new AtomicInteger();
+
+        void add(final CompletableFuture<Storage.SqlQueryResponse> call, final boolean hedged) {
+            this.inFlight.incrementAndGet();
+            this.calls.add(call);
+            call.whenComplete((resp, err) -> {
+                final boolean last = this.inFlight.decrementAndGet() == 0;
+                if (err == null && resp.getHeader().getCode() == Result.SUCCESS) {
+                    if (this.result.complete(resp) && hedged) {
+                        InnerMetrics.readHedgeWon().mark();
+                    }
+                } else if (last) {
+                    if (err != null) {
+                        this.result.completeExceptionally(err);
+                    } else {
+                        this.result.complete(resp);
+                    }
+                }
+                if (this.result.isDone()) {
+                    // the loser
+                    this.calls.forEach(c -> c.cancel(false));
+                }
+            });
+            if (this.result.isDone()) {
+                // started too late, the query is over already
+                call.cancel(false);
+            }
+        }
+    }
+
+    private Result<SqlQueryOk, Err> decode(final Storage.SqlQueryResponse resp, //
+                                           final SqlQueryRequest req, //
+                                           final Endpoint endpoint) {
+        Result<SqlQueryOk, Err> r = decode0(resp, req, endpoint);
+        // over the limit, maybe only because of results dropped without closing that the gc has just found
+        if (!r.isOk() && Utils.isSuccess(resp.getHeader()) && r.getErr().getCode() == Result.FLOW_CONTROL
+            && this.allocator.reclaim() > 0) {
+            r = decode0(resp, req, endpoint);
+        }
+        if (!r.isOk()) {
+            new ErrHandler(req).run();
+        }
+        return r;
     }
 
+    private Result<SqlQueryOk, Err> decode0(final Storage.SqlQueryResponse resp, //
+                                            final SqlQueryRequest req, //
+                                            final Endpoint endpoint) {
+        final BufferAllocator child = this.allocator.newChild();
+        final Result<SqlQueryOk, Err> r = Utils.toResult(resp, req.getSql(), endpoint, req.getTables(), null, child,
+                this.opts.getDecodePool());
+        if (r.isOk()) {
+            InnerMetrics.readAllocatedBytes().update(child.getAllocatedMemory());
+            this.allocator.track(r.getOk().columns(), child);
+        }
+        return r;
+    }
+
+    @SuppressWarnings("unchecked")
     private void streamQueryFrom(final Endpoint endpoint, //
                                  final SqlQueryRequest req, //
                                  final Context ctx, //
@@ -236,34 +429,10 @@ public class QueryClient implements Query, Lifecycle<QueryOptions>, Display {
                 .setSql(req.getSql()) //
                 .build();
 
-        this.routerClient.invokeServerStreaming(endpoint, request, ctx, new Observer<Storage.SqlQueryResponse>() {
-
-            @Override
-            public void onNext(final Storage.SqlQueryResponse value) {
-                final Result<SqlQueryOk, Err> ret = Utils.toResult(value, req.getSql(), endpoint, req.getTables(),
-                        new ErrHandler(req));
-                if (ret.isOk()) {
-                    observer.onNext(ret.getOk());
-                } else {
-                    observer.onError(new StreamException("Failed to do stream query: " + ret.getErr()));
-                }
-            }
-
-            @Override
-            public void onError(final Throwable err) {
-                observer.onError(err);
-            }
-
-            @Override
-            public void onCompleted() {
-                observer.onCompleted();
-            }
-
-            @Override
-            public Executor executor() {
-                return observer.executor();
-            }
-        });
+        final Observer<Storage.SqlQueryResponse> respObserver = observer instanceof FlowControlledObserver ?
+                new FlowControlledStreamObserver(endpoint, req, (FlowControlledObserver<SqlQueryOk>) observer) :
+                new StreamObserver(endpoint, req, observer);
+        this.routerClient.invokeServerStreaming(endpoint, request, ctx, respObserver);
     }
 
     @Override
@@ -272,7 +441,15 @@ public class QueryClient implements Query, Lifecycle<QueryOptions>, Display {
                 .print("maxRetries=") //
                 .println(this.opts.getMaxRetries()) //
                 .print("asyncPool=") //
-                .println(this.asyncPool);
+                .println(this.asyncPool) //
+                .print("hedgeQuantile=") //
+                .println(this.opts.getHedgeQuantile()) //
+                .print("hedgeDelayMs=") //
+                .println(this.hedgeDelayMs);
+        if (this.allocator != null) {
+            out.println("");
+            this.allocator.display(out);
+        }
     }
 
     @Override
@@ -281,9 +458,104 @@ public class QueryClient implements Query, Lifecycle<QueryOptions>, Display {
                "opts=" + opts + //
                ", routerClient=" + routerClient + //
                ", asyncPool=" + asyncPool + //
+               ", allocator=" + allocator + //
                '}';
     }
 
+    @VisibleForTest
+    QueryAllocator getAllocator() {
+        return this.allocator;
+    }
+
+    /**
+     * Decodes each response of a stream query into a {@link SqlQueryOk},
+     * the stream is failed on the first response that can not be decoded.
+     */
+    private class StreamObserver implements Observer<Storage.SqlQueryResponse> {
+
+        private final Endpoint             endpoint;
+        private final SqlQueryRequest      req;
+        private final Observer<SqlQueryOk> observer;
+        private volatile boolean           failed;
+
+        StreamObserver(Endpoint endpoint, SqlQueryRequest req, Observer<SqlQueryOk> observer) {
+            this.endpoint = endpoint;
+            this.req = req;
+            this.observer = observer;
+        }
+
+        @Override
+        public void onNext(final Storage.SqlQueryResponse value) {
+            if (this.failed) {
+                return;
+            }
+            final Result<SqlQueryOk, Err> ret = decode(value, this.req, this.endpoint);
+            if (ret.isOk()) {
+                this.observer.onNext(ret.getOk());
+            } else {
+                this.failed = true;
+                onDecodeFailed();
+                this.observer.onError(new StreamException("Failed to do stream query: " + ret.getErr()));
+            }
+        }
+
+        @Override
+        public void onError(final Throwable err) {
+            if (this.failed) {
+                return;
+            }
+            this.observer.onError(err);
+        }
+
+        @Override
+        public void onCompleted() {
+            if (this.failed) {
+                return;
+            }
+            this.observer.onCompleted();
+        }
+
+        @Override
+        public Executor executor() {
+            return this.observer.executor();
+        }
+
+        void onDecodeFailed() {
+            // NO-OP
+        }
+    }
+
+    /**
+     * Passes the demand of the caller through to the transport, one response
+     * is requested for each {@link SqlQueryOk} the caller asks for.
+     */
+    private class FlowControlledStreamObserver extends StreamObserver
+            implements FlowControlledObserver<Storage.SqlQueryResponse> {
+
+        private final FlowControlledObserver<SqlQueryOk> observer;
+        private volatile Subscription                    subscription;
+
+        FlowControlledStreamObserver(Endpoint endpoint, SqlQueryRequest req,
+                                     FlowControlledObserver<SqlQueryOk> observer) {
+            super(endpoint, req, observer);
+            this.observer = observer;
+        }
+
+        @Override
+        public void onSubscribe(final Subscription subscription) {
+            this.subscription = subscription;
+            this.observer.onSubscribe(subscription);
+        }
+
+        @Override
+        void onDecodeFailed() {
+            final Subscription s = this.subscription;
+            if (s != null) {
+                s.cancel("Failed to decode stream query response");
+            }
+        }
+    }
+
     @VisibleForTest
     static class DefaultQueryLimiter extends QueryLimiter {
 
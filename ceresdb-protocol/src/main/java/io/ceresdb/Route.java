@@ -16,6 +16,8 @@ public class Route {
     private String           table;
     private Endpoint         endpoint;
     private final AtomicLong lastHit = new AtomicLong(Clock.defaultClock().getTick());
+    // the database the route was resolved in, used to refresh it
+    private String database;
 
     public static Route invalid(final String table) {
         throw new IllegalStateException("Unexpected, invalid route for table: " + table);
@@ -59,6 +61,21 @@ public class Route {
         }
     }
 
+    String getDatabase() {
+        return database;
+    }
+
+    void setDatabase(String database) {
+        this.database = database;
+    }
+
+    /**
+     * Takes over the hit history of the route this one replaces.
+     */
+    void inheritLastHit(final Route prev) {
+        this.lastHit.set(prev.getLastHit());
+    }
+
     @Override
     public String toString() {
         return "Route{" + //
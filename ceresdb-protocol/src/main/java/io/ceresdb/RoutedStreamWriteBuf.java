@@ -0,0 +1,296 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiFunction;
+
+import com.google.protobuf.ByteString;
+
+import io.ceresdb.common.Endpoint;
+import io.ceresdb.common.util.Requires;
+import io.ceresdb.common.util.Strings;
+import io.ceresdb.errors.StreamException;
+import io.ceresdb.models.Point;
+import io.ceresdb.models.RequestContext;
+import io.ceresdb.models.WriteOk;
+import io.ceresdb.proto.internal.Storage;
+import io.ceresdb.rpc.Observer;
+import io.ceresdb.util.StreamWriteBuf;
+import io.ceresdb.util.Utils;
+
+/**
+ * A stream write of points of any tables. The tables are routed with the
+ * {@link RouterClient}, and one client streaming call is kept open for each
+ * endpoint, its requests carry the rows of all the tables of the endpoint.
+ *
+ * The points of each table are buffered off heap by a
+ * {@link StreamWriteBuffer}. The rows buffered for an endpoint are sent as
+ * soon as they reach {@code streamMaxBufferedBytes}, the rows of tables
+ * which are not routed yet are routed together once they reach it, so a
+ * stream of many tables holds a bounded amount of data between two flushes.
+ * The route of a table is looked up once for the stream, the buffer of a
+ * table not written since the last flush is released by the next one.
+ *
+ * Routes are looked up without blocking the producer, one lookup at a time.
+ * While it is in flight the rows of its tables, and of the tables written
+ * meanwhile, are held and sent by a later write or flush once it is done,
+ * {@link #completed()} waits for it. A failed lookup is thrown as a
+ * {@link StreamException} by the write or flush seeing it, the rows are kept
+ * and routed again by the next flush.
+ *
+ * Not thread safe, as the other {@link StreamWriteBuf}s, {@link #completed()}
+ * may finish on the thread completing the last lookup.
+ *
+ */
+final class RoutedStreamWriteBuf implements StreamWriteBuf<Point, WriteOk> {
+
+    // Tables are many and small in such a stream, their buffers grow when needed
+    private static final int TABLE_INITIAL_BYTES = 4 * 1024;
+
+    private final RouterClient                                                            routerClient;
+    private final RequestContext                                                          reqCtx;
+    private final long                                                                    maxBufferedBytes;
+    private final BiFunction<Endpoint, Observer<WriteOk>, Observer<Storage.WriteRequest>> streamOpener;
+
+    private final Map<String, TableBuf>      tables    = new HashMap<>();
+    private final Map<Endpoint, EndpointBuf> endpoints = new HashMap<>();
+    // tables with buffered rows and no route yet
+    private final List<TableBuf> unrouted = new ArrayList<>();
+    // the bytes of the tables without a route, including those being routed
+    private long                                  unroutedBytes;
+    private CompletableFuture<Map<String, Route>> routing;
+    private List<TableBuf>                        routingTables = Collections.emptyList();
+
+    RoutedStreamWriteBuf(RouterClient routerClient, RequestContext reqCtx, long maxBufferedBytes,
+                         BiFunction<Endpoint, Observer<WriteOk>, Observer<Storage.WriteRequest>> streamOpener) {
+        Requires.requireTrue(maxBufferedBytes > 0, "streamMaxBufferedBytes must > 0");
+        this.routerClient = routerClient;
+        this.reqCtx = reqCtx;
+        this.maxBufferedBytes = maxBufferedBytes;
+        this.streamOpener = streamOpener;
+    }
+
+    @Override
+    public StreamWriteBuf<Point, WriteOk> write(final Point val) {
+        pollRoutes();
+
+        TableBuf table = this.tables.get(val.getTable());
+        if (table == null) {
+            Requires.requireTrue(Strings.isNotBlank(val.getTable()), "Blank.table");
+            table = new TableBuf(new StreamWriteBuffer(val.getTable(), TABLE_INITIAL_BYTES));
+            this.tables.put(val.getTable(), table);
+        }
+
+        final boolean wasEmpty = table.buf.isEmpty();
+        final int before = table.buf.bytes();
+        table.buf.write(val);
+        table.written = true;
+        final int bytes = table.buf.bytes() - before;
+
+        if (table.endpoint == null) {
+            if (wasEmpty) {
+                this.unrouted.add(table);
+            }
+            this.unroutedBytes += bytes;
+            if (this.unroutedBytes >= this.maxBufferedBytes) {
+                routeUnrouted();
+            }
+        } else {
+            final EndpointBuf endpoint = endpointBuf(table.endpoint);
+            if (wasEmpty) {
+                endpoint.tables.add(table);
+            }
+            endpoint.bytes += bytes;
+            if (endpoint.bytes >= this.maxBufferedBytes) {
+                flush(endpoint);
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public StreamWriteBuf<Point, WriteOk> flush() {
+        checkFailures();
+        routeUnrouted();
+        for (final EndpointBuf endpoint : this.endpoints.values()) {
+            flush(endpoint);
+        }
+
+        // the tables not written since the last flush give their buffers back
+        final Iterator<TableBuf> it = this.tables.values().iterator();
+        while (it.hasNext()) {
+            final TableBuf table = it.next();
+            // the rows of tables waiting for a route are kept
+            if (!table.written && table.buf.isEmpty()) {
+                table.buf.release();
+                it.remove();
+            }
+            table.written = false;
+        }
+        return this;
+    }
+
+    @Override
+    public CompletableFuture<WriteOk> completed() {
+        CompletableFuture<WriteOk> f;
+        try {
+            flush();
+            f = routeAll().thenCompose(ignored -> completeStreams());
+        } catch (final Throwable t) {
+            f = Utils.errorCf(t);
+        }
+        return f.whenComplete((r, e) -> {
+            this.tables.values().forEach(table -> table.buf.release());
+            this.tables.clear();
+        });
+    }
+
+    private CompletableFuture<WriteOk> completeStreams() {
+        final List<CompletableFuture<WriteOk>> futures = new ArrayList<>();
+        for (final EndpointBuf endpoint : this.endpoints.values()) {
+            flush(endpoint);
+            if (endpoint.stream != null) {
+                endpoint.stream.onCompleted();
+                futures.add(endpoint.respFuture);
+            }
+        }
+        return futures.stream() //
+                .reduce((f1, f2) -> f1.thenCombine(f2, WriteOk::combine)) //
+                .orElseGet(() -> Utils.completedCf(WriteOk.emptyOk()));
+    }
+
+    /**
+     * Routes all the tables, completes once none is left without a route.
+     */
+    private CompletableFuture<Void> routeAll() {
+        routeUnrouted();
+        final CompletableFuture<Map<String, Route>> f = this.routing;
+        if (f == null) {
+            return Utils.completedCf(null);
+        }
+        return f.handle((routes, err) -> null).thenCompose(ignored -> routeAll());
+    }
+
+    private void routeUnrouted() {
+        pollRoutes();
+        if (this.routing != null || this.unrouted.isEmpty()) {
+            return;
+        }
+        final List<String> names = new ArrayList<>(this.unrouted.size());
+        this.unrouted.forEach(table -> names.add(table.buf.table()));
+        this.routingTables = new ArrayList<>(this.unrouted);
+        this.unrouted.clear();
+        this.routing = this.routerClient.routeFor(this.reqCtx, names);
+        // mostly served by the route cache
+        pollRoutes();
+    }
+
+    /**
+     * Takes the routes of the lookup in flight if it is done.
+     */
+    private void pollRoutes() {
+        final CompletableFuture<Map<String, Route>> f = this.routing;
+        if (f == null || !f.isDone()) {
+            return;
+        }
+        final List<TableBuf> routed = this.routingTables;
+        this.routing = null;
+        this.routingTables = Collections.emptyList();
+
+        final Map<String, Route> routes;
+        try {
+            routes = f.join();
+        } catch (final RuntimeException e) {
+            this.unrouted.addAll(routed);
+            final Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            throw new StreamException("Fail to route the tables of the stream write", cause);
+        }
+
+        final List<EndpointBuf> full = new ArrayList<>();
+        for (final TableBuf table : routed) {
+            final Route route = routes.get(table.buf.table());
+            table.endpoint = route == null ? this.routerClient.clusterRoute().getEndpoint() : route.getEndpoint();
+            final EndpointBuf endpoint = endpointBuf(table.endpoint);
+            endpoint.tables.add(table);
+            endpoint.bytes += table.buf.bytes();
+            this.unroutedBytes -= table.buf.bytes();
+            if (endpoint.bytes >= this.maxBufferedBytes && !full.contains(endpoint)) {
+                full.add(endpoint);
+            }
+        }
+        full.forEach(this::flush);
+    }
+
+    private void flush(final EndpointBuf endpoint) {
+        if (endpoint.tables.isEmpty()) {
+            return;
+        }
+        checkFailures();
+        final List<ByteString> tableRequests = new ArrayList<>(endpoint.tables.size());
+        for (final TableBuf table : endpoint.tables) {
+            tableRequests.add(table.buf.drainTableRequest());
+        }
+        endpoint.tables.clear();
+        endpoint.bytes = 0;
+
+        if (endpoint.stream == null) {
+            endpoint.stream = this.streamOpener.apply(endpoint.endpoint, Utils.toUnaryObserver(endpoint.respFuture));
+        }
+        endpoint.stream.onNext(WriteRequestEncoder.newRequest(this.reqCtx, tableRequests));
+    }
+
+    private EndpointBuf endpointBuf(final Endpoint endpoint) {
+        return this.endpoints.computeIfAbsent(endpoint, EndpointBuf::new);
+    }
+
+    private void checkFailures() {
+        for (final EndpointBuf endpoint : this.endpoints.values()) {
+            if (endpoint.respFuture.isCompletedExceptionally()) {
+                endpoint.respFuture.getNow(null); // throw the exception now
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RoutedStreamWriteBuf{" + //
+               "tables=" + tables.size() + //
+               ", endpoints=" + endpoints.keySet() + //
+               ", unroutedBytes=" + unroutedBytes + //
+               ", maxBufferedBytes=" + maxBufferedBytes + //
+               '}';
+    }
+
+    private static final class TableBuf {
+        private final StreamWriteBuffer buf;
+        private Endpoint                endpoint;
+        // written since the last flush
+        private boolean written;
+
+        TableBuf(StreamWriteBuffer buf) {
+            this.buf = buf;
+        }
+    }
+
+    private static final class EndpointBuf {
+        private final Endpoint                   endpoint;
+        private final CompletableFuture<WriteOk> respFuture = new CompletableFuture<>();
+        // tables with buffered rows
+        private final List<TableBuf>           tables = new ArrayList<>();
+        private long                           bytes;
+        private Observer<Storage.WriteRequest> stream;
+
+        EndpointBuf(Endpoint endpoint) {
+            this.endpoint = endpoint;
+        }
+    }
+}
@@ -13,7 +13,9 @@ import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -33,6 +35,8 @@ import io.ceresdb.common.util.SharedScheduledPool;
 import io.ceresdb.common.util.TopKSelector;
 import io.ceresdb.errors.RouteTableException;
 import io.ceresdb.options.RouterOptions;
+import io.ceresdb.rpc.Cancellable;
+import io.ceresdb.rpc.CancellableObserver;
 import io.ceresdb.rpc.Context;
 import io.ceresdb.rpc.Observer;
 import io.ceresdb.rpc.RpcClient;
@@ -40,13 +44,19 @@ import io.ceresdb.rpc.errors.RemotingException;
 import io.ceresdb.util.Utils;
 
 import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.Timer;
 
 /**
  * A route rpc client which implement RouteMode.Direct
  *
  * cached the routing table information locally
- * and will refresh when the server returns an error code of INVALID_ROUTE
+ * and will refresh when the server returns an error code of INVALID_ROUTE,
+ * routes hit since the last refresh are also re-resolved every
+ * `refreshPeriodSeconds` in the background
+ *
+ * concurrent misses of a table share one in-flight lookup, and misses
+ * arriving within `batchWindowMillis` are merged into one route request
  *
  */
 public class RouterClient implements Lifecycle<RouterOptions>, Display, Iterable<Route> {
@@ -57,6 +67,7 @@ public class RouterClient implements Lifecycle<RouterOptions>, Display, Iterable
     private static final float CLEAN_CACHE_THRESHOLD   = 0.75f;
     private static final float CLEAN_THRESHOLD         = 0.1f;
     private static final int   MAX_CONTINUOUS_GC_TIMES = 3;
+    private static final int   MAX_REFRESH_BATCH_SIZE  = 1024;
 
     private static final SharedScheduledPool CLEANER_POOL   = Utils.getSharedScheduledPool("route_cache_cleaner", 1);
     private static final SharedScheduledPool REFRESHER_POOL = Utils.getSharedScheduledPool("route_cache_refresher",
@@ -68,8 +79,14 @@ public class RouterClient implements Lifecycle<RouterOptions>, Display, Iterable
     protected RpcClient              rpcClient;
     protected RouterByTables         router;
     protected InnerMetrics           metrics;
+    private volatile long            lastRefreshTick;
+    private ScheduledFuture<?>       gcTask;
+    private ScheduledFuture<?>       refreshTask;
 
-    private final ConcurrentMap<String, Route> routeCache = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Route>                    routeCache = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CompletableFuture<Route>> inflight   = new ConcurrentHashMap<>();
+    // guarded by itself, keyed by database
+    private final Map<String, PendingRoutes> pending = new HashMap<>();
 
     static final class InnerMetrics {
         final Histogram refreshedSize;
@@ -77,6 +94,11 @@ public class RouterClient implements Lifecycle<RouterOptions>, Display, Iterable
         final Histogram gcTimes;
         final Histogram gcItems;
         final Timer     gcTimer;
+        final Histogram coalescedSize;
+        final Histogram batchedSize;
+        final Histogram refreshAheadSize;
+        final Meter     refreshAheadChanged;
+        final Timer     refreshAheadTimer;
 
         private InnerMetrics(final Endpoint name) {
             final String nameSuffix = name.toString();
@@ -85,6 +107,11 @@ public class RouterClient implements Lifecycle<RouterOptions>, Display, Iterable
             this.gcTimes = MetricsUtil.histogram("route_for_tables_gc_times", nameSuffix);
             this.gcItems = MetricsUtil.histogram("route_for_tables_gc_items", nameSuffix);
             this.gcTimer = MetricsUtil.timer("route_for_tables_gc_timer", nameSuffix);
+            this.coalescedSize = MetricsUtil.histogram("route_for_tables_coalesced_size", nameSuffix);
+            this.batchedSize = MetricsUtil.histogram("route_for_tables_batched_size", nameSuffix);
+            this.refreshAheadSize = MetricsUtil.histogram("route_for_tables_refresh_ahead_size", nameSuffix);
+            this.refreshAheadChanged = MetricsUtil.meter("route_for_tables_refresh_ahead_changed", nameSuffix);
+            this.refreshAheadTimer = MetricsUtil.timer("route_for_tables_refresh_ahead_timer", nameSuffix);
         }
 
         Histogram refreshedSize() {
@@ -106,6 +133,26 @@ public class RouterClient implements Lifecycle<RouterOptions>, Display, Iterable
         Timer gcTimer() {
             return this.gcTimer;
         }
+
+        Histogram coalescedSize() {
+            return this.coalescedSize;
+        }
+
+        Histogram batchedSize() {
+            return this.batchedSize;
+        }
+
+        Histogram refreshAheadSize() {
+            return this.refreshAheadSize;
+        }
+
+        Meter refreshAheadChanged() {
+            return this.refreshAheadChanged;
+        }
+
+        Timer refreshAheadTimer() {
+            return this.refreshAheadTimer;
+        }
     }
 
     @Override
@@ -121,11 +168,24 @@ public class RouterClient implements Lifecycle<RouterOptions>, Display, Iterable
         final long gcPeriod = this.opts.getGcPeriodSeconds();
         if (gcPeriod > 0) {
             this.cleaner = CLEANER_POOL.getObject();
-            this.cleaner.scheduleWithFixedDelay(this::gc, Utils.randomInitialDelay(300), gcPeriod, TimeUnit.SECONDS);
+            this.gcTask = this.cleaner.scheduleWithFixedDelay(this::gc, Utils.randomInitialDelay(300), gcPeriod,
+                    TimeUnit.SECONDS);
 
             LOG.info("Route table cache cleaner has been started.");
         }
 
+        final long refreshPeriod = this.opts.getRefreshPeriodSeconds();
+        this.lastRefreshTick = Clock.defaultClock().getTick();
+        if (this.opts.getBatchWindowMillis() > 0 || refreshPeriod > 0) {
+            this.refresher = REFRESHER_POOL.getObject();
+        }
+        if (refreshPeriod > 0) {
+            this.refreshTask = this.refresher.scheduleWithFixedDelay(this::refresh,
+                    Utils.randomInitialDelay(refreshPeriod), refreshPeriod, TimeUnit.SECONDS);
+
+            LOG.info("Route table cache refresher has been started.");
+        }
+
         return true;
     }
 
@@ -134,6 +194,15 @@ public class RouterClient implements Lifecycle<RouterOptions>, Display, Iterable
         if (this.rpcClient != null) {
             this.rpcClient.shutdownGracefully();
         }
+        // the pools are shared, they outlive the tasks of this client
+        if (this.gcTask != null) {
+            this.gcTask.cancel(false);
+            this.gcTask = null;
+        }
+        if (this.refreshTask != null) {
+            this.refreshTask.cancel(false);
+            this.refreshTask = null;
+        }
         if (this.cleaner != null) {
             CLEANER_POOL.returnObject(this.cleaner);
             this.cleaner = null;
@@ -162,12 +231,14 @@ public class RouterClient implements Lifecycle<RouterOptions>, Display, Iterable
 
         final Map<String, Route> local = new HashMap<>();
         final List<String> misses = new ArrayList<>();
+        final long tick = Clock.defaultClock().getTick();
 
         tables.forEach(table -> {
             final Route r = this.routeCache.get(table);
             if (r == null) {
                 misses.add(table);
             } else {
+                r.tryWeekSetHit(tick);
                 local.put(table, r);
             }
         });
@@ -176,7 +247,7 @@ public class RouterClient implements Lifecycle<RouterOptions>, Display, Iterable
             return Utils.completedCf(local);
         }
 
-        return routeRefreshFor(reqCtx, misses) // refresh from remote
+        return fetchRoutes(reqCtx, misses) // refresh from remote, shared with concurrent misses
                 .thenApply(remote -> { // then merge result
                     final Map<String, Route> ret;
                     if (remote.size() > local.size()) {
@@ -202,6 +273,7 @@ public class RouterClient implements Lifecycle<RouterOptions>, Display, Iterable
                                                                  final Collection<String> tables) {
         return this.router.routeFor(reqCtx, tables).whenComplete((remote, err) -> {
             if (err == null) {
+                remote.values().forEach(route -> route.setDatabase(reqCtx.getDatabase()));
                 this.routeCache.putAll(remote);
                 this.metrics.refreshedSize().update(remote.size());
                 this.metrics.cachedSize().update(this.routeCache.size());
@@ -213,6 +285,166 @@ public class RouterClient implements Lifecycle<RouterOptions>, Display, Iterable
         });
     }
 
+    private CompletableFuture<Map<String, Route>> fetchRoutes(final RequestContext reqCtx, final List<String> misses) {
+        final Map<String, CompletableFuture<Route>> waits = new HashMap<>(misses.size());
+        final Map<String, CompletableFuture<Route>> owned = new HashMap<>(misses.size());
+        for (final String table : misses) {
+            final CompletableFuture<Route> f = new CompletableFuture<>();
+            final CompletableFuture<Route> prev = this.inflight.putIfAbsent(inflightKey(reqCtx, table), f);
+            if (prev == null) {
+                owned.put(table, f);
+                waits.put(table, f);
+            } else {
+                waits.put(table, prev);
+            }
+        }
+
+        this.metrics.coalescedSize().update(waits.size() - owned.size());
+
+        if (!owned.isEmpty()) {
+            enqueue(reqCtx, owned);
+        }
+
+        return CompletableFuture.allOf(waits.values().toArray(new CompletableFuture[0])).thenApply(ignored -> {
+            final Map<String, Route> remote = new HashMap<>(waits.size());
+            waits.forEach((table, f) -> {
+                final Route route = f.join();
+                if (route != null) {
+                    remote.put(table, route);
+                }
+            });
+            return remote;
+        });
+    }
+
+    private void enqueue(final RequestContext reqCtx, final Map<String, CompletableFuture<Route>> tables) {
+        final ScheduledExecutorService scheduler = this.refresher;
+        final long window = this.opts.getBatchWindowMillis();
+        if (window <= 0 || scheduler == null) {
+            flush(reqCtx, tables);
+            return;
+        }
+
+        final String database = reqCtx.getDatabase();
+        final boolean first;
+        synchronized (this.pending) {
+            PendingRoutes batch = this.pending.get(database);
+            first = batch == null;
+            if (first) {
+                batch = new PendingRoutes(reqCtx);
+                this.pending.put(database, batch);
+            }
+            batch.tables.putAll(tables);
+        }
+
+        if (first) {
+            try {
+                scheduler.schedule(() -> flushPending(database), window, TimeUnit.MILLISECONDS);
+            } catch (final RejectedExecutionException e) {
+                flushPending(database);
+            }
+        }
+    }
+
+    private void flushPending(final String database) {
+        final PendingRoutes batch;
+        synchronized (this.pending) {
+            batch = this.pending.remove(database);
+        }
+        if (batch != null) {
+            flush(batch.reqCtx, batch.tables);
+        }
+    }
+
+    private void flush(final RequestContext reqCtx, final Map<String, CompletableFuture<Route>> tables) {
+        this.metrics.batchedSize().update(tables.size());
+
+        CompletableFuture<Map<String, Route>> f;
+        try {
+            f = routeRefreshFor(reqCtx, tables.keySet());
+        } catch (final Throwable t) {
+            f = Utils.errorCf(t);
+        }
+
+        f.whenComplete((remote, err) -> tables.forEach((table, waiter) -> {
+            this.inflight.remove(inflightKey(reqCtx, table), waiter);
+            if (err == null) {
+                waiter.complete(remote.get(table));
+            } else {
+                waiter.completeExceptionally(err);
+            }
+        }));
+    }
+
+    private static String inflightKey(final RequestContext reqCtx, final String table) {
+        return reqCtx.getDatabase() + "." + table;
+    }
+
+    /**
+     * Re-resolves the routes hit since the last refresh in bulk, so topology
+     * changes are picked up before requests fail with INVALID_ROUTE.
+     */
+    public void refresh() {
+        this.metrics.refreshAheadTimer().time(this::refresh0);
+    }
+
+    private void refresh0() {
+        final long since = this.lastRefreshTick;
+        this.lastRefreshTick = Clock.defaultClock().getTick();
+
+        final Map<String, List<String>> hot = new HashMap<>();
+        this.routeCache.forEach((table, route) -> {
+            // routes cached without a database can not be re-resolved
+            if (route.getLastHit() >= since && route.getDatabase() != null) {
+                hot.computeIfAbsent(route.getDatabase(), k -> new ArrayList<>()).add(table);
+            }
+        });
+
+        hot.forEach((database, tables) -> {
+            final RequestContext reqCtx = new RequestContext();
+            reqCtx.setDatabase(database);
+            for (int i = 0; i < tables.size(); i += MAX_REFRESH_BATCH_SIZE) {
+                refreshAhead(reqCtx, tables.subList(i, Math.min(tables.size(), i + MAX_REFRESH_BATCH_SIZE)));
+            }
+        });
+    }
+
+    private void refreshAhead(final RequestContext reqCtx, final List<String> tables) {
+        this.metrics.refreshAheadSize().update(tables.size());
+        CompletableFuture<Map<String, Route>> f;
+        try {
+            f = this.router.routeFor(reqCtx, tables);
+        } catch (final Throwable t) {
+            // must not escape, it would cancel the periodic refresh
+            f = Utils.errorCf(t);
+        }
+        f.whenComplete((remote, err) -> {
+            if (err != null) {
+                LOG.warn("Route refresh ahead failed: {}.", tables, err);
+                return;
+            }
+
+            int changed = 0;
+            for (final Route fresh : remote.values()) {
+                final Route prev = this.routeCache.get(fresh.getTable());
+                if (prev == null || prev.getEndpoint().equals(fresh.getEndpoint())) {
+                    // evicted meanwhile, or nothing to do
+                    continue;
+                }
+                fresh.setDatabase(reqCtx.getDatabase());
+                fresh.inheritLastHit(prev);
+                if (this.routeCache.replace(fresh.getTable(), prev, fresh)) {
+                    changed++;
+                }
+            }
+
+            this.metrics.refreshAheadChanged().mark(changed);
+            if (changed > 0) {
+                LOG.info("Route refreshed ahead: {} of {} routes changed.", changed, tables.size());
+            }
+        });
+    }
+
     public void clearRouteCacheBy(final Collection<String> tables) {
         if (tables == null || tables.isEmpty()) {
             return;
@@ -282,7 +514,17 @@ public class RouterClient implements Lifecycle<RouterOptions>, Display, Iterable
         final CompletableFuture<Resp> future = new CompletableFuture<>();
 
         try {
-            this.rpcClient.invokeAsync(endpoint, request, ctx, new Observer<Resp>() {
+            this.rpcClient.invokeAsync(endpoint, request, ctx, new CancellableObserver<Resp>() {
+
+                @Override
+                public void onStart(final Cancellable call) {
+                    // cancelling the future cancels the rpc
+                    future.whenComplete((r, e) -> {
+                        if (future.isCancelled()) {
+                            call.cancel("Cancelled by the caller");
+                        }
+                    });
+                }
 
                 @Override
                 public void onNext(final Resp value) {
@@ -339,7 +581,9 @@ public class RouterClient implements Lifecycle<RouterOptions>, Display, Iterable
                 .print("opts=") //
                 .println(this.opts) //
                 .print("routeCache.size=") //
-                .println(this.routeCache.size());
+                .println(this.routeCache.size()) //
+                .print("inflight.size=") //
+                .println(this.inflight.size());
 
         if (this.rpcClient != null) {
             out.println("");
@@ -356,6 +600,16 @@ public class RouterClient implements Lifecycle<RouterOptions>, Display, Iterable
                '}';
     }
 
+    private static final class PendingRoutes {
+
+        private final RequestContext                        reqCtx;
+        private final Map<String, CompletableFuture<Route>> tables = new HashMap<>();
+
+        private PendingRoutes(RequestContext reqCtx) {
+            this.reqCtx = reqCtx;
+        }
+    }
+
     private class RouterByTables implements Router<Collection<String>, Map<String, Route>> {
 
         private final Endpoint endpoint;
@@ -0,0 +1,460 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.ByteStringHelper;
+import com.google.protobuf.CodedOutputStream;
+
+import io.ceresdb.common.util.Requires;
+import io.ceresdb.common.util.internal.UnsafeUtil;
+import io.ceresdb.errors.StreamException;
+import io.ceresdb.models.Point;
+import io.ceresdb.models.RequestContext;
+import io.ceresdb.models.Value;
+import io.ceresdb.proto.internal.Storage;
+
+/**
+ * The points of a stream write waiting for the next flush, kept outside of
+ * the java heap.
+ *
+ * A point is encoded as soon as it is written: its field group (timestamp and
+ * fields) goes in the protobuf wire format into a direct buffer, and the row
+ * is indexed by its series, offset and length in a second one. Only the
+ * distinct tag names, field names and series tags stay on heap. A flush
+ * groups the rows by series and copies them into the request of the table,
+ * then the buffers are reused for the next rows. A buffer replaced by a larger
+ * one is freed right away, not when it is collected.
+ *
+ * The request has the same series and rows as the one
+ * {@link WriteRequestEncoder} encodes from the same points, the series are in
+ * the order they were first written. Not thread safe.
+ *
+ */
+final class StreamWriteBuffer {
+
+    static final int DEFAULT_INITIAL_BYTES = 64 * 1024;
+    // one request can not be larger than this
+    static final int MAX_BYTES = Integer.MAX_VALUE - 8;
+
+    // series id, offset and length of a row
+    private static final int ROW_BYTES = 12;
+
+    // Buffers grown past this are dropped at flush, instead of being kept for the next rows
+    private static final int MAX_RETAINED_BYTES = 16 * 1024 * 1024;
+
+    private final String                                      table;
+    private final int                                         initialBytes;
+    private final int                                         maxBytes;
+    private final WriteRequestEncoder.NameIndex               tagNames   = new WriteRequestEncoder.NameIndex();
+    private final WriteRequestEncoder.NameIndex               fieldNames = new WriteRequestEncoder.NameIndex();
+    private final Map<WriteRequestEncoder.SeriesKey, Integer> seriesIds  = new HashMap<>();
+    private final List<SeriesTags>                            series     = new ArrayList<>();
+    private final WriteRequestEncoder.SeriesKey               probe      = new WriteRequestEncoder.SeriesKey();
+
+    // scratch of the fields of the point being written
+    private int[] fieldIndexes = new int[8];
+    private int[] valueSizes   = new int[8];
+
+    private ByteBuffer        groups;
+    private CodedOutputStream groupsOut;
+    private int               groupsSize;
+    private ByteBuffer        rows;
+    private int               rowCount;
+
+    StreamWriteBuffer(String table) {
+        this(table, DEFAULT_INITIAL_BYTES);
+    }
+
+    StreamWriteBuffer(String table, int initialBytes) {
+        this(table, initialBytes, MAX_BYTES);
+    }
+
+    StreamWriteBuffer(String table, int initialBytes, int maxBytes) {
+        Requires.requireTrue(initialBytes > 0, "initialBytes must > 0");
+        Requires.requireTrue(maxBytes >= initialBytes && maxBytes <= MAX_BYTES, "invalid maxBytes");
+        this.table = table;
+        this.initialBytes = initialBytes;
+        this.maxBytes = maxBytes;
+        allocate();
+    }
+
+    String table() {
+        return this.table;
+    }
+
+    /**
+     * The bytes of the encoded rows.
+     */
+    int bytes() {
+        return this.groupsSize;
+    }
+
+    int rowCount() {
+        return this.rowCount;
+    }
+
+    boolean isEmpty() {
+        return this.rowCount == 0;
+    }
+
+    /**
+     * The bytes reserved outside of the heap.
+     */
+    long capacity() {
+        return this.groups == null ? 0 : (long) this.groups.capacity() + this.rows.capacity();
+    }
+
+    void write(final Point point) {
+        if (!this.table.equals(point.getTable())) {
+            throw new StreamException(
+                    String.format("Invalid table %s, only can write %s.", point.getTable(), this.table));
+        }
+        if (this.groups == null) {
+            throw new IllegalStateException("Stream write completed");
+        }
+
+        // Nothing changes until the row is known to fit, a point rejected by reserve leaves no trace. The names
+        // new to this buffer are not inserted yet, they would be appended in the order of the point.
+
+        // Same series key as the encoder of the points
+        final WriteRequestEncoder.SeriesKey key = this.probe;
+        key.clear();
+        final List<String> names = this.tagNames.names();
+        for (int i = 0; i < names.size(); i++) {
+            appendTag(key, point.getTag(names.get(i)));
+        }
+        for (int i = 0; i < point.getTagCount(); i++) {
+            if (this.tagNames.indexOf(point.getTagName(i)) < 0) {
+                appendTag(key, point.getTagValue(i));
+            }
+        }
+
+        final int fieldCount = point.getFieldCount();
+        if (this.fieldIndexes.length < fieldCount) {
+            this.fieldIndexes = new int[fieldCount];
+            this.valueSizes = new int[fieldCount];
+        }
+        int size = 0;
+        if (point.getTimestamp() != 0) {
+            size += CodedOutputStream.computeInt64Size(Storage.FieldGroup.TIMESTAMP_FIELD_NUMBER, point.getTimestamp());
+        }
+        int newFieldNames = 0;
+        for (int i = 0; i < fieldCount; i++) {
+            if (point.isFieldNull(i)) {
+                continue;
+            }
+            int nameIndex = this.fieldNames.indexOf(point.getFieldName(i));
+            if (nameIndex < 0) {
+                nameIndex = this.fieldNames.names().size() + newFieldNames++;
+            }
+            final int valueSize = WriteRequestEncoder.valueSizeOf(point.getFieldType(i), point.getFieldLong(i),
+                    point.getFieldRef(i));
+            this.fieldIndexes[i] = nameIndex;
+            this.valueSizes[i] = valueSize;
+            size += WriteRequestEncoder.nestedSize(Storage.FieldGroup.FIELDS_FIELD_NUMBER,
+                    namedValueSize(nameIndex, valueSize));
+        }
+
+        reserve(size);
+
+        for (int i = 0; i < point.getTagCount(); i++) {
+            this.tagNames.insert(point.getTagName(i));
+        }
+        Integer seriesId = this.seriesIds.get(key);
+        if (seriesId == null) {
+            seriesId = this.series.size();
+            this.seriesIds.put(key.copy(), seriesId);
+            this.series.add(new SeriesTags(point, this.tagNames));
+        }
+        for (int i = 0; i < fieldCount; i++) {
+            if (!point.isFieldNull(i)) {
+                // the same index as taken for its size
+                this.fieldNames.insert(point.getFieldName(i));
+            }
+        }
+
+        final CodedOutputStream out = this.groupsOut;
+        try {
+            if (point.getTimestamp() != 0) {
+                out.writeInt64(Storage.FieldGroup.TIMESTAMP_FIELD_NUMBER, point.getTimestamp());
+            }
+            for (int i = 0; i < fieldCount; i++) {
+                if (point.isFieldNull(i)) {
+                    continue;
+                }
+                WriteRequestEncoder.writeNestedHeader(out, Storage.FieldGroup.FIELDS_FIELD_NUMBER,
+                        namedValueSize(this.fieldIndexes[i], this.valueSizes[i]));
+                writeNamedValueHeader(out, this.fieldIndexes[i], this.valueSizes[i]);
+                WriteRequestEncoder.writeValue(out, point.getFieldType(i), point.getFieldLong(i), point.getFieldRef(i));
+            }
+        } catch (final IOException e) {
+            throw new IllegalStateException("Fail to encode point", e);
+        }
+
+        final int row = this.rowCount * ROW_BYTES;
+        this.rows.putInt(row, seriesId);
+        this.rows.putInt(row + 4, this.groupsSize);
+        this.rows.putInt(row + 8, size);
+        this.groupsSize += size;
+        this.rowCount++;
+    }
+
+    /**
+     * Encodes the buffered rows into a write request and empties the buffer,
+     * null when there is no row.
+     */
+    Storage.WriteRequest drain(final RequestContext reqCtx) {
+        if (this.rowCount == 0) {
+            return null;
+        }
+        return WriteRequestEncoder.newRequest(reqCtx, Collections.singletonList(drainTableRequest()));
+    }
+
+    /**
+     * Encodes the buffered rows into the serialized
+     * {@link Storage.WriteTableRequest} of the table and empties the buffer.
+     */
+    ByteString drainTableRequest() {
+        Requires.requireTrue(this.rowCount > 0, "Empty buffer");
+        final int seriesCount = this.series.size();
+
+        // Counting sort of the rows by series, keeping the order of the rows of each series
+        final int[] starts = new int[seriesCount + 1];
+        final int[] entrySizes = new int[seriesCount];
+        for (int r = 0; r < this.rowCount; r++) {
+            final int s = this.rows.getInt(r * ROW_BYTES);
+            starts[s + 1]++;
+            entrySizes[s] += WriteRequestEncoder.nestedSize(Storage.WriteSeriesEntry.FIELD_GROUPS_FIELD_NUMBER,
+                    this.rows.getInt(r * ROW_BYTES + 8));
+        }
+        for (int s = 0; s < seriesCount; s++) {
+            starts[s + 1] += starts[s];
+        }
+        final int[] order = new int[this.rowCount];
+        final int[] cursors = new int[seriesCount];
+        for (int r = 0; r < this.rowCount; r++) {
+            final int s = this.rows.getInt(r * ROW_BYTES);
+            order[starts[s] + cursors[s]++] = r;
+        }
+
+        int size = CodedOutputStream.computeStringSize(Storage.WriteTableRequest.TABLE_FIELD_NUMBER, this.table);
+        for (final String name : this.tagNames.names()) {
+            size += CodedOutputStream.computeStringSize(Storage.WriteTableRequest.TAG_NAMES_FIELD_NUMBER, name);
+        }
+        for (final String name : this.fieldNames.names()) {
+            size += CodedOutputStream.computeStringSize(Storage.WriteTableRequest.FIELD_NAMES_FIELD_NUMBER, name);
+        }
+        for (int s = 0; s < seriesCount; s++) {
+            entrySizes[s] += this.series.get(s).size();
+            size += WriteRequestEncoder.nestedSize(Storage.WriteTableRequest.ENTRIES_FIELD_NUMBER, entrySizes[s]);
+        }
+
+        final byte[] bytes = new byte[size];
+        final CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+        final ByteBuffer src = this.groups.duplicate();
+        try {
+            out.writeString(Storage.WriteTableRequest.TABLE_FIELD_NUMBER, this.table);
+            for (final String name : this.tagNames.names()) {
+                out.writeString(Storage.WriteTableRequest.TAG_NAMES_FIELD_NUMBER, name);
+            }
+            for (final String name : this.fieldNames.names()) {
+                out.writeString(Storage.WriteTableRequest.FIELD_NAMES_FIELD_NUMBER, name);
+            }
+            for (int s = 0; s < seriesCount; s++) {
+                WriteRequestEncoder.writeNestedHeader(out, Storage.WriteTableRequest.ENTRIES_FIELD_NUMBER,
+                        entrySizes[s]);
+                this.series.get(s).writeTo(out);
+                for (int i = starts[s]; i < starts[s + 1]; i++) {
+                    final int row = order[i] * ROW_BYTES;
+                    final int offset = this.rows.getInt(row + 4);
+                    final int length = this.rows.getInt(row + 8);
+                    WriteRequestEncoder.writeNestedHeader(out, Storage.WriteSeriesEntry.FIELD_GROUPS_FIELD_NUMBER,
+                            length);
+                    src.limit(offset + length).position(offset);
+                    out.write(src);
+                }
+            }
+            out.checkNoSpaceLeft();
+        } catch (final IOException e) {
+            throw new IllegalStateException("Fail to encode write request", e);
+        }
+
+        clear();
+
+        return ByteStringHelper.wrap(bytes);
+    }
+
+    /**
+     * Drops the buffered rows, keeping the buffers unless they have grown too
+     * large.
+     */
+    void clear() {
+        this.tagNames.clear();
+        this.fieldNames.clear();
+        this.seriesIds.clear();
+        this.series.clear();
+        this.rowCount = 0;
+        this.groupsSize = 0;
+        if (this.groups == null) {
+            return;
+        }
+        if (capacity() > MAX_RETAINED_BYTES) {
+            free();
+            allocate();
+        } else {
+            this.groups.clear();
+            this.groupsOut = CodedOutputStream.newInstance(this.groups);
+        }
+    }
+
+    /**
+     * Drops the rows and frees the buffers. Nothing can be written after.
+     */
+    void release() {
+        clear();
+        free();
+        this.groups = null;
+        this.groupsOut = null;
+        this.rows = null;
+    }
+
+    private void allocate() {
+        this.groups = ByteBuffer.allocateDirect(this.initialBytes);
+        this.groupsOut = CodedOutputStream.newInstance(this.groups);
+        this.rows = ByteBuffer.allocateDirect(Math.max(ROW_BYTES, this.initialBytes / 8 / ROW_BYTES * ROW_BYTES)) //
+                .order(ByteOrder.nativeOrder());
+    }
+
+    private void free() {
+        if (this.groups != null) {
+            UnsafeUtil.freeDirectBuffer(this.groups);
+            UnsafeUtil.freeDirectBuffer(this.rows);
+        }
+    }
+
+    private void reserve(final int size) {
+        if (this.groups.capacity() - this.groupsSize < size) {
+            final ByteBuffer groups = ByteBuffer
+                    .allocateDirect(grownCapacity(this.groups.capacity(), (long) this.groupsSize + size));
+            final ByteBuffer src = this.groups.duplicate();
+            src.limit(this.groupsSize).position(0);
+            groups.put(src);
+            UnsafeUtil.freeDirectBuffer(this.groups);
+            this.groups = groups;
+            this.groupsOut = CodedOutputStream.newInstance(groups);
+        }
+        if (this.rows.capacity() - this.rowCount * ROW_BYTES < ROW_BYTES) {
+            final ByteBuffer rows = ByteBuffer
+                    .allocateDirect(grownCapacity(this.rows.capacity(), (long) (this.rowCount + 1) * ROW_BYTES))
+                    .order(ByteOrder.nativeOrder());
+            final ByteBuffer src = this.rows.duplicate();
+            src.limit(this.rowCount * ROW_BYTES).position(0);
+            rows.put(src);
+            UnsafeUtil.freeDirectBuffer(this.rows);
+            this.rows = rows;
+        }
+    }
+
+    private int grownCapacity(final int capacity, final long required) {
+        if (required > this.maxBytes) {
+            throw new StreamException("Too many bytes buffered, flush the stream write more often");
+        }
+        return (int) Math.min(this.maxBytes, Math.max(required, (long) capacity << 1));
+    }
+
+    private static void appendTag(final WriteRequestEncoder.SeriesKey key, final Value tagV) {
+        if (!Value.isNull(tagV)) {
+            key.append(tagV.getObject().toString());
+        }
+    }
+
+    // A Storage.Tag or a Storage.Field, both are (name_index = 1, value = 2)
+    private static int namedValueSize(final int nameIndex, final int valueSize) {
+        int size = WriteRequestEncoder.nestedSize(Storage.Tag.VALUE_FIELD_NUMBER, valueSize);
+        if (nameIndex != 0) {
+            size += CodedOutputStream.computeUInt32Size(Storage.Tag.NAME_INDEX_FIELD_NUMBER, nameIndex);
+        }
+        return size;
+    }
+
+    // Followed by the value itself
+    private static void writeNamedValueHeader(final CodedOutputStream out, final int nameIndex, final int valueSize)
+            throws IOException {
+        if (nameIndex != 0) {
+            out.writeUInt32(Storage.Tag.NAME_INDEX_FIELD_NUMBER, nameIndex);
+        }
+        WriteRequestEncoder.writeNestedHeader(out, Storage.Tag.VALUE_FIELD_NUMBER, valueSize);
+    }
+
+    @Override
+    public String toString() {
+        return "StreamWriteBuffer{" + //
+               "table='" + table + '\'' + //
+               ", rowCount=" + rowCount + //
+               ", series=" + series.size() + //
+               ", bytes=" + groupsSize + //
+               ", capacity=" + capacity() + //
+               '}';
+    }
+
+    /**
+     * The non-null tags of a series, those of its first point.
+     */
+    private static final class SeriesTags {
+        private final int[]   nameIndexes;
+        private final Value[] values;
+        private final int[]   valueSizes;
+
+        SeriesTags(Point first, WriteRequestEncoder.NameIndex tagNames) {
+            int count = 0;
+            for (int i = 0; i < first.getTagCount(); i++) {
+                if (!Value.isNull(first.getTagValue(i))) {
+                    count++;
+                }
+            }
+            this.nameIndexes = new int[count];
+            this.values = new Value[count];
+            this.valueSizes = new int[count];
+            int j = 0;
+            for (int i = 0; i < first.getTagCount(); i++) {
+                final Value tagV = first.getTagValue(i);
+                if (Value.isNull(tagV)) {
+                    continue;
+                }
+                this.nameIndexes[j] = tagNames.indexOf(first.getTagName(i));
+                this.values[j] = tagV;
+                this.valueSizes[j] = WriteRequestEncoder.valueSizeOf(tagV);
+                j++;
+            }
+        }
+
+        int size() {
+            int size = 0;
+            for (int i = 0; i < this.values.length; i++) {
+                size += WriteRequestEncoder.nestedSize(Storage.WriteSeriesEntry.TAGS_FIELD_NUMBER,
+                        namedValueSize(this.nameIndexes[i], this.valueSizes[i]));
+            }
+            return size;
+        }
+
+        void writeTo(final CodedOutputStream out) throws IOException {
+            for (int i = 0; i < this.values.length; i++) {
+                WriteRequestEncoder.writeNestedHeader(out, Storage.WriteSeriesEntry.TAGS_FIELD_NUMBER,
+                        namedValueSize(this.nameIndexes[i], this.valueSizes[i]));
+                writeNamedValueHeader(out, this.nameIndexes[i], this.valueSizes[i]);
+                WriteRequestEncoder.writeValue(out, this.values[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb;
+
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Timer;
+
+import io.ceresdb.common.util.Clock;
+import io.ceresdb.common.util.MetricsUtil;
+import io.ceresdb.common.util.Requires;
+import io.ceresdb.errors.StreamException;
+import io.ceresdb.proto.internal.Storage;
+import io.ceresdb.rpc.Observer;
+import io.ceresdb.rpc.ReadyAwareObserver;
+
+/**
+ * Bounds the bytes of a stream write queued in the transport. The requests
+ * sent while the stream is not ready are counted as outstanding, once they
+ * reach {@code streamMaxOutstandingBytes} the next request blocks the
+ * producer (the caller of {@code flush}) until the transport is ready again,
+ * or the stream has terminated.
+ *
+ * A single request larger than the window is let through when nothing is
+ * outstanding, so it can not block forever.
+ *
+ */
+final class StreamWriteWindow implements Observer<Storage.WriteRequest> {
+
+    private static final Timer READY_WAIT_TIME = MetricsUtil.timer("stream_write_ready_wait_time");
+
+    // Re-checks the readiness in case a ready signal is missed
+    private static final long MAX_WAIT_MS = 100;
+
+    private final long                               maxOutstandingBytes;
+    private final Object                             lock = new Object();
+    private ReadyAwareObserver<Storage.WriteRequest> delegate;
+    private long                                     outstanding;
+    private volatile boolean                         terminated;
+
+    StreamWriteWindow(long maxOutstandingBytes) {
+        this.maxOutstandingBytes = maxOutstandingBytes;
+    }
+
+    /**
+     * Returns the observer to send the requests of the stream to, this
+     * window when the window is enabled and the transport tells its
+     * readiness, the given one otherwise.
+     */
+    Observer<Storage.WriteRequest> bind(final Observer<Storage.WriteRequest> rpcObs) {
+        if (this.maxOutstandingBytes <= 0 || !(rpcObs instanceof ReadyAwareObserver)) {
+            return rpcObs;
+        }
+        this.delegate = (ReadyAwareObserver<Storage.WriteRequest>) rpcObs;
+        return this;
+    }
+
+    /**
+     * Called when the response stream has terminated, wakes up the
+     * producer.
+     */
+    void terminate() {
+        this.terminated = true;
+        signal();
+    }
+
+    long outstanding() {
+        synchronized (this.lock) {
+            return this.outstanding;
+        }
+    }
+
+    @Override
+    public void onNext(final Storage.WriteRequest value) {
+        Requires.requireNonNull(this.delegate, "Unbound window");
+        final int size = value.getSerializedSize();
+        synchronized (this.lock) {
+            if (this.delegate.isReady()) {
+                this.outstanding = 0;
+            } else if (this.outstanding > 0 && this.outstanding + size > this.maxOutstandingBytes) {
+                awaitReady();
+            }
+            this.outstanding += size;
+        }
+        this.delegate.onNext(value);
+    }
+
+    @Override
+    public void onError(final Throwable err) {
+        this.delegate.onError(err);
+    }
+
+    @Override
+    public void onCompleted() {
+        this.delegate.onCompleted();
+    }
+
+    // Called with the lock held
+    private void awaitReady() {
+        final long start = Clock.defaultClock().getTick();
+        try {
+            this.delegate.onReady(this::signal);
+            while (!this.terminated && !this.delegate.isReady()) {
+                this.lock.wait(MAX_WAIT_MS);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StreamException("Interrupted while waiting for the stream to be ready", e);
+        } finally {
+            READY_WAIT_TIME.update(Clock.defaultClock().duration(start), TimeUnit.MILLISECONDS);
+        }
+        if (this.terminated) {
+            throw new StreamException("Stream write terminated while waiting for the stream to be ready");
+        }
+        this.outstanding = 0;
+    }
+
+    private void signal() {
+        synchronized (this.lock) {
+            this.lock.notifyAll();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "StreamWriteWindow{" + //
+               "maxOutstandingBytes=" + maxOutstandingBytes + //
+               ", outstanding=" + outstanding() + //
+               ", terminated=" + terminated + //
+               '}';
+    }
+}
@@ -11,6 +11,7 @@ import io.ceresdb.models.RequestContext;
 import io.ceresdb.models.Result;
 import io.ceresdb.models.WriteOk;
 import io.ceresdb.models.WriteRequest;
+import io.ceresdb.models.WriteTemplate;
 import io.ceresdb.rpc.Context;
 import io.ceresdb.util.StreamWriteBuf;
 
@@ -37,6 +38,27 @@ public interface Write {
      */
     CompletableFuture<Result<WriteOk, Err>> write(final WriteRequest req, final Context ctx);
 
+    /**
+     * @see #write(RequestContext, WriteTemplate, Context)
+     */
+    default CompletableFuture<Result<WriteOk, Err>> write(final WriteTemplate rows) {
+        return write(null, rows, Context.newDefault());
+    }
+
+    /**
+     * Write the rows of a template to the database, they are encoded with
+     * the names of its schema and go to the single endpoint of its table.
+     *
+     * The rows are taken from the template before this method returns, the
+     * template is left empty and can be filled with the next rows at once.
+     *
+     * @param reqCtx the request context, the default database when null
+     * @param rows   the rows to write
+     * @param ctx    the invoked context
+     * @return write result
+     */
+    CompletableFuture<Result<WriteOk, Err>> write(RequestContext reqCtx, final WriteTemplate rows, final Context ctx);
+
     /**
      * @see #streamWrite(RequestContext, String, Context)
      */
@@ -56,4 +78,24 @@ public interface Write {
      * @return a write request observer for streaming-write
      */
     StreamWriteBuf<Point, WriteOk> streamWrite(RequestContext reqCtx, final String table, final Context ctx);
+
+    /**
+     * @see #routedStreamWrite(RequestContext, Context)
+     */
+    default StreamWriteBuf<Point, WriteOk> routedStreamWrite() {
+        return routedStreamWrite(null, Context.newDefault());
+    }
+
+    /**
+     * Executes a stream-write-call for points of any tables. The tables are
+     * routed as they are written, one stream is opened to each endpoint they
+     * are routed to, and the rows buffered for an endpoint are flushed when
+     * they reach {@code WriteOptions#streamMaxBufferedBytes}.
+     *
+     * @param reqCtx the request context, the default database when null
+     * @param ctx    the invoked context
+     * @return a write request observer for streaming-write, its result
+     *         combines those of all the endpoints
+     */
+    StreamWriteBuf<Point, WriteOk> routedStreamWrite(RequestContext reqCtx, final Context ctx);
 }
@@ -3,16 +3,16 @@
  */
 package io.ceresdb;
 
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -27,7 +27,6 @@ import io.ceresdb.common.util.Clock;
 import io.ceresdb.common.util.MetricsUtil;
 import io.ceresdb.common.util.Requires;
 import io.ceresdb.common.util.SerializingExecutor;
-import io.ceresdb.common.util.Spines;
 import io.ceresdb.common.util.Strings;
 import io.ceresdb.errors.StreamException;
 import io.ceresdb.limit.LimitedPolicy;
@@ -36,18 +35,20 @@ import io.ceresdb.models.Err;
 import io.ceresdb.models.Point;
 import io.ceresdb.models.RequestContext;
 import io.ceresdb.models.Result;
-import io.ceresdb.models.Value;
 import io.ceresdb.models.WriteOk;
 import io.ceresdb.models.WriteRequest;
+import io.ceresdb.models.WriteTemplate;
 import io.ceresdb.options.WriteOptions;
 import io.ceresdb.proto.internal.Storage;
 import io.ceresdb.rpc.Context;
+import io.ceresdb.rpc.EncodedRequest;
 import io.ceresdb.rpc.Observer;
 import io.ceresdb.util.StreamWriteBuf;
 import io.ceresdb.util.Utils;
 
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
 import com.google.common.collect.Lists;
 
 /**
@@ -62,6 +63,11 @@ public class WriteClient implements Write, Lifecycle<WriteOptions>, Display {
     private RouterClient routerClient;
     private Executor     asyncPool;
     private WriteLimiter writeLimiter;
+    private WriteLimiter writeBytesLimiter;
+    // Not null only if auto-batching is enabled
+    private BatchingWriter      batchingWriter;
+    private final AtomicLong    traceSeq = new AtomicLong();
+    private volatile WriteTrace lastTrace;
 
     static final class InnerMetrics {
         static final Histogram WRITE_POINTS_SUCCESS = MetricsUtil.histogram("write_points_success_num");
@@ -69,6 +75,14 @@ public class WriteClient implements Write, Lifecycle<WriteOptions>, Display {
         static final Histogram POINTS_NUM_PER_WRITE = MetricsUtil.histogram("points_num_per_write");
         static final Meter     WRITE_FAILED         = MetricsUtil.meter("write_failed");
         static final Meter     WRITE_QPS            = MetricsUtil.meter("write_qps");
+        // more than 3 retries are classified as the same metric
+        static final Meter[] WRITE_BY_RETRIES  = { MetricsUtil.meter("write_by_retries", 0),   //
+                                                   MetricsUtil.meter("write_by_retries", 1),   //
+                                                   MetricsUtil.meter("write_by_retries", 2),   //
+                                                   MetricsUtil.meter("write_by_retries", 3) };
+        static final Timer[] WRITE_PHASE_TIMES = Arrays.stream(WriteTrace.Phase.values())      //
+                .map(phase -> MetricsUtil.timer("write_phase_time", phase.metricName()))       //
+                .toArray(Timer[]::new);
 
         static Histogram writePointsSuccess() {
             return WRITE_POINTS_SUCCESS;
@@ -91,8 +105,11 @@ public class WriteClient implements Write, Lifecycle<WriteOptions>, Display {
         }
 
         static Meter writeByRetries(final int retries) {
-            // more than 3 retries are classified as the same metric
-            return MetricsUtil.meter("write_by_retries", Math.min(3, retries));
+            return WRITE_BY_RETRIES[Math.min(3, retries)];
+        }
+
+        static Timer writePhaseTime(final WriteTrace.Phase phase) {
+            return WRITE_PHASE_TIMES[phase.ordinal()];
         }
     }
 
@@ -104,12 +121,21 @@ public class WriteClient implements Write, Lifecycle<WriteOptions>, Display {
         this.asyncPool = pool != null ? pool : new SerializingExecutor("write_client");
         this.writeLimiter = new DefaultWriteLimiter(this.opts.getMaxInFlightWritePoints(),
                 this.opts.getLimitedPolicy());
+        this.writeBytesLimiter = new DefaultWriteBytesLimiter(this.opts.getMaxInFlightWriteBytes(),
+                this.opts.getLimitedPolicy());
+        if (this.opts.isBatchingEnabled()) {
+            this.batchingWriter = new BatchingWriter(this);
+            this.batchingWriter.init(this.opts);
+        }
         return true;
     }
 
     @Override
     public void shutdownGracefully() {
-        // NO-OP
+        if (this.batchingWriter != null) {
+            this.batchingWriter.shutdownGracefully();
+            this.batchingWriter = null;
+        }
     }
 
     @Override
@@ -120,23 +146,89 @@ public class WriteClient implements Write, Lifecycle<WriteOptions>, Display {
         Requires.requireNonNull(req.getPoints(), "Null.data");
 
         final long startCall = Clock.defaultClock().getTick();
-        return this.writeLimiter.acquireAndDo(req.getPoints(),
-                () -> write0(req.getReqCtx(), req.getPoints(), ctx, 0).whenCompleteAsync((r, e) -> {
-                    InnerMetrics.writeQps().mark();
-                    if (r != null) {
-                        if (Utils.isRwLogging()) {
-                            LOG.info("Write to {}, duration={} ms, result={}.", Utils.DB_NAME,
-                                    Clock.defaultClock().duration(startCall), r);
-                        }
-                        if (r.isOk()) {
-                            final WriteOk ok = r.getOk();
-                            InnerMetrics.writePointsSuccess().update(ok.getSuccess());
-                            InnerMetrics.writePointsFailed().update(ok.getFailed());
-                            return;
-                        }
-                    }
-                    InnerMetrics.writeFailed().mark();
-                }, this.asyncPool));
+        final Context traceCtx = sampleTrace(ctx);
+        final WriteTrace trace = WriteTrace.of(traceCtx);
+        return acquireAndDo(req.getPoints(), () -> {
+            WriteTrace.mark(traceCtx, WriteTrace.Phase.LimiterWait);
+            return writeOrBatch(req.getReqCtx(), req.getPoints(), traceCtx) //
+                    .whenCompleteAsync((r, e) -> onWriteDone(r, startCall, trace), this.asyncPool);
+        });
+    }
+
+    @Override
+    public CompletableFuture<Result<WriteOk, Err>> write(final RequestContext reqCtx, final WriteTemplate template,
+                                                         final Context ctx) {
+        final RequestContext finalReqCtx = attachRequestCtx(reqCtx);
+
+        Requires.requireTrue(Strings.isNotBlank(finalReqCtx.getDatabase()), "No database selected");
+        Requires.requireNonNull(template, "Null.template");
+
+        if (template.getRowCount() == 0) {
+            return Utils.completedCf(WriteOk.emptyOk().mapToResult());
+        }
+        // the template is free to take the next rows once this returns
+        final WriteTemplate rows = template.drain();
+
+        final long startCall = Clock.defaultClock().getTick();
+        final Context traceCtx = sampleTrace(ctx);
+        final WriteTrace trace = WriteTrace.of(traceCtx);
+        return acquireAndDo(rows.asPoints(), () -> {
+            WriteTrace.mark(traceCtx, WriteTrace.Phase.LimiterWait);
+            return writeRows(finalReqCtx, rows, traceCtx) //
+                    .whenCompleteAsync((r, e) -> onWriteDone(r, startCall, trace), this.asyncPool);
+        });
+    }
+
+    private void onWriteDone(final Result<WriteOk, Err> r, final long startCall, final WriteTrace trace) {
+        InnerMetrics.writeQps().mark();
+        if (trace != null) {
+            completeTrace(trace);
+        }
+        if (r != null) {
+            if (Utils.isRwLogging()) {
+                LOG.info("Write to {}, duration={} ms, result={}, trace={}.", Utils.DB_NAME,
+                        Clock.defaultClock().duration(startCall), r, trace);
+            }
+            if (r.isOk()) {
+                final WriteOk ok = r.getOk();
+                InnerMetrics.writePointsSuccess().update(ok.getSuccess());
+                InnerMetrics.writePointsFailed().update(ok.getFailed());
+                return;
+            }
+        }
+        InnerMetrics.writeFailed().mark();
+    }
+
+    /**
+     * Returns the context the write runs with, a copy carrying a new trace
+     * when the write is sampled, the context of the caller is never changed
+     * as it may be reused for other writes.
+     */
+    private Context sampleTrace(final Context ctx) {
+        final int every = this.opts.getTraceSampleEvery();
+        if (every <= 0 || WriteTrace.of(ctx) != null || this.traceSeq.getAndIncrement() % every != 0) {
+            return ctx;
+        }
+        final Context traced = ctx.copy();
+        WriteTrace.attach(traced);
+        return traced;
+    }
+
+    private void completeTrace(final WriteTrace trace) {
+        trace.mark(WriteTrace.Phase.Merge);
+        for (final WriteTrace.Phase phase : WriteTrace.Phase.values()) {
+            final long nanos = trace.durationNanos(phase);
+            if (nanos >= 0) {
+                InnerMetrics.writePhaseTime(phase).update(nanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        this.lastTrace = trace;
+    }
+
+    private CompletableFuture<Result<WriteOk, Err>> acquireAndDo(final List<Point> points,
+                                                                 final Supplier<CompletableFuture<Result<WriteOk, Err>>> action) {
+        // the points first, a write rejected by it does not pay for estimating the bytes
+        return this.writeLimiter.acquireAndDo(points, () -> this.writeBytesLimiter.acquireAndDo(points, action));
     }
 
     @Override
@@ -151,20 +243,15 @@ public class WriteClient implements Write, Lifecycle<WriteOptions>, Display {
 
         return this.routerClient.routeFor(finalReqCtx, Collections.singleton(table))
                 .thenApply(routes -> routes.values().stream().findFirst().orElseGet(() -> Route.invalid(table)))
-                .thenApply(route -> streamWriteTo(route, finalReqCtx, ctx, Utils.toUnaryObserver(respFuture)))
+                .thenApply(route -> streamWriteTo(route.getEndpoint(), ctx, Utils.toUnaryObserver(respFuture)))
                 .thenApply(reqObserver -> new StreamWriteBuf<Point, WriteOk>() {
 
-                    private final List<Point> buf = Spines.newBuf();
+                    // the points are encoded off heap as they are written
+                    private final StreamWriteBuffer buf = new StreamWriteBuffer(table);
 
                     @Override
                     public StreamWriteBuf<Point, WriteOk> write(final Point val) {
-                        this.buf.add(val);
-                        return this;
-                    }
-
-                    @Override
-                    public StreamWriteBuf<Point, WriteOk> write(final Collection<Point> c) {
-                        this.buf.addAll(c);
+                        this.buf.write(val);
                         return this;
                     }
 
@@ -174,28 +261,34 @@ public class WriteClient implements Write, Lifecycle<WriteOptions>, Display {
                             respFuture.getNow(null); // throw the exception now
                         }
                         if (!this.buf.isEmpty()) {
-                            reqObserver.onNext(this.buf.stream());
-                            this.buf.clear();
+                            reqObserver.onNext(this.buf.drain(finalReqCtx));
                         }
                         return this;
                     }
 
-                    @Override
-                    public StreamWriteBuf<Point, WriteOk> writeAndFlush(final Collection<Point> c) {
-                        flush(); // flush the previous write
-                        reqObserver.onNext(c.stream());
-                        return this;
-                    }
-
                     @Override
                     public CompletableFuture<WriteOk> completed() {
-                        flush();
+                        try {
+                            flush();
+                        } finally {
+                            this.buf.release();
+                        }
                         reqObserver.onCompleted();
                         return respFuture;
                     }
                 }).join();
     }
 
+    @Override
+    public StreamWriteBuf<Point, WriteOk> routedStreamWrite(final RequestContext reqCtx, final Context ctx) {
+        final RequestContext finalReqCtx = attachRequestCtx(reqCtx);
+
+        Requires.requireTrue(Strings.isNotBlank(finalReqCtx.getDatabase()), "No database selected");
+
+        return new RoutedStreamWriteBuf(this.routerClient, finalReqCtx, this.opts.getStreamMaxBufferedBytes(),
+                (endpoint, respObserver) -> streamWriteTo(endpoint, ctx, respObserver));
+    }
+
     private RequestContext attachRequestCtx(RequestContext reqCtx) {
         if (reqCtx == null) {
             reqCtx = new RequestContext();
@@ -206,9 +299,23 @@ public class WriteClient implements Write, Lifecycle<WriteOptions>, Display {
         return reqCtx;
     }
 
-    private CompletableFuture<Result<WriteOk, Err>> write0(final RequestContext reqCtx, final List<Point> data, //
-                                                           final Context ctx, //
-                                                           final int retries) {
+    Executor asyncPool() {
+        return this.asyncPool;
+    }
+
+    private CompletableFuture<Result<WriteOk, Err>> writeOrBatch(final RequestContext reqCtx, //
+                                                                 final List<Point> data, //
+                                                                 final Context ctx) {
+        final BatchingWriter batching = this.batchingWriter;
+        if (batching != null) {
+            return batching.write(reqCtx, data, ctx);
+        }
+        return write0(reqCtx, data, ctx, 0);
+    }
+
+    CompletableFuture<Result<WriteOk, Err>> write0(final RequestContext reqCtx, final List<Point> data, //
+                                                   final Context ctx, //
+                                                   final int retries) {
         InnerMetrics.writeByRetries(retries).mark();
 
         final Set<String> tables = data.stream() //
@@ -219,62 +326,86 @@ public class WriteClient implements Write, Lifecycle<WriteOptions>, Display {
 
         // 1. Get routes
         return this.routerClient.routeFor(reqCtx, tables)
+                .whenComplete((routes, err) -> WriteTrace.mark(ctx, WriteTrace.Phase.Route))
                 // 2. Split data by route info and write to DB
-                .thenComposeAsync(routes -> Utils.splitDataByRoute(data, routes).entrySet().stream()
-                        // Write to database
-                        .map(e -> writeTo(e.getKey(), reqCtx, e.getValue(), ctx.copy(), retries))
-                        // Reduce and combine write result
-                        .reduce((f1, f2) -> f1.thenCombineAsync(f2, Utils::combineResult, this.asyncPool))
-                        .orElse(Utils.completedCf(WriteOk.emptyOk().mapToResult())), this.asyncPool)
+                .thenComposeAsync(routes -> {
+                    WriteTrace.mark(ctx, WriteTrace.Phase.Dispatch);
+                    return Utils.splitDataByRoute(data, routes).entrySet().stream()
+                            // Write to database
+                            .map(e -> writeTo(e.getKey(), reqCtx, e.getValue(), ctx.copy(), retries))
+                            // Reduce and combine write result
+                            .reduce((f1, f2) -> f1.thenCombineAsync(f2, Utils::combineResult, this.asyncPool))
+                            .orElse(Utils.completedCf(WriteOk.emptyOk().mapToResult()));
+                }, this.asyncPool)
                 // 3. If failed, refresh route info and retry on INVALID_ROUTE
-                .thenComposeAsync(r -> {
-                    if (r.isOk()) {
-                        LOG.debug("Success to write to {}, ok={}.", Utils.DB_NAME, r.getOk());
-                        return Utils.completedCf(r);
-                    }
+                .thenComposeAsync(r -> retryOnFailure(reqCtx, ctx, retries, r), this.asyncPool);
+    }
 
-                    final Err err = r.getErr();
-                    LOG.warn("Failed to write to {}, err={}.", Utils.DB_NAME, err);
-
-                    // Should refresh route table
-                    final Set<String> toRefresh = err.stream() //
-                            .filter(Utils::shouldRefreshRouteTable) //
-                            .flatMap(e -> e.getFailedWrites().stream()) //
-                            .map(Point::getTable) //
-                            .collect(Collectors.toSet());
-                    this.routerClient.clearRouteCacheBy(toRefresh);
-
-                    // Should retry
-                    final List<Point> pointsToRetry = err.stream() //
-                            .filter(Utils::shouldRetry) //
-                            .flatMap(e -> e.getFailedWrites().stream()) //
-                            .collect(Collectors.toList());
-                    if (pointsToRetry.isEmpty()) {
-                        return Utils.completedCf(r);
-                    }
+    /**
+     * Writes points routed by the caller to the given endpoint, the failed
+     * points are retried the same way as {@link #write0}, routed afresh.
+     */
+    CompletableFuture<Result<WriteOk, Err>> writeRouted(final Endpoint endpoint, //
+                                                        final RequestContext reqCtx, //
+                                                        final List<Point> data, //
+                                                        final Context ctx) {
+        InnerMetrics.writeByRetries(0).mark();
+
+        return writeTo(endpoint, reqCtx, data, ctx, 0) //
+                .thenComposeAsync(r -> retryOnFailure(reqCtx, ctx, 0, r), this.asyncPool);
+    }
 
-                    if (retries + 1 > this.opts.getMaxRetries()) {
-                        LOG.error("Retried {} times still failed.", retries);
-                        return Utils.completedCf(r);
-                    }
+    private CompletableFuture<Result<WriteOk, Err>> retryOnFailure(final RequestContext reqCtx, //
+                                                                   final Context ctx, //
+                                                                   final int retries, //
+                                                                   final Result<WriteOk, Err> r) {
+        if (r.isOk()) {
+            LOG.debug("Success to write to {}, ok={}.", Utils.DB_NAME, r.getOk());
+            return Utils.completedCf(r);
+        }
 
-                    final CompletableFuture<Result<WriteOk, Err>> rwf = this.routerClient.routeFor(reqCtx, toRefresh)
-                            // Even for some data that does not require a refresh of the routing table,
-                            // we still wait until the routing table is flushed successfully before
-                            // retrying it, in order to give the server a break.
-                            .thenComposeAsync(routes -> write0(reqCtx, pointsToRetry, ctx, retries + 1),
-                                    this.asyncPool);
-
-                    // Should not retry
-                    final Optional<Err> noRetryErr = err.stream() //
-                            .filter(Utils::shouldNotRetry) //
-                            .reduce(Err::combine);
-                    return noRetryErr.isPresent() ?
-                            rwf.thenApplyAsync(ret -> Utils.combineResult(noRetryErr.get().mapToResult(), ret),
-                                    this.asyncPool) :
-                            rwf.thenApplyAsync(ret -> Utils.combineResult(err.getSubOk().mapToResult(), ret),
-                                    this.asyncPool);
-                }, this.asyncPool);
+        final Err err = r.getErr();
+        LOG.warn("Failed to write to {}, err={}.", Utils.DB_NAME, err);
+
+        // Should refresh route table
+        final Set<String> toRefresh = err.stream() //
+                .filter(Utils::shouldRefreshRouteTable) //
+                .flatMap(e -> e.getFailedWrites().stream()) //
+                .map(Point::getTable) //
+                .collect(Collectors.toSet());
+        this.routerClient.clearRouteCacheBy(toRefresh);
+
+        // Should retry
+        final List<Point> pointsToRetry = err.stream() //
+                .filter(Utils::shouldRetry) //
+                .flatMap(e -> e.getFailedWrites().stream()) //
+                .collect(Collectors.toList());
+        if (pointsToRetry.isEmpty()) {
+            return Utils.completedCf(r);
+        }
+
+        if (retries + 1 > this.opts.getMaxRetries()) {
+            LOG.error("Retried {} times still failed.", retries);
+            return Utils.completedCf(r);
+        }
+
+        // traced as a phase of its own, the retry must not mark the phases of the first attempt
+        final Context retryCtx = ctx.copy();
+        retryCtx.remove(WriteTrace.KEY);
+        final CompletableFuture<Result<WriteOk, Err>> rwf = this.routerClient.routeFor(reqCtx, toRefresh)
+                // Even for some data that does not require a refresh of the routing table,
+                // we still wait until the routing table is flushed successfully before
+                // retrying it, in order to give the server a break.
+                .thenComposeAsync(routes -> write0(reqCtx, pointsToRetry, retryCtx, retries + 1), this.asyncPool)
+                .whenComplete((ret, e) -> WriteTrace.mark(ctx, WriteTrace.Phase.Retry));
+
+        // Should not retry
+        final Optional<Err> noRetryErr = err.stream() //
+                .filter(Utils::shouldNotRetry) //
+                .reduce(Err::combine);
+        return noRetryErr.isPresent() ?
+                rwf.thenApplyAsync(ret -> Utils.combineResult(noRetryErr.get().mapToResult(), ret), this.asyncPool) :
+                rwf.thenApplyAsync(ret -> Utils.combineResult(err.getSubOk().mapToResult(), ret), this.asyncPool);
     }
 
     private CompletableFuture<Result<WriteOk, Err>> writeTo(final Endpoint endpoint, //
@@ -305,26 +436,90 @@ public class WriteClient implements Write, Lifecycle<WriteOptions>, Display {
                                                              final List<Point> data, //
                                                              final Context ctx, //
                                                              final int retries) {
+        final EncodedRequest req = toEncodedWriteRequest(reqCtx, data.stream());
+        WriteTrace.mark(ctx, WriteTrace.Phase.Encode);
+
         final CompletableFuture<Storage.WriteResponse> wrf = this.routerClient.invoke(endpoint, //
-                toWriteRequestObj(reqCtx, data.stream()), //
+                req, //
                 ctx.with("retries", retries) // server can use this in metrics
         );
 
-        return wrf.thenApplyAsync(resp -> Utils.toResult(resp, endpoint, data), this.asyncPool);
+        return wrf.whenComplete((resp, err) -> WriteTrace.mark(ctx, WriteTrace.Phase.Network)) //
+                .thenApplyAsync(resp -> {
+                    WriteTrace.mark(ctx, WriteTrace.Phase.ResultQueue);
+                    return Utils.toResult(resp, endpoint, data);
+                }, this.asyncPool);
     }
 
-    private Observer<Stream<Point>> streamWriteTo(final Route route, //
-                                                  final RequestContext reqCtx, //
-                                                  final Context ctx, //
-                                                  final Observer<WriteOk> respObserver) {
-        final Observer<Storage.WriteRequest> rpcObs = this.routerClient.invokeClientStreaming(route.getEndpoint(), //
+    /**
+     * Writes the rows of a template, all of a single table, the rows are
+     * never turned into points unless the write fails.
+     */
+    private CompletableFuture<Result<WriteOk, Err>> writeRows(final RequestContext reqCtx, //
+                                                              final WriteTemplate rows, //
+                                                              final Context ctx) {
+        InnerMetrics.writeByRetries(0).mark();
+        InnerMetrics.pointsNumPerWrite().update(1);
+
+        final String table = rows.getSchema().getTable();
+        return this.routerClient.routeFor(reqCtx, Collections.singleton(table))
+                .whenComplete((routes, err) -> WriteTrace.mark(ctx, WriteTrace.Phase.Route))
+                .thenComposeAsync(routes -> {
+                    WriteTrace.mark(ctx, WriteTrace.Phase.Dispatch);
+                    final Endpoint endpoint = routes.values().stream().findFirst().orElseGet(() -> Route.invalid(table))
+                            .getEndpoint();
+                    final int rowCount = rows.getRowCount();
+                    final int maxWriteSize = this.opts.getMaxWriteSize();
+                    if (rowCount <= maxWriteSize) {
+                        return writeRowsTo(endpoint, reqCtx, rows, 0, rowCount, ctx);
+                    }
+                    final Stream.Builder<CompletableFuture<Result<WriteOk, Err>>> fs = Stream.builder();
+                    for (int from = 0; from < rowCount; from += maxWriteSize) {
+                        fs.add(writeRowsTo(endpoint, reqCtx, rows, from, Math.min(rowCount, from + maxWriteSize),
+                                ctx.copy()));
+                    }
+                    return fs.build() //
+                            .reduce((f1, f2) -> f1.thenCombineAsync(f2, Utils::combineResult, this.asyncPool)) //
+                            .orElse(Utils.completedCf(WriteOk.emptyOk().mapToResult()));
+                }, this.asyncPool) //
+                // the failed rows come back as points, retried the same way as points
+                .thenComposeAsync(r -> retryOnFailure(reqCtx, ctx, 0, r), this.asyncPool);
+    }
+
+    private CompletableFuture<Result<WriteOk, Err>> writeRowsTo(final Endpoint endpoint, //
+                                                                final RequestContext reqCtx, //
+                                                                final WriteTemplate rows, //
+                                                                final int from, //
+                                                                final int to, //
+                                                                final Context ctx) {
+        final EncodedRequest req = WriteRequestEncoder.encode(reqCtx, rows, from, to);
+        WriteTrace.mark(ctx, WriteTrace.Phase.Encode);
+
+        final CompletableFuture<Storage.WriteResponse> wrf = this.routerClient.invoke(endpoint, //
+                req, //
+                ctx.with("retries", 0) // server can use this in metrics
+        );
+
+        return wrf.whenComplete((resp, err) -> WriteTrace.mark(ctx, WriteTrace.Phase.Network)) //
+                .thenApplyAsync(resp -> {
+                    WriteTrace.mark(ctx, WriteTrace.Phase.ResultQueue);
+                    return Utils.toResult(resp, endpoint, rows.getSchema().getTable(),
+                            rows.asPoints().subList(from, to));
+                }, this.asyncPool);
+    }
+
+    private Observer<Storage.WriteRequest> streamWriteTo(final Endpoint endpoint, //
+                                                         final Context ctx, //
+                                                         final Observer<WriteOk> respObserver) {
+        final StreamWriteWindow window = new StreamWriteWindow(this.opts.getStreamMaxOutstandingBytes());
+        final Observer<Storage.WriteRequest> rpcObs = this.routerClient.invokeClientStreaming(endpoint, //
                 Storage.WriteRequest.getDefaultInstance(), //
                 ctx, //
                 new Observer<Storage.WriteResponse>() {
 
                     @Override
                     public void onNext(final Storage.WriteResponse value) {
-                        final Result<WriteOk, Err> ret = Utils.toResult(value, route.getEndpoint(), null);
+                        final Result<WriteOk, Err> ret = Utils.toResult(value, endpoint, null);
                         if (ret.isOk()) {
                             respObserver.onNext(ret.getOk());
                         } else {
@@ -334,167 +529,33 @@ public class WriteClient implements Write, Lifecycle<WriteOptions>, Display {
 
                     @Override
                     public void onError(final Throwable err) {
+                        window.terminate();
                         respObserver.onError(err);
                     }
 
                     @Override
                     public void onCompleted() {
+                        window.terminate();
                         respObserver.onCompleted();
                     }
                 });
 
-        return new Observer<Stream<Point>>() {
-
-            private final String table = route.getTable();
-
-            @Override
-            public void onNext(final Stream<Point> value) {
-                final Stream<Point> data = value.filter(point -> {
-                    if (this.table.equals(point.getTable())) {
-                        return true;
-                    }
-                    throw new StreamException(
-                            String.format("Invalid table %s, only can write %s.", point.getTable(), this.table));
-                });
-
-                rpcObs.onNext(toWriteRequestObj(reqCtx, data));
-            }
-
-            @Override
-            public void onError(final Throwable err) {
-                rpcObs.onError(err);
-            }
-
-            @Override
-            public void onCompleted() {
-                rpcObs.onCompleted();
-            }
-        };
-    }
-
-    private static class NameDict {
-        private final Map<String, Integer> nameIndexes = new HashMap<>();
-        private int                        index       = 0;
-
-        public int insert(final String name) {
-            return this.nameIndexes.computeIfAbsent(name, s -> this.index++);
-        }
-
-        public Iterable<String> toOrdered() {
-            final String[] arr = new String[this.index];
-            this.nameIndexes.forEach((name, i) -> arr[i] = name);
-
-            return () -> new Iterator<String>() {
-
-                private int index = 0;
-
-                @Override
-                public boolean hasNext() {
-                    return this.index < arr.length;
-                }
-
-                @Override
-                public String next() {
-                    return arr[this.index++];
-                }
-            };
-        }
-    }
-
-    private static class WriteTuple3 {
-        String                                        table;
-        Map<String, Storage.WriteSeriesEntry.Builder> seriesBuilders;
-        NameDict                                      tagDict;
-        NameDict                                      fieldDict;
-
-        public WriteTuple3(String table) {
-            this.table = table;
-            this.seriesBuilders = new HashMap<>();
-            this.tagDict = new NameDict();
-            this.fieldDict = new NameDict();
-        }
-
-        public Map<String, Storage.WriteSeriesEntry.Builder> getSeriesBuilders() {
-            return seriesBuilders;
-        }
-
-        public NameDict getTagDict() {
-            return tagDict;
-        }
-
-        public NameDict getFieldDict() {
-            return fieldDict;
-        }
-
-        public Storage.WriteTableRequest build() {
-            Storage.WriteTableRequest.Builder writeTableRequest = Storage.WriteTableRequest.newBuilder()
-                    .setTable(table);
-
-            seriesBuilders.forEach((key, builder) -> {
-                writeTableRequest.addEntries(builder.build());
-            });
-
-            return writeTableRequest //
-                    .addAllTagNames(this.tagDict.toOrdered()) //
-                    .addAllFieldNames(this.fieldDict.toOrdered()) //
-                    .build();
-        }
+        // holds the producer back while the transport is not ready
+        return window.bind(rpcObs);
     }
 
     @VisibleForTest
     public Storage.WriteRequest toWriteRequestObj(final RequestContext reqCtx, final Stream<Point> data) {
-        final Storage.WriteRequest.Builder writeRequestBuilder = Storage.WriteRequest.newBuilder();
-        final Map<String, WriteTuple3> tuple3s = new HashMap<>();
-
-        data.forEach(point -> {
-            final String table = point.getTable();
-            final WriteTuple3 tp3 = tuple3s.computeIfAbsent(table, WriteTuple3::new);
-
-            final NameDict tagDict = tp3.getTagDict();
-            point.getTags().forEach((tagK, tagV) -> {
-                tagDict.insert(tagK);
-            });
-            StringBuffer seriesKeyBuffer = new StringBuffer();
-            tagDict.toOrdered().forEach((tagK) -> {
-                Value tagV = point.getTags().get(tagK);
-                if (!Value.isNull(tagV)) {
-                    seriesKeyBuffer.append(tagV.getObject().toString());
-                }
-            });
-            Storage.WriteSeriesEntry.Builder seriesEntryBuilder = tp3.getSeriesBuilders()
-                    .computeIfAbsent(seriesKeyBuffer.toString(), seriesKey -> {
-                        final Storage.WriteSeriesEntry.Builder seBuilder = Storage.WriteSeriesEntry.newBuilder();
-                        point.getTags().forEach((tagK, tagV) -> {
-                            if (Value.isNull(tagV)) {
-                                return;
-                            }
-                            final Storage.Tag.Builder tBui = Storage.Tag.newBuilder().setNameIndex(tagDict.insert(tagK))
-                                    .setValue(Utils.toProtoValue(tagV));
-                            seBuilder.addTags(tBui.build());
-                        });
-                        return seBuilder;
-                    });
-
-            final NameDict fieldDict = tp3.getFieldDict();
-            final Storage.FieldGroup.Builder fgBui = Storage.FieldGroup.newBuilder().setTimestamp(point.getTimestamp());
-            point.getFields().forEach((fieldK, fieldV) -> {
-                if (Value.isNull(fieldV)) {
-                    return;
-                }
-                final Storage.Field.Builder fBui = Storage.Field.newBuilder().setNameIndex(fieldDict.insert(fieldK))
-                        .setValue(Utils.toProtoValue(fieldV));
-                fgBui.addFields(fBui.build());
-            });
-            seriesEntryBuilder.addFieldGroups(fgBui.build());
-        });
-
-        Storage.RequestContext.Builder ctxBuilder = Storage.RequestContext.newBuilder();
-        ctxBuilder.setDatabase(reqCtx.getDatabase());
-        writeRequestBuilder.setContext(ctxBuilder.build());
-
-        tuple3s.values().forEach(tp3 -> writeRequestBuilder.addTableRequests(tp3.build()));
+        return WriteRequestEncoder.toMessage(toEncodedWriteRequest(reqCtx, data));
+    }
 
-        return writeRequestBuilder.build();
+    /**
+     * The serialized {@link Storage.WriteRequest} of the points, as it is
+     * sent by the transport.
+     */
+    @VisibleForTest
+    public EncodedRequest toEncodedWriteRequest(final RequestContext reqCtx, final Stream<Point> data) {
+        return WriteRequestEncoder.encode(reqCtx, data);
     }
 
     @Override
@@ -504,8 +565,19 @@ public class WriteClient implements Write, Lifecycle<WriteOptions>, Display {
                 .println(this.opts.getMaxRetries()) //
                 .print("maxWriteSize=") //
                 .println(this.opts.getMaxWriteSize()) //
+                .print("maxInFlightWriteBytes=") //
+                .println(this.opts.getMaxInFlightWriteBytes()) //
                 .print("asyncPool=") //
-                .println(this.asyncPool);
+                .println(this.asyncPool) //
+                .print("traceSampleEvery=") //
+                .println(this.opts.getTraceSampleEvery()) //
+                .print("lastTrace=") //
+                .println(this.lastTrace);
+
+        if (this.batchingWriter != null) {
+            out.println("");
+            this.batchingWriter.display(out);
+        }
     }
 
     @Override
@@ -539,4 +611,44 @@ public class WriteClient implements Write, Lifecycle<WriteOptions>, Display {
             return Result.err(Err.writeErr(Result.FLOW_CONTROL, errMsg, null, in));
         }
     }
+
+    /**
+     * Weighs a write by the estimated serialized bytes of its points
+     * instead of their number.
+     */
+    @VisibleForTest
+    static class DefaultWriteBytesLimiter extends WriteLimiter {
+
+        public DefaultWriteBytesLimiter(long maxInFlightBytes, LimitedPolicy policy) {
+            // the permits of the limiter are ints
+            super((int) Math.min(Integer.MAX_VALUE, maxInFlightBytes), policy, "write_bytes_limiter_acquire");
+        }
+
+        @Override
+        public int calculatePermits(final List<Point> in) {
+            if (in == null) {
+                return 0;
+            }
+            if (in instanceof WriteTemplate.Points) {
+                // without creating the points
+                final long bytes = Utils.estimatedSize(((WriteTemplate.Points) in).getTemplate());
+                return (int) Math.min(Integer.MAX_VALUE, bytes);
+            }
+            long bytes = 0;
+            for (final Point p : in) {
+                bytes += Utils.estimatedSize(p);
+            }
+            return (int) Math.min(Integer.MAX_VALUE, bytes);
+        }
+
+        @Override
+        public Result<WriteOk, Err> rejected(final List<Point> in, final RejectedState state) {
+            final String errMsg = String.format(
+                    "Write limited by client, acquireBytes=%d, maxBytes=%d, availableBytes=%d.", //
+                    state.acquirePermits(), //
+                    state.maxPermits(), //
+                    state.availablePermits());
+            return Result.err(Err.writeErr(Result.FLOW_CONTROL, errMsg, null, in));
+        }
+    }
 }
@@ -0,0 +1,961 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+
+import io.ceresdb.common.util.Requires;
+import io.ceresdb.models.Point;
+import io.ceresdb.models.RequestContext;
+import io.ceresdb.models.TableSchema;
+import io.ceresdb.models.Value;
+import io.ceresdb.models.WriteTemplate;
+import io.ceresdb.proto.internal.Storage;
+import io.ceresdb.rpc.EncodedRequest;
+
+/**
+ * Encodes points, or the rows of a {@link WriteTemplate}, into a serialized
+ * {@link Storage.WriteRequest} without building the intermediate protobuf
+ * builders.
+ *
+ * The request is serialized with a {@link CodedOutputStream} straight into
+ * one byte array, sent as an {@link EncodedRequest} by the transport. Tables
+ * and series are in the order they are first seen, series keys are hashed
+ * incrementally instead of being concatenated, and the name indexes, the
+ * table and series states live in per-thread scratch state reused across
+ * requests.
+ *
+ */
+final class WriteRequestEncoder {
+
+    // Cached scratch state larger than this is dropped after use
+    private static final int MAX_RETAINED_SLOTS = 1 << 16;
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    static EncodedRequest encode(final RequestContext reqCtx, final Stream<Point> data) {
+        final Scratch scratch = SCRATCH.get();
+        try {
+            return scratch.encode(reqCtx, data);
+        } finally {
+            scratch.reset();
+        }
+    }
+
+    /**
+     * Encodes the rows [from, to) of a template into the request of its
+     * table, the names are those of the schema and are not looked up per
+     * row.
+     */
+    static EncodedRequest encode(final RequestContext reqCtx, final WriteTemplate rows, final int from, final int to) {
+        final Scratch scratch = SCRATCH.get();
+        try {
+            return scratch.encode(reqCtx, rows, from, to);
+        } finally {
+            scratch.reset();
+        }
+    }
+
+    /**
+     * Parses an encoded request back into the message.
+     */
+    static Storage.WriteRequest toMessage(final EncodedRequest req) {
+        try {
+            return Storage.WriteRequest.parseFrom(req.getBytes());
+        } catch (final InvalidProtocolBufferException e) {
+            throw new IllegalStateException("Fail to parse encoded write request", e);
+        }
+    }
+
+    /**
+     * Builds the request of serialized {@link Storage.WriteTableRequest}s.
+     */
+    static Storage.WriteRequest newRequest(final RequestContext reqCtx, final List<ByteString> tableRequests) {
+        final Storage.WriteRequest.Builder builder = Storage.WriteRequest.newBuilder() //
+                .setContext(toProtoContext(reqCtx));
+        try {
+            for (final ByteString tableRequest : tableRequests) {
+                builder.addTableRequests(Storage.WriteTableRequest.parseFrom(tableRequest));
+            }
+        } catch (final InvalidProtocolBufferException e) {
+            throw new IllegalStateException("Fail to parse encoded table request", e);
+        }
+        return builder.build();
+    }
+
+    private static Storage.RequestContext toProtoContext(final RequestContext reqCtx) {
+        return Storage.RequestContext.newBuilder() //
+                .setDatabase(reqCtx.getDatabase()) //
+                .build();
+    }
+
+    private WriteRequestEncoder() {
+    }
+
+    private static final class Scratch {
+        private final Map<String, TableState> tables = new HashMap<>();
+        // the tables of the request are the first tablesInUse ones, in the order they are first seen
+        private final List<TableState> tablePool = new ArrayList<>();
+        private final SeriesKey        probe     = new SeriesKey();
+        private int                    tablesInUse;
+        // the series of template rows, same reuse as the series of a table
+        private Map<SeriesKey, RowGroup> rowSeries    = new HashMap<>();
+        private final List<RowGroup>     rowGroupPool = new ArrayList<>();
+        private int                      rowGroupsInUse;
+        private int[]                    fieldIndexes = new int[16];
+        // Nested message sizes computed by the sizing pass, consumed in the same order by the writing pass
+        private int[] slots = new int[256];
+        private int   slotCount;
+        private int   slotCursor;
+
+        EncodedRequest encode(final RequestContext reqCtx, final Stream<Point> data) {
+            data.forEach(this::collect);
+
+            final Storage.RequestContext ctx = toProtoContext(reqCtx);
+            int total = CodedOutputStream.computeMessageSize(Storage.WriteRequest.CONTEXT_FIELD_NUMBER, ctx);
+            for (int i = 0; i < this.tablesInUse; i++) {
+                final TableState tableState = this.tablePool.get(i);
+                tableState.size = sizeOf(tableState);
+                total += nestedSize(Storage.WriteRequest.TABLE_REQUESTS_FIELD_NUMBER, tableState.size);
+            }
+
+            final byte[] bytes = new byte[total];
+            final CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+            try {
+                out.writeMessage(Storage.WriteRequest.CONTEXT_FIELD_NUMBER, ctx);
+                for (int i = 0; i < this.tablesInUse; i++) {
+                    final TableState tableState = this.tablePool.get(i);
+                    writeNestedHeader(out, Storage.WriteRequest.TABLE_REQUESTS_FIELD_NUMBER, tableState.size);
+                    writeTo(out, tableState);
+                }
+                out.checkNoSpaceLeft();
+            } catch (final IOException e) {
+                throw new IllegalStateException("Fail to encode write request", e);
+            }
+            Requires.requireTrue(this.slotCursor == this.slotCount, "Unconsumed size slots");
+
+            return EncodedRequest.of(Storage.WriteRequest.getDefaultInstance(), bytes);
+        }
+
+        EncodedRequest encode(final RequestContext reqCtx, final WriteTemplate rows, final int from, final int to) {
+            final Storage.RequestContext ctx = toProtoContext(reqCtx);
+            if (from >= to) {
+                return EncodedRequest.of(Storage.WriteRequest.getDefaultInstance(), Storage.WriteRequest.newBuilder() //
+                        .setContext(ctx) //
+                        .build() //
+                        .toByteArray());
+            }
+            final TableSchema schema = rows.getSchema();
+
+            // Same series as the points of these rows would be grouped into
+            final SeriesKey key = this.probe;
+            for (int row = from; row < to; row++) {
+                key.clear();
+                for (int t = 0; t < schema.getTagCount(); t++) {
+                    final String tagV = rows.getTag(t, row);
+                    if (tagV != null) {
+                        key.append(tagV);
+                    }
+                }
+                RowGroup group = this.rowSeries.get(key);
+                if (group == null) {
+                    group = acquireRowGroup(key);
+                    this.rowSeries.put(group.key, group);
+                }
+                group.add(row);
+            }
+
+            // Only the fields with values are named in the request, -1 for the others
+            if (this.fieldIndexes.length < schema.getFieldCount()) {
+                this.fieldIndexes = new int[schema.getFieldCount()];
+            }
+            final int[] fieldIndexes = this.fieldIndexes;
+            final int fieldCount = schema.getFieldCount();
+            int used = 0;
+            for (int f = 0; f < fieldCount; f++) {
+                fieldIndexes[f] = -1;
+                for (int row = from; row < to; row++) {
+                    if (!rows.isFieldNull(f, row)) {
+                        fieldIndexes[f] = used++;
+                        break;
+                    }
+                }
+            }
+
+            int size = CodedOutputStream.computeStringSize(Storage.WriteTableRequest.TABLE_FIELD_NUMBER,
+                    schema.getTable());
+            for (int t = 0; t < schema.getTagCount(); t++) {
+                size += CodedOutputStream.computeStringSize(Storage.WriteTableRequest.TAG_NAMES_FIELD_NUMBER,
+                        schema.getTagName(t));
+            }
+            for (int f = 0; f < fieldCount; f++) {
+                if (fieldIndexes[f] >= 0) {
+                    size += CodedOutputStream.computeStringSize(Storage.WriteTableRequest.FIELD_NAMES_FIELD_NUMBER,
+                            schema.getFieldName(f));
+                }
+            }
+            for (int g = 0; g < this.rowGroupsInUse; g++) {
+                size += nestedSize(Storage.WriteTableRequest.ENTRIES_FIELD_NUMBER,
+                        sizeOf(rows, this.rowGroupPool.get(g), fieldIndexes, fieldCount));
+            }
+            final int total = CodedOutputStream.computeMessageSize(Storage.WriteRequest.CONTEXT_FIELD_NUMBER, ctx)
+                              + nestedSize(Storage.WriteRequest.TABLE_REQUESTS_FIELD_NUMBER, size);
+
+            final byte[] bytes = new byte[total];
+            final CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+            try {
+                out.writeMessage(Storage.WriteRequest.CONTEXT_FIELD_NUMBER, ctx);
+                writeNestedHeader(out, Storage.WriteRequest.TABLE_REQUESTS_FIELD_NUMBER, size);
+                out.writeString(Storage.WriteTableRequest.TABLE_FIELD_NUMBER, schema.getTable());
+                for (int t = 0; t < schema.getTagCount(); t++) {
+                    out.writeString(Storage.WriteTableRequest.TAG_NAMES_FIELD_NUMBER, schema.getTagName(t));
+                }
+                for (int f = 0; f < fieldCount; f++) {
+                    if (fieldIndexes[f] >= 0) {
+                        out.writeString(Storage.WriteTableRequest.FIELD_NAMES_FIELD_NUMBER, schema.getFieldName(f));
+                    }
+                }
+                for (int g = 0; g < this.rowGroupsInUse; g++) {
+                    writeNestedHeader(out, Storage.WriteTableRequest.ENTRIES_FIELD_NUMBER, nextSlot());
+                    writeTo(out, rows, this.rowGroupPool.get(g), fieldIndexes, fieldCount);
+                }
+                out.checkNoSpaceLeft();
+            } catch (final IOException e) {
+                throw new IllegalStateException("Fail to encode write request", e);
+            }
+            Requires.requireTrue(this.slotCursor == this.slotCount, "Unconsumed size slots");
+
+            return EncodedRequest.of(Storage.WriteRequest.getDefaultInstance(), bytes);
+        }
+
+        private RowGroup acquireRowGroup(final SeriesKey key) {
+            final RowGroup group;
+            if (this.rowGroupsInUse < this.rowGroupPool.size()) {
+                group = this.rowGroupPool.get(this.rowGroupsInUse);
+            } else {
+                group = new RowGroup();
+                this.rowGroupPool.add(group);
+            }
+            this.rowGroupsInUse++;
+            group.key.copyFrom(key);
+            return group;
+        }
+
+        private int sizeOf(final WriteTemplate rows, final RowGroup group, final int[] fieldIndexes,
+                           final int fieldCount) {
+            final TableSchema schema = rows.getSchema();
+            final int entrySlot = reserveSlot();
+            int entrySize = 0;
+            final int first = group.rows[0];
+            for (int t = 0; t < schema.getTagCount(); t++) {
+                final String tagV = rows.getTag(t, first);
+                if (tagV == null) {
+                    continue;
+                }
+                final int tagSize = sizeOfNamedValue(t, valueSizeOf(Value.DataType.String, 0, tagV));
+                entrySize += nestedSize(Storage.WriteSeriesEntry.TAGS_FIELD_NUMBER, tagSize);
+            }
+            for (int i = 0; i < group.count; i++) {
+                final int row = group.rows[i];
+                final int groupSlot = reserveSlot();
+                int groupSize = 0;
+                if (rows.getTimestamp(row) != 0) {
+                    groupSize += CodedOutputStream.computeInt64Size(Storage.FieldGroup.TIMESTAMP_FIELD_NUMBER,
+                            rows.getTimestamp(row));
+                }
+                for (int f = 0; f < fieldCount; f++) {
+                    if (rows.isFieldNull(f, row)) {
+                        continue;
+                    }
+                    final Object ref = rows.getFieldRef(f, row);
+                    final int fieldSize = sizeOfNamedValue(fieldIndexes[f],
+                            valueSizeOf(schema.getFieldType(f), ref == null ? rows.getFieldLong(f, row) : 0, ref));
+                    groupSize += nestedSize(Storage.FieldGroup.FIELDS_FIELD_NUMBER, fieldSize);
+                }
+                this.slots[groupSlot] = groupSize;
+                entrySize += nestedSize(Storage.WriteSeriesEntry.FIELD_GROUPS_FIELD_NUMBER, groupSize);
+            }
+            this.slots[entrySlot] = entrySize;
+            return entrySize;
+        }
+
+        private void writeTo(final CodedOutputStream out, final WriteTemplate rows, final RowGroup group,
+                             final int[] fieldIndexes, final int fieldCount)
+                throws IOException {
+            final TableSchema schema = rows.getSchema();
+            final int first = group.rows[0];
+            for (int t = 0; t < schema.getTagCount(); t++) {
+                final String tagV = rows.getTag(t, first);
+                if (tagV == null) {
+                    continue;
+                }
+                writeNestedHeader(out, Storage.WriteSeriesEntry.TAGS_FIELD_NUMBER, nextSlot());
+                writeNamedValueHeader(out, t);
+                out.writeString(Storage.Value.STRING_VALUE_FIELD_NUMBER, tagV);
+            }
+            for (int i = 0; i < group.count; i++) {
+                final int row = group.rows[i];
+                writeNestedHeader(out, Storage.WriteSeriesEntry.FIELD_GROUPS_FIELD_NUMBER, nextSlot());
+                if (rows.getTimestamp(row) != 0) {
+                    out.writeInt64(Storage.FieldGroup.TIMESTAMP_FIELD_NUMBER, rows.getTimestamp(row));
+                }
+                for (int f = 0; f < fieldCount; f++) {
+                    if (rows.isFieldNull(f, row)) {
+                        continue;
+                    }
+                    final Object ref = rows.getFieldRef(f, row);
+                    writeNestedHeader(out, Storage.FieldGroup.FIELDS_FIELD_NUMBER, nextSlot());
+                    writeNamedValueHeader(out, fieldIndexes[f]);
+                    writeValue(out, schema.getFieldType(f), ref == null ? rows.getFieldLong(f, row) : 0, ref);
+                }
+            }
+        }
+
+        private void collect(final Point point) {
+            TableState tableState = this.tables.get(point.getTable());
+            if (tableState == null) {
+                tableState = acquireTable(point.getTable());
+                this.tables.put(point.getTable(), tableState);
+            }
+
+            for (int i = 0; i < point.getTagCount(); i++) {
+                tableState.tagNames.insert(point.getTagName(i));
+            }
+
+            // Same key as the concatenation of non-null tag values in name index order
+            final SeriesKey key = this.probe;
+            key.clear();
+            final List<String> tagNames = tableState.tagNames.names;
+            for (int i = 0; i < tagNames.size(); i++) {
+                final Value tagV = point.getTag(tagNames.get(i));
+                if (!Value.isNull(tagV)) {
+                    key.append(tagV.getObject().toString());
+                }
+            }
+
+            Series series = tableState.seriesIndex.get(key);
+            if (series == null) {
+                series = tableState.acquireSeries(key);
+            }
+            series.points.add(point);
+
+            for (int i = 0; i < point.getFieldCount(); i++) {
+                if (!point.isFieldNull(i)) {
+                    tableState.fieldNames.insert(point.getFieldName(i));
+                }
+            }
+        }
+
+        private TableState acquireTable(final String table) {
+            final TableState tableState;
+            if (this.tablesInUse < this.tablePool.size()) {
+                tableState = this.tablePool.get(this.tablesInUse);
+            } else {
+                tableState = new TableState();
+                this.tablePool.add(tableState);
+            }
+            this.tablesInUse++;
+            tableState.table = table;
+            return tableState;
+        }
+
+        private int sizeOf(final TableState tableState) {
+            int size = 0;
+            if (!tableState.table.isEmpty()) {
+                size += CodedOutputStream.computeStringSize(Storage.WriteTableRequest.TABLE_FIELD_NUMBER,
+                        tableState.table);
+            }
+            for (final String name : tableState.tagNames.names) {
+                size += CodedOutputStream.computeStringSize(Storage.WriteTableRequest.TAG_NAMES_FIELD_NUMBER, name);
+            }
+            for (final String name : tableState.fieldNames.names) {
+                size += CodedOutputStream.computeStringSize(Storage.WriteTableRequest.FIELD_NAMES_FIELD_NUMBER, name);
+            }
+            for (int i = 0; i < tableState.seriesInUse; i++) {
+                size += nestedSize(Storage.WriteTableRequest.ENTRIES_FIELD_NUMBER,
+                        sizeOf(tableState, tableState.series.get(i)));
+            }
+            return size;
+        }
+
+        private int sizeOf(final TableState tableState, final Series series) {
+            final int entrySlot = reserveSlot();
+            int entrySize = 0;
+            final Point first = series.points.get(0);
+            for (int i = 0; i < first.getTagCount(); i++) {
+                final Value tagV = first.getTagValue(i);
+                if (Value.isNull(tagV)) {
+                    continue;
+                }
+                final int tagSize = sizeOfNamedValue(tableState.tagNames.indexOf(first.getTagName(i)),
+                        valueSizeOf(tagV));
+                entrySize += nestedSize(Storage.WriteSeriesEntry.TAGS_FIELD_NUMBER, tagSize);
+            }
+            for (final Point point : series.points) {
+                final int groupSlot = reserveSlot();
+                int groupSize = 0;
+                if (point.getTimestamp() != 0) {
+                    groupSize += CodedOutputStream.computeInt64Size(Storage.FieldGroup.TIMESTAMP_FIELD_NUMBER,
+                            point.getTimestamp());
+                }
+                for (int i = 0; i < point.getFieldCount(); i++) {
+                    if (point.isFieldNull(i)) {
+                        continue;
+                    }
+                    final int fieldSize = sizeOfNamedValue(tableState.fieldNames.indexOf(point.getFieldName(i)),
+                            valueSizeOf(point.getFieldType(i), point.getFieldLong(i), point.getFieldRef(i)));
+                    groupSize += nestedSize(Storage.FieldGroup.FIELDS_FIELD_NUMBER, fieldSize);
+                }
+                this.slots[groupSlot] = groupSize;
+                entrySize += nestedSize(Storage.WriteSeriesEntry.FIELD_GROUPS_FIELD_NUMBER, groupSize);
+            }
+            this.slots[entrySlot] = entrySize;
+            return entrySize;
+        }
+
+        // A Storage.Tag or a Storage.Field, both are (name_index = 1, value = 2)
+        private int sizeOfNamedValue(final int nameIndex, final int valueSize) {
+            final int slot = reserveSlot();
+            final int valueSlot = reserveSlot();
+            int size = nestedSize(Storage.Tag.VALUE_FIELD_NUMBER, valueSize);
+            if (nameIndex != 0) {
+                size += CodedOutputStream.computeUInt32Size(Storage.Tag.NAME_INDEX_FIELD_NUMBER, nameIndex);
+            }
+            this.slots[slot] = size;
+            this.slots[valueSlot] = valueSize;
+            return size;
+        }
+
+        private void writeTo(final CodedOutputStream out, final TableState tableState) throws IOException {
+            if (!tableState.table.isEmpty()) {
+                out.writeString(Storage.WriteTableRequest.TABLE_FIELD_NUMBER, tableState.table);
+            }
+            for (final String name : tableState.tagNames.names) {
+                out.writeString(Storage.WriteTableRequest.TAG_NAMES_FIELD_NUMBER, name);
+            }
+            for (final String name : tableState.fieldNames.names) {
+                out.writeString(Storage.WriteTableRequest.FIELD_NAMES_FIELD_NUMBER, name);
+            }
+            for (int i = 0; i < tableState.seriesInUse; i++) {
+                writeNestedHeader(out, Storage.WriteTableRequest.ENTRIES_FIELD_NUMBER, nextSlot());
+                writeTo(out, tableState, tableState.series.get(i));
+            }
+        }
+
+        private void writeTo(final CodedOutputStream out, final TableState tableState, final Series series)
+                throws IOException {
+            final Point first = series.points.get(0);
+            for (int i = 0; i < first.getTagCount(); i++) {
+                final Value tagV = first.getTagValue(i);
+                if (Value.isNull(tagV)) {
+                    continue;
+                }
+                writeNestedHeader(out, Storage.WriteSeriesEntry.TAGS_FIELD_NUMBER, nextSlot());
+                writeNamedValueHeader(out, tableState.tagNames.indexOf(first.getTagName(i)));
+                writeValue(out, tagV);
+            }
+            for (final Point point : series.points) {
+                writeNestedHeader(out, Storage.WriteSeriesEntry.FIELD_GROUPS_FIELD_NUMBER, nextSlot());
+                if (point.getTimestamp() != 0) {
+                    out.writeInt64(Storage.FieldGroup.TIMESTAMP_FIELD_NUMBER, point.getTimestamp());
+                }
+                for (int i = 0; i < point.getFieldCount(); i++) {
+                    if (point.isFieldNull(i)) {
+                        continue;
+                    }
+                    writeNestedHeader(out, Storage.FieldGroup.FIELDS_FIELD_NUMBER, nextSlot());
+                    writeNamedValueHeader(out, tableState.fieldNames.indexOf(point.getFieldName(i)));
+                    writeValue(out, point.getFieldType(i), point.getFieldLong(i), point.getFieldRef(i));
+                }
+            }
+        }
+
+        // Followed by the value itself
+        private void writeNamedValueHeader(final CodedOutputStream out, final int nameIndex) throws IOException {
+            if (nameIndex != 0) {
+                out.writeUInt32(Storage.Tag.NAME_INDEX_FIELD_NUMBER, nameIndex);
+            }
+            writeNestedHeader(out, Storage.Tag.VALUE_FIELD_NUMBER, nextSlot());
+        }
+
+        private int reserveSlot() {
+            if (this.slotCount == this.slots.length) {
+                this.slots = Arrays.copyOf(this.slots, this.slots.length << 1);
+            }
+            return this.slotCount++;
+        }
+
+        private int nextSlot() {
+            return this.slots[this.slotCursor++];
+        }
+
+        void reset() {
+            for (int i = 0; i < this.tablesInUse; i++) {
+                this.tablePool.get(i).clear();
+            }
+            this.tables.clear();
+            this.tablesInUse = 0;
+            for (int i = 0; i < this.rowGroupsInUse; i++) {
+                this.rowGroupPool.get(i).count = 0;
+            }
+            if (this.rowGroupsInUse > MAX_RETAINED_SLOTS) {
+                this.rowSeries = new HashMap<>();
+                this.rowGroupPool.clear();
+            } else {
+                this.rowSeries.clear();
+            }
+            this.rowGroupsInUse = 0;
+            this.slotCount = 0;
+            this.slotCursor = 0;
+            if (this.slots.length > MAX_RETAINED_SLOTS) {
+                this.slots = new int[256];
+            }
+        }
+    }
+
+    static int nestedSize(final int fieldNumber, final int size) {
+        return CodedOutputStream.computeTagSize(fieldNumber) + CodedOutputStream.computeUInt32SizeNoTag(size) + size;
+    }
+
+    static void writeNestedHeader(final CodedOutputStream out, final int fieldNumber, final int size)
+            throws IOException {
+        out.writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        out.writeUInt32NoTag(size);
+    }
+
+    /**
+     * Same encoding as {@link io.ceresdb.util.Utils#toProtoValue(Value)}.
+     */
+    static int valueSizeOf(final Value value) {
+        switch (value.getDataType()) {
+            case Double:
+                return CodedOutputStream.computeDoubleSize(Storage.Value.FLOAT64_VALUE_FIELD_NUMBER, value.getDouble());
+            case String:
+                return CodedOutputStream.computeStringSize(Storage.Value.STRING_VALUE_FIELD_NUMBER, value.getString());
+            case Int64:
+                return CodedOutputStream.computeInt64Size(Storage.Value.INT64_VALUE_FIELD_NUMBER, value.getInt64());
+            case Float:
+                return CodedOutputStream.computeFloatSize(Storage.Value.FLOAT32_VALUE_FIELD_NUMBER, value.getFloat());
+            case Int32:
+                return CodedOutputStream.computeInt32Size(Storage.Value.INT32_VALUE_FIELD_NUMBER, value.getInt32());
+            case Int16:
+                return CodedOutputStream.computeInt32Size(Storage.Value.INT16_VALUE_FIELD_NUMBER, value.getInt16());
+            case Int8:
+                return CodedOutputStream.computeInt32Size(Storage.Value.INT8_VALUE_FIELD_NUMBER, value.getInt8());
+            case Boolean:
+                return CodedOutputStream.computeBoolSize(Storage.Value.BOOL_VALUE_FIELD_NUMBER, value.getBoolean());
+            case UInt64:
+                return CodedOutputStream.computeUInt64Size(Storage.Value.UINT64_VALUE_FIELD_NUMBER, value.getUInt64());
+            case UInt32:
+                return CodedOutputStream.computeUInt32Size(Storage.Value.UINT32_VALUE_FIELD_NUMBER, value.getUInt32());
+            case UInt16:
+                return CodedOutputStream.computeUInt32Size(Storage.Value.UINT16_VALUE_FIELD_NUMBER, value.getUInt16());
+            case UInt8:
+                return CodedOutputStream.computeUInt32Size(Storage.Value.UINT8_VALUE_FIELD_NUMBER, value.getUInt8());
+            case Timestamp:
+                return CodedOutputStream.computeInt64Size(Storage.Value.TIMESTAMP_VALUE_FIELD_NUMBER,
+                        value.getTimestamp());
+            case Varbinary:
+                return CodedOutputStream.computeByteArraySize(Storage.Value.VARBINARY_VALUE_FIELD_NUMBER,
+                        value.getVarbinary());
+            default:
+                throw new IllegalArgumentException("Invalid type " + value);
+        }
+    }
+
+    static void writeValue(final CodedOutputStream out, final Value value) throws IOException {
+        switch (value.getDataType()) {
+            case Double:
+                out.writeDouble(Storage.Value.FLOAT64_VALUE_FIELD_NUMBER, value.getDouble());
+                break;
+            case String:
+                out.writeString(Storage.Value.STRING_VALUE_FIELD_NUMBER, value.getString());
+                break;
+            case Int64:
+                out.writeInt64(Storage.Value.INT64_VALUE_FIELD_NUMBER, value.getInt64());
+                break;
+            case Float:
+                out.writeFloat(Storage.Value.FLOAT32_VALUE_FIELD_NUMBER, value.getFloat());
+                break;
+            case Int32:
+                out.writeInt32(Storage.Value.INT32_VALUE_FIELD_NUMBER, value.getInt32());
+                break;
+            case Int16:
+                out.writeInt32(Storage.Value.INT16_VALUE_FIELD_NUMBER, value.getInt16());
+                break;
+            case Int8:
+                out.writeInt32(Storage.Value.INT8_VALUE_FIELD_NUMBER, value.getInt8());
+                break;
+            case Boolean:
+                out.writeBool(Storage.Value.BOOL_VALUE_FIELD_NUMBER, value.getBoolean());
+                break;
+            case UInt64:
+                out.writeUInt64(Storage.Value.UINT64_VALUE_FIELD_NUMBER, value.getUInt64());
+                break;
+            case UInt32:
+                out.writeUInt32(Storage.Value.UINT32_VALUE_FIELD_NUMBER, value.getUInt32());
+                break;
+            case UInt16:
+                out.writeUInt32(Storage.Value.UINT16_VALUE_FIELD_NUMBER, value.getUInt16());
+                break;
+            case UInt8:
+                out.writeUInt32(Storage.Value.UINT8_VALUE_FIELD_NUMBER, value.getUInt8());
+                break;
+            case Timestamp:
+                out.writeInt64(Storage.Value.TIMESTAMP_VALUE_FIELD_NUMBER, value.getTimestamp());
+                break;
+            case Varbinary:
+                out.writeByteArray(Storage.Value.VARBINARY_VALUE_FIELD_NUMBER, value.getVarbinary());
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid type " + value);
+        }
+    }
+
+    /**
+     * Same as {@link #valueSizeOf(Value)} for a value kept as its type, its
+     * primitive bits and its reference, without materializing it.
+     */
+    static int valueSizeOf(final Value.DataType type, final long bits, final Object ref) {
+        switch (type) {
+            case Double:
+                return CodedOutputStream.computeDoubleSize(Storage.Value.FLOAT64_VALUE_FIELD_NUMBER,
+                        Double.longBitsToDouble(bits));
+            case String:
+                return CodedOutputStream.computeStringSize(Storage.Value.STRING_VALUE_FIELD_NUMBER, (String) ref);
+            case Int64:
+                return CodedOutputStream.computeInt64Size(Storage.Value.INT64_VALUE_FIELD_NUMBER, bits);
+            case Float:
+                return CodedOutputStream.computeFloatSize(Storage.Value.FLOAT32_VALUE_FIELD_NUMBER,
+                        Float.intBitsToFloat((int) bits));
+            case Int32:
+                return CodedOutputStream.computeInt32Size(Storage.Value.INT32_VALUE_FIELD_NUMBER, (int) bits);
+            case Int16:
+                return CodedOutputStream.computeInt32Size(Storage.Value.INT16_VALUE_FIELD_NUMBER, (int) bits);
+            case Int8:
+                return CodedOutputStream.computeInt32Size(Storage.Value.INT8_VALUE_FIELD_NUMBER, (int) bits);
+            case Boolean:
+                return CodedOutputStream.computeBoolSize(Storage.Value.BOOL_VALUE_FIELD_NUMBER, bits != 0);
+            case UInt64:
+                return CodedOutputStream.computeUInt64Size(Storage.Value.UINT64_VALUE_FIELD_NUMBER, bits);
+            case UInt32:
+                return CodedOutputStream.computeUInt32Size(Storage.Value.UINT32_VALUE_FIELD_NUMBER, (int) bits);
+            case UInt16:
+                return CodedOutputStream.computeUInt32Size(Storage.Value.UINT16_VALUE_FIELD_NUMBER, (int) bits);
+            case UInt8:
+                return CodedOutputStream.computeUInt32Size(Storage.Value.UINT8_VALUE_FIELD_NUMBER, (int) bits);
+            case Timestamp:
+                return CodedOutputStream.computeInt64Size(Storage.Value.TIMESTAMP_VALUE_FIELD_NUMBER, bits);
+            case Varbinary:
+                return CodedOutputStream.computeByteArraySize(Storage.Value.VARBINARY_VALUE_FIELD_NUMBER, (byte[]) ref);
+            default:
+                throw new IllegalArgumentException("Invalid type " + type);
+        }
+    }
+
+    static void writeValue(final CodedOutputStream out, final Value.DataType type, final long bits, final Object ref)
+            throws IOException {
+        switch (type) {
+            case Double:
+                out.writeDouble(Storage.Value.FLOAT64_VALUE_FIELD_NUMBER, Double.longBitsToDouble(bits));
+                break;
+            case String:
+                out.writeString(Storage.Value.STRING_VALUE_FIELD_NUMBER, (String) ref);
+                break;
+            case Int64:
+                out.writeInt64(Storage.Value.INT64_VALUE_FIELD_NUMBER, bits);
+                break;
+            case Float:
+                out.writeFloat(Storage.Value.FLOAT32_VALUE_FIELD_NUMBER, Float.intBitsToFloat((int) bits));
+                break;
+            case Int32:
+                out.writeInt32(Storage.Value.INT32_VALUE_FIELD_NUMBER, (int) bits);
+                break;
+            case Int16:
+                out.writeInt32(Storage.Value.INT16_VALUE_FIELD_NUMBER, (int) bits);
+                break;
+            case Int8:
+                out.writeInt32(Storage.Value.INT8_VALUE_FIELD_NUMBER, (int) bits);
+                break;
+            case Boolean:
+                out.writeBool(Storage.Value.BOOL_VALUE_FIELD_NUMBER, bits != 0);
+                break;
+            case UInt64:
+                out.writeUInt64(Storage.Value.UINT64_VALUE_FIELD_NUMBER, bits);
+                break;
+            case UInt32:
+                out.writeUInt32(Storage.Value.UINT32_VALUE_FIELD_NUMBER, (int) bits);
+                break;
+            case UInt16:
+                out.writeUInt32(Storage.Value.UINT16_VALUE_FIELD_NUMBER, (int) bits);
+                break;
+            case UInt8:
+                out.writeUInt32(Storage.Value.UINT8_VALUE_FIELD_NUMBER, (int) bits);
+                break;
+            case Timestamp:
+                out.writeInt64(Storage.Value.TIMESTAMP_VALUE_FIELD_NUMBER, bits);
+                break;
+            case Varbinary:
+                out.writeByteArray(Storage.Value.VARBINARY_VALUE_FIELD_NUMBER, (byte[]) ref);
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid type " + type);
+        }
+    }
+
+    private static final class TableState {
+        private final NameIndex tagNames   = new NameIndex();
+        private final NameIndex fieldNames = new NameIndex();
+        // the series of the table are the first seriesInUse ones, in the order they are first seen
+        private final List<Series>     series      = new ArrayList<>();
+        private Map<SeriesKey, Series> seriesIndex = new HashMap<>();
+        private int                    seriesInUse;
+        private String                 table;
+        private int                    size;
+
+        Series acquireSeries(final SeriesKey key) {
+            final Series s;
+            if (this.seriesInUse < this.series.size()) {
+                s = this.series.get(this.seriesInUse);
+            } else {
+                s = new Series();
+                this.series.add(s);
+            }
+            this.seriesInUse++;
+            s.key.copyFrom(key);
+            this.seriesIndex.put(s.key, s);
+            return s;
+        }
+
+        void clear() {
+            this.tagNames.clear();
+            this.fieldNames.clear();
+            this.table = null;
+            for (int i = 0; i < this.seriesInUse; i++) {
+                this.series.get(i).points.clear();
+            }
+            if (this.seriesInUse > MAX_RETAINED_SLOTS) {
+                this.seriesIndex = new HashMap<>();
+                this.series.clear();
+            } else {
+                this.seriesIndex.clear();
+            }
+            this.seriesInUse = 0;
+            this.size = 0;
+        }
+    }
+
+    private static final class Series {
+        private final SeriesKey key = new SeriesKey();
+        // The tags of the series are those of its first point
+        private final List<Point> points = new ArrayList<>();
+    }
+
+    /**
+     * The rows of a template in the same series.
+     */
+    private static final class RowGroup {
+        private final SeriesKey key  = new SeriesKey();
+        private int[]           rows = new int[8];
+        private int             count;
+
+        void add(final int row) {
+            if (this.count == this.rows.length) {
+                this.rows = Arrays.copyOf(this.rows, this.count << 1);
+            }
+            this.rows[this.count++] = row;
+        }
+    }
+
+    /**
+     * Names to their insertion index, without boxing.
+     */
+    static final class NameIndex {
+        private static final int INITIAL_CAPACITY = 16;
+
+        private final List<String> names   = new ArrayList<>();
+        private String[]           keys    = new String[INITIAL_CAPACITY];
+        private int[]              indexes = new int[INITIAL_CAPACITY];
+
+        int insert(final String name) {
+            int i = slotOf(name);
+            if (this.keys[i] != null) {
+                return this.indexes[i];
+            }
+            final int index = this.names.size();
+            this.names.add(name);
+            if (index >= this.keys.length >> 1) {
+                rehash(this.keys.length << 1);
+                i = slotOf(name);
+            }
+            this.keys[i] = name;
+            this.indexes[i] = index;
+            return index;
+        }
+
+        int indexOf(final String name) {
+            final int i = slotOf(name);
+            return this.keys[i] == null ? -1 : this.indexes[i];
+        }
+
+        List<String> names() {
+            return this.names;
+        }
+
+        void clear() {
+            if (this.keys.length > MAX_RETAINED_SLOTS) {
+                this.keys = new String[INITIAL_CAPACITY];
+                this.indexes = new int[INITIAL_CAPACITY];
+            } else if (!this.names.isEmpty()) {
+                Arrays.fill(this.keys, null);
+            }
+            this.names.clear();
+        }
+
+        private int slotOf(final String name) {
+            final int mask = this.keys.length - 1;
+            int i = spread(name.hashCode()) & mask;
+            for (;;) {
+                final String k = this.keys[i];
+                // names are usually the same (interned) instances across points
+                if (k == null || k == name || k.equals(name)) {
+                    return i;
+                }
+                i = (i + 1) & mask;
+            }
+        }
+
+        private void rehash(final int capacity) {
+            this.keys = new String[capacity];
+            this.indexes = new int[capacity];
+            for (int index = 0; index < this.names.size() - 1; index++) {
+                final int i = slotOf(this.names.get(index));
+                this.keys[i] = this.names.get(index);
+                this.indexes[i] = index;
+            }
+        }
+
+        private static int spread(final int h) {
+            return (h ^ (h >>> 16)) * 0x9E3779B9;
+        }
+    }
+
+    /**
+     * A series key behaves exactly like the {@link String} concatenation of
+     * its parts (hash code, equality and natural ordering) without building
+     * that string.
+     */
+    static final class SeriesKey implements Comparable<SeriesKey> {
+        private String[] parts = new String[8];
+        private int      count;
+        private int      length;
+        private int      hash;
+
+        void append(final String part) {
+            if (this.count == this.parts.length) {
+                this.parts = Arrays.copyOf(this.parts, this.count << 1);
+            }
+            this.parts[this.count++] = part;
+            this.length += part.length();
+            // hash(a + b) == hash(a) * 31^len(b) + hash(b)
+            this.hash = this.hash * pow31(part.length()) + part.hashCode();
+        }
+
+        void clear() {
+            Arrays.fill(this.parts, 0, this.count, null);
+            this.count = 0;
+            this.length = 0;
+            this.hash = 0;
+        }
+
+        /**
+         * Makes this key equal to the given one, reusing its own parts
+         * array.
+         */
+        void copyFrom(final SeriesKey o) {
+            if (this.parts.length < o.count) {
+                this.parts = new String[o.parts.length];
+            } else if (this.count > o.count) {
+                Arrays.fill(this.parts, o.count, this.count, null);
+            }
+            System.arraycopy(o.parts, 0, this.parts, 0, o.count);
+            this.count = o.count;
+            this.length = o.length;
+            this.hash = o.hash;
+        }
+
+        SeriesKey copy() {
+            final SeriesKey copy = new SeriesKey();
+            copy.parts = Arrays.copyOf(this.parts, this.count);
+            copy.count = this.count;
+            copy.length = this.length;
+            copy.hash = this.hash;
+            return copy;
+        }
+
+        @Override
+        public int compareTo(final SeriesKey o) {
+            int i = 0, j = 0, ip = 0, jp = 0;
+            for (;;) {
+                while (i < this.count && ip == this.parts[i].length()) {
+                    i++;
+                    ip = 0;
+                }
+                while (j < o.count && jp == o.parts[j].length()) {
+                    j++;
+                    jp = 0;
+                }
+                if (i == this.count || j == o.count) {
+                    return this.length - o.length;
+                }
+                final char c1 = this.parts[i].charAt(ip++);
+                final char c2 = o.parts[j].charAt(jp++);
+                if (c1 != c2) {
+                    return c1 - c2;
+                }
+            }
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof SeriesKey)) {
+                return false;
+            }
+            final SeriesKey that = (SeriesKey) o;
+            return this.hash == that.hash && this.length == that.length && compareTo(that) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        private static int pow31(int n) {
+            int result = 1;
+            int base = 31;
+            while (n > 0) {
+                if ((n & 1) != 0) {
+                    result *= base;
+                }
+                base *= base;
+                n >>= 1;
+            }
+            return result;
+        }
+    }
+}
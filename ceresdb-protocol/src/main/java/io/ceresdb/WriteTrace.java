@@ -0,0 +1,177 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import io.ceresdb.rpc.Context;
+
+/**
+ * Where the time of a single write went, carried through the {@link Context}
+ * of the write. Put one in the context to trace a given write, or let the
+ * client sample writes with {@code WriteOptions#setTraceSampleEvery}.
+ *
+ * Each phase ends with a timestamp, its duration is the time since the end
+ * of the phase before it. When a write is split over several endpoints, a
+ * phase ends when the last of them is done with it. The phases of the first
+ * attempt are traced only, the retries of the failed points are traced as
+ * one {@link Phase#Retry}.
+ *
+ */
+public final class WriteTrace {
+
+    public static final String KEY = "write_trace";
+
+    public enum Phase {
+        /**
+         * Waiting for the permits of the write limiters.
+         */
+        LimiterWait("limiter_wait"),
+
+        /**
+         * Looking up the routes of the tables.
+         */
+        Route("route"),
+
+        /**
+         * Waiting for the async pool to split the points by route.
+         */
+        Dispatch("dispatch"),
+
+        /**
+         * Encoding the points to the request.
+         */
+        Encode("encode"),
+
+        /**
+         * The rpc call, including the rpc limiter and the server.
+         */
+        Network("network"),
+
+        /**
+         * Waiting for the async pool to handle the response.
+         */
+        ResultQueue("result_queue"),
+
+        /**
+         * Refreshing the routes of and writing again the points failed by
+         * INVALID_ROUTE, all the retries included.
+         */
+        Retry("retry"),
+
+        /**
+         * Combining the results of the endpoints and retrying the failed
+         * points.
+         */
+        Merge("merge");
+
+        private final String metricName;
+
+        Phase(String metricName) {
+            this.metricName = metricName;
+        }
+
+        public String metricName() {
+            return this.metricName;
+        }
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    // nanoTime may be negative
+    private static final long NOT_MARKED = Long.MIN_VALUE;
+
+    private final long            start = System.nanoTime();
+    private final AtomicLongArray ends  = newEnds();
+
+    /**
+     * Returns the trace carried by the context, null when the write is not
+     * traced.
+     */
+    public static WriteTrace of(final Context ctx) {
+        return ctx == null ? null : ctx.get(KEY);
+    }
+
+    /**
+     * Attaches a new trace to the context.
+     */
+    public static WriteTrace attach(final Context ctx) {
+        final WriteTrace trace = new WriteTrace();
+        ctx.with(KEY, trace);
+        return trace;
+    }
+
+    static void mark(final Context ctx, final Phase phase) {
+        final WriteTrace trace = of(ctx);
+        if (trace != null) {
+            trace.mark(phase);
+        }
+    }
+
+    void mark(final Phase phase) {
+        final long now = System.nanoTime();
+        this.ends.accumulateAndGet(phase.ordinal(), now, (prev, x) -> prev == NOT_MARKED || x - prev > 0 ? x : prev);
+    }
+
+    /**
+     * The duration of the given phase in nanoseconds, -1 when the write did
+     * not go through it.
+     */
+    public long durationNanos(final Phase phase) {
+        final long end = this.ends.get(phase.ordinal());
+        if (end == NOT_MARKED) {
+            return -1;
+        }
+        long begin = this.start;
+        for (int i = phase.ordinal() - 1; i >= 0; i--) {
+            final long prev = this.ends.get(i);
+            if (prev != NOT_MARKED) {
+                begin = prev;
+                break;
+            }
+        }
+        return Math.max(0, end - begin);
+    }
+
+    /**
+     * The time from the start of the write to the end of its last phase, in
+     * nanoseconds.
+     */
+    public long totalNanos() {
+        long total = 0;
+        for (int i = 0; i < PHASES.length; i++) {
+            final long end = this.ends.get(i);
+            if (end != NOT_MARKED) {
+                total = Math.max(total, end - this.start);
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder buf = new StringBuilder("WriteTrace{");
+        buf.append("total=").append(toMillis(totalNanos())).append("ms");
+        for (final Phase phase : PHASES) {
+            final long d = durationNanos(phase);
+            if (d >= 0) {
+                buf.append(", ").append(phase).append('=').append(toMillis(d)).append("ms");
+            }
+        }
+        return buf.append('}').toString();
+    }
+
+    private static AtomicLongArray newEnds() {
+        final AtomicLongArray ends = new AtomicLongArray(PHASES.length);
+        for (int i = 0; i < PHASES.length; i++) {
+            ends.set(i, NOT_MARKED);
+        }
+        return ends;
+    }
+
+    private static double toMillis(final long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
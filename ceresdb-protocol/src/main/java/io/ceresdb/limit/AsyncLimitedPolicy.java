@@ -0,0 +1,31 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb.limit;
+
+import java.util.concurrent.CompletableFuture;
+
+import io.ceresdb.common.Limiter;
+
+/**
+ * A limited policy that never parks the calling thread, the request goes on
+ * once the future of the permits completes.
+ *
+ */
+public interface AsyncLimitedPolicy extends LimitedPolicy {
+
+    /**
+     * Acquires the given number of permits from the given {@code Limiter}
+     * asynchronously.
+     *
+     * @param limiter the given limiter
+     * @param permits the number of permits to acquire
+     * @return the future of whether can continue processing the data
+     */
+    CompletableFuture<Boolean> acquireAsync(final Limiter limiter, final int permits);
+
+    @Override
+    default boolean acquire(final Limiter limiter, final int permits) {
+        return limiter.tryAcquire(permits);
+    }
+}
@@ -52,12 +52,45 @@ public abstract class CeresDBLimiter<In, Out> {
 
         this.acquireAvailablePermits.update(this.limiter.availablePermits());
 
+        if (this.policy instanceof AsyncLimitedPolicy) {
+            return acquireAsyncAndDo(in, action, acquirePermits, maxPermits, permits);
+        }
+
         if (this.policy.acquire(this.limiter, permits)) {
             return action.get().whenComplete((r, e) -> release(permits));
         }
         return Utils.completedCf(rejected(in, acquirePermits, maxPermits));
     }
 
+    private CompletableFuture<Out> acquireAsyncAndDo(final In in, //
+                                                     final Supplier<CompletableFuture<Out>> action, //
+                                                     final int acquirePermits, //
+                                                     final int maxPermits, //
+                                                     final int permits) {
+        final CompletableFuture<Boolean> acquired = ((AsyncLimitedPolicy) this.policy).acquireAsync(this.limiter,
+                permits);
+        final CompletableFuture<Out> future = acquired.thenCompose(ok -> {
+            if (!ok) {
+                return Utils.completedCf(rejected(in, acquirePermits, maxPermits));
+            }
+            final CompletableFuture<Out> f;
+            try {
+                f = action.get();
+            } catch (final Throwable t) {
+                release(permits);
+                throw t;
+            }
+            return f.whenComplete((r, e) -> release(permits));
+        });
+        // the caller gives up, so does the waiting for permits
+        future.whenComplete((r, e) -> {
+            if (future.isCancelled()) {
+                acquired.cancel(false);
+            }
+        });
+        return future;
+    }
+
     public abstract int calculatePermits(final In in);
 
     public abstract Out rejected(final In in, final RejectedState state);
@@ -3,6 +3,7 @@
  */
 package io.ceresdb.limit;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 import io.ceresdb.common.Limiter;
@@ -112,4 +113,33 @@ public interface LimitedPolicy {
             throw new LimitedException(err);
         }
     }
+
+    /**
+     * Waits for the permits in the FIFO queue of the limiter without
+     * parking the calling thread, the request fails with a flow control
+     * error if they are not granted within the timeout.
+     */
+    class AsyncBlockingTimeoutPolicy implements AsyncLimitedPolicy {
+
+        private final long     timeout;
+        private final TimeUnit unit;
+
+        public AsyncBlockingTimeoutPolicy(long timeout, TimeUnit unit) {
+            this.timeout = timeout;
+            this.unit = unit;
+        }
+
+        @Override
+        public CompletableFuture<Boolean> acquireAsync(final Limiter limiter, final int permits) {
+            return limiter.acquireAsync(permits, this.timeout, this.unit);
+        }
+
+        public long timeout() {
+            return this.timeout;
+        }
+
+        public TimeUnit unit() {
+            return this.unit;
+        }
+    }
 }
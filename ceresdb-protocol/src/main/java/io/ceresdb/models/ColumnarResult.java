@@ -0,0 +1,383 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb.models;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.vector.BaseIntVector;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.Float4Vector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.FloatingPointVector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.SmallIntVector;
+import org.apache.arrow.vector.TimeStampVector;
+import org.apache.arrow.vector.TinyIntVector;
+import org.apache.arrow.vector.UInt1Vector;
+import org.apache.arrow.vector.UInt2Vector;
+import org.apache.arrow.vector.UInt4Vector;
+import org.apache.arrow.vector.UInt8Vector;
+import org.apache.arrow.vector.VarBinaryVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.types.Types;
+
+import io.ceresdb.common.util.Requires;
+
+/**
+ * The columnar view of a query result, backed by the decoded arrow record
+ * batches without converting them into {@link Row}s.
+ *
+ * Rows are addressed by a global index across all batches, the primitive
+ * accessors read straight from the arrow vectors, a {@link Row} is only
+ * materialized when asked for.
+ *
+ * The primitive accessors do not check for null, callers are expected to
+ * call {@link #isNull(int, int)} first on nullable columns.
+ *
+ * The arrow buffers are released by {@link #close()}, any read of the
+ * vectors after that throws {@link IllegalStateException}.
+ *
+ */
+public class ColumnarResult implements AutoCloseable {
+
+    private static final ColumnarResult EMPTY = new ColumnarResult(Collections.emptyList(), null);
+
+    private final List<VectorSchemaRoot> batches;
+    private final BufferAllocator        allocator;
+    private final int[]                  offsets;
+    private final String[][]             names;
+    private final Types.MinorType[][]    types;
+    private volatile boolean             closed;
+
+    public ColumnarResult(List<VectorSchemaRoot> batches, BufferAllocator allocator) {
+        this.batches = Requires.requireNonNull(batches, "Null.batches");
+        this.allocator = allocator;
+        // offsets[i] is the global index of the first row in batches[i], the last one is the row count
+        this.offsets = new int[batches.size() + 1];
+        this.names = new String[batches.size()][];
+        this.types = new Types.MinorType[batches.size()][];
+        for (int i = 0; i < batches.size(); i++) {
+            final VectorSchemaRoot root = batches.get(i);
+            final List<FieldVector> vectors = root.getFieldVectors();
+            this.offsets[i + 1] = this.offsets[i] + root.getRowCount();
+            this.names[i] = new String[vectors.size()];
+            this.types[i] = new Types.MinorType[vectors.size()];
+            for (int col = 0; col < vectors.size(); col++) {
+                this.names[i][col] = vectors.get(col).getName();
+                this.types[i][col] = vectors.get(col).getMinorType();
+            }
+        }
+    }
+
+    public static ColumnarResult empty() {
+        return EMPTY;
+    }
+
+    /**
+     * The decoded arrow record batches, in the order the server returned them.
+     */
+    public List<VectorSchemaRoot> getBatches() {
+        ensureOpen();
+        return Collections.unmodifiableList(this.batches);
+    }
+
+    public int getRowCount() {
+        return this.offsets[this.batches.size()];
+    }
+
+    public int getColumnCount() {
+        return this.batches.isEmpty() ? 0 : this.names[0].length;
+    }
+
+    public String getColumnName(int col) {
+        return this.names[0][col];
+    }
+
+    /**
+     * Returns the index of the column with the given name, or -1 if absent.
+     */
+    public int getColumnIndex(String name) {
+        if (this.batches.isEmpty()) {
+            return -1;
+        }
+        final String[] columns = this.names[0];
+        for (int col = 0; col < columns.length; col++) {
+            if (columns[col].equals(name)) {
+                return col;
+            }
+        }
+        return -1;
+    }
+
+    public boolean isNull(int row, int col) {
+        final int batch = batchOf(row);
+        return vector(batch, col).isNull(row - this.offsets[batch]);
+    }
+
+    /**
+     * Reads an integer or timestamp column as long, unsigned columns are
+     * widened without sign extension except uint64.
+     */
+    public long getLong(int row, int col) {
+        final int batch = batchOf(row);
+        final FieldVector vector = vector(batch, col);
+        final int idx = row - this.offsets[batch];
+        if (vector instanceof BaseIntVector) {
+            return ((BaseIntVector) vector).getValueAsLong(idx);
+        }
+        if (vector instanceof TimeStampVector) {
+            return ((TimeStampVector) vector).get(idx);
+        }
+        throw typeMismatch(vector, "long");
+    }
+
+    public int getInt(int row, int col) {
+        return (int) getLong(row, col);
+    }
+
+    /**
+     * Reads a floating point column as double, integer columns are converted.
+     */
+    public double getDouble(int row, int col) {
+        final int batch = batchOf(row);
+        final FieldVector vector = vector(batch, col);
+        final int idx = row - this.offsets[batch];
+        if (vector instanceof FloatingPointVector) {
+            return ((FloatingPointVector) vector).getValueAsDouble(idx);
+        }
+        if (vector instanceof BaseIntVector) {
+            return ((BaseIntVector) vector).getValueAsLong(idx);
+        }
+        throw typeMismatch(vector, "double");
+    }
+
+    public boolean getBoolean(int row, int col) {
+        final int batch = batchOf(row);
+        final FieldVector vector = vector(batch, col);
+        if (vector instanceof BitVector) {
+            return ((BitVector) vector).get(row - this.offsets[batch]) > 0;
+        }
+        throw typeMismatch(vector, "boolean");
+    }
+
+    public String getString(int row, int col) {
+        final int batch = batchOf(row);
+        final FieldVector vector = vector(batch, col);
+        final int idx = row - this.offsets[batch];
+        if (vector instanceof VarCharVector) {
+            final VarCharVector varChar = (VarCharVector) vector;
+            return varChar.isNull(idx) ? null : new String(varChar.get(idx), StandardCharsets.UTF_8);
+        }
+        throw typeMismatch(vector, "string");
+    }
+
+    public byte[] getBytes(int row, int col) {
+        final int batch = batchOf(row);
+        final FieldVector vector = vector(batch, col);
+        if (vector instanceof VarBinaryVector) {
+            return ((VarBinaryVector) vector).get(row - this.offsets[batch]);
+        }
+        throw typeMismatch(vector, "bytes");
+    }
+
+    /**
+     * Reads a single cell as {@link Value}, the same value the materialized
+     * {@link Row} holds; null for column types the client does not support.
+     */
+    public Value getValue(int row, int col) {
+        final int batch = batchOf(row);
+        return valueOf(batch, col, row - this.offsets[batch]);
+    }
+
+    /**
+     * Materializes the row at the given global index.
+     */
+    public Row getRow(int row) {
+        final int batch = batchOf(row);
+        return rowOf(batch, row - this.offsets[batch]);
+    }
+
+    /**
+     * Lazily materialized rows, one {@link Row} is created per element consumed.
+     */
+    public Stream<Row> rows() {
+        ensureOpen();
+        return IntStream.range(0, this.batches.size()) //
+                .boxed() //
+                .flatMap(batch -> IntStream.range(0, this.batches.get(batch).getRowCount()) //
+                        .mapToObj(idx -> rowOf(batch, idx)));
+    }
+
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+    @Override
+    public void close() {
+        // the shared empty result owns nothing
+        if (this == EMPTY || this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.batches.forEach(VectorSchemaRoot::close);
+        if (this.allocator != null) {
+            this.allocator.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ColumnarResult{" + //
+               "batches=" + batches.size() + //
+               ", columns=" + (batches.isEmpty() ? "[]" : Arrays.toString(names[0])) + //
+               ", rows=" + getRowCount() + //
+               '}';
+    }
+
+    private int batchOf(int row) {
+        if (row < 0 || row >= getRowCount()) {
+            throw new IndexOutOfBoundsException("row: " + row + ", rowCount: " + getRowCount());
+        }
+        if (this.batches.size() == 1) {
+            return 0;
+        }
+        final int i = Arrays.binarySearch(this.offsets, row);
+        if (i >= 0) {
+            // skip empty batches sharing the same offset
+            int batch = i;
+            while (this.offsets[batch + 1] == row) {
+                batch++;
+            }
+            return batch;
+        }
+        return -i - 2;
+    }
+
+    private void ensureOpen() {
+        if (this.closed) {
+            throw new IllegalStateException("ColumnarResult closed, its arrow buffers were released");
+        }
+    }
+
+    private FieldVector vector(int batch, int col) {
+        ensureOpen();
+        return this.batches.get(batch).getVector(col);
+    }
+
+    private Row rowOf(int batch, int idx) {
+        final String[] fields = this.names[batch];
+        final Row.RowBuilder builder = Row.newRowBuilder(fields.length);
+        for (int col = 0; col < fields.length; col++) {
+            builder.setValue(col, valueOf(batch, col, idx));
+        }
+        builder.setFields(fields);
+        return builder.build();
+    }
+
+    private Value valueOf(int batch, int col, int idx) {
+        final FieldVector vector = vector(batch, col);
+        switch (this.types[batch][col]) {
+            case VARCHAR:
+                final VarCharVector varCharVector = (VarCharVector) vector;
+                if (varCharVector.isNull(idx)) {
+                    return Value.withStringOrNull(null);
+                }
+                return Value.withString(new String(varCharVector.get(idx), StandardCharsets.UTF_8));
+            case BIT:
+                final BitVector bitVector = (BitVector) vector;
+                if (bitVector.isNull(idx)) {
+                    return Value.withBooleanOrNull(null);
+                }
+                return Value.withBoolean(bitVector.get(idx) > 0);
+            case FLOAT8:
+                final Float8Vector float8Vector = (Float8Vector) vector;
+                if (float8Vector.isNull(idx)) {
+                    return Value.withDoubleOrNull(null);
+                }
+                return Value.withDouble(float8Vector.get(idx));
+            case FLOAT4:
+                final Float4Vector float4Vector = (Float4Vector) vector;
+                if (float4Vector.isNull(idx)) {
+                    return Value.withFloatOrNull(null);
+                }
+                return Value.withFloat(float4Vector.get(idx));
+            case BIGINT:
+                final BigIntVector bigIntVector = (BigIntVector) vector;
+                if (bigIntVector.isNull(idx)) {
+                    return Value.withInt64OrNull(null);
+                }
+                return Value.withInt64(bigIntVector.get(idx));
+            case INT:
+                final IntVector intVector = (IntVector) vector;
+                if (intVector.isNull(idx)) {
+                    return Value.withInt32OrNull(null);
+                }
+                return Value.withInt32(intVector.get(idx));
+            case SMALLINT:
+                final SmallIntVector smallIntVector = (SmallIntVector) vector;
+                if (smallIntVector.isNull(idx)) {
+                    return Value.withInt16OrNull(null);
+                }
+                return Value.withInt16(smallIntVector.get(idx));
+            case TINYINT:
+                final TinyIntVector tinyIntVector = (TinyIntVector) vector;
+                if (tinyIntVector.isNull(idx)) {
+                    return Value.withInt8OrNull(null);
+                }
+                return Value.withInt8(tinyIntVector.get(idx));
+            case UINT8:
+                final UInt8Vector uInt8Vector = (UInt8Vector) vector;
+                if (uInt8Vector.isNull(idx)) {
+                    return Value.withUInt64OrNull(null);
+                }
+                return Value.withUInt64(uInt8Vector.get(idx));
+            case UINT4:
+                final UInt4Vector uInt4Vector = (UInt4Vector) vector;
+                if (uInt4Vector.isNull(idx)) {
+                    return Value.withUInt32OrNull(null);
+                }
+                return Value.withUInt32(uInt4Vector.get(idx));
+            case UINT2:
+                final UInt2Vector uInt2Vector = (UInt2Vector) vector;
+                if (uInt2Vector.isNull(idx)) {
+                    return Value.withUInt16OrNull(null);
+                }
+                return Value.withUInt16(uInt2Vector.get(idx));
+            case UINT1:
+                final UInt1Vector uInt1Vector = (UInt1Vector) vector;
+                if (uInt1Vector.isNull(idx)) {
+                    return Value.withUInt8OrNull(null);
+                }
+                return Value.withUInt8(uInt1Vector.get(idx));
+            case TIMESTAMPMILLI:
+                final TimeStampVector timeStampVector = (TimeStampVector) vector;
+                if (timeStampVector.isNull(idx)) {
+                    return Value.withTimestampOrNull(null);
+                }
+                return Value.withTimestamp(timeStampVector.get(idx));
+            case VARBINARY:
+                final VarBinaryVector varBinaryVector = (VarBinaryVector) vector;
+                if (varBinaryVector.isNull(idx)) {
+                    return Value.withVarbinaryOrNull(null);
+                }
+                return Value.withVarbinaryOrNull(varBinaryVector.get(idx));
+            default:
+                return null;
+        }
+    }
+
+    private static UnsupportedOperationException typeMismatch(FieldVector vector, String type) {
+        return new UnsupportedOperationException(
+                "Column `" + vector.getName() + "` of type " + vector.getMinorType() + " can not be read as " + type);
+    }
+}
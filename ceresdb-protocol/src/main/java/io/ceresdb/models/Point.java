@@ -3,10 +3,15 @@
  */
 package io.ceresdb.models;
 
-import java.util.HashMap;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.SortedMap;
-import java.util.TreeMap;
 
 import io.ceresdb.util.Utils;
 import io.ceresdb.common.util.Requires;
@@ -14,17 +19,38 @@ import io.ceresdb.common.util.Requires;
 /**
  * A time series data point with multiple fields
  *
+ * Tags and fields are kept in parallel arrays rather than maps, tags sorted
+ * by name and fields in the order they were added. Primitive field values
+ * are stored unboxed, read them by index with the typed getters such as
+ * {@link #getFieldLong(int)}, or as maps with {@link #getTags()} and
+ * {@link #getFields()}, which are views of the arrays: changes to them are
+ * reflected in this point and the other way round.
+ *
  */
 public class Point {
-    protected String                   table;
-    protected long                     timestamp;
-    protected SortedMap<String, Value> tags;
-    protected Map<String, Value>       fields;
+    private static final int INITIAL_TAGS   = 4;
+    private static final int INITIAL_FIELDS = 8;
+
+    protected String table;
+    protected long   timestamp;
+
+    // sorted by name
+    private String[] tagNames  = new String[INITIAL_TAGS];
+    private Value[]  tagValues = new Value[INITIAL_TAGS];
+    private int      tagCount;
+
+    private String[]         fieldNames = new String[INITIAL_FIELDS];
+    private Value.DataType[] fieldTypes = new Value.DataType[INITIAL_FIELDS];
+    // see Value#ref and Value#bits
+    private Object[] fieldRefs = new Object[INITIAL_FIELDS];
+    private long[]   fieldBits = new long[INITIAL_FIELDS];
+    private int      fieldCount;
+
+    protected final SortedMap<String, Value> tags   = new TagsView(null, null);
+    protected final Map<String, Value>       fields = new FieldsView();
 
     protected Point(String table) {
         this.table = table;
-        this.tags = new TreeMap<>();
-        this.fields = new HashMap<>();
     }
 
     public String getTable() {
@@ -35,14 +61,458 @@ public class Point {
         return timestamp;
     }
 
+    /**
+     * Returns the tags sorted by name, a view of this point.
+     */
     public SortedMap<String, Value> getTags() {
         return tags;
     }
 
+    /**
+     * Returns the fields in the order they were added, a view of this point.
+     */
     public Map<String, Value> getFields() {
         return fields;
     }
 
+    public int getTagCount() {
+        return tagCount;
+    }
+
+    public String getTagName(final int i) {
+        return this.tagNames[i];
+    }
+
+    public Value getTagValue(final int i) {
+        return this.tagValues[i];
+    }
+
+    /**
+     * Returns the value of the given tag, null when the point has no such tag.
+     */
+    public Value getTag(final String name) {
+        final int i = Arrays.binarySearch(this.tagNames, 0, this.tagCount, name);
+        return i < 0 ? null : this.tagValues[i];
+    }
+
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    public String getFieldName(final int i) {
+        return this.fieldNames[i];
+    }
+
+    public Value.DataType getFieldType(final int i) {
+        return this.fieldTypes[i];
+    }
+
+    public boolean isFieldNull(final int i) {
+        return this.fieldRefs[i] == null;
+    }
+
+    /**
+     * Returns the field at the given index as a {@link Value}.
+     */
+    public Value getFieldValue(final int i) {
+        final Object ref = this.fieldRefs[i];
+        if (this.fieldTypes[i] == null) {
+            // added as a null value
+            return null;
+        }
+        return ref == Value.PRIMITIVE ? new Value(this.fieldTypes[i], this.fieldBits[i]) :
+                new Value(this.fieldTypes[i], ref);
+    }
+
+    /**
+     * Returns the value of a non-null Int64, UInt64, Timestamp, Int32, Int16,
+     * Int8, UInt32, UInt16 or UInt8 field.
+     */
+    public long getFieldLong(final int i) {
+        return this.fieldBits[i];
+    }
+
+    public double getFieldDouble(final int i) {
+        return Double.longBitsToDouble(this.fieldBits[i]);
+    }
+
+    public float getFieldFloat(final int i) {
+        return Float.intBitsToFloat((int) this.fieldBits[i]);
+    }
+
+    public boolean getFieldBoolean(final int i) {
+        return this.fieldBits[i] != 0;
+    }
+
+    /**
+     * Returns the value of a String or Varbinary field.
+     */
+    public Object getFieldRef(final int i) {
+        return this.fieldRefs[i];
+    }
+
+    void putTag(final String name, final Value value) {
+        int i = Arrays.binarySearch(this.tagNames, 0, this.tagCount, name);
+        if (i >= 0) {
+            this.tagValues[i] = value;
+            return;
+        }
+        i = -(i + 1);
+        if (this.tagCount == this.tagNames.length) {
+            this.tagNames = Arrays.copyOf(this.tagNames, this.tagCount << 1);
+            this.tagValues = Arrays.copyOf(this.tagValues, this.tagCount << 1);
+        }
+        System.arraycopy(this.tagNames, i, this.tagNames, i + 1, this.tagCount - i);
+        System.arraycopy(this.tagValues, i, this.tagValues, i + 1, this.tagCount - i);
+        this.tagNames[i] = name;
+        this.tagValues[i] = value;
+        this.tagCount++;
+    }
+
+    private void removeTag(final int i) {
+        final int moved = this.tagCount - i - 1;
+        System.arraycopy(this.tagNames, i + 1, this.tagNames, i, moved);
+        System.arraycopy(this.tagValues, i + 1, this.tagValues, i, moved);
+        this.tagCount--;
+        this.tagNames[this.tagCount] = null;
+        this.tagValues[this.tagCount] = null;
+    }
+
+    private int indexOfTag(final String name) {
+        final int i = Arrays.binarySearch(this.tagNames, 0, this.tagCount, name);
+        return i < 0 ? -(i + 1) : i;
+    }
+
+    void putField(final String name, final Value value) {
+        if (value == null) {
+            putField(name, null, null, 0);
+        } else {
+            putField(name, value.getDataType(), value.ref(), value.bits());
+        }
+    }
+
+    void putField(final String name, final Value.DataType type, final Object ref, final long bits) {
+        int i = indexOfField(name);
+        if (i < 0) {
+            i = this.fieldCount++;
+            if (i == this.fieldNames.length) {
+                final int capacity = i << 1;
+                this.fieldNames = Arrays.copyOf(this.fieldNames, capacity);
+                this.fieldTypes = Arrays.copyOf(this.fieldTypes, capacity);
+                this.fieldRefs = Arrays.copyOf(this.fieldRefs, capacity);
+                this.fieldBits = Arrays.copyOf(this.fieldBits, capacity);
+            }
+            this.fieldNames[i] = name;
+        }
+        this.fieldTypes[i] = type;
+        this.fieldRefs[i] = ref;
+        this.fieldBits[i] = bits;
+    }
+
+    private void removeField(final int i) {
+        final int moved = this.fieldCount - i - 1;
+        System.arraycopy(this.fieldNames, i + 1, this.fieldNames, i, moved);
+        System.arraycopy(this.fieldTypes, i + 1, this.fieldTypes, i, moved);
+        System.arraycopy(this.fieldRefs, i + 1, this.fieldRefs, i, moved);
+        System.arraycopy(this.fieldBits, i + 1, this.fieldBits, i, moved);
+        this.fieldCount--;
+        this.fieldNames[this.fieldCount] = null;
+        this.fieldTypes[this.fieldCount] = null;
+        this.fieldRefs[this.fieldCount] = null;
+    }
+
+    private int indexOfField(final String name) {
+        // names are usually the same (interned) instances across points
+        for (int i = 0; i < this.fieldCount; i++) {
+            if (this.fieldNames[i] == name) {
+                return i;
+            }
+        }
+        for (int i = 0; i < this.fieldCount; i++) {
+            if (this.fieldNames[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return "Point{" + //
+               "table='" + table + '\'' + //
+               ", timestamp=" + timestamp + //
+               ", tags=" + tags + //
+               ", fields=" + fields + //
+               '}';
+    }
+
+    /**
+     * The tags with names in [lo, hi), null meaning unbounded.
+     */
+    private final class TagsView extends AbstractMap<String, Value> implements SortedMap<String, Value> {
+        private final String lo;
+        private final String hi;
+
+        TagsView(String lo, String hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        private int from() {
+            return this.lo == null ? 0 : indexOfTag(this.lo);
+        }
+
+        private int to() {
+            return this.hi == null ? tagCount : indexOfTag(this.hi);
+        }
+
+        private boolean inRange(final Object key) {
+            final String name = (String) key;
+            return (this.lo == null || name.compareTo(this.lo) >= 0)
+                   && (this.hi == null || name.compareTo(this.hi) < 0);
+        }
+
+        private int find(final Object key) {
+            if (!(key instanceof String) || !inRange(key)) {
+                return -1;
+            }
+            return Arrays.binarySearch(tagNames, 0, tagCount, key);
+        }
+
+        @Override
+        public int size() {
+            return to() - from();
+        }
+
+        @Override
+        public boolean containsKey(final Object key) {
+            return find(key) >= 0;
+        }
+
+        @Override
+        public Value get(final Object key) {
+            final int i = find(key);
+            return i < 0 ? null : tagValues[i];
+        }
+
+        @Override
+        public Value put(final String key, final Value value) {
+            Requires.requireNonNull(key, "Null.tagKey");
+            Requires.requireTrue(inRange(key), "Key out of range: %s", key);
+            final Value prev = getTag(key);
+            putTag(key, value);
+            return prev;
+        }
+
+        @Override
+        public Value remove(final Object key) {
+            final int i = find(key);
+            if (i < 0) {
+                return null;
+            }
+            final Value prev = tagValues[i];
+            removeTag(i);
+            return prev;
+        }
+
+        @Override
+        public Set<Entry<String, Value>> entrySet() {
+            return new AbstractSet<Entry<String, Value>>() {
+
+                @Override
+                public Iterator<Entry<String, Value>> iterator() {
+                    return new EntryIterator(from(), to()) {
+
+                        @Override
+                        Entry<String, Value> entry(final int i) {
+                            return new SimpleEntry<String, Value>(tagNames[i], tagValues[i]) {
+                                private static final long serialVersionUID = 1L;
+
+                                @Override
+                                public Value setValue(final Value value) {
+                                    putTag(getKey(), value);
+                                    return super.setValue(value);
+                                }
+                            };
+                        }
+
+                        @Override
+                        void remove(final int i) {
+                            removeTag(i);
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return TagsView.this.size();
+                }
+            };
+        }
+
+        @Override
+        public Comparator<? super String> comparator() {
+            return null;
+        }
+
+        @Override
+        public SortedMap<String, Value> subMap(final String fromKey, final String toKey) {
+            Requires.requireTrue(fromKey.compareTo(toKey) <= 0, "fromKey > toKey");
+            Requires.requireTrue(inRange(fromKey), "Key out of range: %s", fromKey);
+            Requires.requireTrue(this.hi == null || toKey.compareTo(this.hi) <= 0, "Key out of range: %s", toKey);
+            return new TagsView(fromKey, toKey);
+        }
+
+        @Override
+        public SortedMap<String, Value> headMap(final String toKey) {
+            Requires.requireTrue(this.lo == null || toKey.compareTo(this.lo) >= 0, "Key out of range: %s", toKey);
+            Requires.requireTrue(this.hi == null || toKey.compareTo(this.hi) <= 0, "Key out of range: %s", toKey);
+            return new TagsView(this.lo, toKey);
+        }
+
+        @Override
+        public SortedMap<String, Value> tailMap(final String fromKey) {
+            Requires.requireTrue(inRange(fromKey) || fromKey.equals(this.hi), "Key out of range: %s", fromKey);
+            return new TagsView(fromKey, this.hi);
+        }
+
+        @Override
+        public String firstKey() {
+            if (isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            return tagNames[from()];
+        }
+
+        @Override
+        public String lastKey() {
+            if (isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            return tagNames[to() - 1];
+        }
+    }
+
+    private final class FieldsView extends AbstractMap<String, Value> {
+
+        private int find(final Object key) {
+            return key instanceof String ? indexOfField((String) key) : -1;
+        }
+
+        @Override
+        public int size() {
+            return fieldCount;
+        }
+
+        @Override
+        public boolean containsKey(final Object key) {
+            return find(key) >= 0;
+        }
+
+        @Override
+        public Value get(final Object key) {
+            final int i = find(key);
+            return i < 0 ? null : getFieldValue(i);
+        }
+
+        @Override
+        public Value put(final String key, final Value value) {
+            Requires.requireNonNull(key, "Null.fieldKey");
+            final Value prev = get(key);
+            putField(key, value);
+            return prev;
+        }
+
+        @Override
+        public Value remove(final Object key) {
+            final int i = find(key);
+            if (i < 0) {
+                return null;
+            }
+            final Value prev = getFieldValue(i);
+            removeField(i);
+            return prev;
+        }
+
+        @Override
+        public Set<Entry<String, Value>> entrySet() {
+            return new AbstractSet<Entry<String, Value>>() {
+
+                @Override
+                public Iterator<Entry<String, Value>> iterator() {
+                    return new EntryIterator(0, fieldCount) {
+
+                        @Override
+                        Entry<String, Value> entry(final int i) {
+                            return new SimpleEntry<String, Value>(fieldNames[i], getFieldValue(i)) {
+                                private static final long serialVersionUID = 1L;
+
+                                @Override
+                                public Value setValue(final Value value) {
+                                    putField(getKey(), value);
+                                    return super.setValue(value);
+                                }
+                            };
+                        }
+
+                        @Override
+                        void remove(final int i) {
+                            removeField(i);
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return fieldCount;
+                }
+            };
+        }
+    }
+
+    /**
+     * Iterates the entries at [from, to) of the tag or field arrays.
+     */
+    private abstract static class EntryIterator implements Iterator<Map.Entry<String, Value>> {
+        private int next;
+        private int end;
+        private int last = -1;
+
+        EntryIterator(int from, int to) {
+            this.next = from;
+            this.end = to;
+        }
+
+        abstract Map.Entry<String, Value> entry(final int i);
+
+        abstract void remove(final int i);
+
+        @Override
+        public boolean hasNext() {
+            return this.next < this.end;
+        }
+
+        @Override
+        public Map.Entry<String, Value> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            this.last = this.next++;
+            return entry(this.last);
+        }
+
+        @Override
+        public void remove() {
+            if (this.last < 0) {
+                throw new IllegalStateException();
+            }
+            remove(this.last);
+            this.next = this.last;
+            this.end--;
+            this.last = -1;
+        }
+    }
+
     public static PointBuilder newPointBuilder(String table) {
         return new PointBuilder(table);
     }
@@ -60,17 +530,85 @@ public class Point {
         }
 
         public PointBuilder addTag(final String tagKey, final Value tagValue) {
-            this.point.tags.put(tagKey, tagValue);
+            Requires.requireNonNull(tagKey, "Null.tagKey");
+            this.point.putTag(tagKey, tagValue);
             return this;
         }
 
         public PointBuilder addTag(final String tagKey, final String tagValue) {
-            this.point.tags.put(tagKey, Value.withStringOrNull(tagValue));
-            return this;
+            return addTag(tagKey, Value.withStringOrNull(tagValue));
         }
 
         public PointBuilder addField(final String fieldKey, final Value fieldValue) {
-            this.point.fields.put(fieldKey, fieldValue);
+            Requires.requireNonNull(fieldKey, "Null.fieldKey");
+            this.point.putField(fieldKey, fieldValue);
+            return this;
+        }
+
+        /**
+         * Adds a Double field without boxing.
+         */
+        public PointBuilder addField(final String fieldKey, final double fieldValue) {
+            return addPrimitiveField(fieldKey, Value.DataType.Double, Double.doubleToRawLongBits(fieldValue));
+        }
+
+        /**
+         * Adds a Float field without boxing.
+         */
+        public PointBuilder addField(final String fieldKey, final float fieldValue) {
+            return addPrimitiveField(fieldKey, Value.DataType.Float, Float.floatToRawIntBits(fieldValue));
+        }
+
+        /**
+         * Adds an Int64 field without boxing.
+         */
+        public PointBuilder addField(final String fieldKey, final long fieldValue) {
+            return addPrimitiveField(fieldKey, Value.DataType.Int64, fieldValue);
+        }
+
+        /**
+         * Adds an Int32 field without boxing.
+         */
+        public PointBuilder addField(final String fieldKey, final int fieldValue) {
+            return addPrimitiveField(fieldKey, Value.DataType.Int32, fieldValue);
+        }
+
+        /**
+         * Adds a Boolean field without boxing.
+         */
+        public PointBuilder addField(final String fieldKey, final boolean fieldValue) {
+            return addPrimitiveField(fieldKey, Value.DataType.Boolean, fieldValue ? 1 : 0);
+        }
+
+        /**
+         * Adds a field of an integer type (Int64, UInt64, Timestamp, Int32,
+         * Int16, Int8, UInt32, UInt16 or UInt8) without boxing, values of the
+         * 32 bits and narrower types are cast to an int as a {@link Value}
+         * holds them.
+         */
+        public PointBuilder addField(final String fieldKey, final Value.DataType type, final long fieldValue) {
+            Requires.requireNonNull(type, "Null.type");
+            switch (type) {
+                case Int64:
+                case UInt64:
+                case Timestamp:
+                    return addPrimitiveField(fieldKey, type, fieldValue);
+                case Int32:
+                case Int16:
+                case Int8:
+                case UInt32:
+                case UInt16:
+                case UInt8:
+                    // same as the int the Value of these types holds
+                    return addPrimitiveField(fieldKey, type, (int) fieldValue);
+                default:
+                    throw new IllegalArgumentException("Not an integer type: " + type);
+            }
+        }
+
+        private PointBuilder addPrimitiveField(final String fieldKey, final Value.DataType type, final long bits) {
+            Requires.requireNonNull(fieldKey, "Null.fieldKey");
+            this.point.putField(fieldKey, type, Value.PRIMITIVE, bits);
             return this;
         }
 
@@ -80,9 +618,8 @@ public class Point {
         }
 
         private static void check(final Point point) throws IllegalArgumentException {
-            Requires.requireNonNull(point.fields, "Null.fields");
-            Utils.checkKeywords(point.tags.keySet().stream().iterator());
-            Utils.checkKeywords(point.fields.keySet().stream().iterator());
+            Utils.checkKeywords(Arrays.asList(point.tagNames).subList(0, point.tagCount).iterator());
+            Utils.checkKeywords(Arrays.asList(point.fieldNames).subList(0, point.fieldCount).iterator());
         }
     }
 }
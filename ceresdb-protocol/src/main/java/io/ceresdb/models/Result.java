@@ -13,9 +13,10 @@ import io.ceresdb.common.util.Requires;
  */
 public final class Result<Ok, Err> {
 
-    public static final int SUCCESS      = 200;
-    public static final int BAD_REQUEST  = 400;
-    public static final int FLOW_CONTROL = 503;
+    public static final int SUCCESS        = 200;
+    public static final int BAD_REQUEST    = 400;
+    public static final int INTERNAL_ERROR = 500;
+    public static final int FLOW_CONTROL   = 503;
 
     private final Ok  ok;
     private final Err err;
@@ -6,6 +6,7 @@ package io.ceresdb.models;
 import java.util.Collections;
 import java.util.List;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import io.ceresdb.common.Streamable;
@@ -13,12 +14,22 @@ import io.ceresdb.common.Streamable;
 /**
  * Contains the success value of query.
  *
+ * A columnar result holds off-heap arrow buffers, {@link #close()} releases
+ * them as soon as the result is no longer needed. Rows materialized by
+ * {@link #getRowList()} stay valid after that, otherwise reading rows of a
+ * closed result throws {@link IllegalStateException}.
+ *
+ * Close every result: the buffers of one that is only dropped count against
+ * {@code QueryOptions#maxAllocationBytes} until the gc finds it, queries
+ * over that limit fail with {@link Result#FLOW_CONTROL}.
+ *
  */
-public class SqlQueryOk implements Streamable<Row> {
+public class SqlQueryOk implements Streamable<Row>, AutoCloseable {
 
-    private String    sql;
-    private int       affectedRows;
-    private List<Row> rows;
+    private String             sql;
+    private int                affectedRows;
+    private volatile List<Row> rows;
+    private ColumnarResult     columns;
 
     public String getSql() {
         return sql;
@@ -29,19 +40,41 @@ public class SqlQueryOk implements Streamable<Row> {
     }
 
     public int getRowCount() {
+        if (columns != null) {
+            return columns.getRowCount();
+        }
         if (rows == null) {
             return 0;
         }
         return rows.size();
     }
 
+    /**
+     * Returns all rows, for a columnar result they are materialized on the
+     * first call, prefer {@link #columns()} or {@link #stream()} for large
+     * results.
+     */
     public List<Row> getRowList() {
+        if (rows == null && columns != null) {
+            rows = columns.rows().collect(Collectors.toList());
+        }
         if (rows == null) {
             return Collections.EMPTY_LIST;
         }
         return rows;
     }
 
+    /**
+     * Returns the columnar view of the result, backed by the arrow record
+     * batches the server returned, never null.
+     */
+    public ColumnarResult columns() {
+        if (columns == null) {
+            return ColumnarResult.empty();
+        }
+        return columns;
+    }
+
     public <R> Stream<R> map(final Function<Row, ? extends R> mapper) {
         return this.stream().map(mapper);
     }
@@ -55,7 +88,18 @@ public class SqlQueryOk implements Streamable<Row> {
         if (this.getRowCount() == 0) {
             return Stream.empty();
         }
-        return this.rows.stream();
+        final List<Row> rows = this.rows;
+        if (rows != null) {
+            return rows.stream();
+        }
+        return this.columns.rows();
+    }
+
+    @Override
+    public void close() {
+        if (columns != null) {
+            columns.close();
+        }
     }
 
     @Override
@@ -78,4 +122,12 @@ public class SqlQueryOk implements Streamable<Row> {
         ok.rows = rows;
         return ok;
     }
+
+    public static SqlQueryOk columnarOk(final String sql, final int affectedRows, final ColumnarResult columns) {
+        final SqlQueryOk ok = new SqlQueryOk();
+        ok.sql = sql;
+        ok.affectedRows = affectedRows;
+        ok.columns = columns;
+        return ok;
+    }
 }
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb.models;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import io.ceresdb.common.util.Requires;
+import io.ceresdb.common.util.Strings;
+import io.ceresdb.util.Utils;
+
+/**
+ * The tag and field names of a table with a fixed shape, declared and
+ * checked once instead of with every point. Rows of such a table are
+ * written with a {@link WriteTemplate}, which addresses tags and fields by
+ * their position in the schema.
+ *
+ * Tags are strings, fields have the type they are declared with.
+ *
+ */
+public final class TableSchema {
+
+    private final String           table;
+    private final String[]         tagNames;
+    private final String[]         fieldNames;
+    private final Value.DataType[] fieldTypes;
+
+    private TableSchema(String table, String[] tagNames, String[] fieldNames, Value.DataType[] fieldTypes) {
+        this.table = table;
+        this.tagNames = tagNames;
+        this.fieldNames = fieldNames;
+        this.fieldTypes = fieldTypes;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public int getTagCount() {
+        return this.tagNames.length;
+    }
+
+    public String getTagName(final int i) {
+        return this.tagNames[i];
+    }
+
+    public int getFieldCount() {
+        return this.fieldNames.length;
+    }
+
+    public String getFieldName(final int i) {
+        return this.fieldNames[i];
+    }
+
+    public Value.DataType getFieldType(final int i) {
+        return this.fieldTypes[i];
+    }
+
+    /**
+     * Returns the position of the given tag, -1 when the schema has no such
+     * tag.
+     */
+    public int indexOfTag(final String name) {
+        return indexOf(this.tagNames, name);
+    }
+
+    /**
+     * Returns the position of the given field, -1 when the schema has no
+     * such field.
+     */
+    public int indexOfField(final String name) {
+        return indexOf(this.fieldNames, name);
+    }
+
+    public List<String> getTagNames() {
+        return Collections.unmodifiableList(Arrays.asList(this.tagNames));
+    }
+
+    public List<String> getFieldNames() {
+        return Collections.unmodifiableList(Arrays.asList(this.fieldNames));
+    }
+
+    private static int indexOf(final String[] names, final String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder fields = new StringBuilder("[");
+        for (int i = 0; i < this.fieldNames.length; i++) {
+            if (i > 0) {
+                fields.append(", ");
+            }
+            fields.append(this.fieldNames[i]).append(':').append(this.fieldTypes[i]);
+        }
+        return "TableSchema{" + //
+               "table='" + table + '\'' + //
+               ", tags=" + Arrays.toString(tagNames) + //
+               ", fields=" + fields.append(']') + //
+               '}';
+    }
+
+    public static Builder newBuilder(final String table) {
+        return new Builder(table);
+    }
+
+    public static final class Builder {
+        private final String               table;
+        private final List<String>         tagNames   = new ArrayList<>();
+        private final List<String>         fieldNames = new ArrayList<>();
+        private final List<Value.DataType> fieldTypes = new ArrayList<>();
+
+        private Builder(String table) {
+            this.table = table;
+        }
+
+        public Builder tag(final String name) {
+            this.tagNames.add(name);
+            return this;
+        }
+
+        public Builder tags(final String... names) {
+            this.tagNames.addAll(Arrays.asList(names));
+            return this;
+        }
+
+        public Builder field(final String name, final Value.DataType type) {
+            this.fieldNames.add(name);
+            this.fieldTypes.add(type);
+            return this;
+        }
+
+        /**
+         * Builds the schema, the names are checked here once for all the
+         * rows written with it.
+         */
+        public TableSchema build() {
+            Requires.requireTrue(Strings.isNotBlank(this.table), "Blank.table");
+            Requires.requireTrue(!this.fieldNames.isEmpty(), "Empty.fields");
+            final Set<String> names = new HashSet<>();
+            for (final String name : this.tagNames) {
+                Requires.requireTrue(Strings.isNotBlank(name), "Blank.tag");
+                Requires.requireTrue(names.add(name), "Duplicate name: " + name);
+            }
+            for (int i = 0; i < this.fieldNames.size(); i++) {
+                final String name = this.fieldNames.get(i);
+                Requires.requireTrue(Strings.isNotBlank(name), "Blank.field");
+                Requires.requireNonNull(this.fieldTypes.get(i), "Null.type of " + name);
+                Requires.requireTrue(names.add(name), "Duplicate name: " + name);
+            }
+            Utils.checkKeywords(this.tagNames.iterator());
+            Utils.checkKeywords(this.fieldNames.iterator());
+
+            return new TableSchema(this.table, this.tagNames.toArray(new String[0]),
+                    this.fieldNames.toArray(new String[0]), this.fieldTypes.toArray(new Value.DataType[0]));
+        }
+    }
+}
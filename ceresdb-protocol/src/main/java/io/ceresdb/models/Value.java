@@ -60,20 +60,51 @@ public class Value {
         }
     }
 
+    // Marks a non-null value of a primitive type, which is kept in bits
+    static final Object PRIMITIVE = new Object();
+
     private final DataType type;
-    private final Object   value;
+    // The value of a String or Varbinary, PRIMITIVE otherwise, null for a null value
+    private final Object ref;
+    // Primitive values without boxing: sign extended integers, 0/1 for booleans,
+    // the raw bits of floats and doubles
+    private final long bits;
 
     public Value(DataType type, Object value) {
         this.type = type;
-        this.value = value;
+        if (value == null || isReference(type)) {
+            this.ref = value;
+            this.bits = 0;
+        } else {
+            this.ref = PRIMITIVE;
+            this.bits = toBits(type, value);
+        }
+    }
+
+    Value(DataType type, long bits) {
+        this.type = type;
+        this.ref = PRIMITIVE;
+        this.bits = bits;
     }
 
     public DataType getDataType() {
         return type;
     }
 
+    Object ref() {
+        return ref;
+    }
+
+    long bits() {
+        return bits;
+    }
+
+    /**
+     * Returns the value boxed into its java type, prefer the typed getters
+     * which do not box.
+     */
     public Object getObject() {
-        return value;
+        return this.ref == PRIMITIVE ? toObject(this.type, this.bits) : this.ref;
     }
 
     @Override
@@ -85,28 +116,28 @@ public class Value {
             return false;
         }
         Value value1 = (Value) o;
-        return type == value1.type && value.equals(value1.value);
+        return type == value1.type && Objects.equals(getObject(), value1.getObject());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(type, value);
+        return Objects.hash(type, getObject());
     }
 
     @Override
     public String toString() {
         return "Value{" + //
                "type=" + type + //
-               ",value=" + value + //
+               ",value=" + getObject() + //
                '}';
     }
 
     public boolean isNull() {
-        return this.value == null;
+        return this.ref == null;
     }
 
     public String getString() {
-        return getCheckedValue(DataType.String);
+        return getCheckedRef(DataType.String);
     }
 
     public Optional<String> getStringOrNull() {
@@ -114,7 +145,7 @@ public class Value {
     }
 
     public boolean getBoolean() {
-        return getCheckedValue(DataType.Boolean);
+        return getCheckedBits(DataType.Boolean) != 0;
     }
 
     public Optional<Boolean> getBooleanOrNull() {
@@ -122,7 +153,7 @@ public class Value {
     }
 
     public double getDouble() {
-        return getCheckedValue(DataType.Double);
+        return Double.longBitsToDouble(getCheckedBits(DataType.Double));
     }
 
     public Optional<Double> getDoubleOrNull() {
@@ -130,7 +161,7 @@ public class Value {
     }
 
     public float getFloat() {
-        return getCheckedValue(DataType.Float);
+        return Float.intBitsToFloat((int) getCheckedBits(DataType.Float));
     }
 
     public Optional<Float> getFloatOrNull() {
@@ -138,7 +169,7 @@ public class Value {
     }
 
     public long getInt64() {
-        return getCheckedValue(DataType.Int64);
+        return getCheckedBits(DataType.Int64);
     }
 
     public Optional<Long> getInt64OrNull() {
@@ -146,7 +177,7 @@ public class Value {
     }
 
     public int getInt32() {
-        return getCheckedValue(DataType.Int32);
+        return (int) getCheckedBits(DataType.Int32);
     }
 
     public Optional<Integer> getInt32OrNull() {
@@ -154,7 +185,7 @@ public class Value {
     }
 
     public int getInt16() {
-        return getCheckedValue(DataType.Int16);
+        return (int) getCheckedBits(DataType.Int16);
     }
 
     public Optional<Integer> getInt16OrNull() {
@@ -162,7 +193,7 @@ public class Value {
     }
 
     public int getInt8() {
-        return getCheckedValue(DataType.Int8);
+        return (int) getCheckedBits(DataType.Int8);
     }
 
     public Optional<Integer> getInt8OrNull() {
@@ -170,7 +201,7 @@ public class Value {
     }
 
     public long getUInt64() {
-        return getCheckedValue(DataType.UInt64);
+        return getCheckedBits(DataType.UInt64);
     }
 
     public Optional<Long> getUInt64OrNull() {
@@ -178,7 +209,7 @@ public class Value {
     }
 
     public int getUInt32() {
-        return getCheckedValue(DataType.UInt32);
+        return (int) getCheckedBits(DataType.UInt32);
     }
 
     public Optional<Integer> getUInt32OrNull() {
@@ -186,7 +217,7 @@ public class Value {
     }
 
     public int getUInt16() {
-        return getCheckedValue(DataType.UInt16);
+        return (int) getCheckedBits(DataType.UInt16);
     }
 
     public Optional<Integer> getUInt16OrNull() {
@@ -194,7 +225,7 @@ public class Value {
     }
 
     public int getUInt8() {
-        return getCheckedValue(DataType.UInt8);
+        return (int) getCheckedBits(DataType.UInt8);
     }
 
     public Optional<Integer> getUInt8OrNull() {
@@ -202,7 +233,7 @@ public class Value {
     }
 
     public long getTimestamp() {
-        return getCheckedValue(DataType.Timestamp);
+        return getCheckedBits(DataType.Timestamp);
     }
 
     public Optional<Long> getTimestampOrNull() {
@@ -210,7 +241,7 @@ public class Value {
     }
 
     public byte[] getVarbinary() {
-        return getCheckedValue(DataType.Varbinary);
+        return getCheckedRef(DataType.Varbinary);
     }
 
     public Optional<byte[]> getVarbinaryOrNull() {
@@ -218,9 +249,63 @@ public class Value {
     }
 
     @SuppressWarnings("unchecked")
-    private <T> T getCheckedValue(final DataType type) {
-        Requires.requireTrue(this.type == type, "Invalid type %s, expected is %s", this.type, type);
-        return (T) type.getJavaType().cast(this.value);
+    private <T> T getCheckedRef(final DataType type) {
+        checkType(type);
+        return (T) type.getJavaType().cast(this.ref);
+    }
+
+    private long getCheckedBits(final DataType type) {
+        checkType(type);
+        if (this.ref == null) {
+            // same as unboxing a null
+            throw new NullPointerException("Null value of " + type);
+        }
+        return this.bits;
+    }
+
+    private void checkType(final DataType type) {
+        if (this.type != type) {
+            // not Requires#requireTrue, its varargs would be allocated on every get
+            throw new IllegalArgumentException(String.format("Invalid type %s, expected is %s", this.type, type));
+        }
+    }
+
+    static boolean isReference(final DataType type) {
+        return type == DataType.String || type == DataType.Varbinary;
+    }
+
+    static long toBits(final DataType type, final Object value) {
+        switch (type) {
+            case Boolean:
+                return (Boolean) value ? 1 : 0;
+            case Double:
+                return Double.doubleToRawLongBits((Double) value);
+            case Float:
+                return Float.floatToRawIntBits((Float) value);
+            case Int64:
+            case UInt64:
+            case Timestamp:
+                return (Long) value;
+            default:
+                return (Integer) value;
+        }
+    }
+
+    static Object toObject(final DataType type, final long bits) {
+        switch (type) {
+            case Boolean:
+                return bits != 0;
+            case Double:
+                return Double.longBitsToDouble(bits);
+            case Float:
+                return Float.intBitsToFloat((int) bits);
+            case Int64:
+            case UInt64:
+            case Timestamp:
+                return bits;
+            default:
+                return (int) bits;
+        }
     }
 
     public static Value withString(final String val) {
@@ -233,7 +318,7 @@ public class Value {
     }
 
     public static Value withBoolean(final boolean val) {
-        return new Value(DataType.Boolean, val);
+        return new Value(DataType.Boolean, val ? 1 : 0);
     }
 
     public static Value withBooleanOrNull(final Boolean val) {
@@ -241,7 +326,7 @@ public class Value {
     }
 
     public static Value withDouble(final double val) {
-        return new Value(DataType.Double, val);
+        return new Value(DataType.Double, Double.doubleToRawLongBits(val));
     }
 
     public static Value withDoubleOrNull(final Double val) {
@@ -249,7 +334,7 @@ public class Value {
     }
 
     public static Value withFloat(final float val) {
-        return new Value(DataType.Float, val);
+        return new Value(DataType.Float, Float.floatToRawIntBits(val));
     }
 
     public static Value withFloatOrNull(final Float val) {
@@ -0,0 +1,366 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb.models;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+import io.ceresdb.common.util.Requires;
+
+/**
+ * Rows of a {@link TableSchema}, kept in columns of primitive arrays and
+ * encoded straight into the write request of the table. Tags and fields are
+ * addressed by their position in the schema, names are never looked up nor
+ * checked again:
+ *
+ * <pre>
+ * final WriteTemplate rows = new WriteTemplate(schema);
+ * rows.newRow(ts).tag(0, "host_1").field(0, 0.42).field(1, 1024L);
+ * client.write(rows);
+ * </pre>
+ *
+ * A field that is not set in a row is null. Writing the template hands its
+ * rows over to the write, it is left empty and can be filled again right
+ * away. A template is not thread safe.
+ *
+ */
+public class WriteTemplate {
+    private static final int INITIAL_ROWS = 64;
+
+    private final TableSchema schema;
+
+    private int    rowCount;
+    private long[] timestamps;
+    // [tag][row]
+    private String[][] tags;
+    // [field][row], see Value#bits, only the field columns of primitive types
+    private long[][] fieldBits;
+    // [field][row], only the field columns of String and Varbinary
+    private Object[][] fieldRefs;
+    // [field][row / 64], a bit set for each non-null value
+    private long[][] fieldSet;
+
+    public WriteTemplate(TableSchema schema) {
+        this(schema, INITIAL_ROWS);
+    }
+
+    public WriteTemplate(TableSchema schema, int initialRows) {
+        this.schema = Requires.requireNonNull(schema, "Null.schema");
+        Requires.requireTrue(initialRows > 0, "initialRows must > 0");
+        allocate(initialRows);
+    }
+
+    public TableSchema getSchema() {
+        return schema;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Starts a new row, the tags and fields set next go to this row.
+     */
+    public WriteTemplate newRow(final long timestamp) {
+        final int row = this.rowCount;
+        if (row == this.timestamps.length) {
+            grow(Math.max(INITIAL_ROWS, row << 1));
+        }
+        this.timestamps[row] = timestamp;
+        this.rowCount = row + 1;
+        return this;
+    }
+
+    public WriteTemplate tag(final int tag, final String value) {
+        this.tags[tag][currentRow()] = value;
+        return this;
+    }
+
+    public WriteTemplate field(final int field, final double value) {
+        switch (this.schema.getFieldType(field)) {
+            case Double:
+                return setBits(field, Double.doubleToRawLongBits(value));
+            case Float:
+                return setBits(field, Float.floatToRawIntBits((float) value));
+            default:
+                throw typeMismatch(field, "double");
+        }
+    }
+
+    public WriteTemplate field(final int field, final float value) {
+        return field(field, (double) value);
+    }
+
+    /**
+     * Sets a field of an integer type, Timestamp, Double or Float. Values of
+     * the 32 bits and narrower types are cast to an int, as a {@link Value}
+     * of these types holds them.
+     */
+    public WriteTemplate field(final int field, final long value) {
+        switch (this.schema.getFieldType(field)) {
+            case Int64:
+            case UInt64:
+            case Timestamp:
+                return setBits(field, value);
+            case Int32:
+            case Int16:
+            case Int8:
+            case UInt32:
+            case UInt16:
+            case UInt8:
+                // same as the int the Value of these types holds
+                return setBits(field, (int) value);
+            case Double:
+            case Float:
+                return field(field, (double) value);
+            default:
+                throw typeMismatch(field, "long");
+        }
+    }
+
+    public WriteTemplate field(final int field, final boolean value) {
+        if (this.schema.getFieldType(field) != Value.DataType.Boolean) {
+            throw typeMismatch(field, "boolean");
+        }
+        return setBits(field, value ? 1 : 0);
+    }
+
+    public WriteTemplate field(final int field, final String value) {
+        if (this.schema.getFieldType(field) != Value.DataType.String) {
+            throw typeMismatch(field, "String");
+        }
+        return setRef(field, value);
+    }
+
+    public WriteTemplate field(final int field, final byte[] value) {
+        if (this.schema.getFieldType(field) != Value.DataType.Varbinary) {
+            throw typeMismatch(field, "byte[]");
+        }
+        return setRef(field, value);
+    }
+
+    public long getTimestamp(final int row) {
+        return this.timestamps[row];
+    }
+
+    public String getTag(final int tag, final int row) {
+        return this.tags[tag][row];
+    }
+
+    public boolean isFieldNull(final int field, final int row) {
+        return (this.fieldSet[field][row >>> 6] & (1L << row)) == 0;
+    }
+
+    /**
+     * @see Point#getFieldLong(int)
+     */
+    public long getFieldLong(final int field, final int row) {
+        return this.fieldBits[field][row];
+    }
+
+    public double getFieldDouble(final int field, final int row) {
+        return Double.longBitsToDouble(this.fieldBits[field][row]);
+    }
+
+    public float getFieldFloat(final int field, final int row) {
+        return Float.intBitsToFloat((int) this.fieldBits[field][row]);
+    }
+
+    public boolean getFieldBoolean(final int field, final int row) {
+        return this.fieldBits[field][row] != 0;
+    }
+
+    /**
+     * Returns the value of a String or Varbinary field.
+     */
+    public Object getFieldRef(final int field, final int row) {
+        final Object[] refs = this.fieldRefs[field];
+        return refs == null ? null : refs[row];
+    }
+
+    /**
+     * Drops all the rows, keeping the buffers.
+     */
+    public void clear() {
+        for (final String[] column : this.tags) {
+            Arrays.fill(column, 0, this.rowCount, null);
+        }
+        for (final Object[] column : this.fieldRefs) {
+            if (column != null) {
+                Arrays.fill(column, 0, this.rowCount, null);
+            }
+        }
+        for (final long[] column : this.fieldSet) {
+            Arrays.fill(column, 0);
+        }
+        this.rowCount = 0;
+    }
+
+    /**
+     * Copies the rows to a new template sized to them, this one is left
+     * empty and keeps its buffers.
+     */
+    public WriteTemplate drain() {
+        final int rows = this.rowCount;
+        final int fields = this.schema.getFieldCount();
+        final String[][] tags = new String[this.tags.length][];
+        for (int t = 0; t < tags.length; t++) {
+            tags[t] = Arrays.copyOf(this.tags[t], rows);
+        }
+        final long[][] fieldBits = new long[fields][];
+        final Object[][] fieldRefs = new Object[fields][];
+        final long[][] fieldSet = new long[fields][];
+        for (int f = 0; f < fields; f++) {
+            if (this.fieldRefs[f] != null) {
+                fieldRefs[f] = Arrays.copyOf(this.fieldRefs[f], rows);
+            } else {
+                fieldBits[f] = Arrays.copyOf(this.fieldBits[f], rows);
+            }
+            fieldSet[f] = Arrays.copyOf(this.fieldSet[f], words(rows));
+        }
+        final WriteTemplate drained = new WriteTemplate(this.schema, rows, Arrays.copyOf(this.timestamps, rows), tags,
+                fieldBits, fieldRefs, fieldSet);
+        clear();
+        return drained;
+    }
+
+    /**
+     * Returns the rows as points, each one is created when it is read.
+     */
+    public Points asPoints() {
+        return new Points(this);
+    }
+
+    Point toPoint(final int row) {
+        final Point point = new Point(this.schema.getTable());
+        point.timestamp = this.timestamps[row];
+        for (int t = 0; t < this.schema.getTagCount(); t++) {
+            point.putTag(this.schema.getTagName(t), Value.withStringOrNull(this.tags[t][row]));
+        }
+        for (int f = 0; f < this.schema.getFieldCount(); f++) {
+            if (!isFieldNull(f, row)) {
+                final Object[] refs = this.fieldRefs[f];
+                if (refs != null) {
+                    point.putField(this.schema.getFieldName(f), this.schema.getFieldType(f), refs[row], 0);
+                } else {
+                    point.putField(this.schema.getFieldName(f), this.schema.getFieldType(f), Value.PRIMITIVE,
+                            this.fieldBits[f][row]);
+                }
+            }
+        }
+        return point;
+    }
+
+    private WriteTemplate(TableSchema schema, int rowCount, long[] timestamps, String[][] tags, long[][] fieldBits,
+                          Object[][] fieldRefs, long[][] fieldSet) {
+        this.schema = schema;
+        this.rowCount = rowCount;
+        this.timestamps = timestamps;
+        this.tags = tags;
+        this.fieldBits = fieldBits;
+        this.fieldRefs = fieldRefs;
+        this.fieldSet = fieldSet;
+    }
+
+    private int currentRow() {
+        final int row = this.rowCount - 1;
+        Requires.requireTrue(row >= 0, "No row, call newRow first");
+        return row;
+    }
+
+    private WriteTemplate setBits(final int field, final long bits) {
+        final int row = currentRow();
+        this.fieldBits[field][row] = bits;
+        this.fieldSet[field][row >>> 6] |= 1L << row;
+        return this;
+    }
+
+    private WriteTemplate setRef(final int field, final Object ref) {
+        final int row = currentRow();
+        this.fieldRefs[field][row] = ref;
+        if (ref == null) {
+            this.fieldSet[field][row >>> 6] &= ~(1L << row);
+        } else {
+            this.fieldSet[field][row >>> 6] |= 1L << row;
+        }
+        return this;
+    }
+
+    private IllegalArgumentException typeMismatch(final int field, final String javaType) {
+        return new IllegalArgumentException(String.format("Field %s is %s, can not be set with a %s",
+                this.schema.getFieldName(field), this.schema.getFieldType(field), javaType));
+    }
+
+    private void allocate(final int capacity) {
+        final int fields = this.schema.getFieldCount();
+        this.timestamps = new long[capacity];
+        this.tags = new String[this.schema.getTagCount()][capacity];
+        this.fieldBits = new long[fields][];
+        this.fieldRefs = new Object[fields][];
+        this.fieldSet = new long[fields][words(capacity)];
+        for (int f = 0; f < fields; f++) {
+            if (Value.isReference(this.schema.getFieldType(f))) {
+                this.fieldRefs[f] = new Object[capacity];
+            } else {
+                this.fieldBits[f] = new long[capacity];
+            }
+        }
+    }
+
+    private void grow(final int capacity) {
+        this.timestamps = Arrays.copyOf(this.timestamps, capacity);
+        for (int t = 0; t < this.tags.length; t++) {
+            this.tags[t] = Arrays.copyOf(this.tags[t], capacity);
+        }
+        for (int f = 0; f < this.fieldSet.length; f++) {
+            if (this.fieldRefs[f] != null) {
+                this.fieldRefs[f] = Arrays.copyOf(this.fieldRefs[f], capacity);
+            } else {
+                this.fieldBits[f] = Arrays.copyOf(this.fieldBits[f], capacity);
+            }
+            this.fieldSet[f] = Arrays.copyOf(this.fieldSet[f], words(capacity));
+        }
+    }
+
+    private static int words(final int rows) {
+        return (rows + 63) >>> 6;
+    }
+
+    @Override
+    public String toString() {
+        return "WriteTemplate{" + //
+               "schema=" + schema + //
+               ", rowCount=" + rowCount + //
+               '}';
+    }
+
+    /**
+     * A read-only view of the rows of a template as points.
+     */
+    public static final class Points extends AbstractList<Point> implements RandomAccess {
+        private final WriteTemplate rows;
+
+        private Points(WriteTemplate rows) {
+            this.rows = rows;
+        }
+
+        public WriteTemplate getTemplate() {
+            return rows;
+        }
+
+        @Override
+        public Point get(final int index) {
+            if (index < 0 || index >= this.rows.rowCount) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + this.rows.rowCount);
+            }
+            return this.rows.toPoint(index);
+        }
+
+        @Override
+        public int size() {
+            return this.rows.rowCount;
+        }
+    }
+}
@@ -178,8 +178,24 @@ public class CeresDBOptions implements Copiable<CeresDBOptions> {
         private int writeMaxRetries = 1;
         // Write flow control: maximum number of data rows in-flight.
         private int maxInFlightWritePoints = 8192;
+        // Write flow control: maximum estimated bytes of the data points in-flight, 0 to disable.
+        private long maxInFlightWriteBytes = 0;
         // Write flow control: limited policy
         private LimitedPolicy writeLimitedPolicy = LimitedPolicy.defaultWriteLimitedPolicy();
+        // Write auto-batching: accumulate small writes per endpoint and flush them together.
+        private boolean writeBatchingEnabled = false;
+        // Write auto-batching: flush once this many points are buffered for an endpoint.
+        private int writeBatchMaxPoints = 512;
+        // Write auto-batching: flush once the estimated bytes buffered for an endpoint reach this value.
+        private long writeBatchMaxBytes = 4 * 1024 * 1024;
+        // Write auto-batching: the longest time a point waits in the buffer before it is flushed.
+        private long writeBatchLingerMs = 5;
+        // Write tracing: 1 in this many writes records where its time went, 0 to disable.
+        private int writeTraceSampleEvery = 0;
+        // Routed stream write: flush the rows buffered for an endpoint once they reach this many bytes.
+        private long streamMaxBufferedBytes = 8 * 1024 * 1024;
+        // Stream write flow control: the bytes a stream may queue in the transport while it is not ready.
+        private long streamMaxOutstandingBytes = 16 * 1024 * 1024;
         // Query options
         // In the case of routing table failure, a retry of the read is attempted.
         private int readMaxRetries = 1;
@@ -187,14 +203,24 @@ public class CeresDBOptions implements Copiable<CeresDBOptions> {
         private int maxInFlightQueryRequests = 8;
         // Query flow control: limited policy
         private LimitedPolicy queryLimitedPolicy = LimitedPolicy.defaultQueryLimitedPolicy();
+        // The most off-heap memory the decoded arrow record batches of all the query results alive may take.
+        private long queryMaxAllocationBytes = 1024 * 1024 * 1024;
+        // Decodes the arrow record batches of a query response in parallel, null to decode them one by one.
+        private Executor queryDecodePool;
+        // Query hedging: a query not answered within this quantile of the query latency is sent once more.
+        private double queryHedgeQuantile = 0;
+        // Query hedging: the least time to wait for the first answer before sending the hedged query.
+        private long queryHedgeMinDelayMs = 10;
         // Specifies the maximum number of routing table caches. When the number reaches the limit, the ones that
         // have not been used for a long time are cleared first
         private int routeTableMaxCachedSize = 10_000;
         // The frequency at which the route tables garbage collector is triggered. The default is 60 seconds.
         private long routeTableGcPeriodSeconds = 60;
-        // Refresh frequency of route tables. The background refreshes all route tables periodically. By default,
-        // all route tables are refreshed every 30 seconds.
+        // Refresh frequency of route tables. The background refreshes the route tables hit since the last
+        // refresh periodically. By default, they are refreshed every 30 seconds.
         private long routeTableRefreshPeriodSeconds = 30;
+        // Route table misses arriving within this window are merged into a single route request.
+        private long routeTableBatchWindowMillis = 1;
 
         public Builder(Endpoint clusterAddress, RouteMode routeMode) {
             this.clusterAddress = clusterAddress;
@@ -274,6 +300,20 @@ public class CeresDBOptions implements Copiable<CeresDBOptions> {
             return this;
         }
 
+        /**
+         * Write flow control: maximum estimated serialized bytes of the data
+         * points in-flight, bounds the memory taken by writes when points
+         * differ a lot in width. It applies together with
+         * {@link #maxInFlightWritePoints(int)}, 0 disables it.
+         *
+         * @param maxInFlightWriteBytes maximum estimated bytes in-flight
+         * @return this builder
+         */
+        public Builder maxInFlightWriteBytes(final long maxInFlightWriteBytes) {
+            this.maxInFlightWriteBytes = maxInFlightWriteBytes;
+            return this;
+        }
+
         /**
          * Write flow control: limited policy.
          *
@@ -285,6 +325,95 @@ public class CeresDBOptions implements Copiable<CeresDBOptions> {
             return this;
         }
 
+        /**
+         * Write auto-batching: when enabled, the points of concurrent small writes
+         * are accumulated per endpoint and sent in one request, each caller still
+         * gets its own result.
+         *
+         * @param writeBatchingEnabled enable or disable auto-batching
+         * @return this builder
+         */
+        public Builder writeBatchingEnabled(final boolean writeBatchingEnabled) {
+            this.writeBatchingEnabled = writeBatchingEnabled;
+            return this;
+        }
+
+        /**
+         * Write auto-batching: flush once this many points are buffered for an endpoint.
+         *
+         * @param writeBatchMaxPoints max points per batch
+         * @return this builder
+         */
+        public Builder writeBatchMaxPoints(final int writeBatchMaxPoints) {
+            this.writeBatchMaxPoints = writeBatchMaxPoints;
+            return this;
+        }
+
+        /**
+         * Write auto-batching: flush once the estimated bytes buffered for an
+         * endpoint reach this value.
+         *
+         * @param writeBatchMaxBytes max estimated bytes per batch
+         * @return this builder
+         */
+        public Builder writeBatchMaxBytes(final long writeBatchMaxBytes) {
+            this.writeBatchMaxBytes = writeBatchMaxBytes;
+            return this;
+        }
+
+        /**
+         * Write auto-batching: the longest time a point waits in the buffer
+         * before it is flushed.
+         *
+         * @param writeBatchLingerMs linger time in milliseconds
+         * @return this builder
+         */
+        public Builder writeBatchLingerMs(final long writeBatchLingerMs) {
+            this.writeBatchLingerMs = writeBatchLingerMs;
+            return this;
+        }
+
+        /**
+         * Write tracing: 1 in this many writes records the time it spent in
+         * each phase (limiter, route, encode, network...) to the
+         * `write_phase_time_*` timers, 0 disables the sampling. A write is
+         * always traced when its context carries a {@link io.ceresdb.WriteTrace}.
+         *
+         * @param writeTraceSampleEvery sample 1 write of this many
+         * @return this builder
+         */
+        public Builder writeTraceSampleEvery(final int writeTraceSampleEvery) {
+            this.writeTraceSampleEvery = writeTraceSampleEvery;
+            return this;
+        }
+
+        /**
+         * Routed stream write: the rows buffered for an endpoint are flushed
+         * once their encoded bytes reach this value, the rows of the tables
+         * not routed yet are routed once they reach it.
+         *
+         * @param streamMaxBufferedBytes max buffered bytes per endpoint
+         * @return this builder
+         */
+        public Builder streamMaxBufferedBytes(final long streamMaxBufferedBytes) {
+            this.streamMaxBufferedBytes = streamMaxBufferedBytes;
+            return this;
+        }
+
+        /**
+         * Stream write flow control: the bytes of the requests a stream may
+         * queue in the transport while it is not ready, past them a flush
+         * blocks until the transport is ready again. 0 disables it, the
+         * requests are then queued without bound when the server is slow.
+         *
+         * @param streamMaxOutstandingBytes max outstanding bytes per stream
+         * @return this builder
+         */
+        public Builder streamMaxOutstandingBytes(final long streamMaxOutstandingBytes) {
+            this.streamMaxOutstandingBytes = streamMaxOutstandingBytes;
+            return this;
+        }
+
         /**
          * In the case of routing table failure, a retry of the rpc is attempted.
          *
@@ -318,6 +447,63 @@ public class CeresDBOptions implements Copiable<CeresDBOptions> {
             return this;
         }
 
+        /**
+         * The most off-heap memory the decoded arrow record batches of all the
+         * query results alive may take, a query that does not fit fails with
+         * a flow control error. Close the results to give the memory back
+         * early.
+         *
+         * @param queryMaxAllocationBytes max off-heap bytes of query results
+         * @return this builder
+         */
+        public Builder queryMaxAllocationBytes(final long queryMaxAllocationBytes) {
+            this.queryMaxAllocationBytes = queryMaxAllocationBytes;
+            return this;
+        }
+
+        /**
+         * A query response carrying more than one arrow record batch is decoded
+         * in parallel on this pool, the order of the rows is kept. Decoding is
+         * CPU bound, {@link java.util.concurrent.ForkJoinPool#commonPool()} or a
+         * pool sized to the cores is a good fit. By default, the batches are
+         * decoded one by one on the async read pool.
+         *
+         * @param queryDecodePool the pool to decode record batches on
+         * @return this builder
+         */
+        public Builder queryDecodePool(final Executor queryDecodePool) {
+            this.queryDecodePool = queryDecodePool;
+            return this;
+        }
+
+        /**
+         * Query hedging: a query not answered within this quantile (e.g.
+         * 0.95) of the latency of all queries is sent once more to the same
+         * endpoint, the first successful answer is taken and the other call is
+         * cancelled. Only fits queries that are safe to run twice, 0 disables
+         * it.
+         *
+         * @param queryHedgeQuantile the latency quantile to hedge after
+         * @return this builder
+         */
+        public Builder queryHedgeQuantile(final double queryHedgeQuantile) {
+            this.queryHedgeQuantile = queryHedgeQuantile;
+            return this;
+        }
+
+        /**
+         * Query hedging: the least time to wait for the first answer before
+         * sending the hedged query, it keeps a cold or very fast latency
+         * history from hedging every query.
+         *
+         * @param queryHedgeMinDelayMs min hedging delay in milliseconds
+         * @return this builder
+         */
+        public Builder queryHedgeMinDelayMs(final long queryHedgeMinDelayMs) {
+            this.queryHedgeMinDelayMs = queryHedgeMinDelayMs;
+            return this;
+        }
+
         /**
          * Specifies the maximum number of routing table caches. When the number reaches
          * the limit, the ones that have not been used for a long time are cleared first.
@@ -343,8 +529,9 @@ public class CeresDBOptions implements Copiable<CeresDBOptions> {
         }
 
         /**
-         * Refresh frequency of route tables. The background refreshes all route tables
-         * periodically. By default, all route tables are refreshed every 30 seconds.
+         * Refresh frequency of route tables. The background refreshes the route tables
+         * hit since the last refresh periodically, so topology changes are picked up
+         * before requests fail. By default, they are refreshed every 30 seconds.
          *
          * @param routeTableRefreshPeriodSeconds refresh period for route tables cache
          * @return this builder
@@ -354,6 +541,19 @@ public class CeresDBOptions implements Copiable<CeresDBOptions> {
             return this;
         }
 
+        /**
+         * Route table misses arriving within this window are merged into a single
+         * route request, 0 sends each miss right away. Concurrent misses of the
+         * same table always share one request. The default is 1 millisecond.
+         *
+         * @param routeTableBatchWindowMillis batch window for route table misses
+         * @return this builder
+         */
+        public Builder routeTableBatchWindowMillis(final long routeTableBatchWindowMillis) {
+            this.routeTableBatchWindowMillis = routeTableBatchWindowMillis;
+            return this;
+        }
+
         /**
          * A good start, happy coding.
          *
@@ -371,17 +571,30 @@ public class CeresDBOptions implements Copiable<CeresDBOptions> {
             opts.routerOptions.setMaxCachedSize(this.routeTableMaxCachedSize);
             opts.routerOptions.setGcPeriodSeconds(this.routeTableGcPeriodSeconds);
             opts.routerOptions.setRefreshPeriodSeconds(this.routeTableRefreshPeriodSeconds);
+            opts.routerOptions.setBatchWindowMillis(this.routeTableBatchWindowMillis);
             opts.routerOptions.setRouteMode(this.routeMode);
 
             opts.writeOptions = new WriteOptions();
             opts.writeOptions.setMaxWriteSize(this.maxWriteSize);
             opts.writeOptions.setMaxRetries(this.writeMaxRetries);
             opts.writeOptions.setMaxInFlightWritePoints(this.maxInFlightWritePoints);
+            opts.writeOptions.setMaxInFlightWriteBytes(this.maxInFlightWriteBytes);
             opts.writeOptions.setLimitedPolicy(this.writeLimitedPolicy);
+            opts.writeOptions.setBatchingEnabled(this.writeBatchingEnabled);
+            opts.writeOptions.setBatchMaxPoints(this.writeBatchMaxPoints);
+            opts.writeOptions.setBatchMaxBytes(this.writeBatchMaxBytes);
+            opts.writeOptions.setBatchLingerMs(this.writeBatchLingerMs);
+            opts.writeOptions.setTraceSampleEvery(this.writeTraceSampleEvery);
+            opts.writeOptions.setStreamMaxBufferedBytes(this.streamMaxBufferedBytes);
+            opts.writeOptions.setStreamMaxOutstandingBytes(this.streamMaxOutstandingBytes);
             opts.queryOptions = new QueryOptions();
             opts.queryOptions.setMaxRetries(this.readMaxRetries);
             opts.queryOptions.setMaxInFlightQueryRequests(this.maxInFlightQueryRequests);
             opts.queryOptions.setLimitedPolicy(this.queryLimitedPolicy);
+            opts.queryOptions.setMaxAllocationBytes(this.queryMaxAllocationBytes);
+            opts.queryOptions.setDecodePool(this.queryDecodePool);
+            opts.queryOptions.setHedgeQuantile(this.queryHedgeQuantile);
+            opts.queryOptions.setHedgeMinDelayMs(this.queryHedgeMinDelayMs);
             return CeresDBOptions.check(opts);
         }
     }
@@ -17,12 +17,21 @@ public class QueryOptions implements Copiable<QueryOptions> {
     private String       database;
     private RouterClient routerClient;
     private Executor     asyncPool;
+    // Decodes the arrow record batches of a response in parallel, null to decode them one by one.
+    private Executor decodePool;
 
     // In the case of routing table failure, a retry of the read is attempted.
     private int maxRetries = 1;
     // Query flow limit: maximum number of query requests in-flight.
     private int           maxInFlightQueryRequests = 8;
     private LimitedPolicy limitedPolicy            = LimitedPolicy.defaultQueryLimitedPolicy();
+    // The most off-heap memory the decoded arrow record batches of all the query results alive may take,
+    // close each SqlQueryOk, one only dropped holds its memory until the gc finds it.
+    private long maxAllocationBytes = 1024 * 1024 * 1024;
+    // Hedging: a read-only query not answered within this quantile of the query latency is sent once more, 0 to disable.
+    private double hedgeQuantile = 0;
+    // Hedging: the least time to wait for the first answer before sending the hedged query.
+    private long hedgeMinDelayMs = 10;
 
     public String getDatabase() {
         return database;
@@ -48,6 +57,14 @@ public class QueryOptions implements Copiable<QueryOptions> {
         this.asyncPool = asyncPool;
     }
 
+    public Executor getDecodePool() {
+        return decodePool;
+    }
+
+    public void setDecodePool(Executor decodePool) {
+        this.decodePool = decodePool;
+    }
+
     public int getMaxRetries() {
         return maxRetries;
     }
@@ -72,15 +89,43 @@ public class QueryOptions implements Copiable<QueryOptions> {
         this.limitedPolicy = limitedPolicy;
     }
 
+    public long getMaxAllocationBytes() {
+        return maxAllocationBytes;
+    }
+
+    public void setMaxAllocationBytes(long maxAllocationBytes) {
+        this.maxAllocationBytes = maxAllocationBytes;
+    }
+
+    public double getHedgeQuantile() {
+        return hedgeQuantile;
+    }
+
+    public void setHedgeQuantile(double hedgeQuantile) {
+        this.hedgeQuantile = hedgeQuantile;
+    }
+
+    public long getHedgeMinDelayMs() {
+        return hedgeMinDelayMs;
+    }
+
+    public void setHedgeMinDelayMs(long hedgeMinDelayMs) {
+        this.hedgeMinDelayMs = hedgeMinDelayMs;
+    }
+
     @Override
     public QueryOptions copy() {
         final QueryOptions opts = new QueryOptions();
         opts.database = this.database;
         opts.routerClient = this.routerClient;
         opts.asyncPool = this.asyncPool;
+        opts.decodePool = this.decodePool;
         opts.maxRetries = this.maxRetries;
         opts.maxInFlightQueryRequests = this.maxInFlightQueryRequests;
         opts.limitedPolicy = this.limitedPolicy;
+        opts.maxAllocationBytes = this.maxAllocationBytes;
+        opts.hedgeQuantile = this.hedgeQuantile;
+        opts.hedgeMinDelayMs = this.hedgeMinDelayMs;
         return opts;
     }
 
@@ -90,9 +135,13 @@ public class QueryOptions implements Copiable<QueryOptions> {
                ", database=" + database + //
                ", routerClient=" + routerClient + //
                ", asyncPool=" + asyncPool + //
+               ", decodePool=" + decodePool + //
                ", maxRetries=" + maxRetries + //
                ", maxInFlightQueryRequests=" + maxInFlightQueryRequests + //
                ", limitedPolicy=" + limitedPolicy + //
+               ", maxAllocationBytes=" + maxAllocationBytes + //
+               ", hedgeQuantile=" + hedgeQuantile + //
+               ", hedgeMinDelayMs=" + hedgeMinDelayMs + //
                '}';
     }
 }
@@ -22,9 +22,12 @@ public class RouterOptions implements Copiable<RouterOptions> {
     private int maxCachedSize = 10_000;
     // The frequency at which the route tables garbage collector is triggered. The default is 60 seconds
     private long gcPeriodSeconds = 60;
-    // Refresh frequency of route tables. The background refreshes all route tables periodically. By default,
-    // all route tables are refreshed every 30 seconds.
+    // Refresh frequency of route tables. The background refreshes the route tables hit since the last
+    // refresh periodically. By default, they are refreshed every 30 seconds.
     private long refreshPeriodSeconds = 30;
+    // Route table misses arriving within this window are merged into a single route request, 0 sends each
+    // miss right away. Concurrent misses of the same table always share one request.
+    private long batchWindowMillis = 1;
 
     public RpcClient getRpcClient() {
         return rpcClient;
@@ -66,6 +69,14 @@ public class RouterOptions implements Copiable<RouterOptions> {
         this.refreshPeriodSeconds = refreshPeriodSeconds;
     }
 
+    public long getBatchWindowMillis() {
+        return batchWindowMillis;
+    }
+
+    public void setBatchWindowMillis(long batchWindowMillis) {
+        this.batchWindowMillis = batchWindowMillis;
+    }
+
     public RouteMode getRouteMode() {
         return routeMode;
     }
@@ -82,6 +93,7 @@ public class RouterOptions implements Copiable<RouterOptions> {
         opts.maxCachedSize = this.maxCachedSize;
         opts.gcPeriodSeconds = this.gcPeriodSeconds;
         opts.refreshPeriodSeconds = this.refreshPeriodSeconds;
+        opts.batchWindowMillis = this.batchWindowMillis;
         opts.routeMode = this.routeMode;
         return opts;
     }
@@ -94,6 +106,7 @@ public class RouterOptions implements Copiable<RouterOptions> {
                ", maxCachedSize=" + maxCachedSize + //
                ", gcPeriodSeconds=" + gcPeriodSeconds + //
                ", refreshPeriodSeconds=" + refreshPeriodSeconds + //
+               ", batchWindowMillis=" + batchWindowMillis + //
                ", routeMode=" + routeMode + //
                '}';
     }
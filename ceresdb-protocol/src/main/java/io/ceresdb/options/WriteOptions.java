@@ -26,6 +26,22 @@ public class WriteOptions implements Copiable<WriteOptions> {
     // Write flow limit: maximum number of data points in-flight.
     private int           maxInFlightWritePoints = 8192;
     private LimitedPolicy limitedPolicy          = LimitedPolicy.defaultWriteLimitedPolicy();
+    // Write flow limit: maximum estimated bytes of the data points in-flight, 0 to disable.
+    private long maxInFlightWriteBytes = 0;
+    // Auto-batching: small writes are accumulated per endpoint and flushed together.
+    private boolean batchingEnabled = false;
+    // Auto-batching: flush once this many points are buffered for an endpoint.
+    private int batchMaxPoints = 512;
+    // Auto-batching: flush once the estimated bytes buffered for an endpoint reach this value.
+    private long batchMaxBytes = 4 * 1024 * 1024;
+    // Auto-batching: the longest time a point waits in the buffer before it is flushed.
+    private long batchLingerMs = 5;
+    // Tracing: 1 in this many writes records where its time went, 0 to disable.
+    private int traceSampleEvery = 0;
+    // Routed stream write: the rows buffered for an endpoint are flushed once they reach this many bytes.
+    private long streamMaxBufferedBytes = 8 * 1024 * 1024;
+    // Stream write: the bytes a stream may queue in the transport while it is not ready, 0 to disable.
+    private long streamMaxOutstandingBytes = 16 * 1024 * 1024;
 
     public String getDatabase() {
         return database;
@@ -75,6 +91,14 @@ public class WriteOptions implements Copiable<WriteOptions> {
         this.maxInFlightWritePoints = maxInFlightWritePoints;
     }
 
+    public long getMaxInFlightWriteBytes() {
+        return maxInFlightWriteBytes;
+    }
+
+    public void setMaxInFlightWriteBytes(long maxInFlightWriteBytes) {
+        this.maxInFlightWriteBytes = maxInFlightWriteBytes;
+    }
+
     public LimitedPolicy getLimitedPolicy() {
         return limitedPolicy;
     }
@@ -83,6 +107,62 @@ public class WriteOptions implements Copiable<WriteOptions> {
         this.limitedPolicy = limitedPolicy;
     }
 
+    public boolean isBatchingEnabled() {
+        return batchingEnabled;
+    }
+
+    public void setBatchingEnabled(boolean batchingEnabled) {
+        this.batchingEnabled = batchingEnabled;
+    }
+
+    public int getBatchMaxPoints() {
+        return batchMaxPoints;
+    }
+
+    public void setBatchMaxPoints(int batchMaxPoints) {
+        this.batchMaxPoints = batchMaxPoints;
+    }
+
+    public long getBatchMaxBytes() {
+        return batchMaxBytes;
+    }
+
+    public void setBatchMaxBytes(long batchMaxBytes) {
+        this.batchMaxBytes = batchMaxBytes;
+    }
+
+    public long getBatchLingerMs() {
+        return batchLingerMs;
+    }
+
+    public void setBatchLingerMs(long batchLingerMs) {
+        this.batchLingerMs = batchLingerMs;
+    }
+
+    public int getTraceSampleEvery() {
+        return traceSampleEvery;
+    }
+
+    public void setTraceSampleEvery(int traceSampleEvery) {
+        this.traceSampleEvery = traceSampleEvery;
+    }
+
+    public long getStreamMaxBufferedBytes() {
+        return streamMaxBufferedBytes;
+    }
+
+    public void setStreamMaxBufferedBytes(long streamMaxBufferedBytes) {
+        this.streamMaxBufferedBytes = streamMaxBufferedBytes;
+    }
+
+    public long getStreamMaxOutstandingBytes() {
+        return streamMaxOutstandingBytes;
+    }
+
+    public void setStreamMaxOutstandingBytes(long streamMaxOutstandingBytes) {
+        this.streamMaxOutstandingBytes = streamMaxOutstandingBytes;
+    }
+
     @Override
     public WriteOptions copy() {
         final WriteOptions opts = new WriteOptions();
@@ -93,6 +173,14 @@ public class WriteOptions implements Copiable<WriteOptions> {
         opts.maxWriteSize = this.maxWriteSize;
         opts.maxInFlightWritePoints = this.maxInFlightWritePoints;
         opts.limitedPolicy = this.limitedPolicy;
+        opts.maxInFlightWriteBytes = this.maxInFlightWriteBytes;
+        opts.batchingEnabled = this.batchingEnabled;
+        opts.batchMaxPoints = this.batchMaxPoints;
+        opts.batchMaxBytes = this.batchMaxBytes;
+        opts.batchLingerMs = this.batchLingerMs;
+        opts.traceSampleEvery = this.traceSampleEvery;
+        opts.streamMaxBufferedBytes = this.streamMaxBufferedBytes;
+        opts.streamMaxOutstandingBytes = this.streamMaxOutstandingBytes;
         return opts;
     }
 
@@ -106,6 +194,14 @@ public class WriteOptions implements Copiable<WriteOptions> {
                ", maxWriteSize=" + maxWriteSize + //
                ", maxInFlightWritePoints=" + maxInFlightWritePoints + //
                ", limitedPolicy=" + limitedPolicy + //
+               ", maxInFlightWriteBytes=" + maxInFlightWriteBytes + //
+               ", batchingEnabled=" + batchingEnabled + //
+               ", batchMaxPoints=" + batchMaxPoints + //
+               ", batchMaxBytes=" + batchMaxBytes + //
+               ", batchLingerMs=" + batchLingerMs + //
+               ", traceSampleEvery=" + traceSampleEvery + //
+               ", streamMaxBufferedBytes=" + streamMaxBufferedBytes + //
+               ", streamMaxOutstandingBytes=" + streamMaxOutstandingBytes + //
                '}';
     }
 }
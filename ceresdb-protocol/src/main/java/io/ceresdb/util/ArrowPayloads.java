@@ -0,0 +1,150 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+import com.github.luben.zstd.RecyclingBufferPool;
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdException;
+import com.github.luben.zstd.ZstdInputStreamNoFinalizer;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.ByteStringHelper;
+
+import io.ceresdb.proto.internal.Storage;
+
+/**
+ * Exposes the arrow stream carried by a record batch of
+ * {@link Storage.ArrowPayload} as a {@link ReadableByteChannel}.
+ *
+ * The compressed bytes are read in place from the {@link ByteString}, zstd
+ * decompresses into a per-thread scratch array that is reused across batches,
+ * and the arrow reader copies straight from that array into its own buffers.
+ *
+ */
+final class ArrowPayloads {
+
+    // Scratch arrays larger than this are not kept for the next batch.
+    private static final int MAX_RETAINED_BYTES = 16 * 1024 * 1024;
+    private static final int MIN_SCRATCH_BYTES  = 64 * 1024;
+
+    private static final ThreadLocal<byte[][]> SCRATCH = ThreadLocal.withInitial(() -> new byte[1][]);
+
+    /**
+     * Opens the arrow stream of the given record batch, the channel is only
+     * valid until the next call on the same thread.
+     */
+    static ReadableByteChannel open(final ByteString batch, final Storage.ArrowPayload.Compression compression)
+            throws IOException {
+        final ByteBuffer src = ByteStringHelper.sealByteBuffer(batch);
+        if (compression != Storage.ArrowPayload.Compression.ZSTD) {
+            return new ByteArrayChannel(src.array(), src.arrayOffset() + src.position(), src.remaining());
+        }
+
+        final byte[] in = src.array();
+        final int inOffset = src.arrayOffset() + src.position();
+        final int inLen = src.remaining();
+        final long decompressedSize = Zstd.decompressedSize(in, inOffset, inLen);
+        if (decompressedSize > 0) {
+            // batch compress mode, the frame header carries the content size
+            final byte[] out = scratch((int) decompressedSize);
+            final long size;
+            try {
+                size = Zstd.decompressByteArray(out, 0, (int) decompressedSize, in, inOffset, inLen);
+            } catch (final ZstdException e) {
+                throw new IOException("Fail to decompress arrow batch", e);
+            }
+            if (Zstd.isError(size)) {
+                throw new IOException("Fail to decompress arrow batch: " + Zstd.getErrorName(size));
+            }
+            return new ByteArrayChannel(out, 0, (int) size);
+        }
+
+        // stream compress mode, the content size is unknown up front
+        try (final ZstdInputStreamNoFinalizer zstdInput = new ZstdInputStreamNoFinalizer(
+                new ByteArrayInputStream(in, inOffset, inLen), RecyclingBufferPool.INSTANCE)) {
+            byte[] out = scratch(Math.max(MIN_SCRATCH_BYTES, inLen << 2));
+            int size = 0;
+            for (;;) {
+                if (size == out.length) {
+                    out = grow(out, size);
+                }
+                final int read = zstdInput.read(out, size, out.length - size);
+                if (read < 0) {
+                    break;
+                }
+                size += read;
+            }
+            return new ByteArrayChannel(out, 0, size);
+        }
+    }
+
+    private static byte[] scratch(final int minCapacity) {
+        final byte[][] holder = SCRATCH.get();
+        final byte[] cached = holder[0];
+        if (cached != null && cached.length >= minCapacity) {
+            return cached;
+        }
+        final byte[] bytes = new byte[minCapacity];
+        if (minCapacity <= MAX_RETAINED_BYTES) {
+            holder[0] = bytes;
+        }
+        return bytes;
+    }
+
+    private static byte[] grow(final byte[] bytes, final int size) throws IOException {
+        if (size > (Integer.MAX_VALUE >> 1)) {
+            throw new IOException("Decompressed arrow batch is too large");
+        }
+        final int newCapacity = size << 1;
+        final byte[] newBytes = scratch(newCapacity);
+        System.arraycopy(bytes, 0, newBytes, 0, size);
+        return newBytes;
+    }
+
+    /**
+     * A channel over a region of a byte array, reads are a single copy into
+     * the destination buffer.
+     */
+    static final class ByteArrayChannel implements ReadableByteChannel {
+
+        private final byte[] bytes;
+        private final int    limit;
+        private int          position;
+        private boolean      open = true;
+
+        ByteArrayChannel(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.position = offset;
+            this.limit = offset + length;
+        }
+
+        @Override
+        public int read(final ByteBuffer dst) {
+            if (this.position >= this.limit) {
+                return -1;
+            }
+            final int n = Math.min(dst.remaining(), this.limit - this.position);
+            dst.put(this.bytes, this.position, n);
+            this.position += n;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return this.open;
+        }
+
+        @Override
+        public void close() {
+            this.open = false;
+        }
+    }
+
+    private ArrowPayloads() {
+    }
+}
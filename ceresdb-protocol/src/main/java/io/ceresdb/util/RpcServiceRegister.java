@@ -15,6 +15,8 @@ public class RpcServiceRegister {
 
     private static final String STORAGE_METHOD_TEMPLATE = "storage.StorageService/%s";
 
+    public static final String SQL_QUERY_METHOD = String.format(STORAGE_METHOD_TEMPLATE, "SqlQuery");
+
     public static void registerStorageService() {
         // register protobuf serializer
         RpcFactoryProvider.getRpcFactory().register(
@@ -36,8 +38,7 @@ public class RpcServiceRegister {
                 Storage.WriteRequest.getDefaultInstance(), //
                 Storage.WriteResponse.getDefaultInstance());
         RpcFactoryProvider.getRpcFactory().register(
-                MethodDescriptor.of(String.format(STORAGE_METHOD_TEMPLATE, "SqlQuery"),
-                        MethodDescriptor.MethodType.UNARY, 1 - WRITE_LIMIT_PERCENT), //
+                MethodDescriptor.of(SQL_QUERY_METHOD, MethodDescriptor.MethodType.UNARY, 1 - WRITE_LIMIT_PERCENT), //
                 Storage.SqlQueryRequest.class, //
                 Storage.SqlQueryRequest.getDefaultInstance(), //
                 Storage.SqlQueryResponse.getDefaultInstance());
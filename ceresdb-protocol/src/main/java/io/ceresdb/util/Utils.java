@@ -3,26 +3,26 @@
  */
 package io.ceresdb.util;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import io.ceresdb.Route;
@@ -38,41 +38,30 @@ import io.ceresdb.common.util.SharedScheduledPool;
 import io.ceresdb.common.util.Spines;
 import io.ceresdb.common.util.SystemPropertyUtil;
 import io.ceresdb.common.util.ThreadPoolUtil;
+import io.ceresdb.common.util.internal.ThrowUtil;
+import io.ceresdb.models.ColumnarResult;
 import io.ceresdb.models.Err;
 import io.ceresdb.models.Keyword;
 import io.ceresdb.models.Point;
-import io.ceresdb.models.Row;
 import io.ceresdb.models.SqlQueryOk;
 import io.ceresdb.models.Result;
+import io.ceresdb.models.TableSchema;
 import io.ceresdb.models.Value;
 import io.ceresdb.models.WriteOk;
+import io.ceresdb.models.WriteTemplate;
 import io.ceresdb.proto.internal.Common;
 import io.ceresdb.proto.internal.Storage;
 import io.ceresdb.rpc.Observer;
 
-import org.apache.arrow.memory.RootAllocator;
-import org.apache.arrow.vector.BigIntVector;
-import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.OutOfMemoryException;
 import org.apache.arrow.vector.FieldVector;
-import org.apache.arrow.vector.Float4Vector;
-import org.apache.arrow.vector.Float8Vector;
-import org.apache.arrow.vector.IntVector;
-import org.apache.arrow.vector.SmallIntVector;
-import org.apache.arrow.vector.TimeStampMilliVector;
-import org.apache.arrow.vector.TinyIntVector;
-import org.apache.arrow.vector.UInt1Vector;
-import org.apache.arrow.vector.UInt2Vector;
-import org.apache.arrow.vector.UInt4Vector;
-import org.apache.arrow.vector.UInt8Vector;
-import org.apache.arrow.vector.VarBinaryVector;
-import org.apache.arrow.vector.VarCharVector;
 import org.apache.arrow.vector.VectorSchemaRoot;
 import org.apache.arrow.vector.ipc.ArrowStreamReader;
-import org.apache.arrow.vector.types.Types;
-import org.apache.arrow.vector.types.pojo.Field;
-import org.apache.arrow.vector.types.pojo.Schema;
-import com.github.luben.zstd.Zstd;
-import com.github.luben.zstd.ZstdInputStream;
+import org.apache.arrow.vector.util.TransferPair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.codahale.metrics.Histogram;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.ByteStringHelper;
 
@@ -82,6 +71,8 @@ import com.google.protobuf.ByteStringHelper;
  */
 public final class Utils {
 
+    private static final Logger LOG = LoggerFactory.getLogger(Utils.class);
+
     public static final String DB_NAME = "CeresDB";
 
     private static final AtomicBoolean RW_LOGGING;
@@ -89,6 +80,8 @@ public final class Utils {
     private static final int                      REPORT_PERIOD_MIN;
     private static final ScheduledExecutorService DISPLAY;
 
+    private static final Histogram SPLIT_NUM_PER_WRITE = MetricsUtil.histogram("split_num_per_write");
+
     static {
         RW_LOGGING = new AtomicBoolean(SystemPropertyUtil.getBool(OptKeys.RW_LOGGING, true));
         REPORT_PERIOD_MIN = SystemPropertyUtil.getInt(OptKeys.REPORT_PERIOD, 30);
@@ -222,25 +215,75 @@ public final class Utils {
         }
     }
 
+    /**
+     * Same as {@link #toResult(Storage.WriteResponse, Endpoint, List)} for
+     * points all of the given table, the points are only read when the
+     * write failed.
+     */
+    public static Result<WriteOk, Err> toResult(final Storage.WriteResponse resp, //
+                                                final Endpoint to, //
+                                                final String table, //
+                                                final List<Point> points) {
+        final Common.ResponseHeader header = resp.getHeader();
+        if (header.getCode() == Result.SUCCESS) {
+            final Set<String> tables = WriteOk.isCollectWroteDetail() ? Collections.singleton(table) : null;
+            return WriteOk.ok(resp.getSuccess(), resp.getFailed(), tables).mapToResult();
+        }
+        return Err.writeErr(header.getCode(), header.getError(), to, points).mapToResult();
+    }
+
     /**
      * Converts the given {@link Storage.SqlQueryResponse} to {@link Result} that
-     * upper-level readable.
+     * upper-level readable, the arrow record batches are decoded into the given
+     * allocator.
+     *
+     * The allocator is handed over to the result: it is closed right away if
+     * there is nothing to decode, otherwise it is closed along with
+     * {@link SqlQueryOk#close()}.
+     *
+     * @param resp       response of the write RPC
+     * @param to         the server address wrote to
+     * @param tables    the metrics who query failed
+     * @param errHandler the error handler
+     * @param allocator  the allocator the result owns
+     * @return a {@link Result}
+     */
+    public static Result<SqlQueryOk, Err> toResult(final Storage.SqlQueryResponse resp, //
+                                                   final String sql, //
+                                                   final Endpoint to, //
+                                                   final Collection<String> tables, //
+                                                   final Runnable errHandler, //
+                                                   final BufferAllocator allocator) {
+        return toResult(resp, sql, to, tables, errHandler, allocator, null);
+    }
+
+    /**
+     * Same as {@link #toResult(Storage.SqlQueryResponse, String, Endpoint, Collection, Runnable, BufferAllocator)},
+     * a response carrying more than one record batch is decoded in parallel
+     * on the given pool, the order of the batches is kept.
      *
      * @param resp       response of the write RPC
      * @param to         the server address wrote to
      * @param tables    the metrics who query failed
      * @param errHandler the error handler
+     * @param allocator  the allocator the result owns
+     * @param decodePool the pool to decode record batches on, null to decode
+     *                   all of them in the calling thread
      * @return a {@link Result}
      */
     public static Result<SqlQueryOk, Err> toResult(final Storage.SqlQueryResponse resp, //
                                                    final String sql, //
                                                    final Endpoint to, //
-                                                   final Collection<String> tables, final Runnable errHandler) {
+                                                   final Collection<String> tables, //
+                                                   final Runnable errHandler, //
+                                                   final BufferAllocator allocator, //
+                                                   final Executor decodePool) {
         final Common.ResponseHeader header = resp.getHeader();
         final int code = header.getCode();
         final String msg = header.getError();
 
         if (code != Result.SUCCESS) {
+            allocator.close();
             if (errHandler != null) {
                 errHandler.run();
             }
@@ -248,14 +291,46 @@ public final class Utils {
         }
 
         if (resp.getArrow().getRecordBatchesCount() == 0) {
+            allocator.close();
             return SqlQueryOk.ok(sql, resp.getAffectedRows(), null).mapToResult();
         }
 
-        List<Row> rows = resp.getArrow().getRecordBatchesList().stream()
-                .flatMap(batch -> parseArrowBatch(batch, resp.getArrow().getCompression()).stream())
-                .collect(Collectors.toList());
+        final List<VectorSchemaRoot> batches;
+        try {
+            batches = readArrowBatches(resp.getArrow().getRecordBatchesList(), resp.getArrow().getCompression(),
+                    allocator, decodePool);
+        } catch (final OutOfMemoryException e) {
+            return decodeErr(Result.FLOW_CONTROL, "Query result exceeds the memory limit: " + e.getMessage(), to, sql,
+                    tables, errHandler, allocator);
+        } catch (final UncheckedIOException e) {
+            return decodeErr(Result.INTERNAL_ERROR, "Broken arrow batch: " + e.getCause().getMessage(), to, sql, tables,
+                    errHandler, allocator);
+        } catch (final RuntimeException e) {
+            // a malformed schema or buffer
+            return decodeErr(Result.INTERNAL_ERROR, "Fail to decode arrow batch: " + e, to, sql, tables, errHandler,
+                    allocator);
+        }
+
+        return SqlQueryOk.columnarOk(sql, resp.getAffectedRows(), new ColumnarResult(batches, allocator)).mapToResult();
+    }
 
-        return SqlQueryOk.ok(sql, resp.getAffectedRows(), rows).mapToResult();
+    private static Result<SqlQueryOk, Err> decodeErr(final int code, //
+                                                     final String msg, //
+                                                     final Endpoint to, //
+                                                     final String sql, //
+                                                     final Collection<String> tables, //
+                                                     final Runnable errHandler, //
+                                                     final BufferAllocator allocator) {
+        try {
+            allocator.close();
+        } catch (final IllegalStateException e) {
+            // arrow does not give back the body of a message it fails to read, nothing more can be done
+            LOG.error("Fail to release the memory of a broken query result.", e);
+        }
+        if (errHandler != null) {
+            errHandler.run();
+        }
+        return Err.queryErr(code, msg, to, sql, tables).mapToResult();
     }
 
     /**
@@ -324,11 +399,86 @@ public final class Utils {
             });
         }
 
-        MetricsUtil.histogram("split_num_per_write").update(splits.size());
+        SPLIT_NUM_PER_WRITE.update(splits.size());
 
         return splits;
     }
 
+    /**
+     * Estimates the serialized size of the given point cheaply, without
+     * encoding it. The result is only used for batching and flow control.
+     *
+     * @param point the data point
+     * @return the estimated bytes
+     */
+    public static long estimatedSize(final Point point) {
+        long size = 8; // timestamp
+        for (int i = 0; i < point.getTagCount(); i++) {
+            final Value tagV = point.getTagValue(i);
+            size += point.getTagName(i).length();
+            if (!Value.isNull(tagV)) {
+                size += estimatedSize(tagV.getDataType(), tagV.getObject());
+            }
+        }
+        for (int i = 0; i < point.getFieldCount(); i++) {
+            size += point.getFieldName(i).length();
+            if (!point.isFieldNull(i)) {
+                size += estimatedSize(point.getFieldType(i), point.getFieldRef(i));
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Same as {@link #estimatedSize(Point)} summed over the rows of a
+     * template, without creating their points.
+     *
+     * @param rows the rows of a template
+     * @return the estimated bytes
+     */
+    public static long estimatedSize(final WriteTemplate rows) {
+        final TableSchema schema = rows.getSchema();
+        long size = 8L * rows.getRowCount(); // timestamps
+        for (int t = 0; t < schema.getTagCount(); t++) {
+            final int nameSize = schema.getTagName(t).length();
+            for (int row = 0; row < rows.getRowCount(); row++) {
+                final String tagV = rows.getTag(t, row);
+                size += nameSize + (tagV == null ? 0 : tagV.length());
+            }
+        }
+        for (int f = 0; f < schema.getFieldCount(); f++) {
+            final int nameSize = schema.getFieldName(f).length();
+            final Value.DataType type = schema.getFieldType(f);
+            for (int row = 0; row < rows.getRowCount(); row++) {
+                if (!rows.isFieldNull(f, row)) {
+                    size += nameSize + estimatedSize(type, rows.getFieldRef(f, row));
+                }
+            }
+        }
+        return size;
+    }
+
+    // ref is only read for String and Varbinary values
+    private static int estimatedSize(final Value.DataType type, final Object ref) {
+        switch (type) {
+            case String:
+                return ((String) ref).length();
+            case Varbinary:
+                return ((byte[]) ref).length;
+            case Double:
+            case Int64:
+            case UInt64:
+            case Timestamp:
+                return 8;
+            case Boolean:
+            case Int8:
+            case UInt8:
+                return 1;
+            default:
+                return 4;
+        }
+    }
+
     public static boolean shouldNotRetry(final Err err) {
         return !shouldRetry(err);
     }
@@ -426,211 +576,98 @@ public final class Utils {
         throw new IllegalArgumentException("Invalid type " + value);
     }
 
-    private static List<Row> parseArrowBatch(ByteString batch, Storage.ArrowPayload.Compression compression) {
-        try {
-            InputStream arrowStream = batch.newInput();
-            if (compression == Storage.ArrowPayload.Compression.ZSTD) {
-                byte[] batchBuffer = batch.toByteArray();
-                long decompressedSize = Zstd.decompressedSize(batchBuffer);
-                if (decompressedSize > 0) {
-                    // batch compress mode
-                    byte[] decompressedByteBuffer = Zstd.decompress(batchBuffer, (int) decompressedSize);
-                    arrowStream = new ByteArrayInputStream(decompressedByteBuffer);
-                } else {
-                    // stream compress mode
-                    ZstdInputStream zstdInputStream = new ZstdInputStream(batch.newInput());
-                    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(batch.size());
-                    byte[] block = new byte[128 * 1024];
-                    int size = zstdInputStream.read(block);
-                    byteArrayOutputStream.write(block);
-                    while (size > 0) {
-                        size = zstdInputStream.read(block);
-                        byteArrayOutputStream.write(block);
-                    }
-                    arrowStream = new ByteArrayInputStream(byteArrayOutputStream.toByteArray());
+    @SuppressWarnings("unchecked")
+    private static List<VectorSchemaRoot> readArrowBatches(final List<ByteString> payloads, //
+                                                           final Storage.ArrowPayload.Compression compression, //
+                                                           final BufferAllocator allocator, //
+                                                           final Executor decodePool) {
+        final int n = payloads.size();
+        // each slot ends up with either the decoded batches or the error
+        final Object[] decoded = new Object[n];
+        final AtomicInteger next = new AtomicInteger(0);
+        final CountDownLatch done = new CountDownLatch(n);
+        final Runnable decoder = () -> {
+            int i;
+            while ((i = next.getAndIncrement()) < n) {
+                try {
+                    decoded[i] = readArrowBatch(payloads.get(i), compression, allocator);
+                } catch (final Throwable t) {
+                    decoded[i] = t;
                 }
+                done.countDown();
             }
+        };
 
-            ArrowStreamReader arrowStreamReader = new ArrowStreamReader(arrowStream, new RootAllocator());
-
-            VectorSchemaRoot readRoot = arrowStreamReader.getVectorSchemaRoot();
-            Schema schema = readRoot.getSchema();
-
-            List<Row> batchRows = new LinkedList<>();
-            while (arrowStreamReader.loadNextBatch()) {
-                batchRows.addAll(parseArrowRecord(schema, readRoot));
+        if (decodePool != null) {
+            for (int i = 1; i < n; i++) {
+                try {
+                    decodePool.execute(decoder);
+                } catch (final RejectedExecutionException e) {
+                    break;
+                }
             }
-            return batchRows;
-        } catch (IOException e) {
-            return Collections.EMPTY_LIST;
         }
-    }
-
-    private static List<Row> parseArrowRecord(Schema schema, VectorSchemaRoot root) {
-        // init row builders
-        List<Row.RowBuilder> builders = new ArrayList<>(root.getRowCount());
-        for (int i = 0; i < root.getRowCount(); i++) {
-            builders.add(Row.newRowBuilder(schema.getFields().size()));
+        // the calling thread decodes too, whatever the pool has not picked up yet is left to it, so a
+        // busy or serializing pool never blocks the query
+        decoder.run();
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (final InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
         }
 
-        String[] fields = new String[schema.getFields().size()];
-        for (int fieldIdx = 0; fieldIdx < schema.getFields().size(); fieldIdx++) {
-            Field field = schema.getFields().get(fieldIdx);
-            fields[fieldIdx] = field.getName();
-
-            FieldVector vector = root.getVector(fieldIdx);
-            switch (Types.getMinorTypeForArrowType(field.getType())) {
-                case VARCHAR:
-                    VarCharVector varCharVector = (VarCharVector) vector;
-                    for (int rowIdx = 0; rowIdx < varCharVector.getValueCount(); rowIdx++) {
-                        if (varCharVector.isNull(rowIdx)) {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withStringOrNull(null));
-                        } else {
-                            builders.get(rowIdx).setValue(fieldIdx,
-                                    Value.withString(new String(varCharVector.get(rowIdx), StandardCharsets.UTF_8)));
-                        }
-                    }
-                    break;
-                case BIT:
-                    BitVector bitVector = (BitVector) vector;
-                    for (int rowIdx = 0; rowIdx < bitVector.getValueCount(); rowIdx++) {
-                        if (bitVector.isNull(rowIdx)) {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withBooleanOrNull(null));
-                        } else {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withBoolean(bitVector.get(rowIdx) > 0));
-                        }
-                    }
-                    break;
-                case FLOAT8:
-                    Float8Vector float8Vector = (Float8Vector) vector;
-                    for (int rowIdx = 0; rowIdx < float8Vector.getValueCount(); rowIdx++) {
-                        if (float8Vector.isNull(rowIdx)) {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withDoubleOrNull(null));
-                        } else {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withDouble(float8Vector.get(rowIdx)));
-                        }
-                    }
-                    break;
-                case FLOAT4:
-                    Float4Vector float4Vector = (Float4Vector) vector;
-                    for (int rowIdx = 0; rowIdx < float4Vector.getValueCount(); rowIdx++) {
-                        if (float4Vector.isNull(rowIdx)) {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withFloatOrNull(null));
-                        } else {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withFloat(float4Vector.get(rowIdx)));
-                        }
-                    }
-                    break;
-                case BIGINT:
-                    BigIntVector bigIntVector = (BigIntVector) vector;
-                    for (int rowIdx = 0; rowIdx < bigIntVector.getValueCount(); rowIdx++) {
-                        if (bigIntVector.isNull(rowIdx)) {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withInt64OrNull(null));
-                        } else {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withInt64(bigIntVector.get(rowIdx)));
-                        }
-                    }
-                    break;
-                case INT:
-                    IntVector intVector = (IntVector) vector;
-                    for (int rowIdx = 0; rowIdx < intVector.getValueCount(); rowIdx++) {
-                        if (intVector.isNull(rowIdx)) {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withInt32OrNull(null));
-                        } else {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withInt32(intVector.get(rowIdx)));
-                        }
-                    }
-                    break;
-                case SMALLINT:
-                    SmallIntVector smallIntVector = (SmallIntVector) vector;
-                    for (int rowIdx = 0; rowIdx < smallIntVector.getValueCount(); rowIdx++) {
-                        if (smallIntVector.isNull(rowIdx)) {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withInt16OrNull(null));
-                        } else {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withInt16(smallIntVector.get(rowIdx)));
-                        }
-                    }
-                    break;
-                case TINYINT:
-                    TinyIntVector tinyIntVector = (TinyIntVector) vector;
-                    for (int rowIdx = 0; rowIdx < tinyIntVector.getValueCount(); rowIdx++) {
-                        if (tinyIntVector.isNull(rowIdx)) {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withInt8OrNull(null));
-                        } else {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withInt8(tinyIntVector.get(rowIdx)));
-                        }
-                    }
-                    break;
-                case UINT8:
-                    UInt8Vector uInt8Vector = (UInt8Vector) vector;
-                    for (int rowIdx = 0; rowIdx < uInt8Vector.getValueCount(); rowIdx++) {
-                        if (uInt8Vector.isNull(rowIdx)) {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withUInt64OrNull(null));
-                        } else {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withUInt64(uInt8Vector.get(rowIdx)));
-                        }
-                    }
-                    break;
-                case UINT4:
-                    UInt4Vector uInt4Vector = (UInt4Vector) vector;
-                    for (int rowIdx = 0; rowIdx < uInt4Vector.getValueCount(); rowIdx++) {
-                        if (uInt4Vector.isNull(rowIdx)) {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withUInt32OrNull(null));
-                        } else {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withUInt32(uInt4Vector.get(rowIdx)));
-                        }
-                    }
-                    break;
-                case UINT2:
-                    UInt2Vector uInt2Vector = (UInt2Vector) vector;
-                    for (int rowIdx = 0; rowIdx < uInt2Vector.getValueCount(); rowIdx++) {
-                        if (uInt2Vector.isNull(rowIdx)) {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withUInt16OrNull(null));
-                        } else {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withUInt16(uInt2Vector.get(rowIdx)));
-                        }
-                    }
-                    break;
-                case UINT1:
-                    UInt1Vector uInt1Vector = (UInt1Vector) vector;
-                    for (int rowIdx = 0; rowIdx < uInt1Vector.getValueCount(); rowIdx++) {
-                        if (uInt1Vector.isNull(rowIdx)) {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withUInt8OrNull(null));
-                        } else {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withUInt8(uInt1Vector.get(rowIdx)));
-                        }
-                    }
-                    break;
-                case TIMESTAMPMILLI:
-                    TimeStampMilliVector timeStampMilliVector = (TimeStampMilliVector) vector;
-                    for (int rowIdx = 0; rowIdx < timeStampMilliVector.getValueCount(); rowIdx++) {
-                        if (timeStampMilliVector.isNull(rowIdx)) {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withTimestampOrNull(null));
-                        } else {
-                            builders.get(rowIdx).setValue(fieldIdx,
-                                    Value.withTimestamp(timeStampMilliVector.get(rowIdx)));
-                        }
-                    }
-                    break;
-                case VARBINARY:
-                    VarBinaryVector varBinaryVector = (VarBinaryVector) vector;
-                    for (int rowIdx = 0; rowIdx < varBinaryVector.getValueCount(); rowIdx++) {
-                        if (varBinaryVector.isNull(rowIdx)) {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withVarbinaryOrNull(null));
-                        } else {
-                            builders.get(rowIdx).setValue(fieldIdx,
-                                    Value.withVarbinaryOrNull(varBinaryVector.get(rowIdx)));
-                        }
-                    }
-                    break;
-                default:
-                    // paas
-
+        final List<VectorSchemaRoot> batches = new ArrayList<>(n);
+        Throwable error = null;
+        for (final Object r : decoded) {
+            if (r instanceof Throwable) {
+                if (error == null) {
+                    error = (Throwable) r;
+                }
+            } else {
+                batches.addAll((List<VectorSchemaRoot>) r);
             }
         }
+        if (error != null) {
+            batches.forEach(VectorSchemaRoot::close);
+            ThrowUtil.throwException(error);
+        }
+        return batches;
+    }
 
-        builders.stream().forEach(builder -> builder.setFields(fields));
-        return builders.stream().map(builder -> builder.build()).collect(Collectors.toList());
+    private static List<VectorSchemaRoot> readArrowBatch(final ByteString batch, //
+                                                         final Storage.ArrowPayload.Compression compression, //
+                                                         final BufferAllocator allocator) {
+        final List<VectorSchemaRoot> out = new ArrayList<>(1);
+        try (ArrowStreamReader arrowStreamReader = new ArrowStreamReader(ArrowPayloads.open(batch, compression),
+                allocator)) {
+            VectorSchemaRoot readRoot = arrowStreamReader.getVectorSchemaRoot();
+            while (arrowStreamReader.loadNextBatch()) {
+                // the reader reuses its root for every batch, hand the buffers over to a root of our own
+                List<FieldVector> vectors = new ArrayList<>(readRoot.getFieldVectors().size());
+                for (FieldVector vector : readRoot.getFieldVectors()) {
+                    TransferPair transfer = vector.getTransferPair(allocator);
+                    transfer.transfer();
+                    vectors.add((FieldVector) transfer.getTo());
+                }
+                out.add(new VectorSchemaRoot(readRoot.getSchema().getFields(), vectors, readRoot.getRowCount()));
+            }
+        } catch (IOException e) {
+            // a broken batch fails the whole query, never return the rows decoded before it
+            out.forEach(VectorSchemaRoot::close);
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            out.forEach(VectorSchemaRoot::close);
+            throw e;
+        }
+        return out;
     }
 
     private Utils() {
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import io.ceresdb.common.Endpoint;
+import io.ceresdb.models.Err;
+import io.ceresdb.models.Point;
+import io.ceresdb.models.RequestContext;
+import io.ceresdb.models.Result;
+import io.ceresdb.models.WriteOk;
+import io.ceresdb.models.WriteRequest;
+import io.ceresdb.options.WriteOptions;
+import io.ceresdb.proto.internal.Storage;
+import io.ceresdb.rpc.Context;
+import io.ceresdb.util.TestUtil;
+import io.ceresdb.util.Utils;
+
+@RunWith(value = MockitoJUnitRunner.class)
+public class BatchingWriterTest {
+
+    private WriteClient  writeClient;
+    @Mock
+    private RouterClient routerClient;
+
+    private void init(final int batchMaxPoints, final long batchLingerMs) {
+        final WriteOptions writeOpts = new WriteOptions();
+        writeOpts.setAsyncPool(ForkJoinPool.commonPool());
+        writeOpts.setRoutedClient(this.routerClient);
+        writeOpts.setDatabase("public");
+        writeOpts.setBatchingEnabled(true);
+        writeOpts.setBatchMaxPoints(batchMaxPoints);
+        writeOpts.setBatchLingerMs(batchLingerMs);
+
+        this.writeClient = new WriteClient();
+        this.writeClient.init(writeOpts);
+    }
+
+    @After
+    public void after() {
+        if (this.writeClient != null) {
+            this.writeClient.shutdownGracefully();
+        }
+        this.routerClient.shutdownGracefully();
+    }
+
+    @Test
+    public void flushBySizeTest() throws ExecutionException, InterruptedException, TimeoutException {
+        init(4, 60_000);
+
+        final Endpoint ep = Endpoint.of("127.0.0.1", 8081);
+        mockRoutes(ep, "batching_test_table1", "batching_test_table2");
+        Mockito.when(this.routerClient.invoke(Mockito.eq(ep), Mockito.any(), Mockito.any())) //
+                .thenReturn(Utils.completedCf(TestUtil.newSuccessWriteResp(4)));
+
+        final CompletableFuture<Result<WriteOk, Err>> f1 = this.writeClient
+                .write(new WriteRequest(TestUtil.newTableTwoPoints("batching_test_table1")), Context.newDefault());
+        final CompletableFuture<Result<WriteOk, Err>> f2 = this.writeClient
+                .write(new WriteRequest(TestUtil.newTableTwoPoints("batching_test_table2")), Context.newDefault());
+
+        final Result<WriteOk, Err> r1 = f1.get(3, TimeUnit.SECONDS);
+        final Result<WriteOk, Err> r2 = f2.get(3, TimeUnit.SECONDS);
+
+        Assert.assertTrue(r1.isOk());
+        Assert.assertTrue(r2.isOk());
+        Assert.assertEquals(2, r1.getOk().getSuccess());
+        Assert.assertEquals(2, r2.getOk().getSuccess());
+        // two writes, one RPC
+        Mockito.verify(this.routerClient, Mockito.times(1)).invoke(Mockito.eq(ep), Mockito.any(), Mockito.any());
+        // routed once each, not again on flush
+        Mockito.verify(this.routerClient, Mockito.times(2)).routeFor(Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    public void batchOnlyEqualContextsTest() throws ExecutionException, InterruptedException, TimeoutException {
+        init(1024, 10);
+
+        final Endpoint ep = Endpoint.of("127.0.0.1", 8081);
+        mockRoutes(ep, "batching_test_table1");
+        final List<Context> sent = new CopyOnWriteArrayList<>();
+        Mockito.when(this.routerClient.invoke(Mockito.eq(ep), Mockito.any(), Mockito.any())) //
+                .thenAnswer(invocation -> {
+                    sent.add((Context) invocation.getArguments()[2]);
+                    return Utils.completedCf(TestUtil.newSuccessWriteResp(2));
+                });
+
+        final CompletableFuture<Result<WriteOk, Err>> f1 = this.writeClient
+                .write(new WriteRequest(TestUtil.newTableTwoPoints("batching_test_table1")), Context.of("tenant", "a"));
+        final CompletableFuture<Result<WriteOk, Err>> f2 = this.writeClient
+                .write(new WriteRequest(TestUtil.newTableTwoPoints("batching_test_table1")), Context.of("tenant", "b"));
+
+        Assert.assertTrue(f1.get(3, TimeUnit.SECONDS).isOk());
+        Assert.assertTrue(f2.get(3, TimeUnit.SECONDS).isOk());
+        Assert.assertEquals(2, sent.size());
+        Assert.assertEquals(TestUtil.asSet("a", "b"),
+                TestUtil.asSet(sent.get(0).get("tenant"), sent.get(1).get("tenant")));
+    }
+
+    @Test
+    public void unattributedFailuresTest() throws ExecutionException, InterruptedException, TimeoutException {
+        init(4, 60_000);
+
+        final Endpoint ep = Endpoint.of("127.0.0.1", 8081);
+        mockRoutes(ep, "batching_test_table1", "batching_test_table2");
+        final Storage.WriteResponse resp = TestUtil.newSuccessWriteResp(3).toBuilder().setFailed(1).build();
+        Mockito.when(this.routerClient.invoke(Mockito.eq(ep), Mockito.any(), Mockito.any())) //
+                .thenReturn(Utils.completedCf(resp));
+
+        final List<Point> points1 = TestUtil.newTableTwoPoints("batching_test_table1");
+        final List<Point> points2 = TestUtil.newTableTwoPoints("batching_test_table2");
+        final CompletableFuture<Result<WriteOk, Err>> f1 = this.writeClient.write(new WriteRequest(points1),
+                Context.newDefault());
+        final CompletableFuture<Result<WriteOk, Err>> f2 = this.writeClient.write(new WriteRequest(points2),
+                Context.newDefault());
+
+        final Result<WriteOk, Err> r1 = f1.get(3, TimeUnit.SECONDS);
+        final Result<WriteOk, Err> r2 = f2.get(3, TimeUnit.SECONDS);
+
+        // which point failed is unknown, no caller is told all went well
+        Assert.assertFalse(r1.isOk());
+        Assert.assertFalse(r2.isOk());
+        Assert.assertEquals(points1, new ArrayList<>(r1.getErr().getFailedWrites()));
+        Assert.assertEquals(points2, new ArrayList<>(r2.getErr().getFailedWrites()));
+    }
+
+    @Test
+    public void errWithoutFailedPointsTest() throws ExecutionException, InterruptedException, TimeoutException {
+        final Endpoint ep = Endpoint.of("127.0.0.1", 8081);
+        mockRoutes(ep, "batching_test_table1", "batching_test_table2");
+        final WriteClient client = Mockito.mock(WriteClient.class);
+        Mockito.when(client.asyncPool()).thenReturn(ForkJoinPool.commonPool());
+        // as a route failure, none of the points is named
+        Mockito.when(client.writeRouted(Mockito.eq(ep), Mockito.any(), Mockito.any(), Mockito.any())) //
+                .thenReturn(Utils.completedCf(Err.writeErr(500, "test", ep, null).mapToResult()));
+
+        final WriteOptions writeOpts = new WriteOptions();
+        writeOpts.setRoutedClient(this.routerClient);
+        writeOpts.setBatchMaxPoints(4);
+        writeOpts.setBatchLingerMs(60_000);
+        final BatchingWriter writer = new BatchingWriter(client);
+        writer.init(writeOpts);
+        try {
+            final RequestContext reqCtx = new RequestContext();
+            reqCtx.setDatabase("public");
+            final List<Point> points1 = TestUtil.newTableTwoPoints("batching_test_table1");
+            final List<Point> points2 = TestUtil.newTableTwoPoints("batching_test_table2");
+            final CompletableFuture<Result<WriteOk, Err>> f1 = writer.write(reqCtx, points1, Context.newDefault());
+            final CompletableFuture<Result<WriteOk, Err>> f2 = writer.write(reqCtx, points2, Context.newDefault());
+
+            final Result<WriteOk, Err> r1 = f1.get(3, TimeUnit.SECONDS);
+            final Result<WriteOk, Err> r2 = f2.get(3, TimeUnit.SECONDS);
+
+            // no caller is told its points were written
+            Assert.assertFalse(r1.isOk());
+            Assert.assertFalse(r2.isOk());
+            Assert.assertEquals(500, r1.getErr().getCode());
+            Assert.assertEquals(points1, new ArrayList<>(r1.getErr().getFailedWrites()));
+            Assert.assertEquals(points2, new ArrayList<>(r2.getErr().getFailedWrites()));
+            Mockito.verify(client, Mockito.times(1)).writeRouted(Mockito.eq(ep), Mockito.any(), Mockito.any(),
+                    Mockito.any());
+        } finally {
+            writer.shutdownGracefully();
+        }
+    }
+
+    @Test
+    public void flushByLingerTest() throws ExecutionException, InterruptedException, TimeoutException {
+        init(1024, 10);
+
+        final Endpoint ep = Endpoint.of("127.0.0.1", 8081);
+        mockRoutes(ep, "batching_test_table1");
+        Mockito.when(this.routerClient.invoke(Mockito.eq(ep), Mockito.any(), Mockito.any())) //
+                .thenReturn(Utils.completedCf(TestUtil.newSuccessWriteResp(2)));
+
+        final Result<WriteOk, Err> r = this.writeClient
+                .write(new WriteRequest(TestUtil.newTableTwoPoints("batching_test_table1")), Context.newDefault())
+                .get(3, TimeUnit.SECONDS);
+
+        Assert.assertTrue(r.isOk());
+        Assert.assertEquals(2, r.getOk().getSuccess());
+    }
+
+    @Test
+    public void failedSliceTest() throws ExecutionException, InterruptedException, TimeoutException {
+        init(4, 60_000);
+
+        final Endpoint ep = Endpoint.of("127.0.0.1", 8081);
+        mockRoutes(ep, "batching_test_table1", "batching_test_table2");
+        final Storage.WriteResponse resp = TestUtil.newFailedWriteResp(500, 4);
+        Mockito.when(this.routerClient.invoke(Mockito.eq(ep), Mockito.any(), Mockito.any())) //
+                .thenReturn(Utils.completedCf(resp));
+
+        final List<Point> points1 = TestUtil.newTableTwoPoints("batching_test_table1");
+        final CompletableFuture<Result<WriteOk, Err>> f1 = this.writeClient.write(new WriteRequest(points1),
+                Context.newDefault());
+        final CompletableFuture<Result<WriteOk, Err>> f2 = this.writeClient
+                .write(new WriteRequest(TestUtil.newTableTwoPoints("batching_test_table2")), Context.newDefault());
+
+        final Result<WriteOk, Err> r1 = f1.get(3, TimeUnit.SECONDS);
+        final Result<WriteOk, Err> r2 = f2.get(3, TimeUnit.SECONDS);
+
+        Assert.assertFalse(r1.isOk());
+        Assert.assertFalse(r2.isOk());
+        // each caller only sees its own failed points
+        Assert.assertEquals(points1, new ArrayList<>(r1.getErr().getFailedWrites()));
+        Assert.assertEquals(2, r2.getErr().getFailedWrites().size());
+    }
+
+    private void mockRoutes(final Endpoint ep, final String... tables) {
+        final HashMap<String, Route> routes = new HashMap<>();
+        for (final String table : tables) {
+            routes.put(table, Route.of(table, ep));
+        }
+        Mockito.when(this.routerClient.routeFor(Mockito.any(), Mockito.any())) //
+                .thenReturn(Utils.completedCf(routes));
+    }
+}
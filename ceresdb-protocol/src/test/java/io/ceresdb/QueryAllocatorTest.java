@@ -0,0 +1,199 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowStreamWriter;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.protobuf.ByteStringHelper;
+
+import io.ceresdb.common.Endpoint;
+import io.ceresdb.models.Err;
+import io.ceresdb.models.Result;
+import io.ceresdb.models.SqlQueryOk;
+import io.ceresdb.proto.internal.Common;
+import io.ceresdb.proto.internal.Storage;
+import io.ceresdb.util.Utils;
+
+public class QueryAllocatorTest {
+
+    private QueryAllocator allocator;
+
+    @Before
+    public void before() {
+        this.allocator = new QueryAllocator(1024 * 1024);
+    }
+
+    @After
+    public void after() {
+        this.allocator.close();
+    }
+
+    @Test
+    public void closeReleasesMemoryTest() throws IOException {
+        final SqlQueryOk ok = decode(this.allocator, 1000).getOk();
+        Assert.assertEquals(1000, ok.columns().getRowCount());
+        Assert.assertTrue(this.allocator.getAllocatedMemory() > 0);
+        Assert.assertTrue(this.allocator.getPeakMemoryAllocation() >= this.allocator.getAllocatedMemory());
+
+        ok.close();
+        Assert.assertEquals(0, this.allocator.getAllocatedMemory());
+        // closing twice is fine
+        ok.close();
+    }
+
+    @Test
+    public void readClosedResultTest() throws IOException {
+        final SqlQueryOk ok = decode(this.allocator, 10).getOk();
+        ok.close();
+        Assert.assertTrue(ok.columns().isClosed());
+        // the row count is still known, the rows are not
+        Assert.assertEquals(10, ok.getRowCount());
+        try {
+            ok.getRowList();
+            Assert.fail();
+        } catch (final IllegalStateException ignored) {
+            // expected
+        }
+        try {
+            ok.stream();
+            Assert.fail();
+        } catch (final IllegalStateException ignored) {
+            // expected
+        }
+        try {
+            ok.columns().getLong(0, 0);
+            Assert.fail();
+        } catch (final IllegalStateException ignored) {
+            // expected
+        }
+
+        // rows materialized before closing stay readable
+        final SqlQueryOk materialized = decode(this.allocator, 10).getOk();
+        Assert.assertEquals(10, materialized.getRowList().size());
+        materialized.close();
+        Assert.assertEquals(10, materialized.getRowList().size());
+        Assert.assertEquals(10, materialized.stream().count());
+    }
+
+    @Test
+    public void unreachableResultReclaimedTest() throws IOException, InterruptedException {
+        decode(this.allocator, 1000);
+        Assert.assertTrue(this.allocator.getAllocatedMemory() > 0);
+
+        int reclaimed = 0;
+        for (int i = 0; i < 100 && reclaimed == 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+            reclaimed = this.allocator.reclaim();
+        }
+        Assert.assertEquals(1, reclaimed);
+        Assert.assertEquals(0, this.allocator.getAllocatedMemory());
+    }
+
+    @Test
+    public void exceedLimitTest() throws IOException {
+        final SqlQueryOk ok = decode(this.allocator, 1000).getOk();
+        final Result<SqlQueryOk, Err> r = decode(this.allocator, 200_000);
+        Assert.assertFalse(r.isOk());
+        Assert.assertEquals(Result.FLOW_CONTROL, r.getErr().getCode());
+
+        // the failed query gives back everything it took
+        ok.close();
+        Assert.assertEquals(0, this.allocator.getAllocatedMemory());
+    }
+
+    @Test
+    public void closeWithLiveResultTest() throws IOException {
+        final SqlQueryOk ok = decode(this.allocator, 1000).getOk();
+        Assert.assertEquals(1000, ok.getRowList().size());
+        this.allocator.close();
+        Assert.assertEquals(0, this.allocator.getAllocatedMemory());
+        // materialized rows are independent of the arrow buffers
+        Assert.assertEquals(999L, ok.getRowList().get(999).getColumn("f1").getValue().getInt64());
+    }
+
+    @Test
+    public void brokenBatchTest() throws IOException {
+        final byte[] batch = arrowStream(1000);
+        final Result<SqlQueryOk, Err> r = decode(this.allocator,
+                mockResponse(arrowStream(1000), Arrays.copyOf(batch, batch.length / 2)));
+        Assert.assertFalse(r.isOk());
+        Assert.assertEquals(Result.INTERNAL_ERROR, r.getErr().getCode());
+
+        // the batches decoded before the broken one are given back too
+        Assert.assertEquals(0, this.allocator.getAllocatedMemory());
+    }
+
+    @Test
+    public void malformedBatchTest() throws IOException {
+        final byte[] batch = arrowStream(10);
+        // not an arrow message length, arrow fails with an IllegalArgumentException
+        batch[0] = 0x7F;
+        batch[1] = 0x7F;
+        final AtomicBoolean handled = new AtomicBoolean();
+        final Result<SqlQueryOk, Err> r = Utils.toResult(mockResponse(batch), "select * from test",
+                Endpoint.of("127.0.0.1", 8081), Collections.singletonList("test"), () -> handled.set(true),
+                this.allocator.newChild());
+        Assert.assertFalse(r.isOk());
+        Assert.assertEquals(Result.INTERNAL_ERROR, r.getErr().getCode());
+        Assert.assertTrue(handled.get());
+        Assert.assertEquals(0, this.allocator.getAllocatedMemory());
+    }
+
+    private static Result<SqlQueryOk, Err> decode(final QueryAllocator allocator, final int rows) throws IOException {
+        return decode(allocator, mockResponse(arrowStream(rows)));
+    }
+
+    private static Result<SqlQueryOk, Err> decode(final QueryAllocator allocator, final Storage.SqlQueryResponse resp) {
+        final BufferAllocator child = allocator.newChild();
+        final Result<SqlQueryOk, Err> r = Utils.toResult(resp, "select * from test", Endpoint.of("127.0.0.1", 8081),
+                Collections.singletonList("test"), null, child);
+        if (r.isOk()) {
+            allocator.track(r.getOk().columns(), child);
+        }
+        return r;
+    }
+
+    private static byte[] arrowStream(final int rows) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (final BufferAllocator allocator = new RootAllocator();
+                final BigIntVector vector = new BigIntVector("f1", allocator)) {
+            for (int i = 0; i < rows; i++) {
+                vector.setSafe(i, i);
+            }
+            vector.setValueCount(rows);
+            try (final VectorSchemaRoot root = VectorSchemaRoot.of(vector);
+                    final ArrowStreamWriter writer = new ArrowStreamWriter(root, null, out)) {
+                writer.writeBatch();
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static Storage.SqlQueryResponse mockResponse(final byte[]... batches) {
+        final Storage.ArrowPayload.Builder arrowPayload = Storage.ArrowPayload.newBuilder() //
+                .setCompression(Storage.ArrowPayload.Compression.NONE);
+        for (final byte[] batch : batches) {
+            arrowPayload.addRecordBatches(ByteStringHelper.wrap(batch));
+        }
+        return Storage.SqlQueryResponse.newBuilder() //
+                .setHeader(Common.ResponseHeader.newBuilder().setCode(Result.SUCCESS)) //
+                .setArrow(arrowPayload) //
+                .build();
+    }
+}
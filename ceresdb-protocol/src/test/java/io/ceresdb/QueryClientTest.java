@@ -12,8 +12,12 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -51,18 +55,23 @@ import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import io.ceresdb.common.Endpoint;
+import io.ceresdb.common.util.SerializingExecutor;
 import io.ceresdb.common.util.internal.ThrowUtil;
 import io.ceresdb.errors.IteratorException;
 import io.ceresdb.errors.StreamException;
+import io.ceresdb.models.ColumnarResult;
 import io.ceresdb.models.Err;
 import io.ceresdb.models.SqlQueryOk;
 import io.ceresdb.models.SqlQueryRequest;
 import io.ceresdb.models.Result;
 import io.ceresdb.options.QueryOptions;
 import io.ceresdb.rpc.Context;
+import io.ceresdb.rpc.FlowControlledObserver;
 import io.ceresdb.rpc.Observer;
+import io.ceresdb.rpc.Subscription;
 import io.ceresdb.util.Utils;
 
+import com.google.protobuf.ByteString;
 import com.google.protobuf.ByteStringHelper;
 
 @RunWith(value = MockitoJUnitRunner.class)
@@ -198,6 +207,133 @@ public class QueryClientTest {
         Assert.assertEquals(Collections.singletonList("query_test_table"), err.getFailedTables());
     }
 
+    @Test
+    public void hedgedQueryTest() throws ExecutionException, InterruptedException, IOException {
+        final Storage.SqlQueryResponse resp = mockSimpleQueryResponse(1, false);
+        final Endpoint ep = Endpoint.of("127.0.0.1", 8081);
+        final CompletableFuture<Object> slow = new CompletableFuture<>();
+
+        Mockito.when(this.routerClient.invoke(Mockito.eq(ep), Mockito.any(), Mockito.any())) //
+                .thenReturn(slow) //
+                .thenReturn(Utils.completedCf(resp));
+        Mockito.when(this.routerClient.routeFor(Mockito.any(), Mockito.any())) //
+                .thenReturn(Utils.completedCf(new HashMap<>()));
+        Mockito.when(this.routerClient.clusterRoute()) //
+                .thenReturn(Route.of(ep));
+
+        final QueryClient hedgedClient = newHedgedClient();
+        try {
+            final SqlQueryRequest req = SqlQueryRequest.newBuilder().forTables("query_test_table") //
+                    .sql("select number from query_test_table") //
+                    .build();
+            final Result<SqlQueryOk, Err> r = hedgedClient.sqlQuery(req, Context.newDefault()).get();
+
+            Assert.assertTrue(r.isOk());
+            Assert.assertEquals(1, r.getOk().getRowCount());
+            // the slow call lost the race and is cancelled
+            Assert.assertTrue(slow.isCancelled());
+            Mockito.verify(this.routerClient, Mockito.times(2)).invoke(Mockito.eq(ep), Mockito.any(), Mockito.any());
+        } finally {
+            hedgedClient.shutdownGracefully();
+        }
+    }
+
+    @Test
+    public void hedgedQueryNeverResendsWriteTest() throws ExecutionException, InterruptedException, IOException {
+        final Endpoint ep = Endpoint.of("127.0.0.1", 8081);
+        final CompletableFuture<Object> slow = new CompletableFuture<>();
+
+        Mockito.when(this.routerClient.invoke(Mockito.eq(ep), Mockito.any(), Mockito.any())) //
+                .thenReturn(slow);
+        Mockito.when(this.routerClient.routeFor(Mockito.any(), Mockito.any())) //
+                .thenReturn(Utils.completedCf(new HashMap<>()));
+        Mockito.when(this.routerClient.clusterRoute()) //
+                .thenReturn(Route.of(ep));
+
+        final QueryClient hedgedClient = newHedgedClient();
+        try {
+            final SqlQueryRequest req = SqlQueryRequest.newBuilder().forTables("query_test_table") //
+                    .sql("insert into query_test_table(ts, number) values(1, 1)") //
+                    .build();
+            final CompletableFuture<Result<SqlQueryOk, Err>> f = hedgedClient.sqlQuery(req, Context.newDefault());
+
+            // way past the hedging delay, still a single call
+            Thread.sleep(100);
+            Mockito.verify(this.routerClient, Mockito.times(1)).invoke(Mockito.eq(ep), Mockito.any(), Mockito.any());
+
+            slow.complete(mockSimpleQueryResponse(0, false));
+            Assert.assertTrue(f.get().isOk());
+            Mockito.verify(this.routerClient, Mockito.times(1)).invoke(Mockito.eq(ep), Mockito.any(), Mockito.any());
+        } finally {
+            hedgedClient.shutdownGracefully();
+        }
+
+        Assert.assertTrue(QueryClient.isReadOnly("SELECT * FROM t"));
+        Assert.assertTrue(QueryClient.isReadOnly(" show create table t"));
+        Assert.assertTrue(QueryClient.isReadOnly("describe t"));
+        Assert.assertFalse(QueryClient.isReadOnly("CREATE TABLE t(ts timestamp not null, timestamp key(ts))"));
+        Assert.assertFalse(QueryClient.isReadOnly("drop table t"));
+        Assert.assertFalse(QueryClient.isReadOnly("ALTER TABLE t ADD COLUMN c string"));
+    }
+
+    @Test
+    public void hedgedQueryAllCallsFailTest() throws ExecutionException, InterruptedException {
+        final Storage.SqlQueryResponse failed = Storage.SqlQueryResponse.newBuilder() //
+                .setHeader(Common.ResponseHeader.newBuilder().setCode(500).setError("test")) //
+                .build();
+        final Endpoint ep = Endpoint.of("127.0.0.1", 8081);
+        final CompletableFuture<Object> slow = new CompletableFuture<>();
+        final CompletableFuture<Object> hedged = Utils.completedCf(failed);
+
+        Mockito.when(this.routerClient.invoke(Mockito.eq(ep), Mockito.any(), Mockito.any())) //
+                .thenReturn(slow) //
+                .thenReturn(hedged);
+        Mockito.when(this.routerClient.routeFor(Mockito.any(), Mockito.any())) //
+                .thenReturn(Utils.completedCf(new HashMap<>()));
+        Mockito.when(this.routerClient.clusterRoute()) //
+                .thenReturn(Route.of(ep));
+
+        final QueryClient hedgedClient = newHedgedClient();
+        try {
+            final SqlQueryRequest req = SqlQueryRequest.newBuilder().forTables("query_test_table") //
+                    .sql("select number from query_test_table") //
+                    .build();
+            final CompletableFuture<Result<SqlQueryOk, Err>> f = hedgedClient.sqlQuery(req, Context.newDefault());
+
+            Mockito.verify(this.routerClient, Mockito.timeout(1000).times(2)).invoke(Mockito.eq(ep), Mockito.any(),
+                    Mockito.any());
+            // one failure is not the end of the query, the other call may still succeed
+            Thread.sleep(50);
+            Assert.assertFalse(f.isDone());
+
+            slow.complete(failed);
+            final Result<SqlQueryOk, Err> r = f.get();
+
+            Assert.assertFalse(r.isOk());
+            Assert.assertEquals(500, r.getErr().getCode());
+            Assert.assertEquals(1, r.getErr().stream().count());
+            Assert.assertTrue(slow.isDone());
+            Assert.assertTrue(hedged.isDone());
+            // no third call
+            Mockito.verify(this.routerClient, Mockito.times(2)).invoke(Mockito.eq(ep), Mockito.any(), Mockito.any());
+        } finally {
+            hedgedClient.shutdownGracefully();
+        }
+    }
+
+    private QueryClient newHedgedClient() {
+        final QueryOptions queryOpts = new QueryOptions();
+        queryOpts.setAsyncPool(ForkJoinPool.commonPool());
+        queryOpts.setRouterClient(this.routerClient);
+        queryOpts.setDatabase("public");
+        queryOpts.setHedgeQuantile(0.95);
+        queryOpts.setHedgeMinDelayMs(10);
+
+        final QueryClient hedgedClient = new QueryClient();
+        hedgedClient.init(queryOpts);
+        return hedgedClient;
+    }
+
     @Test
     public void queryByArrowFullTypeTest() throws ExecutionException, InterruptedException, IOException {
         final Result<SqlQueryOk, Err> r = queryByArrow();
@@ -225,6 +361,136 @@ public class QueryClientTest {
         Assert.assertArrayEquals(new byte[] { 1, 2, 3 }, row.getColumn("fVarbinary").getValue().getVarbinary());
     }
 
+    @Test
+    public void queryByArrowColumnarTest() throws ExecutionException, InterruptedException, IOException {
+        final Result<SqlQueryOk, Err> r = queryByArrow();
+        Assert.assertTrue(r.isOk());
+        final ColumnarResult columns = r.getOk().columns();
+        Assert.assertEquals(1, columns.getBatches().size());
+        Assert.assertEquals(1, columns.getRowCount());
+        Assert.assertEquals(14, columns.getColumnCount());
+        Assert.assertEquals(-1, columns.getColumnIndex("notExists"));
+
+        Assert.assertEquals("test", columns.getString(0, columns.getColumnIndex("fString")));
+        Assert.assertTrue(columns.getBoolean(0, columns.getColumnIndex("fBool")));
+        Assert.assertEquals(0.64, columns.getDouble(0, columns.getColumnIndex("fDouble")), 0.000001);
+        Assert.assertEquals(0.32f, columns.getDouble(0, columns.getColumnIndex("fFloat")), 0.000001);
+        Assert.assertEquals(-64, columns.getLong(0, columns.getColumnIndex("fInt64")));
+        Assert.assertEquals(-32, columns.getInt(0, columns.getColumnIndex("fInt32")));
+        Assert.assertEquals(-16, columns.getLong(0, columns.getColumnIndex("fInt16")));
+        Assert.assertEquals(-8, columns.getLong(0, columns.getColumnIndex("fInt8")));
+        Assert.assertEquals(64, columns.getLong(0, columns.getColumnIndex("fUint64")));
+        Assert.assertEquals(8, columns.getLong(0, columns.getColumnIndex("fUint8")));
+        Assert.assertEquals(1675345488158L, columns.getLong(0, columns.getColumnIndex("fTimestamp")));
+        Assert.assertArrayEquals(new byte[] { 1, 2, 3 }, columns.getBytes(0, columns.getColumnIndex("fVarbinary")));
+
+        checkFullTypeRow(columns.getRow(0));
+        Assert.assertTrue(this.queryClient.getAllocator().getAllocatedMemory() > 0);
+        r.getOk().close();
+        Assert.assertEquals(0, this.queryClient.getAllocator().getAllocatedMemory());
+    }
+
+    @Test
+    public void columnarMultiBatchTest() throws IOException {
+        final Storage.ArrowPayload first = mockSimpleQueryResponse(2, false).getArrow();
+        final Storage.ArrowPayload second = mockSimpleQueryResponse(3, true).getArrow();
+        final Storage.SqlQueryResponse resp = Storage.SqlQueryResponse.newBuilder() //
+                .setHeader(Common.ResponseHeader.newBuilder().setCode(Result.SUCCESS)) //
+                .setArrow(first.toBuilder().addAllRecordBatches(second.getRecordBatchesList())) //
+                .build();
+
+        final SqlQueryOk queryOk = Utils
+                .toResult(resp, "select * from query_test_table", Endpoint.of("127.0.0.1", 8081),
+                        Collections.singletonList("query_test_table"), null, new RootAllocator())
+                .getOk();
+        final ColumnarResult columns = queryOk.columns();
+        Assert.assertEquals(2, columns.getBatches().size());
+        Assert.assertEquals(5, columns.getRowCount());
+        Assert.assertEquals(5, queryOk.getRowCount());
+        for (int row = 0; row < 5; row++) {
+            Assert.assertEquals("tvtest", columns.getString(row, 0));
+            Assert.assertEquals(row >= 2, columns.isNull(row, 1));
+        }
+        Assert.assertEquals(123, columns.getLong(1, 1));
+
+        final List<Row> rows = queryOk.getRowList();
+        Assert.assertEquals(5, rows.size());
+        Assert.assertSame(rows, queryOk.getRowList());
+        Assert.assertEquals(123, rows.get(0).getColumn("f1").getValue().getInt32());
+        Assert.assertTrue(rows.get(4).getColumn("f1").getValue().isNull());
+        Assert.assertEquals(5, queryOk.stream().count());
+        columns.close();
+    }
+
+    @Test
+    public void parallelDecodeTest() throws IOException {
+        final ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            checkDecodedInOrder(pool);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void parallelDecodeOnSerializingPoolTest() throws Exception {
+        // decoding from within the only thread of the pool must not wait on itself
+        final SerializingExecutor pool = new SerializingExecutor("decode_test");
+        final CompletableFuture<Void> f = CompletableFuture.runAsync(() -> {
+            try {
+                checkDecodedInOrder(pool);
+            } catch (final IOException e) {
+                throw new RuntimeException(e);
+            }
+        }, pool);
+        f.get(30, TimeUnit.SECONDS);
+    }
+
+    private void checkDecodedInOrder(final Executor decodePool) throws IOException {
+        final Storage.ArrowPayload.Builder arrow = Storage.ArrowPayload.newBuilder()
+                .setCompression(Storage.ArrowPayload.Compression.NONE);
+        int expectedRows = 0;
+        for (int i = 0; i < 16; i++) {
+            arrow.addRecordBatches(mockBigIntBatch(i * 1000, i + 1));
+            expectedRows += i + 1;
+        }
+        final Storage.SqlQueryResponse resp = Storage.SqlQueryResponse.newBuilder() //
+                .setHeader(Common.ResponseHeader.newBuilder().setCode(Result.SUCCESS)) //
+                .setArrow(arrow) //
+                .build();
+
+        final SqlQueryOk queryOk = Utils
+                .toResult(resp, "select * from query_test_table", Endpoint.of("127.0.0.1", 8081),
+                        Collections.singletonList("query_test_table"), null, new RootAllocator(), decodePool)
+                .getOk();
+        final ColumnarResult columns = queryOk.columns();
+        Assert.assertEquals(16, columns.getBatches().size());
+        Assert.assertEquals(expectedRows, columns.getRowCount());
+        int row = 0;
+        for (int i = 0; i < 16; i++) {
+            for (int j = 0; j <= i; j++) {
+                Assert.assertEquals(i * 1000 + j, columns.getLong(row++, 0));
+            }
+        }
+        queryOk.close();
+    }
+
+    private ByteString mockBigIntBatch(final long base, final int rowCount) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (final BufferAllocator allocator = new RootAllocator();
+                final BigIntVector vector = new BigIntVector("f1", allocator)) {
+            for (int i = 0; i < rowCount; i++) {
+                vector.setSafe(i, base + i);
+            }
+            vector.setValueCount(rowCount);
+            try (final VectorSchemaRoot root = VectorSchemaRoot.of(vector);
+                    final ArrowStreamWriter writer = new ArrowStreamWriter(root, null, out)) {
+                writer.writeBatch();
+            }
+        }
+        return ByteStringHelper.wrap(out.toByteArray());
+    }
+
     @Test
     public void queryByArrowNullTypeTest() throws ExecutionException, InterruptedException, IOException {
         final Storage.SqlQueryResponse resp = mockSimpleQueryResponse(1, true);
@@ -448,4 +714,94 @@ public class QueryClientTest {
         }
         Assert.assertEquals(respCount, i);
     }
+
+    @Test
+    public void blockingStreamQueryPrefetchTest() {
+        final AtomicInteger requested = new AtomicInteger();
+        final AtomicInteger cancelled = new AtomicInteger();
+        final BlockingStreamIterator streams = new BlockingStreamIterator(100, TimeUnit.MILLISECONDS, 2);
+        final FlowControlledObserver<SqlQueryOk> obs = streams.getObserver();
+        obs.onSubscribe(new Subscription() {
+
+            @Override
+            public void request(final int n) {
+                requested.addAndGet(n);
+            }
+
+            @Override
+            public void cancel(final String reason) {
+                cancelled.incrementAndGet();
+            }
+        });
+        Assert.assertEquals(2, requested.get());
+
+        obs.onNext(mockQueryOk());
+        obs.onNext(mockQueryOk());
+
+        final Iterator<Row> it = new RowIterator(streams);
+        Assert.assertTrue(it.hasNext());
+        checkFullTypeRow(it.next());
+        Assert.assertEquals(3, requested.get());
+        Assert.assertTrue(it.hasNext());
+        checkFullTypeRow(it.next());
+        Assert.assertEquals(4, requested.get());
+
+        try {
+            it.hasNext();
+            Assert.fail();
+        } catch (final IteratorException e) {
+            Assert.assertEquals(1, cancelled.get());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void flowControlledStreamQueryTest() throws IOException {
+        final Storage.SqlQueryResponse resp = mockSimpleQueryResponse(1, false);
+        final Endpoint ep = Endpoint.of("127.0.0.1", 8081);
+        final AtomicInteger requested = new AtomicInteger();
+
+        Mockito.when(this.routerClient.routeFor(Mockito.any(), Mockito.any())) //
+                .thenReturn(Utils.completedCf(new HashMap<>()));
+        Mockito.when(this.routerClient.clusterRoute()) //
+                .thenReturn(Route.of(ep));
+        Mockito.doAnswer(invocation -> {
+            final FlowControlledObserver<Storage.SqlQueryResponse> observer = (FlowControlledObserver<Storage.SqlQueryResponse>) invocation
+                    .getArguments()[3];
+            observer.onSubscribe(new Subscription() {
+
+                @Override
+                public void request(final int n) {
+                    for (int i = 0; i < n; i++) {
+                        final int seq = requested.incrementAndGet();
+                        if (seq <= 3) {
+                            observer.onNext(resp);
+                        } else if (seq == 4) {
+                            observer.onCompleted();
+                        }
+                    }
+                }
+
+                @Override
+                public void cancel(final String reason) {
+                    observer.onError(new StreamException(reason));
+                }
+            });
+            return null;
+        }).when(this.routerClient).invokeServerStreaming(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+
+        final SqlQueryRequest req = SqlQueryRequest.newBuilder().forTables("query_test_table") //
+                .sql("select number from query_test_table") //
+                .build();
+        final Iterator<Row> it = this.queryClient.blockingStreamSqlQuery(req, 1000, TimeUnit.MILLISECONDS);
+
+        int i = 0;
+        while (it.hasNext()) {
+            Assert.assertEquals("t1:Value{type=String,value=tvtest}|f1:Value{type=Int32,value=123}",
+                    it.next().toString());
+            i++;
+        }
+        Assert.assertEquals(3, i);
+        Assert.assertEquals(0, this.queryClient.getAllocator().getAllocatedMemory());
+    }
 }
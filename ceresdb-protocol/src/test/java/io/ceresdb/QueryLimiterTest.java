@@ -58,13 +58,13 @@ public class QueryLimiterTest {
         limiter.acquireAndDo(req, CompletableFuture::new);
 
         final AtomicBoolean alwaysFalse = new AtomicBoolean();
+        final AtomicBoolean interrupted = new AtomicBoolean();
         final Thread t = new Thread(() -> {
             try {
                 limiter.acquireAndDo(req, this::emptyOk);
                 alwaysFalse.set(true);
             } catch (final Throwable err) {
-                // noinspection ConstantConditions
-                Assert.assertTrue(err instanceof InterruptedException);
+                interrupted.set(err instanceof InterruptedException);
             }
         });
         t.start();
@@ -73,8 +73,10 @@ public class QueryLimiterTest {
         Thread.sleep(1000);
         Assert.assertFalse(alwaysFalse.get());
         t.interrupt();
+        // the blocked query may leave as soon as it is interrupted
+        t.join(5000);
         Assert.assertFalse(alwaysFalse.get());
-        Assert.assertTrue(t.isInterrupted());
+        Assert.assertTrue(interrupted.get());
     }
 
     @Test
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import io.ceresdb.common.Endpoint;
+import io.ceresdb.errors.RouteTableException;
+import io.ceresdb.models.RequestContext;
+import io.ceresdb.models.Result;
+import io.ceresdb.options.RouterOptions;
+import io.ceresdb.proto.internal.Common;
+import io.ceresdb.proto.internal.Storage;
+import io.ceresdb.rpc.Observer;
+import io.ceresdb.rpc.RpcClient;
+
+@RunWith(value = MockitoJUnitRunner.class)
+public class RouterClientTest {
+
+    private static final Endpoint CLUSTER = Endpoint.of("127.0.0.1", 8831);
+    private static final Endpoint DATA    = Endpoint.of("127.0.0.2", 8831);
+    private static final Endpoint DATA2   = Endpoint.of("127.0.0.3", 8831);
+
+    private RouterClient                                routerClient;
+    @Mock
+    private RpcClient                                   rpcClient;
+    private final List<Storage.RouteRequest>            requests     = new CopyOnWriteArrayList<>();
+    private final List<Observer<Storage.RouteResponse>> observers    = new CopyOnWriteArrayList<>();
+    private volatile boolean                            autoReply    = true;
+    private volatile Endpoint                           dataEndpoint = DATA;
+
+    @SuppressWarnings("unchecked")
+    @Before
+    public void before() throws Exception {
+        Mockito.when(this.rpcClient.checkConnection(Mockito.any(Endpoint.class), Mockito.anyBoolean()))
+                .thenReturn(true);
+        Mockito.doAnswer(invocation -> {
+            final Storage.RouteRequest req = (Storage.RouteRequest) invocation.getArguments()[1];
+            final Observer<Storage.RouteResponse> observer = (Observer<Storage.RouteResponse>) invocation
+                    .getArguments()[3];
+            this.requests.add(req);
+            this.observers.add(observer);
+            if (this.autoReply) {
+                observer.onNext(routeResponse(req, this.dataEndpoint));
+            }
+            return null;
+        }).when(this.rpcClient).invokeAsync(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(),
+                Mockito.anyLong());
+    }
+
+    @After
+    public void after() {
+        if (this.routerClient != null) {
+            this.routerClient.shutdownGracefully();
+        }
+    }
+
+    @Test
+    public void batchMissesWithinWindowTest() throws ExecutionException, InterruptedException {
+        init(200);
+
+        final List<CompletableFuture<Map<String, Route>>> fs = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            fs.add(this.routerClient.routeFor(reqCtx(), Arrays.asList("t" + (i % 5), "t" + ((i + 1) % 5))));
+        }
+
+        for (int i = 0; i < 10; i++) {
+            final Map<String, Route> routes = fs.get(i).get();
+            Assert.assertEquals(2, routes.size());
+            Assert.assertEquals(DATA, routes.get("t" + (i % 5)).getEndpoint());
+        }
+
+        Assert.assertEquals(1, this.requests.size());
+        Assert.assertEquals(new HashSet<>(Arrays.asList("t0", "t1", "t2", "t3", "t4")),
+                new HashSet<>(this.requests.get(0).getTablesList()));
+        Assert.assertEquals(5, countRoutes());
+    }
+
+    @Test
+    public void shareInflightLookupTest() throws ExecutionException, InterruptedException {
+        init(0);
+        this.autoReply = false;
+
+        final CompletableFuture<Map<String, Route>> f1 = this.routerClient.routeFor(reqCtx(),
+                Collections.singletonList("t0"));
+        final CompletableFuture<Map<String, Route>> f2 = this.routerClient.routeFor(reqCtx(),
+                Arrays.asList("t0", "t1"));
+
+        Assert.assertEquals(2, this.requests.size());
+        Assert.assertEquals(Collections.singletonList("t0"), this.requests.get(0).getTablesList());
+        Assert.assertEquals(Collections.singletonList("t1"), this.requests.get(1).getTablesList());
+        Assert.assertFalse(f1.isDone());
+        Assert.assertFalse(f2.isDone());
+
+        this.observers.get(1).onNext(routeResponse(this.requests.get(1), DATA));
+        Assert.assertFalse(f2.isDone());
+        this.observers.get(0).onNext(routeResponse(this.requests.get(0), DATA));
+
+        Assert.assertEquals(DATA, f1.get().get("t0").getEndpoint());
+        Assert.assertEquals(2, f2.get().size());
+
+        // cached now, no more lookups
+        this.routerClient.routeFor(reqCtx(), Arrays.asList("t0", "t1")).get();
+        Assert.assertEquals(2, this.requests.size());
+    }
+
+    @Test
+    public void failedLookupIsNotSharedAfterwardsTest() throws InterruptedException {
+        init(0);
+        this.autoReply = false;
+
+        final CompletableFuture<Map<String, Route>> f1 = this.routerClient.routeFor(reqCtx(),
+                Collections.singletonList("t0"));
+        final CompletableFuture<Map<String, Route>> f2 = this.routerClient.routeFor(reqCtx(),
+                Collections.singletonList("t0"));
+        Assert.assertEquals(1, this.requests.size());
+
+        this.observers.get(0).onError(new RouteTableException("test"));
+        assertFailed(f1);
+        assertFailed(f2);
+
+        this.routerClient.routeFor(reqCtx(), Collections.singletonList("t0"));
+        Assert.assertEquals(2, this.requests.size());
+    }
+
+    @Test
+    public void refreshAheadHotRoutesTest() throws ExecutionException, InterruptedException {
+        init(0);
+
+        this.routerClient.routeFor(reqCtx(), Arrays.asList("t0", "t1")).get();
+        Thread.sleep(5);
+        this.routerClient.refresh();
+        Assert.assertEquals(2, this.requests.size());
+        Assert.assertEquals(2, this.requests.get(1).getTablesCount());
+
+        // only t0 is hit after the first refresh
+        Thread.sleep(5);
+        this.routerClient.routeFor(reqCtx(), Collections.singletonList("t0")).get();
+        this.dataEndpoint = DATA2;
+        this.routerClient.refresh();
+        Assert.assertEquals(3, this.requests.size());
+        Assert.assertEquals(Collections.singletonList("t0"), this.requests.get(2).getTablesList());
+
+        final Map<String, Route> routes = this.routerClient.routeFor(reqCtx(), Arrays.asList("t0", "t1")).get();
+        Assert.assertEquals(DATA2, routes.get("t0").getEndpoint());
+        Assert.assertEquals(DATA, routes.get("t1").getEndpoint());
+        Assert.assertEquals(3, this.requests.size());
+    }
+
+    @Test
+    public void refreshSkipsRoutesWithoutDatabaseTest() throws ExecutionException, InterruptedException {
+        init(0);
+
+        this.routerClient.routeFor(reqCtx(), Arrays.asList("t0", "t1")).get();
+        // as cached by a route lookup without a database
+        this.routerClient.iterator().next().setDatabase(null);
+        Thread.sleep(5);
+        final long batches = this.routerClient.metrics.refreshAheadSize().getCount();
+        this.routerClient.refresh();
+        Assert.assertEquals(batches + 1, this.routerClient.metrics.refreshAheadSize().getCount());
+        Assert.assertEquals(2, this.requests.size());
+        Assert.assertEquals(1, this.requests.get(1).getTablesCount());
+    }
+
+    private void init(final long batchWindowMillis) {
+        final RouterOptions opts = new RouterOptions();
+        opts.setRpcClient(this.rpcClient);
+        opts.setClusterAddress(CLUSTER);
+        opts.setRouteMode(RouteMode.DIRECT);
+        opts.setGcPeriodSeconds(-1);
+        opts.setRefreshPeriodSeconds(-1);
+        opts.setBatchWindowMillis(batchWindowMillis);
+        this.routerClient = new RouterClient();
+        this.routerClient.init(opts);
+    }
+
+    private int countRoutes() {
+        int n = 0;
+        for (final Route ignored : this.routerClient) {
+            n++;
+        }
+        return n;
+    }
+
+    private static void assertFailed(final CompletableFuture<?> f) throws InterruptedException {
+        try {
+            f.get();
+            Assert.fail();
+        } catch (final ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof RouteTableException);
+        }
+    }
+
+    private static RequestContext reqCtx() {
+        final RequestContext reqCtx = new RequestContext();
+        reqCtx.setDatabase("public");
+        return reqCtx;
+    }
+
+    private static Storage.RouteResponse routeResponse(final Storage.RouteRequest req, final Endpoint endpoint) {
+        final Storage.Endpoint ep = Storage.Endpoint.newBuilder() //
+                .setIp(endpoint.getIp()) //
+                .setPort(endpoint.getPort()) //
+                .build();
+        final Storage.RouteResponse.Builder resp = Storage.RouteResponse.newBuilder() //
+                .setHeader(Common.ResponseHeader.newBuilder().setCode(Result.SUCCESS));
+        for (final String table : req.getTablesList()) {
+            resp.addRoutes(Storage.Route.newBuilder().setTable(table).setEndpoint(ep));
+        }
+        return resp.build();
+    }
+}
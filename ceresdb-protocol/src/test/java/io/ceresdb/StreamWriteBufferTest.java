@@ -0,0 +1,165 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.ceresdb.errors.StreamException;
+import io.ceresdb.models.Point;
+import io.ceresdb.models.RequestContext;
+import io.ceresdb.models.Value;
+import io.ceresdb.proto.internal.Storage;
+
+public class StreamWriteBufferTest {
+
+    @Test
+    public void sameRowsAsEncoderTest() {
+        final Random random = new Random(42);
+        // small buffers, the rows grow them many times
+        final StreamWriteBuffer buf = new StreamWriteBuffer("table_0", 64);
+        for (int i = 0; i < 20; i++) {
+            final List<Point> points = WriteRequestEncoderTest.randomPoints(random, 1 + random.nextInt(2000)) //
+                    .stream() //
+                    .filter(p -> "table_0".equals(p.getTable())) //
+                    .collect(Collectors.toList());
+            points.forEach(buf::write);
+            Assert.assertEquals(points.size(), buf.rowCount());
+
+            final Storage.WriteRequest actual = buf.drain(reqCtx());
+            final Storage.WriteRequest expected = WriteRequestEncoder
+                    .toMessage(WriteRequestEncoder.encode(reqCtx(), points.stream()));
+            Assert.assertEquals("public", actual.getContext().getDatabase());
+            Assert.assertEquals(rowsOf(expected), rowsOf(actual));
+            // empty after a flush, the next round reuses the buffers
+            Assert.assertTrue(buf.isEmpty());
+        }
+        Assert.assertNull(buf.drain(reqCtx()));
+    }
+
+    @Test
+    public void primitiveFieldsTest() {
+        final List<Point> points = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            points.add(Point.newPointBuilder("metrics") //
+                    .setTimestamp(i) //
+                    .addTag("host", "h" + (i % 7)) //
+                    .addTag("idc", Value.withInt32(i % 3)) //
+                    .addField("cpu", i * 0.5) //
+                    .addField("mem", (float) i) //
+                    .addField("count", (long) i) //
+                    .addField("alive", i % 2 == 0) //
+                    .addField("u8", Value.DataType.UInt8, i) //
+                    .addField("name", Value.withStringOrNull(i % 5 == 0 ? null : "n" + i)) //
+                    .addField("raw", Value.withVarbinary(new byte[] { (byte) i })) //
+                    .build());
+        }
+        final StreamWriteBuffer buf = new StreamWriteBuffer("metrics");
+        points.forEach(buf::write);
+
+        final Storage.WriteRequest actual = buf.drain(reqCtx());
+        Assert.assertEquals(
+                rowsOf(WriteRequestEncoder.toMessage(WriteRequestEncoder.encode(reqCtx(), points.stream()))),
+                rowsOf(actual));
+        final Storage.WriteTableRequest table = actual.getTableRequests(0);
+        Assert.assertEquals("metrics", table.getTable());
+        Assert.assertEquals(21, table.getEntriesCount());
+        Assert.assertEquals(100,
+                table.getEntriesList().stream().mapToInt(Storage.WriteSeriesEntry::getFieldGroupsCount).sum());
+    }
+
+    @Test(expected = StreamException.class)
+    public void invalidTableTest() {
+        final StreamWriteBuffer buf = new StreamWriteBuffer("t1");
+        buf.write(Point.newPointBuilder("t2").setTimestamp(1).addField("f", 1L).build());
+    }
+
+    @Test
+    public void rejectedPointLeavesNoTraceTest() {
+        final List<Point> points = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            points.add(Point.newPointBuilder("metrics") //
+                    .setTimestamp(1000L + i) //
+                    .addTag("host", "h" + (i % 2)) //
+                    .addField("cpu", 0.5 * i) //
+                    .build());
+        }
+        final StreamWriteBuffer buf = new StreamWriteBuffer("metrics", 64, 128);
+        points.forEach(buf::write);
+
+        // a new series with a new tag name and a new field name, larger than what is left
+        final char[] big = new char[128];
+        Arrays.fill(big, 'x');
+        try {
+            buf.write(Point.newPointBuilder("metrics") //
+                    .setTimestamp(2000L) //
+                    .addTag("host", "h9") //
+                    .addTag("region", "r1") //
+                    .addField("cpu", 1.0) //
+                    .addField("note", Value.withString(new String(big))) //
+                    .build());
+            Assert.fail();
+        } catch (final StreamException ignored) {
+            // expected
+        }
+        Assert.assertEquals(4, buf.rowCount());
+
+        final Storage.WriteRequest actual = buf.drain(reqCtx());
+        final Storage.WriteRequest expected = WriteRequestEncoder
+                .toMessage(WriteRequestEncoder.encode(reqCtx(), points.stream()));
+        Assert.assertEquals(rowsOf(expected), rowsOf(actual));
+        final Storage.WriteTableRequest table = actual.getTableRequests(0);
+        Assert.assertEquals(Collections.singletonList("host"), table.getTagNamesList());
+        Assert.assertEquals(Collections.singletonList("cpu"), table.getFieldNamesList());
+        Assert.assertEquals(2, table.getEntriesCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void writeAfterReleaseTest() {
+        final StreamWriteBuffer buf = new StreamWriteBuffer("t1");
+        buf.release();
+        Assert.assertEquals(0, buf.capacity());
+        buf.write(Point.newPointBuilder("t1").setTimestamp(1).addField("f", 1L).build());
+    }
+
+    /**
+     * The rows of each series by their tags, independent of the order of
+     * the series and of the name indexes.
+     */
+    private static Map<String, List<String>> rowsOf(final Storage.WriteRequest req) {
+        final Map<String, List<String>> rows = new HashMap<>();
+        for (final Storage.WriteTableRequest table : req.getTableRequestsList()) {
+            for (final Storage.WriteSeriesEntry entry : table.getEntriesList()) {
+                final Map<String, String> tags = new TreeMap<>();
+                entry.getTagsList()
+                        .forEach(tag -> tags.put(table.getTagNames(tag.getNameIndex()), tag.getValue().toString()));
+                final List<String> groups = new ArrayList<>();
+                for (final Storage.FieldGroup group : entry.getFieldGroupsList()) {
+                    final Map<String, String> fields = new TreeMap<>();
+                    group.getFieldsList().forEach(field -> fields.put(table.getFieldNames(field.getNameIndex()),
+                            field.getValue().toString()));
+                    groups.add(group.getTimestamp() + " " + fields);
+                }
+                Assert.assertNull(rows.put(table.getTable() + tags, groups));
+            }
+        }
+        return rows;
+    }
+
+    private static RequestContext reqCtx() {
+        final RequestContext reqCtx = new RequestContext();
+        reqCtx.setDatabase("public");
+        return reqCtx;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.ceresdb.errors.StreamException;
+import io.ceresdb.proto.internal.Storage;
+import io.ceresdb.rpc.Observer;
+import io.ceresdb.rpc.ReadyAwareObserver;
+
+public class StreamWriteWindowTest {
+
+    @Test
+    public void notBoundWhenDisabledTest() {
+        final FakeStream stream = new FakeStream();
+        Assert.assertSame(stream, new StreamWriteWindow(0).bind(stream));
+        final Observer<Storage.WriteRequest> plain = new Observer<Storage.WriteRequest>() {
+
+            @Override
+            public void onNext(final Storage.WriteRequest value) {
+            }
+
+            @Override
+            public void onError(final Throwable err) {
+            }
+        };
+        Assert.assertSame(plain, new StreamWriteWindow(1024).bind(plain));
+    }
+
+    @Test
+    public void blockUntilReadyTest() throws Exception {
+        final FakeStream stream = new FakeStream();
+        final StreamWriteWindow window = new StreamWriteWindow(1000);
+        final Observer<Storage.WriteRequest> obs = window.bind(stream);
+        final Storage.WriteRequest req = request(300);
+
+        // never blocks while the stream is ready
+        for (int i = 0; i < 10; i++) {
+            obs.onNext(req);
+        }
+        Assert.assertEquals(10, stream.sent.get());
+
+        stream.ready = false;
+        // the last request sent while ready is counted, up to 1000 bytes are queued
+        obs.onNext(req);
+        obs.onNext(req);
+        Assert.assertEquals(12, stream.sent.get());
+        final CompletableFuture<Void> blocked = CompletableFuture.runAsync(() -> obs.onNext(req));
+        try {
+            blocked.get(300, TimeUnit.MILLISECONDS);
+            Assert.fail("should block while the stream is not ready");
+        } catch (final TimeoutException e) {
+            // expected
+        }
+        Assert.assertEquals(12, stream.sent.get());
+
+        stream.setReady();
+        blocked.get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(13, stream.sent.get());
+    }
+
+    @Test
+    public void largeRequestNotBlockedTest() {
+        final FakeStream stream = new FakeStream();
+        stream.ready = false;
+        final Observer<Storage.WriteRequest> obs = new StreamWriteWindow(100).bind(stream);
+        obs.onNext(request(1000));
+        Assert.assertEquals(1, stream.sent.get());
+    }
+
+    @Test
+    public void terminatedWhileWaitingTest() throws Exception {
+        final FakeStream stream = new FakeStream();
+        stream.ready = false;
+        final StreamWriteWindow window = new StreamWriteWindow(100);
+        final Observer<Storage.WriteRequest> obs = window.bind(stream);
+        obs.onNext(request(80));
+        final CompletableFuture<Void> blocked = CompletableFuture.runAsync(() -> obs.onNext(request(80)));
+        Thread.sleep(100);
+        window.terminate();
+        try {
+            blocked.get(5, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (final ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof StreamException);
+        }
+        Assert.assertEquals(1, stream.sent.get());
+    }
+
+    private static Storage.WriteRequest request(final int size) {
+        final StringBuilder database = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            database.append('d');
+        }
+        return Storage.WriteRequest.newBuilder() //
+                .setContext(Storage.RequestContext.newBuilder().setDatabase(database.toString())) //
+                .build();
+    }
+
+    private static class FakeStream implements ReadyAwareObserver<Storage.WriteRequest> {
+        final AtomicInteger  sent       = new AtomicInteger();
+        final List<Runnable> readyTasks = new ArrayList<>();
+        volatile boolean     ready      = true;
+
+        void setReady() {
+            final List<Runnable> tasks;
+            synchronized (this) {
+                this.ready = true;
+                tasks = new ArrayList<>(this.readyTasks);
+                this.readyTasks.clear();
+            }
+            tasks.forEach(Runnable::run);
+        }
+
+        @Override
+        public boolean isReady() {
+            return this.ready;
+        }
+
+        @Override
+        public void onReady(final Runnable task) {
+            synchronized (this) {
+                if (!this.ready) {
+                    this.readyTasks.add(task);
+                    return;
+                }
+            }
+            task.run();
+        }
+
+        @Override
+        public void onNext(final Storage.WriteRequest value) {
+            this.sent.incrementAndGet();
+        }
+
+        @Override
+        public void onError(final Throwable err) {
+        }
+    }
+}
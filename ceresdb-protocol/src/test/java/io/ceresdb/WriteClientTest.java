@@ -5,13 +5,16 @@ package io.ceresdb;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -20,8 +23,10 @@ import java.util.stream.Stream;
 
 import io.ceresdb.models.Point;
 import io.ceresdb.models.RequestContext;
+import io.ceresdb.models.TableSchema;
 import io.ceresdb.models.Value;
 import io.ceresdb.models.WriteRequest;
+import io.ceresdb.models.WriteTemplate;
 import io.ceresdb.proto.internal.Common;
 import io.ceresdb.proto.internal.Storage;
 import org.junit.After;
@@ -31,10 +36,14 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
 
 import io.ceresdb.common.Endpoint;
 import io.ceresdb.common.util.Clock;
+import io.ceresdb.errors.RouteTableException;
+import io.ceresdb.errors.StreamException;
 import io.ceresdb.models.Err;
 import io.ceresdb.models.Result;
 import io.ceresdb.models.WriteOk;
@@ -112,6 +121,82 @@ public class WriteClientTest {
         Assert.assertEquals(new Integer(0), ret.mapOr(-1, WriteOk::getFailed));
     }
 
+    @Test
+    public void writeTemplateTest() throws ExecutionException, InterruptedException {
+        final Endpoint ep = Endpoint.of("127.0.0.1", 8081);
+        final Storage.WriteResponse resp = Storage.WriteResponse.newBuilder() //
+                .setHeader(Common.ResponseHeader.newBuilder().setCode(Result.SUCCESS)) //
+                .setSuccess(3) //
+                .build();
+        Mockito.when(this.routerClient.invoke(Mockito.eq(ep), Mockito.any(), Mockito.any())) //
+                .thenReturn(Utils.completedCf(resp));
+        Mockito.when(this.routerClient.routeFor(Mockito.any(), Mockito.any())) //
+                .thenReturn(Utils.completedCf(Collections.singletonMap("write_client_test_template",
+                        Route.of("write_client_test_template", ep))));
+
+        final TableSchema schema = TableSchema.newBuilder("write_client_test_template") //
+                .tag("host") //
+                .field("cpu", Value.DataType.Double) //
+                .build();
+        final WriteTemplate rows = new WriteTemplate(schema);
+        for (int i = 0; i < 3; i++) {
+            rows.newRow(Clock.defaultClock().getTick()).tag(0, "h" + i).field(0, 0.1 * i);
+        }
+        final CompletableFuture<Result<WriteOk, Err>> f = this.writeClient.write(null, rows, Context.newDefault());
+        // the rows are taken by the write
+        Assert.assertEquals(0, rows.getRowCount());
+
+        final Result<WriteOk, Err> ret = f.get();
+        Assert.assertTrue(ret.isOk());
+        Assert.assertEquals(new Integer(3), ret.mapOr(0, WriteOk::getSuccess));
+        Mockito.verify(this.routerClient).invoke(Mockito.eq(ep), Mockito.any(), Mockito.any());
+
+        // nothing to write
+        Assert.assertEquals(new Integer(0),
+                this.writeClient.write(null, rows, Context.newDefault()).get().mapOr(-1, WriteOk::getSuccess));
+    }
+
+    @Test
+    public void writeTraceTest() throws ExecutionException, InterruptedException {
+        final List<Point> data = TestUtil.newMultiTablePoints("write_client_test_trace");
+        final Endpoint ep = Endpoint.of("127.0.0.1", 8081);
+        final Storage.WriteResponse resp = Storage.WriteResponse.newBuilder() //
+                .setHeader(Common.ResponseHeader.newBuilder().setCode(Result.SUCCESS)) //
+                .setSuccess(data.size()) //
+                .build();
+        Mockito.when(this.routerClient.invoke(Mockito.eq(ep), Mockito.any(), Mockito.any())) //
+                .thenReturn(Utils.completedCf(resp));
+        Mockito.when(this.routerClient.routeFor(Mockito.any(), Mockito.any())) //
+                .thenReturn(Utils.completedCf(
+                        Collections.singletonMap("write_client_test_trace", Route.of("write_client_test_trace", ep))));
+
+        // traced on demand
+        final Context ctx = Context.newDefault();
+        final WriteTrace trace = WriteTrace.attach(ctx);
+        Assert.assertTrue(this.writeClient.write(new WriteRequest(data), ctx).get().isOk());
+        for (final WriteTrace.Phase phase : WriteTrace.Phase.values()) {
+            // nothing to retry
+            Assert.assertEquals(phase.name(), phase != WriteTrace.Phase.Retry, trace.durationNanos(phase) >= 0);
+        }
+        Assert.assertTrue(trace.totalNanos() >= trace.durationNanos(WriteTrace.Phase.Network));
+
+        // sampled, the context of the caller is left as is
+        this.writeClient.shutdownGracefully();
+        final WriteOptions writeOpts = new WriteOptions();
+        writeOpts.setAsyncPool(ForkJoinPool.commonPool());
+        writeOpts.setRoutedClient(this.routerClient);
+        writeOpts.setDatabase("public");
+        writeOpts.setTraceSampleEvery(1);
+        this.writeClient = new WriteClient();
+        this.writeClient.init(writeOpts);
+
+        final long count = WriteClient.InnerMetrics.writePhaseTime(WriteTrace.Phase.Encode).getCount();
+        final Context sampled = Context.newDefault();
+        Assert.assertTrue(this.writeClient.write(new WriteRequest(data), sampled).get().isOk());
+        Assert.assertNull(WriteTrace.of(sampled));
+        Assert.assertEquals(count + 1, WriteClient.InnerMetrics.writePhaseTime(WriteTrace.Phase.Encode).getCount());
+    }
+
     @Test
     public void writeSplitTest() throws ExecutionException, InterruptedException {
         writeSplit(1, 1);
@@ -236,6 +321,194 @@ public class WriteClientTest {
         Assert.assertEquals(12, ret.join().getSuccess());
     }
 
+    @Test
+    public void routedStreamWriteTest() {
+        final Endpoint ep1 = Endpoint.of("127.0.0.1", 8081);
+        final Endpoint ep2 = Endpoint.of("127.0.0.2", 8081);
+        Mockito.when(this.routerClient.routeFor(Mockito.any(), Mockito.any()))
+                .thenAnswer(new Answer<CompletableFuture<Map<String, Route>>>() {
+
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public CompletableFuture<Map<String, Route>> answer(final InvocationOnMock invocation) {
+                        final Map<String, Route> routes = new HashMap<>();
+                        for (final String table : (Collection<String>) invocation.getArguments()[1]) {
+                            final int i = Integer.parseInt(table.substring(table.lastIndexOf('_') + 1));
+                            routes.put(table, Route.of(table, i % 2 == 0 ? ep1 : ep2));
+                        }
+                        return Utils.completedCf(routes);
+                    }
+                });
+        final Map<Endpoint, AtomicInteger> rows = new ConcurrentHashMap<>();
+        final Map<Endpoint, AtomicInteger> requests = new ConcurrentHashMap<>();
+        for (final Endpoint ep : Arrays.asList(ep1, ep2)) {
+            rows.put(ep, new AtomicInteger());
+            requests.put(ep, new AtomicInteger());
+            Mockito.when(this.routerClient.invokeClientStreaming(Mockito.eq(ep),
+                    Mockito.any(Storage.WriteRequest.class), Mockito.any(), Mockito.any()))
+                    .thenAnswer(new Answer<Observer<Storage.WriteRequest>>() {
+
+                        @Override
+                        @SuppressWarnings("unchecked")
+                        public Observer<Storage.WriteRequest> answer(final InvocationOnMock invocation) {
+                            final Observer<Storage.WriteResponse> respObserver = (Observer<Storage.WriteResponse>) invocation
+                                    .getArguments()[3];
+                            return new Observer<Storage.WriteRequest>() {
+
+                                @Override
+                                public void onNext(final Storage.WriteRequest value) {
+                                    for (final Storage.WriteTableRequest table : value.getTableRequestsList()) {
+                                        final int i = Integer.parseInt(
+                                                table.getTable().substring(table.getTable().lastIndexOf('_') + 1));
+                                        Assert.assertEquals(i % 2 == 0 ? ep1 : ep2, ep);
+                                        table.getEntriesList()
+                                                .forEach(e -> rows.get(ep).addAndGet(e.getFieldGroupsCount()));
+                                    }
+                                    requests.get(ep).incrementAndGet();
+                                }
+
+                                @Override
+                                public void onError(final Throwable err) {
+                                    respObserver.onError(err);
+                                }
+
+                                @Override
+                                public void onCompleted() {
+                                    respObserver.onNext(Storage.WriteResponse.newBuilder() //
+                                            .setHeader(Common.ResponseHeader.newBuilder().setCode(Result.SUCCESS)) //
+                                            .setSuccess(rows.get(ep).get()) //
+                                            .build());
+                                }
+                            };
+                        }
+                    });
+        }
+
+        final StreamWriteBuf<Point, WriteOk> writer = this.writeClient.routedStreamWrite();
+        for (int i = 0; i < 100; i++) {
+            writer.write(TestUtil.newTableTwoPoints("routed_stream_table_" + i));
+        }
+        writer.flush();
+        // one request for each endpoint, carrying all its tables
+        Assert.assertEquals(1, requests.get(ep1).get());
+        Assert.assertEquals(1, requests.get(ep2).get());
+        writer.writeAndFlush(TestUtil.newTableTwoPoints("routed_stream_table_7"));
+        final WriteOk ok = writer.completed().join();
+
+        Assert.assertEquals(202, ok.getSuccess());
+        Assert.assertEquals(100, rows.get(ep1).get());
+        Assert.assertEquals(102, rows.get(ep2).get());
+        Assert.assertEquals(2, requests.get(ep2).get());
+        // a stream is opened once for each endpoint
+        Mockito.verify(this.routerClient, Mockito.times(1)).invokeClientStreaming(Mockito.eq(ep1), Mockito.any(),
+                Mockito.any(), Mockito.any());
+        Mockito.verify(this.routerClient, Mockito.times(1)).invokeClientStreaming(Mockito.eq(ep2), Mockito.any(),
+                Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    public void routedStreamWriteBoundedTest() {
+        final Endpoint ep = Endpoint.of("127.0.0.1", 8081);
+        Mockito.when(this.routerClient.routeFor(Mockito.any(), Mockito.any())) //
+                .thenReturn(Utils.completedCf(Collections.emptyMap()));
+        Mockito.when(this.routerClient.clusterRoute()).thenReturn(Route.of(ep));
+        final AtomicInteger requests = new AtomicInteger();
+        Mockito.when(this.routerClient.invokeClientStreaming(Mockito.eq(ep), Mockito.any(Storage.WriteRequest.class),
+                Mockito.any(), Mockito.any())).thenReturn(new Observer<Storage.WriteRequest>() {
+
+                    @Override
+                    public void onNext(final Storage.WriteRequest value) {
+                        requests.incrementAndGet();
+                    }
+
+                    @Override
+                    public void onError(final Throwable err) {
+                        // ignored
+                    }
+                });
+
+        final RequestContext reqCtx = new RequestContext();
+        reqCtx.setDatabase("public");
+        final RoutedStreamWriteBuf writer = new RoutedStreamWriteBuf(this.routerClient, reqCtx, 1024,
+                (endpoint, respObserver) -> this.routerClient.invokeClientStreaming(endpoint,
+                        Storage.WriteRequest.getDefaultInstance(), Context.newDefault(), null));
+        for (int i = 0; i < 1000; i++) {
+            writer.write(TestUtil.newTableTwoPoints("bounded_stream_table_" + (i % 10)));
+        }
+        // flushed along the way, nothing waits for the explicit flush beyond the bound
+        Assert.assertTrue(requests.get() > 10);
+        final int before = requests.get();
+        writer.flush();
+        Assert.assertTrue(requests.get() <= before + 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void routedStreamWriteHoldsRowsWhileRoutingTest() {
+        final Endpoint ep = Endpoint.of("127.0.0.1", 8081);
+        final List<CompletableFuture<Map<String, Route>>> lookups = new ArrayList<>();
+        Mockito.when(this.routerClient.routeFor(Mockito.any(), Mockito.any())).thenAnswer(invocation -> {
+            final CompletableFuture<Map<String, Route>> f = new CompletableFuture<>();
+            lookups.add(f);
+            return f;
+        });
+        Mockito.when(this.routerClient.clusterRoute()).thenReturn(Route.of(ep));
+        final AtomicInteger rows = new AtomicInteger();
+        Mockito.when(this.routerClient.invokeClientStreaming(Mockito.eq(ep), Mockito.any(Storage.WriteRequest.class),
+                Mockito.any(), Mockito.any())).thenAnswer(invocation -> {
+                    final Observer<WriteOk> respObserver = (Observer<WriteOk>) invocation.getArguments()[3];
+                    return new Observer<Storage.WriteRequest>() {
+
+                        @Override
+                        public void onNext(final Storage.WriteRequest value) {
+                            value.getTableRequestsList().forEach(table -> table.getEntriesList()
+                                    .forEach(e -> rows.addAndGet(e.getFieldGroupsCount())));
+                        }
+
+                        @Override
+                        public void onError(final Throwable err) {
+                            // ignored
+                        }
+
+                        @Override
+                        public void onCompleted() {
+                            respObserver.onNext(WriteOk.ok(rows.get(), 0, null));
+                        }
+                    };
+                });
+
+        final RequestContext reqCtx = new RequestContext();
+        reqCtx.setDatabase("public");
+        final RoutedStreamWriteBuf writer = new RoutedStreamWriteBuf(this.routerClient, reqCtx, 1024 * 1024,
+                (endpoint, respObserver) -> this.routerClient.invokeClientStreaming(endpoint,
+                        Storage.WriteRequest.getDefaultInstance(), Context.newDefault(), respObserver));
+
+        // the producer is not blocked by the lookup, the rows are held
+        writer.writeAndFlush(TestUtil.newTableTwoPoints("held_stream_table_0"));
+        Assert.assertEquals(1, lookups.size());
+        Assert.assertEquals(0, rows.get());
+
+        // a failed lookup surfaces as is, the rows are kept for the next one
+        lookups.get(0).completeExceptionally(new RouteTableException("test"));
+        try {
+            writer.flush();
+            Assert.fail();
+        } catch (final StreamException e) {
+            Assert.assertTrue(e.getCause() instanceof RouteTableException);
+        }
+        writer.flush();
+        Assert.assertEquals(2, lookups.size());
+        writer.write(TestUtil.newTableTwoPoints("held_stream_table_1"));
+
+        final CompletableFuture<WriteOk> f = writer.completed();
+        Assert.assertFalse(f.isDone());
+        lookups.get(1).complete(Collections.emptyMap());
+        // the table written during the lookup is routed next
+        Assert.assertEquals(3, lookups.size());
+        lookups.get(2).complete(Collections.emptyMap());
+        Assert.assertEquals(4, f.join().getSuccess());
+    }
+
     @Test
     public void rowsToWriteProtoTest() {
         List<Point> table1 = new ArrayList<>();
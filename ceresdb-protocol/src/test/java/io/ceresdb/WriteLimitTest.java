@@ -60,13 +60,13 @@ public class WriteLimitTest {
         limiter.acquireAndDo(points, CompletableFuture::new);
 
         final AtomicBoolean alwaysFalse = new AtomicBoolean();
+        final AtomicBoolean interrupted = new AtomicBoolean();
         final Thread t = new Thread(() -> {
             try {
                 limiter.acquireAndDo(points, this::emptyOk);
                 alwaysFalse.set(true);
             } catch (final Throwable err) {
-                // noinspection ConstantConditions
-                Assert.assertTrue(err instanceof InterruptedException);
+                interrupted.set(err instanceof InterruptedException);
             }
         });
         t.start();
@@ -75,8 +75,10 @@ public class WriteLimitTest {
         Thread.sleep(1000);
         Assert.assertFalse(alwaysFalse.get());
         t.interrupt();
+        // the blocked writer may leave as soon as it is interrupted
+        t.join(5000);
         Assert.assertFalse(alwaysFalse.get());
-        Assert.assertTrue(t.isInterrupted());
+        Assert.assertTrue(interrupted.get());
     }
 
     @Test
@@ -117,6 +119,53 @@ public class WriteLimitTest {
         }
     }
 
+    @Test
+    public void asyncBlockingTimeoutWriteLimitTest() throws ExecutionException, InterruptedException {
+        final WriteLimiter limiter = new WriteClient.DefaultWriteLimiter(1,
+                new LimitedPolicy.AsyncBlockingTimeoutPolicy(1, TimeUnit.SECONDS));
+        final List<Point> points = TestUtil.newMultiTablePoints("test1", "test2");
+
+        // consume the permits
+        final CompletableFuture<Result<WriteOk, Err>> inflight = new CompletableFuture<>();
+        limiter.acquireAndDo(points, () -> inflight);
+
+        // returns at once, the write goes on when the permits come back
+        final CompletableFuture<Result<WriteOk, Err>> waiting = limiter.acquireAndDo(points, this::emptyOk);
+        Assert.assertFalse(waiting.isDone());
+        inflight.complete(Result.ok(WriteOk.emptyOk()));
+        Assert.assertTrue(waiting.get().isOk());
+
+        // consume the permits again, then time out
+        limiter.acquireAndDo(points, CompletableFuture::new);
+        final CompletableFuture<Result<WriteOk, Err>> timeout = limiter.acquireAndDo(points, this::emptyOk);
+        Assert.assertFalse(timeout.isDone());
+        final Result<WriteOk, Err> ret = timeout.get();
+        Assert.assertFalse(ret.isOk());
+        Assert.assertEquals(Result.FLOW_CONTROL, ret.getErr().getCode());
+    }
+
+    @Test
+    public void bytesWriteLimitTest() throws ExecutionException, InterruptedException {
+        final List<Point> points = TestUtil.newMultiTablePoints("test1", "test2");
+        final long bytes = points.stream().mapToLong(Utils::estimatedSize).sum();
+        final WriteLimiter limiter = new WriteClient.DefaultWriteBytesLimiter(bytes + 1,
+                new LimitedPolicy.DiscardPolicy());
+
+        // holds all but one byte
+        final CompletableFuture<Result<WriteOk, Err>> inflight = new CompletableFuture<>();
+        limiter.acquireAndDo(points, () -> inflight);
+
+        final Result<WriteOk, Err> ret = limiter.acquireAndDo(points.subList(0, 1), this::emptyOk).get();
+        Assert.assertFalse(ret.isOk());
+        Assert.assertEquals(Result.FLOW_CONTROL, ret.getErr().getCode());
+        Assert.assertEquals(String.format("Write limited by client, acquireBytes=%d, maxBytes=%d, availableBytes=1.",
+                Utils.estimatedSize(points.get(0)), bytes + 1), ret.getErr().getError());
+
+        // the bytes come back once the write completes
+        inflight.complete(Result.ok(WriteOk.emptyOk()));
+        Assert.assertTrue(limiter.acquireAndDo(points, this::emptyOk).get().isOk());
+    }
+
     private CompletableFuture<Result<WriteOk, Err>> emptyOk() {
         return Utils.completedCf(Result.ok(WriteOk.emptyOk()));
     }
@@ -0,0 +1,344 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import io.ceresdb.models.Point;
+import io.ceresdb.models.RequestContext;
+import io.ceresdb.models.TableSchema;
+import io.ceresdb.models.Value;
+import io.ceresdb.models.WriteTemplate;
+import io.ceresdb.proto.internal.Storage;
+import io.ceresdb.util.TestUtil;
+import io.ceresdb.util.Utils;
+
+public class WriteRequestEncoderTest {
+
+    @Test
+    public void sameRequestAsBuilderTest() {
+        assertSameRequest(TestUtil.newMultiTablePoints("t1", "t2", "t3"));
+    }
+
+    @Test
+    public void emptyTest() throws InvalidProtocolBufferException {
+        assertSameRequest(new ArrayList<>());
+        final Storage.WriteRequest req = Storage.WriteRequest
+                .parseFrom(WriteRequestEncoder.encode(reqCtx(), new ArrayList<Point>().stream()).getBytes());
+        Assert.assertEquals("public", req.getContext().getDatabase());
+        Assert.assertEquals(0, req.getTableRequestsCount());
+    }
+
+    @Test
+    public void randomPointsTest() {
+        final Random random = new Random(42);
+        for (int i = 0; i < 20; i++) {
+            assertSameRequest(randomPoints(random, 1 + random.nextInt(2000)));
+        }
+    }
+
+    @Test
+    public void collidingSeriesKeysTest() {
+        // "Aa" and "BB" have the same hash code, every combination below lands in the same bucket
+        final String[] same = { "Aa", "BB" };
+        final List<Point> points = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            points.add(Point.newPointBuilder("collide") //
+                    .setTimestamp(i) //
+                    .addTag("a", same[i & 1]) //
+                    .addTag("b", same[(i >> 1) & 1]) //
+                    .addTag("c", same[(i >> 2) & 1]) //
+                    .addTag("d", same[(i >> 3) & 1]) //
+                    .addField("f", Value.withInt64(i)) //
+                    .build());
+        }
+        // grow the map so that the colliding bucket gets treeified
+        for (int i = 0; i < 100; i++) {
+            points.add(Point.newPointBuilder("collide") //
+                    .setTimestamp(i) //
+                    .addTag("a", "other_" + i) //
+                    .addField("f", Value.withInt64(i)) //
+                    .build());
+        }
+        // concatenated keys are equal: "x" + "yz" == "xy" + "z"
+        points.add(Point.newPointBuilder("collide").addTag("a", "x").addTag("b", "yz").addField("f", Value.withInt64(1))
+                .build());
+        points.add(Point.newPointBuilder("collide").addTag("a", "xy").addTag("b", "z").addField("f", Value.withInt64(2))
+                .build());
+        assertSameRequest(points);
+    }
+
+    @Test
+    public void allTypesTest() {
+        final List<Point> points = new ArrayList<>();
+        points.add(Point.newPointBuilder("all_types") //
+                .setTimestamp(-1) //
+                .addTag("tag_int", Value.withInt32(-3)) //
+                .addTag("tag_null", Value.withStringOrNull(null)) //
+                .addField("f_double", Value.withDouble(0.0)) //
+                .addField("f_string", Value.withString("")) //
+                .addField("f_int64", Value.withInt64(Long.MIN_VALUE)) //
+                .addField("f_float", Value.withFloat(-1.5f)) //
+                .addField("f_int32", Value.withInt32(-1)) //
+                .addField("f_int16", Value.withInt16(-2)) //
+                .addField("f_int8", Value.withInt8(-3)) //
+                .addField("f_bool", Value.withBoolean(false)) //
+                .addField("f_uint64", Value.withUInt64(-1L)) //
+                .addField("f_uint32", Value.withUInt32(-1)) //
+                .addField("f_uint16", Value.withUInt16(65535)) //
+                .addField("f_uint8", Value.withUInt8(255)) //
+                .addField("f_timestamp", Value.withTimestamp(0)) //
+                .addField("f_varbinary", Value.withVarbinary(new byte[] { 1, 2, 3 })) //
+                .addField("f_null", Value.withInt64OrNull(null)) //
+                .addField("f_中文", Value.withString("值")) //
+                .build());
+        assertSameRequest(points);
+    }
+
+    @Test
+    public void primitiveFieldsTest() {
+        final List<Point> points = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            points.add(Point.newPointBuilder("primitives") //
+                    .setTimestamp(i) //
+                    .addTag("host", "h" + (i % 3)) //
+                    .addField("f_double", i * 0.5) //
+                    .addField("f_float", -1.5f * i) //
+                    .addField("f_int64", Long.MIN_VALUE + i) //
+                    .addField("f_int32", -i) //
+                    .addField("f_bool", (i & 1) == 0) //
+                    .addField("f_uint16", Value.DataType.UInt16, 65535) //
+                    .addField("f_int8", Value.DataType.Int8, -i) //
+                    .addField("f_timestamp", Value.DataType.Timestamp, 1000L * i) //
+                    .addField("f_string", Value.withString("s" + i)) //
+                    .addField("f_null", Value.withDoubleOrNull(null)) //
+                    // overwrites the first one, in place
+                    .addField("f_double", i * 0.25) //
+                    .build());
+        }
+        assertSameRequest(points);
+    }
+
+    @Test
+    public void templateSameBytesAsPointsTest() throws InvalidProtocolBufferException {
+        final TableSchema schema = TableSchema.newBuilder("template") //
+                .tags("host", "region") //
+                .field("cpu", Value.DataType.Double) //
+                .field("mem", Value.DataType.UInt32) //
+                .field("name", Value.DataType.String) //
+                .field("up", Value.DataType.Boolean) //
+                .build();
+        final WriteTemplate rows = new WriteTemplate(schema, 4);
+        final Random random = new Random(7);
+        for (int i = 0; i < 300; i++) {
+            rows.newRow(i % 5 == 0 ? 0 : 1000L + i) //
+                    .tag(0, "h" + random.nextInt(20)) //
+                    .tag(1, i % 7 == 0 ? null : "r" + random.nextInt(3)) //
+                    .field(0, random.nextDouble()) //
+                    .field(1, random.nextInt()) //
+                    .field(2, "n" + i) //
+                    .field(3, random.nextBoolean());
+        }
+        final List<Point> points = new ArrayList<>(rows.asPoints());
+        final byte[] actual = WriteRequestEncoder.encode(reqCtx(), rows, 0, rows.getRowCount()).getBytes();
+        Assert.assertEquals(canonical(legacyEncode(reqCtx(), points)),
+                canonical(Storage.WriteRequest.parseFrom(actual)));
+        Assert.assertArrayEquals(WriteRequestEncoder.encode(reqCtx(), points.stream()).getBytes(), actual);
+        Assert.assertArrayEquals(WriteRequestEncoder.encode(reqCtx(), points.subList(10, 100).stream()).getBytes(),
+                WriteRequestEncoder.encode(reqCtx(), rows, 10, 100).getBytes());
+    }
+
+    @Test
+    public void templateNullFieldsTest() throws InvalidProtocolBufferException {
+        final TableSchema schema = TableSchema.newBuilder("template_nulls") //
+                .tag("host") //
+                .field("a", Value.DataType.Int64) //
+                .field("b", Value.DataType.Varbinary) //
+                .field("c", Value.DataType.Float) //
+                .build();
+        final WriteTemplate rows = new WriteTemplate(schema);
+        rows.newRow(1).tag(0, "h").field(2, 1.5f);
+        rows.newRow(2).tag(0, "h").field(1, new byte[] { 1 }).field(2, 2.5f);
+
+        final Storage.WriteRequest req = Storage.WriteRequest
+                .parseFrom(WriteRequestEncoder.encode(reqCtx(), rows, 0, 2).getBytes());
+        Assert.assertEquals(1, req.getTableRequestsCount());
+        final Storage.WriteTableRequest table = req.getTableRequests(0);
+        // the field without any value is not named
+        Assert.assertEquals(Arrays.asList("b", "c"), table.getFieldNamesList());
+        Assert.assertEquals(1, table.getEntriesCount());
+        final List<Storage.FieldGroup> groups = table.getEntries(0).getFieldGroupsList();
+        Assert.assertEquals(1, groups.get(0).getFieldsCount());
+        Assert.assertEquals(1, groups.get(0).getFields(0).getNameIndex());
+        Assert.assertEquals(1.5f, groups.get(0).getFields(0).getValue().getFloat32Value(), 0.0f);
+        Assert.assertEquals(2, groups.get(1).getFieldsCount());
+        Assert.assertEquals(0, table.getEntries(0).getTags(0).getNameIndex());
+    }
+
+    @Test
+    public void messageSameAsEncodedTest() {
+        final List<Point> points = randomPoints(new Random(3), 500);
+        final WriteClient writeClient = new WriteClient();
+        Assert.assertArrayEquals(writeClient.toEncodedWriteRequest(reqCtx(), points.stream()).getBytes(),
+                writeClient.toWriteRequestObj(reqCtx(), points.stream()).toByteArray());
+    }
+
+    private static void assertSameRequest(final List<Point> points) {
+        final Storage.WriteRequest expected = canonical(legacyEncode(reqCtx(), points));
+        byte[] first = null;
+        // twice, the second round runs on reused scratch state
+        for (int i = 0; i < 2; i++) {
+            final byte[] actual = WriteRequestEncoder.encode(reqCtx(), points.stream()).getBytes();
+            try {
+                Assert.assertEquals(expected, canonical(Storage.WriteRequest.parseFrom(actual)));
+            } catch (final InvalidProtocolBufferException e) {
+                throw new AssertionError(e);
+            }
+            if (first != null) {
+                Assert.assertArrayEquals(first, actual);
+            }
+            first = actual;
+        }
+    }
+
+    /**
+     * The request with its tables and series sorted, the encoder keeps them
+     * in the order they are first seen while the builder based one used the
+     * order of its hash maps.
+     */
+    private static Storage.WriteRequest canonical(final Storage.WriteRequest req) {
+        final List<Storage.WriteTableRequest> tables = new ArrayList<>();
+        for (final Storage.WriteTableRequest table : req.getTableRequestsList()) {
+            final List<Storage.WriteSeriesEntry> entries = new ArrayList<>(table.getEntriesList());
+            entries.sort(Comparator.comparing(Storage.WriteSeriesEntry::toByteString,
+                    ByteString.unsignedLexicographicalComparator()));
+            tables.add(table.toBuilder().clearEntries().addAllEntries(entries).build());
+        }
+        tables.sort(Comparator.comparing(Storage.WriteTableRequest::getTable));
+        return req.toBuilder().clearTableRequests().addAllTableRequests(tables).build();
+    }
+
+    private static RequestContext reqCtx() {
+        final RequestContext reqCtx = new RequestContext();
+        reqCtx.setDatabase("public");
+        return reqCtx;
+    }
+
+    static List<Point> randomPoints(final Random random, final int n) {
+        final List<Point> points = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            final Point.PointBuilder builder = Point.newPointBuilder("table_" + random.nextInt(4)) //
+                    .setTimestamp(random.nextInt(3) == 0 ? 0 : random.nextLong());
+            final int tags = random.nextInt(5);
+            for (int t = 0; t < tags; t++) {
+                builder.addTag("tag_" + random.nextInt(8), random.nextInt(10) == 0 ? Value.withStringOrNull(null) :
+                        Value.withString("v" + random.nextInt(50)));
+            }
+            final int fields = 1 + random.nextInt(6);
+            for (int f = 0; f < fields; f++) {
+                final String name = "field_" + random.nextInt(10);
+                switch (random.nextInt(4)) {
+                    case 0:
+                        builder.addField(name, Value.withDouble(random.nextDouble()));
+                        break;
+                    case 1:
+                        builder.addField(name, Value.withInt64(random.nextLong()));
+                        break;
+                    case 2:
+                        builder.addField(name, Value.withString("s" + random.nextInt()));
+                        break;
+                    default:
+                        builder.addField(name, Value.withInt64OrNull(null));
+                        break;
+                }
+            }
+            points.add(builder.build());
+        }
+        return points;
+    }
+
+    /**
+     * The builder based encoding {@link WriteRequestEncoder} replaced, kept as the reference.
+     */
+    private static Storage.WriteRequest legacyEncode(final RequestContext reqCtx, final List<Point> data) {
+        final Map<String, Legacy> tables = new HashMap<>();
+        data.forEach(point -> {
+            final Legacy tp = tables.computeIfAbsent(point.getTable(), Legacy::new);
+            point.getTags().forEach((tagK, tagV) -> tp.insertTag(tagK));
+            final StringBuilder seriesKey = new StringBuilder();
+            tp.tagNames.forEach(tagK -> {
+                final Value tagV = point.getTags().get(tagK);
+                if (!Value.isNull(tagV)) {
+                    seriesKey.append(tagV.getObject().toString());
+                }
+            });
+            final Storage.WriteSeriesEntry.Builder entry = tp.series.computeIfAbsent(seriesKey.toString(), k -> {
+                final Storage.WriteSeriesEntry.Builder seBuilder = Storage.WriteSeriesEntry.newBuilder();
+                point.getTags().forEach((tagK, tagV) -> {
+                    if (!Value.isNull(tagV)) {
+                        seBuilder.addTags(Storage.Tag.newBuilder().setNameIndex(tp.insertTag(tagK))
+                                .setValue(Utils.toProtoValue(tagV)));
+                    }
+                });
+                return seBuilder;
+            });
+            final Storage.FieldGroup.Builder fg = Storage.FieldGroup.newBuilder().setTimestamp(point.getTimestamp());
+            point.getFields().forEach((fieldK, fieldV) -> {
+                if (!Value.isNull(fieldV)) {
+                    fg.addFields(Storage.Field.newBuilder().setNameIndex(tp.insertField(fieldK))
+                            .setValue(Utils.toProtoValue(fieldV)));
+                }
+            });
+            entry.addFieldGroups(fg);
+        });
+
+        final Storage.WriteRequest.Builder builder = Storage.WriteRequest.newBuilder()
+                .setContext(Storage.RequestContext.newBuilder().setDatabase(reqCtx.getDatabase()));
+        tables.values().forEach(tp -> {
+            final Storage.WriteTableRequest.Builder tb = Storage.WriteTableRequest.newBuilder().setTable(tp.table);
+            tp.series.values().forEach(entry -> tb.addEntries(entry.build()));
+            builder.addTableRequests(tb.addAllTagNames(tp.tagNames).addAllFieldNames(tp.fieldNames));
+        });
+        return builder.build();
+    }
+
+    private static class Legacy {
+        final String                                        table;
+        final Map<String, Storage.WriteSeriesEntry.Builder> series       = new HashMap<>();
+        final Map<String, Integer>                          tagIndexes   = new HashMap<>();
+        final List<String>                                  tagNames     = new ArrayList<>();
+        final Map<String, Integer>                          fieldIndexes = new HashMap<>();
+        final List<String>                                  fieldNames   = new ArrayList<>();
+
+        Legacy(final String table) {
+            this.table = table;
+        }
+
+        int insertTag(final String name) {
+            return this.tagIndexes.computeIfAbsent(name, k -> {
+                this.tagNames.add(k);
+                return this.tagNames.size() - 1;
+            });
+        }
+
+        int insertField(final String name) {
+            return this.fieldIndexes.computeIfAbsent(name, k -> {
+                this.fieldNames.add(k);
+                return this.fieldNames.size() - 1;
+            });
+        }
+    }
+}
@@ -3,7 +3,12 @@
  */
 package io.ceresdb.models;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -21,6 +26,80 @@ public class PointTest {
         Assert.assertEquals(123, point.getFields().get("f1").getUInt8());
     }
 
+    @Test
+    public void primitiveFieldsTest() {
+        final Point point = Point.newPointBuilder("test_table") //
+                .addTag("tag2", "t2") //
+                .addTag("tag1", "t1") //
+                .addField("f_long", 1L) //
+                .addField("f_double", 0.5) //
+                .addField("f_uint8", Value.DataType.UInt8, 255) //
+                .addField("f_null", (Value) null) //
+                .addField("f_long", 2L) //
+                .build();
+
+        Assert.assertEquals(2, point.getTagCount());
+        Assert.assertEquals("tag1", point.getTagName(0));
+        Assert.assertEquals("t2", point.getTag("tag2").getString());
+        Assert.assertNull(point.getTag("tag3"));
+
+        Assert.assertEquals(4, point.getFieldCount());
+        Assert.assertEquals("f_long", point.getFieldName(0));
+        Assert.assertEquals(2L, point.getFieldLong(0));
+        Assert.assertEquals(0.5, point.getFieldDouble(1), 0.0);
+        Assert.assertEquals(Value.DataType.UInt8, point.getFieldType(2));
+        Assert.assertTrue(point.isFieldNull(3));
+
+        final Map<String, Value> fields = point.getFields();
+        Assert.assertEquals(Value.withInt64(2), fields.get("f_long"));
+        Assert.assertEquals(Value.withDouble(0.5), fields.get("f_double"));
+        Assert.assertEquals(255, fields.get("f_uint8").getUInt8());
+        Assert.assertNull(fields.get("f_null"));
+        Assert.assertEquals(Arrays.asList("f_long", "f_double", "f_uint8", "f_null"), new ArrayList<>(fields.keySet()));
+    }
+
+    @Test
+    public void mapViewsTest() {
+        final Point point = Point.newPointBuilder("test_table") //
+                .addTag("tag2", "t2") //
+                .addTag("tag1", "t1") //
+                .addField("f1", 1L) //
+                .addField("f2", 0.5) //
+                .build();
+
+        final SortedMap<String, Value> tags = point.getTags();
+        Assert.assertSame(tags, point.getTags());
+        tags.put("tag0", Value.withString("t0"));
+        Assert.assertEquals("t0", point.getTag("tag0").getString());
+        Assert.assertEquals("t1", tags.remove("tag1").getString());
+        Assert.assertEquals(Arrays.asList("tag0", "tag2"), new ArrayList<>(tags.keySet()));
+        Assert.assertEquals("tag0", tags.firstKey());
+        Assert.assertEquals(Collections.singleton("tag2"), tags.tailMap("tag1").keySet());
+        tags.headMap("tag1").clear();
+        Assert.assertEquals(1, point.getTagCount());
+        Assert.assertEquals("tag2", point.getTagName(0));
+
+        final Map<String, Value> fields = point.getFields();
+        fields.put("f3", Value.withBoolean(true));
+        Assert.assertEquals(3, point.getFieldCount());
+        Assert.assertTrue(point.getFieldBoolean(2));
+        for (final Map.Entry<String, Value> e : fields.entrySet()) {
+            if (e.getKey().equals("f1")) {
+                e.setValue(Value.withInt64(2));
+            }
+        }
+        Assert.assertEquals(2L, point.getFieldLong(0));
+        fields.entrySet().removeIf(e -> e.getKey().equals("f2"));
+        Assert.assertEquals(Arrays.asList("f1", "f3"), new ArrayList<>(fields.keySet()));
+        Assert.assertEquals("f3", point.getFieldName(1));
+        Assert.assertEquals("{f1=" + Value.withInt64(2) + ", f3=" + Value.withBoolean(true) + "}", fields.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void notIntegerTypeTest() {
+        Point.newPointBuilder("test_table").addField("f", Value.DataType.Double, 1);
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void keywordInTagsTest() {
         Point.newPointBuilder("test_table").setTimestamp(Clock.defaultClock().getTick())
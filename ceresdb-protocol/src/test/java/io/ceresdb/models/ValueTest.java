@@ -147,4 +147,25 @@ public class ValueTest {
         Assert.assertTrue(f2.isNull());
         Assert.assertFalse(f2.getVarbinaryOrNull().isPresent());
     }
+
+    @Test
+    public void primitiveTest() {
+        Assert.assertEquals(-1.5f, Value.withFloat(-1.5f).getFloat(), 0.0f);
+        Assert.assertEquals(Double.NaN, Value.withDouble(Double.NaN).getDouble(), 0.0);
+        Assert.assertEquals(Long.MIN_VALUE, Value.withInt64(Long.MIN_VALUE).getInt64());
+        Assert.assertEquals(-3, Value.withInt8(-3).getInt8());
+        Assert.assertFalse(Value.withBoolean(false).getBoolean());
+
+        Assert.assertEquals(Value.withInt32(7), new Value(Value.DataType.Int32, 7));
+        Assert.assertEquals(Value.withInt32(7).hashCode(), new Value(Value.DataType.Int32, 7).hashCode());
+        Assert.assertNotEquals(Value.withInt32(7), Value.withUInt32(7));
+        Assert.assertEquals(Value.withInt32OrNull(null), Value.withInt32OrNull(null));
+        Assert.assertEquals(7L, Value.withTimestamp(7).getObject());
+        Assert.assertEquals("Value{type=Double,value=0.5}", Value.withDouble(0.5).toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongTypeTest() {
+        Value.withInt32(1).getInt64();
+    }
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb.models;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class WriteTemplateTest {
+
+    private static final TableSchema SCHEMA = TableSchema.newBuilder("template_test") //
+            .tags("host", "region") //
+            .field("cpu", Value.DataType.Double) //
+            .field("port", Value.DataType.UInt16) //
+            .field("name", Value.DataType.String) //
+            .build();
+
+    @Test
+    public void schemaTest() {
+        Assert.assertEquals(Arrays.asList("host", "region"), SCHEMA.getTagNames());
+        Assert.assertEquals(Arrays.asList("cpu", "port", "name"), SCHEMA.getFieldNames());
+        Assert.assertEquals(1, SCHEMA.indexOfField("port"));
+        Assert.assertEquals(-1, SCHEMA.indexOfTag("cpu"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void keywordInSchemaTest() {
+        TableSchema.newBuilder("template_test").tag("tsid").field("f", Value.DataType.Int64).build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicateNameTest() {
+        TableSchema.newBuilder("template_test").tag("a").field("a", Value.DataType.Int64).build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void typeMismatchTest() {
+        new WriteTemplate(SCHEMA).newRow(1).field(2, 1.0);
+    }
+
+    @Test
+    public void rowsTest() {
+        final WriteTemplate rows = new WriteTemplate(SCHEMA, 1);
+        for (int i = 0; i < 100; i++) {
+            rows.newRow(i).tag(0, "h" + i).field(0, i * 0.5).field(1, 65535 + i);
+            if (i % 2 == 0) {
+                rows.field(2, "n" + i);
+            }
+        }
+        Assert.assertEquals(100, rows.getRowCount());
+        Assert.assertEquals(49.5, rows.getFieldDouble(0, 99), 0.0);
+        Assert.assertEquals(65535, rows.getFieldLong(1, 0));
+        // kept as an int, like Value does
+        Assert.assertEquals(-1, new WriteTemplate(SCHEMA).newRow(0).field(1, 0xFFFFFFFFL).getFieldLong(1, 0));
+        Assert.assertTrue(rows.isFieldNull(2, 99));
+        Assert.assertNull(rows.getTag(1, 0));
+
+        final List<Point> points = rows.asPoints();
+        final Point expected = Point.newPointBuilder("template_test") //
+                .setTimestamp(98) //
+                .addTag("host", "h98") //
+                .addTag("region", Value.withStringOrNull(null)) //
+                .addField("cpu", 49.0) //
+                .addField("port", Value.DataType.UInt16, 65535 + 98) //
+                .addField("name", Value.withString("n98")) //
+                .build();
+        Assert.assertEquals(expected.toString(), points.get(98).toString());
+        Assert.assertEquals(2, points.get(99).getFieldCount());
+
+        final WriteTemplate drained = rows.drain();
+        Assert.assertEquals(0, rows.getRowCount());
+        Assert.assertEquals(100, drained.getRowCount());
+        rows.newRow(7).field(2, "again");
+        Assert.assertEquals("n0", drained.getFieldRef(2, 0));
+        Assert.assertTrue(rows.isFieldNull(0, 0));
+        Assert.assertEquals(49.5, drained.getFieldDouble(0, 99), 0.0);
+        Assert.assertTrue(drained.isFieldNull(2, 99));
+        // sized to its rows, it still grows
+        drained.newRow(100).field(2, "n100");
+        Assert.assertEquals(101, drained.getRowCount());
+        Assert.assertEquals("n100", drained.getFieldRef(2, 100));
+
+        rows.clear();
+        Assert.assertEquals(0, rows.asPoints().size());
+    }
+}
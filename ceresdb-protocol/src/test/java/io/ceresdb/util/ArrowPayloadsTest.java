@@ -0,0 +1,98 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdOutputStream;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.ByteStringHelper;
+
+import io.ceresdb.proto.internal.Storage;
+
+public class ArrowPayloadsTest {
+
+    @Test
+    public void noneCompressionTest() throws IOException {
+        final byte[] raw = randomBytes(100_000);
+        Assert.assertArrayEquals(raw, readAll(ByteStringHelper.wrap(raw), Storage.ArrowPayload.Compression.NONE));
+    }
+
+    @Test
+    public void sliceTest() throws IOException {
+        final byte[] raw = randomBytes(1000);
+        final ByteString slice = ByteStringHelper.wrap(raw).substring(10, 500);
+        final byte[] expected = new byte[490];
+        System.arraycopy(raw, 10, expected, 0, 490);
+        Assert.assertArrayEquals(expected, readAll(slice, Storage.ArrowPayload.Compression.NONE));
+
+        final ByteString compressed = ByteStringHelper.wrap(Zstd.compress(expected));
+        final ByteString padded = ByteString.copyFrom(new byte[] { 1, 2, 3 }).concat(compressed).substring(3);
+        Assert.assertArrayEquals(expected, readAll(padded, Storage.ArrowPayload.Compression.ZSTD));
+    }
+
+    @Test
+    public void zstdBatchModeTest() throws IOException {
+        final byte[] raw = randomBytes(300_000);
+        final ByteString compressed = ByteStringHelper.wrap(Zstd.compress(raw));
+        Assert.assertArrayEquals(raw, readAll(compressed, Storage.ArrowPayload.Compression.ZSTD));
+        // again on the reused scratch, smaller this time
+        final byte[] small = randomBytes(10);
+        Assert.assertArrayEquals(small,
+                readAll(ByteStringHelper.wrap(Zstd.compress(small)), Storage.ArrowPayload.Compression.ZSTD));
+    }
+
+    @Test
+    public void zstdStreamModeTest() throws IOException {
+        // highly compressible, so the scratch has to grow a few times
+        final byte[] raw = new byte[2 * 1024 * 1024];
+        for (int i = 0; i < raw.length; i++) {
+            raw[i] = (byte) (i % 7);
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (final ZstdOutputStream zstdOut = new ZstdOutputStream(out)) {
+            zstdOut.write(raw);
+        }
+        final byte[] compressed = out.toByteArray();
+        Assert.assertEquals(0, Zstd.decompressedSize(compressed));
+        Assert.assertArrayEquals(raw,
+                readAll(ByteStringHelper.wrap(compressed), Storage.ArrowPayload.Compression.ZSTD));
+    }
+
+    @Test(expected = IOException.class)
+    public void brokenZstdTest() throws IOException {
+        // a truncated frame
+        final byte[] compressed = Zstd.compress(randomBytes(1000));
+        readAll(ByteStringHelper.wrap(compressed, 0, compressed.length - 10), Storage.ArrowPayload.Compression.ZSTD);
+    }
+
+    private static byte[] readAll(final ByteString batch, final Storage.ArrowPayload.Compression compression)
+            throws IOException {
+        final ReadableByteChannel channel = ArrowPayloads.open(batch, compression);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ByteBuffer buf = ByteBuffer.allocateDirect(4096);
+        while (channel.read(buf) >= 0) {
+            buf.flip();
+            final byte[] chunk = new byte[buf.remaining()];
+            buf.get(chunk);
+            out.write(chunk);
+            buf.clear();
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] randomBytes(final int n) {
+        final byte[] bytes = new byte[n];
+        new Random(n).nextBytes(bytes);
+        return bytes;
+    }
+}
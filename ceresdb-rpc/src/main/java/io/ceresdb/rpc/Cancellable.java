@@ -0,0 +1,19 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb.rpc;
+
+/**
+ * A call in flight that the caller may give up on.
+ *
+ */
+public interface Cancellable {
+
+    /**
+     * Cancels the call, the observer receives an error unless the call has
+     * already terminated.
+     *
+     * @param reason why the call is cancelled
+     */
+    void cancel(final String reason);
+}
@@ -0,0 +1,20 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb.rpc;
+
+/**
+ * An {@link Observer} of a unary call that may stop waiting for the
+ * response, cancelling the call lets the server drop the work as well.
+ *
+ */
+public interface CancellableObserver<V> extends Observer<V> {
+
+    /**
+     * Receives the handle of the call right before it is started, called
+     * before any other method.
+     *
+     * @param call the call in flight
+     */
+    void onStart(final Cancellable call);
+}
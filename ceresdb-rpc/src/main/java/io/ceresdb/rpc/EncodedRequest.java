@@ -0,0 +1,55 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb.rpc;
+
+import io.ceresdb.common.util.Requires;
+
+/**
+ * A request serialized by the caller ahead of the call, the transport sends
+ * its bytes as they are instead of serializing a request object. It can be
+ * given to any call of {@link RpcClient} in place of the request, the remote
+ * method is the one of the request type its default instance belongs to.
+ *
+ */
+public final class EncodedRequest {
+
+    private final Object defaultReqIns;
+    private final byte[] bytes;
+
+    public static EncodedRequest of(final Object defaultReqIns, final byte[] bytes) {
+        return new EncodedRequest(defaultReqIns, bytes);
+    }
+
+    public EncodedRequest(Object defaultReqIns, byte[] bytes) {
+        this.defaultReqIns = Requires.requireNonNull(defaultReqIns, "defaultReqIns");
+        this.bytes = Requires.requireNonNull(bytes, "bytes");
+    }
+
+    /**
+     * The default instance of the request type, it selects the remote
+     * method.
+     */
+    public Object getDefaultReqIns() {
+        return defaultReqIns;
+    }
+
+    /**
+     * The serialized request, it must not be modified.
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    public int size() {
+        return this.bytes.length;
+    }
+
+    @Override
+    public String toString() {
+        return "EncodedRequest{" + //
+               "type=" + defaultReqIns.getClass().getName() + //
+               ", size=" + bytes.length + //
+               '}';
+    }
+}
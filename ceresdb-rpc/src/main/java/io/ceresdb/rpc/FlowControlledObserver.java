@@ -0,0 +1,23 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb.rpc;
+
+/**
+ * An {@link Observer} of a server-streaming call that pulls messages
+ * instead of having them pushed as fast as the server produces.
+ *
+ * <p>The transport delivers at most one message before any demand is
+ * signalled, every following message needs a {@link Subscription#request(int)}.
+ *
+ */
+public interface FlowControlledObserver<V> extends Observer<V> {
+
+    /**
+     * Receives the {@link Subscription} of the stream, called once before
+     * any other method.
+     *
+     * @param subscription the demand side of the stream
+     */
+    void onSubscribe(final Subscription subscription);
+}
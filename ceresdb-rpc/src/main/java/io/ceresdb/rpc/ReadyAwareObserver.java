@@ -0,0 +1,29 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb.rpc;
+
+/**
+ * The request side of a client-streaming call that tells whether the
+ * transport can take more messages, a producer should hold back its
+ * messages while the stream is not ready instead of letting the transport
+ * buffer them.
+ *
+ */
+public interface ReadyAwareObserver<V> extends Observer<V> {
+
+    /**
+     * Returns true when a message can be sent without being buffered by the
+     * transport beyond its own threshold, may be called from any thread.
+     */
+    boolean isReady();
+
+    /**
+     * Runs the task once, as soon as the stream is ready, or has terminated
+     * and will never be ready again. It runs at once when the stream is
+     * ready already.
+     *
+     * @param task the task to run, it must not block
+     */
+    void onReady(final Runnable task);
+}
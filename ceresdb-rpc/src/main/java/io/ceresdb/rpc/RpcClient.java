@@ -145,7 +145,9 @@ public interface RpcClient extends Lifecycle<RpcOptions>, Display {
     /**
      * Executes a server-streaming call with a response {@link Observer}.
      *
-     * One request message followed by zero or more response messages.
+     * One request message followed by zero or more response messages. A
+     * {@link FlowControlledObserver} receives only the messages it has
+     * requested.
      *
      * @param endpoint target address
      * @param request  request object
@@ -164,6 +166,10 @@ public interface RpcClient extends Lifecycle<RpcOptions>, Display {
      * Executes a client-streaming call with a request {@link Observer}
      * and a response {@link Observer}.
      *
+     * The request observer is a {@link ReadyAwareObserver} when the
+     * transport has flow control, producers should use it to hold back
+     * their messages while the stream is not ready.
+     *
      * @param endpoint      target address
      * @param defaultReqIns the default request instance
      * @param ctx           invoke context
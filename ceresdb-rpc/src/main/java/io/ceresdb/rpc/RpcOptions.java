@@ -34,6 +34,41 @@ public class RpcOptions implements Copiable<RpcOptions> {
 
     private int flowControlWindow = 64 * 1024 * 1024;
 
+    /**
+     * The number of connections opened to each endpoint, calls are spread
+     * over them by {@link #channelSelection}.
+     * Default: 1
+     */
+    private int channelsPerEndpoint = 1;
+
+    private ChannelSelection channelSelection = ChannelSelection.LeastOutstanding;
+
+    /**
+     * The netty transport the connections run on, clients with the same
+     * transport (other than Default) and {@link #ioThreads} share one event
+     * loop group.
+     * Default: Default
+     */
+    private IoTransport ioTransport = IoTransport.Default;
+
+    /**
+     * The number of threads of the shared event loop group, 0 means twice
+     * the number of cores, ignored by the Default transport.
+     */
+    private int ioThreads = 0;
+
+    /**
+     * Allocates the buffers of the connections from a pooled, direct only
+     * allocator instead of the netty default one.
+     */
+    private boolean pooledDirectAllocator = false;
+
+    /**
+     * The number of direct arenas of the pooled allocator, 0 means the
+     * netty default.
+     */
+    private int directArenas = 0;
+
     /**
      * Set the duration without ongoing RPCs before going to idle mode.
      * In idle mode the channel shuts down all connections.
@@ -64,6 +99,14 @@ public class RpcOptions implements Copiable<RpcOptions> {
 
     private LimitKind limitKind = LimitKind.Gradient;
 
+    /**
+     * Gives each endpoint a limiter of its own, so one slow server does not
+     * shrink the limit of the others, otherwise one limiter is shared by all
+     * endpoints.
+     * Default: true
+     */
+    private boolean limitPerEndpoint = true;
+
     /**
      * Initial limit used by the limiter
      */
@@ -131,6 +174,54 @@ public class RpcOptions implements Copiable<RpcOptions> {
         this.flowControlWindow = flowControlWindow;
     }
 
+    public int getChannelsPerEndpoint() {
+        return channelsPerEndpoint;
+    }
+
+    public void setChannelsPerEndpoint(int channelsPerEndpoint) {
+        this.channelsPerEndpoint = channelsPerEndpoint;
+    }
+
+    public ChannelSelection getChannelSelection() {
+        return channelSelection;
+    }
+
+    public void setChannelSelection(ChannelSelection channelSelection) {
+        this.channelSelection = channelSelection;
+    }
+
+    public IoTransport getIoTransport() {
+        return ioTransport;
+    }
+
+    public void setIoTransport(IoTransport ioTransport) {
+        this.ioTransport = ioTransport;
+    }
+
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    public void setIoThreads(int ioThreads) {
+        this.ioThreads = ioThreads;
+    }
+
+    public boolean isPooledDirectAllocator() {
+        return pooledDirectAllocator;
+    }
+
+    public void setPooledDirectAllocator(boolean pooledDirectAllocator) {
+        this.pooledDirectAllocator = pooledDirectAllocator;
+    }
+
+    public int getDirectArenas() {
+        return directArenas;
+    }
+
+    public void setDirectArenas(int directArenas) {
+        this.directArenas = directArenas;
+    }
+
     public long getIdleTimeoutSeconds() {
         return idleTimeoutSeconds;
     }
@@ -171,6 +262,14 @@ public class RpcOptions implements Copiable<RpcOptions> {
         this.limitKind = limitKind;
     }
 
+    public boolean isLimitPerEndpoint() {
+        return limitPerEndpoint;
+    }
+
+    public void setLimitPerEndpoint(boolean limitPerEndpoint) {
+        this.limitPerEndpoint = limitPerEndpoint;
+    }
+
     public int getInitialLimit() {
         return initialLimit;
     }
@@ -227,11 +326,18 @@ public class RpcOptions implements Copiable<RpcOptions> {
         opts.rpcThreadPoolQueueSize = this.rpcThreadPoolQueueSize;
         opts.maxInboundMessageSize = this.maxInboundMessageSize;
         opts.flowControlWindow = this.flowControlWindow;
+        opts.channelsPerEndpoint = this.channelsPerEndpoint;
+        opts.channelSelection = this.channelSelection;
+        opts.ioTransport = this.ioTransport;
+        opts.ioThreads = this.ioThreads;
+        opts.pooledDirectAllocator = this.pooledDirectAllocator;
+        opts.directArenas = this.directArenas;
         opts.idleTimeoutSeconds = this.idleTimeoutSeconds;
         opts.keepAliveTimeSeconds = this.keepAliveTimeSeconds;
         opts.keepAliveTimeoutSeconds = this.keepAliveTimeoutSeconds;
         opts.keepAliveWithoutCalls = this.keepAliveWithoutCalls;
         opts.limitKind = this.limitKind;
+        opts.limitPerEndpoint = this.limitPerEndpoint;
         opts.initialLimit = this.initialLimit;
         opts.maxLimit = this.maxLimit;
         opts.longRttWindow = this.longRttWindow;
@@ -249,11 +355,18 @@ public class RpcOptions implements Copiable<RpcOptions> {
                ", rpcThreadPoolQueueSize=" + rpcThreadPoolQueueSize + //
                ", maxInboundMessageSize=" + maxInboundMessageSize + //
                ", flowControlWindow=" + flowControlWindow + //
+               ", channelsPerEndpoint=" + channelsPerEndpoint + //
+               ", channelSelection=" + channelSelection + //
+               ", ioTransport=" + ioTransport + //
+               ", ioThreads=" + ioThreads + //
+               ", pooledDirectAllocator=" + pooledDirectAllocator + //
+               ", directArenas=" + directArenas + //
                ", idleTimeoutSeconds=" + idleTimeoutSeconds + //
                ", keepAliveTimeSeconds=" + keepAliveTimeSeconds + //
                ", keepAliveTimeoutSeconds=" + keepAliveTimeoutSeconds + //
                ", keepAliveWithoutCalls=" + keepAliveWithoutCalls + //
                ", limitKind=" + limitKind + //
+               ", limitPerEndpoint=" + limitPerEndpoint + //
                ", initialLimit=" + initialLimit + //
                ", maxLimit=" + maxLimit + //
                ", longRttWindow=" + longRttWindow + //
@@ -267,6 +380,42 @@ public class RpcOptions implements Copiable<RpcOptions> {
         return new RpcOptions();
     }
 
+    public enum ChannelSelection {
+        /**
+         * Takes the connections of an endpoint in turn.
+         */
+        RoundRobin,
+
+        /**
+         * Takes the connection of an endpoint with the fewest calls in
+         * flight.
+         */
+        LeastOutstanding
+    }
+
+    public enum IoTransport {
+        /**
+         * The transport and event loop group grpc picks for the channels.
+         */
+        Default,
+
+        /**
+         * Epoll when the native library is available on this platform, nio
+         * otherwise.
+         */
+        Auto,
+
+        /**
+         * The native epoll transport, only available on linux.
+         */
+        Epoll,
+
+        /**
+         * The java nio transport.
+         */
+        Nio
+    }
+
     public enum LimitKind {
         /**
          * Limiter based on TCP Vegas where the limit increases by alpha if the
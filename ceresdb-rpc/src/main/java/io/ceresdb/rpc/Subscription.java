@@ -0,0 +1,29 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package io.ceresdb.rpc;
+
+/**
+ * The demand side of a response stream handed to a
+ * {@link FlowControlledObserver}, the transport delivers no more messages
+ * than have been requested.
+ *
+ */
+public interface Subscription extends Cancellable {
+
+    /**
+     * Requests up to {@code n} more messages, may be called from any thread.
+     *
+     * @param n the number of messages to add to the demand, must be positive
+     */
+    void request(final int n);
+
+    /**
+     * Cancels the stream, the observer receives an error unless the stream
+     * has already terminated.
+     *
+     * @param reason why the stream is cancelled
+     */
+    @Override
+    void cancel(final String reason);
+}